@@ -33,14 +33,23 @@ package org.nanohttpd.protocols.http;
  * #L%
  */
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
+import javax.net.ssl.SSLSocket;
+
+import org.nanohttpd.protocols.http.sockets.AlpnSupport;
 import org.nanohttpd.protocols.http.tempfiles.ITempFileManager;
+import org.nanohttpd.protocols.http.threading.IAsyncRunner;
+import org.nanohttpd.protocols.http.threading.IdleConnectionParker;
+import org.nanohttpd.protocols.http.threading.ShardedAsyncRunner;
+import org.nanohttpd.protocols.http2.Http2Connection;
 
 /**
  * The runnable that will be used for every new client connection.
@@ -53,6 +62,24 @@ public class ClientHandler implements Runnable {
 
     private final Socket acceptSocket;
 
+    /**
+     * Kept across runs when the connection was parked between requests.
+     */
+    private HTTPSession session;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Set while the handler waits for a worker after a deferred response, the
+     * client has no request outstanding then.
+     */
+    private volatile boolean resuming;
+
+    /**
+     * The shard of a {@link ShardedAsyncRunner} that runs this handler.
+     */
+    private volatile IAsyncRunner shard;
+
     public ClientHandler(NanoHTTPD httpd, InputStream inputStream, Socket acceptSocket) {
         this.httpd = httpd;
         this.inputStream = inputStream;
@@ -62,17 +89,82 @@ public class ClientHandler implements Runnable {
     public void close() {
         NanoHTTPD.safeClose(this.inputStream);
         NanoHTTPD.safeClose(this.acceptSocket);
+        if (this.closed.compareAndSet(false, true)) {
+            httpd.getCounters().connectionClosed();
+        }
+    }
+
+    public IAsyncRunner getShard() {
+        return this.shard;
+    }
+
+    public void setShard(IAsyncRunner shard) {
+        this.shard = shard;
+    }
+
+    /**
+     * Writes a pre-built raw HTTP response straight to the client and closes
+     * the connection, without ever creating a session for it. Used to shed load
+     * when no worker is available to run this handler.
+     * <p>
+     * A handler resumed after a deferred response is closed without a word, its
+     * client did not ask for anything yet.
+     * </p>
+     * 
+     * @param rawResponse
+     *            the complete response, status line and headers included.
+     */
+    public void abort(byte[] rawResponse) {
+        if (this.resuming) {
+            close();
+            return;
+        }
+        try {
+            this.acceptSocket.getOutputStream().write(rawResponse);
+            this.acceptSocket.getOutputStream().flush();
+            this.acceptSocket.shutdownOutput();
+            // discard what the client already sent, closing a socket with
+            // unread input resets the connection and may lose the response.
+            int pending = this.inputStream.available();
+            if (pending > 0) {
+                this.inputStream.skip(pending);
+            }
+        } catch (IOException e) {
+            NanoHTTPD.LOG.log(Level.FINE, "Could not send rejection to the client", e);
+        } finally {
+            close();
+        }
     }
 
     @Override
     public void run() {
+        this.resuming = false;
         OutputStream outputStream = null;
+        IdleConnectionParker parker = httpd.getIdleConnectionParker();
+        boolean park = false;
+        boolean suspend = false;
         try {
             outputStream = this.acceptSocket.getOutputStream();
-            ITempFileManager tempFileManager = httpd.getTempFileManagerFactory().create();
-            HTTPSession session = new HTTPSession(httpd, tempFileManager, this.inputStream, outputStream, this.acceptSocket.getInetAddress());
+            if (this.session == null && serveNegotiatedHttp2(outputStream)) {
+                return;
+            }
+            if (this.session == null) {
+                ITempFileManager tempFileManager = httpd.getTempFileManagerFactory().create();
+                this.session = new HTTPSession(httpd, tempFileManager, this.inputStream, outputStream, this.acceptSocket.getInetAddress());
+            }
+            boolean parkable = parker != null && parker.canPark(this.acceptSocket);
             while (!this.acceptSocket.isClosed()) {
-                session.execute();
+                this.session.execute();
+                if (this.session.isSuspended()) {
+                    suspend = true;
+                    break;
+                }
+                // nothing of the next request buffered yet, free the thread
+                // until the client sends it.
+                if (parkable && this.session.getInputStream().available() == 0) {
+                    park = true;
+                    break;
+                }
             }
         } catch (Exception e) {
             // When the socket is closed by the client,
@@ -86,9 +178,53 @@ public class ClientHandler implements Runnable {
                 NanoHTTPD.LOG.log(Level.SEVERE, "Communication with the client broken, or an bug in the handler code", e);
             }
         } finally {
-            NanoHTTPD.safeClose(outputStream);
-            NanoHTTPD.safeClose(this.inputStream);
-            NanoHTTPD.safeClose(this.acceptSocket);
+            if (!park && !suspend) {
+                NanoHTTPD.safeClose(outputStream);
+                close();
+            }
+            // a suspended handler still counts as running, stop() has to
+            // close it.
+            if (!suspend) {
+                httpd.asyncRunner.closed(this);
+            }
+            // only after closed(), the parker may run this handler again
+            // right away.
+            if (park && !parker.park(this, this.acceptSocket)) {
+                close();
+            }
+        }
+        if (suspend) {
+            this.session.resumeWhenComplete(this);
+        }
+    }
+
+    /**
+     * Serves the connection as HTTP/2 until it ends, if that was agreed on in
+     * the TLS handshake.
+     * 
+     * @return false for any other connection.
+     */
+    protected boolean serveNegotiatedHttp2(OutputStream outputStream) throws IOException {
+        if (!(this.acceptSocket instanceof SSLSocket) || !AlpnSupport.HTTP_2.equals(AlpnSupport.negotiate((SSLSocket) this.acceptSocket))) {
+            return false;
+        }
+        new Http2Connection(httpd, this.inputStream, outputStream, this.acceptSocket.getInetAddress().getHostAddress()).serveNegotiated();
+        return true;
+    }
+
+    /**
+     * Called on the completing thread once a deferred response was sent,
+     * continues serving the connection on a worker thread.
+     * 
+     * @param keepAlive
+     *            false if the connection has to be closed.
+     */
+    protected void deferredResponseSent(boolean keepAlive) {
+        if (keepAlive && !this.acceptSocket.isClosed()) {
+            this.resuming = true;
+            httpd.asyncRunner.exec(this);
+        } else {
+            close();
             httpd.asyncRunner.closed(this);
         }
     }
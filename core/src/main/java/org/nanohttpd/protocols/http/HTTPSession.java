@@ -34,15 +34,10 @@ package org.nanohttpd.protocols.http;
  */
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataOutput;
-import java.io.DataOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.net.InetAddress;
@@ -50,26 +45,31 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.StringTokenizer;
 import java.util.logging.Level;
-import java.util.regex.Matcher;
 
 import javax.net.ssl.SSLException;
 
 import org.nanohttpd.protocols.http.NanoHTTPD.ResponseException;
 import org.nanohttpd.protocols.http.content.ContentType;
 import org.nanohttpd.protocols.http.content.CookieHandler;
+import org.nanohttpd.protocols.http.request.ChunkedInputStream;
+import org.nanohttpd.protocols.http.request.ContentLengthInputStream;
+import org.nanohttpd.protocols.http.request.InflatingInputStream;
 import org.nanohttpd.protocols.http.request.Method;
+import org.nanohttpd.protocols.http.request.MultipartParser;
+import org.nanohttpd.protocols.http.request.RequestHeaderParser;
+import org.nanohttpd.protocols.http.request.RequestHeaders;
+import org.nanohttpd.protocols.http.response.DeferredResponse;
 import org.nanohttpd.protocols.http.response.Response;
 import org.nanohttpd.protocols.http.response.Status;
 import org.nanohttpd.protocols.http.tempfiles.ITempFile;
 import org.nanohttpd.protocols.http.tempfiles.ITempFileManager;
+import org.nanohttpd.protocols.http2.Http2Connection;
 
 public class HTTPSession implements IHTTPSession {
 
@@ -83,13 +83,64 @@ public class HTTPSession implements IHTTPSession {
 
     public static final int MAX_HEADER_SIZE = 1024;
 
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes();
+
     private final NanoHTTPD httpd;
 
     private final ITempFileManager tempFileManager;
 
     private final OutputStream outputStream;
 
-    private final BufferedInputStream inputStream;
+    private final RequestInputStream inputStream;
+
+    private final RequestHeaderParser headerParser = new RequestHeaderParser();
+
+    /**
+     * Body of the current request, reset for every request that asks for it.
+     */
+    private ContentLengthInputStream bodyStream;
+
+    private ChunkedInputStream chunkedBodyStream;
+
+    /**
+     * Decompresses the body, only created for a request with a
+     * Content-Encoding.
+     */
+    private InflatingInputStream inflatingBodyStream;
+
+    private boolean bodyStarted;
+
+    private boolean chunked;
+
+    private long bodySize;
+
+    /**
+     * Content coding of the body, null if not compressed.
+     */
+    private String contentEncoding;
+
+    /**
+     * Whether the request announced a body with Content-Length or chunks; only
+     * such bodies are drained.
+     */
+    private boolean bodyAnnounced;
+
+    /**
+     * Total read from the input when the body started.
+     */
+    private long bodyStart;
+
+    /**
+     * Most body bytes accepted for the current request, -1 for no limit.
+     */
+    private long maxBodySize;
+
+    /**
+     * Whether the client waits for "100 Continue" before it sends the body.
+     */
+    private boolean expectContinue;
+
+    private boolean continueSent;
 
     private int splitbyte;
 
@@ -99,9 +150,28 @@ public class HTTPSession implements IHTTPSession {
 
     private Method method;
 
+    /**
+     * Head buffer of this session when the server has no
+     * {@link RequestBufferPool}.
+     */
+    private byte[] headBuffer;
+
+    /**
+     * Decoded from the query on first use. The maps are reused from request to
+     * request on the connection.
+     */
     private Map<String, List<String>> parms;
 
-    private Map<String, String> headers;
+    private boolean parmsDecoded;
+
+    /**
+     * Built by getParms() and kept until the parameters change.
+     */
+    private Map<String, String> firstParms;
+
+    private boolean firstParmsValid;
+
+    private RequestHeaders headers;
 
     private CookieHandler cookies;
 
@@ -111,152 +181,42 @@ public class HTTPSession implements IHTTPSession {
 
     private String protocolVersion;
 
+    /**
+     * Response of the last request while it is not completed yet.
+     */
+    private DeferredResponse deferred;
+
+    private boolean deferredKeepAlive;
+
     public HTTPSession(NanoHTTPD httpd, ITempFileManager tempFileManager, InputStream inputStream, OutputStream outputStream) {
         this.httpd = httpd;
         this.tempFileManager = tempFileManager;
-        this.inputStream = new BufferedInputStream(inputStream, HTTPSession.BUFSIZE);
+        this.inputStream = new RequestInputStream(inputStream);
         this.outputStream = outputStream;
     }
 
     public HTTPSession(NanoHTTPD httpd, ITempFileManager tempFileManager, InputStream inputStream, OutputStream outputStream, InetAddress inetAddress) {
         this.httpd = httpd;
         this.tempFileManager = tempFileManager;
-        this.inputStream = new BufferedInputStream(inputStream, HTTPSession.BUFSIZE);
+        this.inputStream = new RequestInputStream(inputStream);
         this.outputStream = outputStream;
         this.remoteIp = inetAddress.isLoopbackAddress() || inetAddress.isAnyLocalAddress() ? "127.0.0.1" : inetAddress.getHostAddress().toString();
-        this.headers = new HashMap<String, String>();
-    }
-
-    /**
-     * Decodes the sent headers and loads the data into Key/value pairs
-     */
-    private void decodeHeader(BufferedReader in, Map<String, String> pre, Map<String, List<String>> parms, Map<String, String> headers) throws ResponseException {
-        try {
-            // Read the request line
-            String inLine = in.readLine();
-            if (inLine == null) {
-                return;
-            }
-
-            StringTokenizer st = new StringTokenizer(inLine);
-            if (!st.hasMoreTokens()) {
-                throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Syntax error. Usage: GET /example/file.html");
-            }
-
-            pre.put("method", st.nextToken());
-
-            if (!st.hasMoreTokens()) {
-                throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Missing URI. Usage: GET /example/file.html");
-            }
-
-            String uri = st.nextToken();
-
-            // Decode parameters from the URI
-            int qmi = uri.indexOf('?');
-            if (qmi >= 0) {
-                decodeParms(uri.substring(qmi + 1), parms);
-                uri = NanoHTTPD.decodePercent(uri.substring(0, qmi));
-            } else {
-                uri = NanoHTTPD.decodePercent(uri);
-            }
-
-            // If there's another token, its protocol version,
-            // followed by HTTP headers.
-            // NOTE: this now forces header names lower case since they are
-            // case insensitive and vary by client.
-            if (st.hasMoreTokens()) {
-                protocolVersion = st.nextToken();
-            } else {
-                protocolVersion = "HTTP/1.1";
-                NanoHTTPD.LOG.log(Level.FINE, "no protocol version specified, strange. Assuming HTTP/1.1.");
-            }
-            String line = in.readLine();
-            while (line != null && !line.trim().isEmpty()) {
-                int p = line.indexOf(':');
-                if (p >= 0) {
-                    headers.put(line.substring(0, p).trim().toLowerCase(Locale.US), line.substring(p + 1).trim());
-                }
-                line = in.readLine();
-            }
-
-            pre.put("uri", uri);
-        } catch (IOException ioe) {
-            throw new ResponseException(Status.INTERNAL_ERROR, "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage(), ioe);
-        }
+        this.headers = new RequestHeaders();
     }
 
     /**
-     * Decodes the Multipart Body data and put it into Key/Value pairs.
+     * Decodes the Multipart Body data and put it into Key/Value pairs. The
+     * parts are read straight from the body, files go to their temp file as
+     * they arrive.
      */
-    private void decodeMultipartFormData(ContentType contentType, ByteBuffer fbuf, Map<String, List<String>> parms, Map<String, String> files) throws ResponseException {
-        int pcount = 0;
+    private void decodeMultipartFormData(ContentType contentType, InputStream body, Map<String, List<String>> parms, Map<String, String> files) throws ResponseException {
         try {
-            int[] boundaryIdxs = getBoundaryPositions(fbuf, contentType.getBoundary().getBytes());
-            if (boundaryIdxs.length < 2) {
-                throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but contains less than two boundary strings.");
-            }
-
-            byte[] partHeaderBuff = new byte[MAX_HEADER_SIZE];
-            for (int boundaryIdx = 0; boundaryIdx < boundaryIdxs.length - 1; boundaryIdx++) {
-                fbuf.position(boundaryIdxs[boundaryIdx]);
-                int len = (fbuf.remaining() < MAX_HEADER_SIZE) ? fbuf.remaining() : MAX_HEADER_SIZE;
-                fbuf.get(partHeaderBuff, 0, len);
-                BufferedReader in =
-                        new BufferedReader(new InputStreamReader(new ByteArrayInputStream(partHeaderBuff, 0, len), Charset.forName(contentType.getEncoding())), len);
-
-                int headerLines = 0;
-                // First line is boundary string
-                String mpline = in.readLine();
-                headerLines++;
-                if (mpline == null || !mpline.contains(contentType.getBoundary())) {
-                    throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but chunk does not start with boundary.");
-                }
-
-                String partName = null, fileName = null, partContentType = null;
-                // Parse the reset of the header lines
-                mpline = in.readLine();
-                headerLines++;
-                while (mpline != null && mpline.trim().length() > 0) {
-                    Matcher matcher = NanoHTTPD.CONTENT_DISPOSITION_PATTERN.matcher(mpline);
-                    if (matcher.matches()) {
-                        String attributeString = matcher.group(2);
-                        matcher = NanoHTTPD.CONTENT_DISPOSITION_ATTRIBUTE_PATTERN.matcher(attributeString);
-                        while (matcher.find()) {
-                            String key = matcher.group(1);
-                            if ("name".equalsIgnoreCase(key)) {
-                                partName = matcher.group(2);
-                            } else if ("filename".equalsIgnoreCase(key)) {
-                                fileName = matcher.group(2);
-                                // add these two line to support multiple
-                                // files uploaded using the same field Id
-                                if (!fileName.isEmpty()) {
-                                    if (pcount > 0)
-                                        partName = partName + String.valueOf(pcount++);
-                                    else
-                                        pcount++;
-                                }
-                            }
-                        }
-                    }
-                    matcher = NanoHTTPD.CONTENT_TYPE_PATTERN.matcher(mpline);
-                    if (matcher.matches()) {
-                        partContentType = matcher.group(2).trim();
-                    }
-                    mpline = in.readLine();
-                    headerLines++;
-                }
-                int partHeaderLength = 0;
-                while (headerLines-- > 0) {
-                    partHeaderLength = scipOverNewLine(partHeaderBuff, partHeaderLength);
-                }
-                // Read the part data
-                if (partHeaderLength >= len - 4) {
-                    throw new ResponseException(Status.INTERNAL_ERROR, "Multipart header size exceeds MAX_HEADER_SIZE.");
-                }
-                int partDataStart = boundaryIdxs[boundaryIdx] + partHeaderLength;
-                int partDataEnd = boundaryIdxs[boundaryIdx + 1] - 4;
-
-                fbuf.position(partDataStart);
+            MultipartParser parser = new MultipartParser(body, contentType.getBoundary(), contentType.getEncoding(), MAX_HEADER_SIZE);
+            int pcount = 0;
+            while (parser.nextPart()) {
+                pcount++;
+                String partName = parser.getName();
+                String fileName = parser.getFileName();
 
                 List<String> values = parms.get(partName);
                 if (values == null) {
@@ -264,15 +224,18 @@ public class HTTPSession implements IHTTPSession {
                     parms.put(partName, values);
                 }
 
-                if (partContentType == null) {
+                if (parser.getContentType() == null) {
                     // Read the part into a string
-                    byte[] data_bytes = new byte[partDataEnd - partDataStart];
-                    fbuf.get(data_bytes);
-
-                    values.add(new String(data_bytes, contentType.getEncoding()));
+                    ByteArrayOutputStream data = new ByteArrayOutputStream();
+                    byte[] buf = new byte[REQUEST_BUFFER_LEN];
+                    int read;
+                    while ((read = parser.getPartInputStream().read(buf)) != -1) {
+                        data.write(buf, 0, read);
+                    }
+                    values.add(new String(data.toByteArray(), contentType.getEncoding()));
                 } else {
                     // Read it into a file
-                    String path = saveTmpFile(fbuf, partDataStart, partDataEnd - partDataStart, fileName);
+                    String path = saveTmpFile(parser.getPartInputStream(), fileName);
                     if (!files.containsKey(partName)) {
                         files.put(partName, path);
                     } else {
@@ -285,73 +248,89 @@ public class HTTPSession implements IHTTPSession {
                     values.add(fileName);
                 }
             }
+            if (pcount == 0) {
+                throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but contains less than two boundary strings.");
+            }
         } catch (ResponseException re) {
             throw re;
         } catch (Exception e) {
+            checkBodyLimit();
             throw new ResponseException(Status.INTERNAL_ERROR, e.toString());
         }
     }
 
-    private int scipOverNewLine(byte[] partHeaderBuff, int index) {
-        while (partHeaderBuff[index] != '\n') {
-            index++;
-        }
-        return ++index;
-    }
-
     /**
      * Decodes parameters in percent-encoded URI-format ( e.g.
      * "name=Jack%20Daniels&pass=Single%20Malt" ) and adds them to given Map.
      */
     private void decodeParms(String parms, Map<String, List<String>> p) {
-        if (parms == null) {
-            this.queryParameterString = "";
-            return;
-        }
-
-        this.queryParameterString = parms;
-        StringTokenizer st = new StringTokenizer(parms, "&");
-        while (st.hasMoreTokens()) {
-            String e = st.nextToken();
-            int sep = e.indexOf('=');
-            String key = null;
-            String value = null;
-
-            if (sep >= 0) {
-                key = NanoHTTPD.decodePercent(e.substring(0, sep)).trim();
-                value = NanoHTTPD.decodePercent(e.substring(sep + 1));
-            } else {
-                key = NanoHTTPD.decodePercent(e).trim();
-                value = "";
+        int start = 0;
+        while (start < parms.length()) {
+            int end = parms.indexOf('&', start);
+            if (end < 0) {
+                end = parms.length();
             }
+            // empty pairs, as in "a=1&&b=2", are skipped.
+            if (end > start) {
+                int sep = parms.indexOf('=', start);
+                String key = null;
+                String value = null;
+
+                if (sep >= 0 && sep < end) {
+                    key = NanoHTTPD.decodePercent(parms.substring(start, sep)).trim();
+                    value = NanoHTTPD.decodePercent(parms.substring(sep + 1, end));
+                } else {
+                    key = NanoHTTPD.decodePercent(parms.substring(start, end)).trim();
+                    value = "";
+                }
 
-            List<String> values = p.get(key);
-            if (values == null) {
-                values = new ArrayList<String>();
-                p.put(key, values);
-            }
+                List<String> values = p.get(key);
+                if (values == null) {
+                    values = new ArrayList<String>();
+                    p.put(key, values);
+                }
 
-            values.add(value);
+                values.add(value);
+            }
+            start = end + 1;
         }
     }
 
     @Override
     public void execute() throws IOException {
         Response r = null;
+        boolean started = false;
+        boolean suspended = false;
+        RequestBufferPool pool = httpd.getRequestBufferPool();
+        byte[] pooled = null;
+        byte[] buf = null;
         try {
-            // Read the first 8192 bytes.
-            // The full header should fit in here.
-            // Apache's default header limit is 8KB.
+            // Read the header into a small buffer, which grows up to the
+            // configured limit if the header does not fit.
             // Do NOT assume that a single read will get the entire header
             // at once!
-            byte[] buf = new byte[HTTPSession.BUFSIZE];
             this.splitbyte = 0;
             this.rlen = 0;
 
+            int maxHeaderSize = httpd.getMaxHeaderSize();
             int read = -1;
-            this.inputStream.mark(HTTPSession.BUFSIZE);
+            this.inputStream.mark(maxHeaderSize);
             try {
-                read = this.inputStream.read(buf, 0, HTTPSession.BUFSIZE);
+                // an idle keep-alive connection waits here, before it takes
+                // a buffer from the pool.
+                if (this.inputStream.read() != -1) {
+                    this.inputStream.reset();
+                    if (pool != null) {
+                        pooled = pool.acquire();
+                        buf = pooled;
+                    } else {
+                        if (this.headBuffer == null) {
+                            this.headBuffer = new byte[RequestBufferPool.DEFAULT_BUFFER_SIZE];
+                        }
+                        buf = this.headBuffer;
+                    }
+                    read = this.inputStream.read(buf, 0, Math.min(buf.length, maxHeaderSize));
+                }
             } catch (SSLException e) {
                 throw e;
             } catch (IOException e) {
@@ -366,12 +345,25 @@ public class HTTPSession implements IHTTPSession {
                 throw new SocketException("NanoHttpd Shutdown");
             }
             while (read > 0) {
+                // the end of the header may straddle the previous read.
+                int from = Math.max(0, this.rlen - 3);
                 this.rlen += read;
-                this.splitbyte = findHeaderEnd(buf, this.rlen);
+                this.splitbyte = findHeaderEnd(buf, from, this.rlen);
                 if (this.splitbyte > 0) {
                     break;
                 }
-                read = this.inputStream.read(buf, this.rlen, HTTPSession.BUFSIZE - this.rlen);
+                if (this.rlen >= Math.min(buf.length, maxHeaderSize)) {
+                    if (this.rlen >= maxHeaderSize) {
+                        throw new ResponseException(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, "REQUEST HEADER FIELDS TOO LARGE: Request header longer than " + maxHeaderSize
+                                + " bytes.");
+                    }
+                    buf = Arrays.copyOf(buf, (int) Math.min(2L * buf.length, maxHeaderSize));
+                    if (pool == null) {
+                        // kept for the next requests of the connection.
+                        this.headBuffer = buf;
+                    }
+                }
+                read = this.inputStream.read(buf, this.rlen, Math.min(buf.length, maxHeaderSize) - this.rlen);
             }
 
             if (this.splitbyte < this.rlen) {
@@ -379,59 +371,82 @@ public class HTTPSession implements IHTTPSession {
                 this.inputStream.skip(this.splitbyte);
             }
 
-            this.parms = new HashMap<String, List<String>>();
+            if (httpd.isHttp2Enabled() && Http2Connection.isPreface(buf, 0, this.rlen)) {
+                // HTTP/2 with prior knowledge, the connection is served
+                // until it ends.
+                new Http2Connection(httpd, this.inputStream, this.outputStream, this.remoteIp).servePriorKnowledge();
+                throw new SocketException("NanoHttpd Shutdown");
+            }
+
+            httpd.getCounters().requestStarted();
+            started = true;
+
+            // parameters and cookies are decoded only if the handler asks
+            // for them.
+            this.parmsDecoded = false;
+            this.firstParmsValid = false;
+            this.cookies = null;
+            this.bodyStarted = false;
+            this.inflatingBodyStream = null;
             if (null == this.headers) {
-                this.headers = new HashMap<String, String>();
+                this.headers = new RequestHeaders();
             } else {
                 this.headers.clear();
             }
 
-            // Create a BufferedReader for parsing the header.
-            BufferedReader hin = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(buf, 0, this.rlen)));
-
-            // Decode the header into parms and header java properties
-            Map<String, String> pre = new HashMap<String, String>();
-            decodeHeader(hin, pre, this.parms, this.headers);
+            // Decode the header straight from the buffer, without the
+            // terminating empty line if the header was complete.
+            this.headerParser.parse(buf, this.splitbyte > 0 ? this.splitbyte : this.rlen, this.headers);
+            this.protocolVersion = this.headerParser.getProtocolVersion();
+            this.queryParameterString = this.headerParser.getQuery();
 
             if (null != this.remoteIp) {
                 this.headers.put("remote-addr", this.remoteIp);
                 this.headers.put("http-client-ip", this.remoteIp);
             }
 
-            this.method = Method.lookup(pre.get("method"));
+            if (httpd.isHttp2Enabled() && RequestHeaderParser.HTTP_1_1.equals(this.protocolVersion) && Http2Connection.isUpgrade(this.headers)) {
+                // the request is answered as stream 1 of the new HTTP/2
+                // connection, not by this session.
+                httpd.getCounters().requestFinished();
+                started = false;
+                new Http2Connection(httpd, this.inputStream, this.outputStream, this.remoteIp).serveUpgrade(buf, this.splitbyte, this.headers.get("http2-settings"));
+                throw new SocketException("NanoHttpd Shutdown");
+            }
+
+            this.method = this.headerParser.getMethod();
             if (this.method == null) {
-                throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Syntax error. HTTP verb " + pre.get("method") + " unhandled.");
+                throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Syntax error. HTTP verb " + this.headerParser.getMethodName() + " unhandled.");
             }
 
-            this.uri = pre.get("uri");
-
-            this.cookies = new CookieHandler(this.headers);
+            this.uri = this.headerParser.getUri();
+            this.chunked = decodeChunked();
+            this.bodySize = this.chunked ? -1 : decodeBodySize();
+            this.contentEncoding = decodeContentEncoding();
+            this.bodyAnnounced = this.chunked || this.headers.containsKey("content-length");
+            this.bodyStart = this.inputStream.getTotalRead();
+            this.expectContinue = decodeExpectContinue();
+            this.continueSent = false;
+            setMaxBodySize(httpd.getMaxRequestBodySize());
 
             String connection = this.headers.get("connection");
-            boolean keepAlive = "HTTP/1.1".equals(protocolVersion) && (connection == null || !connection.matches("(?i).*close.*"));
+            boolean keepAlive = RequestHeaderParser.HTTP_1_1.equals(this.protocolVersion) && !RequestHeaderParser.containsClose(connection);
 
             // Ok, now do the serve()
-
-            // TODO: long body_size = getBodySize();
-            // TODO: long pos_before_serve = this.inputStream.totalRead()
-            // (requires implementation for totalRead())
             r = httpd.handle(this);
-            // TODO: this.inputStream.skip(body_size -
-            // (this.inputStream.totalRead() - pos_before_serve))
 
             if (r == null) {
                 throw new ResponseException(Status.INTERNAL_ERROR, "SERVER INTERNAL ERROR: Serve() returned a null response.");
-            } else {
-                String acceptEncoding = this.headers.get("accept-encoding");
-                this.cookies.unloadQueue(r);
-                r.setRequestMethod(this.method);
-                if (acceptEncoding == null || !acceptEncoding.contains("gzip")) {
-                    r.setUseGzip(false);
-                }
-                r.setKeepAlive(keepAlive);
-                r.send(this.outputStream);
+            } else if (r instanceof DeferredResponse) {
+                // sent by resumeWhenComplete(), the request stays in flight
+                // until then.
+                this.deferred = (DeferredResponse) r;
+                this.deferredKeepAlive = keepAlive;
+                suspended = true;
+                r = null;
+                return;
             }
-            if (!keepAlive || r.isCloseConnection()) {
+            if (!sendResponse(r, keepAlive) || !drainBody()) {
                 throw new SocketException("NanoHttpd Shutdown");
             }
         } catch (SocketException e) {
@@ -455,17 +470,157 @@ public class HTTPSession implements IHTTPSession {
             resp.send(this.outputStream);
             NanoHTTPD.safeClose(this.outputStream);
         } finally {
-            NanoHTTPD.safeClose(r);
-            this.tempFileManager.clear();
+            if (pooled != null) {
+                pool.release(pooled);
+            }
+            if (!suspended) {
+                NanoHTTPD.safeClose(r);
+                this.tempFileManager.clear();
+                if (started) {
+                    httpd.getCounters().requestFinished();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the response of the current request.
+     * 
+     * @return true if the connection stays open for another request.
+     */
+    private boolean sendResponse(Response r, boolean keepAlive) throws IOException {
+        String acceptEncoding = this.headers.get("accept-encoding");
+        if (this.cookies != null) {
+            this.cookies.unloadQueue(r);
+        }
+        r.setRequestMethod(this.method);
+        if (acceptEncoding == null || !acceptEncoding.contains("gzip")) {
+            r.setUseGzip(false);
+        }
+        if (httpd.isDraining()) {
+            // the server is shutting down, let the client reconnect
+            // elsewhere once this response is complete.
+            keepAlive = false;
+        }
+        r.setKeepAlive(keepAlive);
+        r.send(this.outputStream);
+        return keepAlive && !r.isCloseConnection();
+    }
+
+    /**
+     * Skips what the handler left unread of the request body, so that the next
+     * request can be read from the connection.
+     * 
+     * @return false if the connection has to be closed instead, because more
+     *         than the drain limit is left or the body could not be read.
+     */
+    private boolean drainBody() {
+        if (!this.bodyAnnounced) {
+            return true;
+        }
+        if (this.expectContinue && !this.continueSent && this.bodySize != 0) {
+            // the client may hold the body back or send it anyway, the
+            // connection cannot be reused either way.
+            return false;
+        }
+        long limit = this.httpd.getBodyDrainLimit();
+        try {
+            if (this.chunked) {
+                InputStream body = getFramedBodyStream();
+                long drained = 0;
+                while (body.read() != -1) {
+                    if (++drained > limit) {
+                        return false;
+                    }
+                    drained += body.skip(limit - drained);
+                }
+                return true;
+            }
+            long unread = this.bodySize - (this.inputStream.getTotalRead() - this.bodyStart);
+            if (unread > limit) {
+                return false;
+            }
+            while (unread > 0) {
+                long skipped = this.inputStream.skip(unread);
+                if (skipped <= 0) {
+                    if (this.inputStream.read() == -1) {
+                        // the body ends with the connection, which the next
+                        // request will find closed.
+                        return true;
+                    }
+                    skipped = 1;
+                }
+                unread -= skipped;
+            }
+            return true;
+        } catch (IOException e) {
+            NanoHTTPD.LOG.log(Level.FINE, "Could not drain the request body", e);
+            return false;
         }
     }
 
+    /**
+     * @return true if the handler answered the last request with a
+     *         {@link DeferredResponse} that was not sent yet; the connection
+     *         must not be read until it was.
+     */
+    public boolean isSuspended() {
+        return this.deferred != null;
+    }
+
+    /**
+     * Sends the pending deferred response as soon as it is completed, on the
+     * completing thread, and then hands the connection back to the client
+     * handler. Call only after the handler released its thread.
+     */
+    public void resumeWhenComplete(final ClientHandler clientHandler) {
+        resumeWhenComplete(new IDeferredResponseListener() {
+
+            @Override
+            public void deferredResponseSent(boolean keepAlive) {
+                clientHandler.deferredResponseSent(keepAlive);
+            }
+        });
+    }
+
+    /**
+     * Sends the pending deferred response as soon as it is completed, on the
+     * completing thread, and then tells the listener. Call only after the
+     * thread running the session was released.
+     */
+    public void resumeWhenComplete(final IDeferredResponseListener listener) {
+        final DeferredResponse pending = this.deferred;
+        if (httpd.getDeferredResponseTimeout() > 0) {
+            pending.expireAfter(httpd.getDeferredResponseTimeout());
+        }
+        pending.whenComplete(new Runnable() {
+
+            @Override
+            public void run() {
+                Response r = pending.getResponse();
+                boolean keepAlive = false;
+                HTTPSession.this.deferred = null;
+                try {
+                    keepAlive = sendResponse(r, HTTPSession.this.deferredKeepAlive) && drainBody();
+                } catch (Exception e) {
+                    NanoHTTPD.LOG.log(Level.FINE, "Could not send deferred response", e);
+                } finally {
+                    NanoHTTPD.safeClose(r);
+                    HTTPSession.this.tempFileManager.clear();
+                    httpd.getCounters().requestFinished();
+                }
+                listener.deferredResponseSent(keepAlive);
+            }
+        });
+    }
+
     /**
      * Find byte index separating header from body. It must be the last byte of
-     * the first two sequential new lines.
+     * the first two sequential new lines. The search starts at
+     * <code>from</code>, 0 is returned if the header is not complete.
      */
-    private int findHeaderEnd(final byte[] buf, int rlen) {
-        int splitbyte = 0;
+    private int findHeaderEnd(final byte[] buf, int from, int rlen) {
+        int splitbyte = from;
         while (splitbyte + 1 < rlen) {
 
             // RFC2616
@@ -483,87 +638,128 @@ public class HTTPSession implements IHTTPSession {
     }
 
     /**
-     * Find the byte positions where multipart boundaries start. This reads a
-     * large block at a time and uses a temporary buffer to optimize (memory
-     * mapped) file access.
+     * Parses the cookies of the request on the first call.
      */
-    private int[] getBoundaryPositions(ByteBuffer b, byte[] boundary) {
-        int[] res = new int[0];
-        if (b.remaining() < boundary.length) {
-            return res;
-        }
-
-        int search_window_pos = 0;
-        byte[] search_window = new byte[4 * 1024 + boundary.length];
-
-        int first_fill = (b.remaining() < search_window.length) ? b.remaining() : search_window.length;
-        b.get(search_window, 0, first_fill);
-        int new_bytes = first_fill - boundary.length;
-
-        do {
-            // Search the search_window
-            for (int j = 0; j < new_bytes; j++) {
-                for (int i = 0; i < boundary.length; i++) {
-                    if (search_window[j + i] != boundary[i])
-                        break;
-                    if (i == boundary.length - 1) {
-                        // Match found, add it to results
-                        int[] new_res = new int[res.length + 1];
-                        System.arraycopy(res, 0, new_res, 0, res.length);
-                        new_res[res.length] = search_window_pos + j;
-                        res = new_res;
-                    }
-                }
-            }
-            search_window_pos += new_bytes;
-
-            // Copy the end of the buffer to the start
-            System.arraycopy(search_window, search_window.length - boundary.length, search_window, 0, boundary.length);
-
-            // Refill search_window
-            new_bytes = search_window.length - boundary.length;
-            new_bytes = (b.remaining() < new_bytes) ? b.remaining() : new_bytes;
-            b.get(search_window, boundary.length, new_bytes);
-        } while (new_bytes > 0);
-        return res;
-    }
-
     @Override
     public CookieHandler getCookies() {
+        if (this.cookies == null && this.headers != null) {
+            this.cookies = new CookieHandler(this.headers);
+        }
         return this.cookies;
     }
 
+    /**
+     * Repeated fields appear once with their values joined, see
+     * {@link #getAllHeaders(String)} for the single values.
+     */
     @Override
     public final Map<String, String> getHeaders() {
         return this.headers;
     }
 
+    @Override
+    public final List<String> getAllHeaders(String name) {
+        return this.headers.getAll(name);
+    }
+
+    /**
+     * Sends "100 Continue" first if the client waits for it.
+     */
     @Override
     public final InputStream getInputStream() {
+        continueIfExpected();
         return this.inputStream;
     }
 
+    /**
+     * A compressed body is inflated, up to
+     * {@link NanoHTTPD#getMaxInflatedBodySize()}; the Content-Encoding header
+     * is left as the client sent it.
+     */
+    @Override
+    public final InputStream getBodyStream() {
+        continueIfExpected();
+        if (this.contentEncoding == null) {
+            return getFramedBodyStream();
+        }
+        if (this.inflatingBodyStream == null) {
+            this.inflatingBodyStream = new InflatingInputStream(getFramedBodyStream(), this.contentEncoding, httpd.getMaxInflatedBodySize());
+        }
+        return this.inflatingBodyStream;
+    }
+
+    /**
+     * The stream decodes a chunked body or is bounded by the Content-Length; it
+     * is created once per session and reset for every request.
+     */
+    private InputStream getFramedBodyStream() {
+        if (this.chunked) {
+            if (this.chunkedBodyStream == null) {
+                this.chunkedBodyStream = new ChunkedInputStream(this.inputStream);
+            } else if (!this.bodyStarted) {
+                this.chunkedBodyStream.reset();
+            }
+            this.chunkedBodyStream.setMaxLength(this.maxBodySize);
+            this.chunkedBodyStream.setMaxTrailerSize(httpd.getMaxHeaderSize());
+            this.bodyStarted = true;
+            return this.chunkedBodyStream;
+        }
+        if (!this.bodyStarted) {
+            if (this.bodyStream == null) {
+                this.bodyStream = new ContentLengthInputStream(this.inputStream, this.bodySize);
+            } else {
+                this.bodyStream.reset(this.bodySize);
+            }
+            this.bodyStarted = true;
+        }
+        return this.bodyStream;
+    }
+
     @Override
     public final Method getMethod() {
         return this.method;
     }
 
     /**
+     * The map is built on the first call and shared by the later calls for the
+     * same request, until parseBody() adds parameters.
+     * 
      * @deprecated use {@link #getParameters()} instead.
      */
     @Override
     @Deprecated
     public final Map<String, String> getParms() {
-        Map<String, String> result = new HashMap<String, String>();
-        for (String key : this.parms.keySet()) {
-            result.put(key, this.parms.get(key).get(0));
+        if (!this.firstParmsValid) {
+            Map<String, List<String>> parameters = getParameters();
+            if (this.firstParms == null) {
+                this.firstParms = new HashMap<String, String>();
+            } else {
+                this.firstParms.clear();
+            }
+            for (Map.Entry<String, List<String>> entry : parameters.entrySet()) {
+                this.firstParms.put(entry.getKey(), entry.getValue().get(0));
+            }
+            this.firstParmsValid = true;
         }
-
-        return result;
+        return this.firstParms;
     }
 
+    /**
+     * Decodes the query of the request on the first call.
+     */
     @Override
     public final Map<String, List<String>> getParameters() {
+        if (!this.parmsDecoded) {
+            if (this.parms == null) {
+                this.parms = new HashMap<String, List<String>>();
+            } else {
+                this.parms.clear();
+            }
+            if (this.queryParameterString != null) {
+                decodeParms(this.queryParameterString, this.parms);
+            }
+            this.parmsDecoded = true;
+        }
         return this.parms;
     }
 
@@ -586,113 +782,323 @@ public class HTTPSession implements IHTTPSession {
         return this.uri;
     }
 
+    @Override
+    public void sendContinue() throws IOException {
+        if (this.expectContinue && !this.continueSent) {
+            this.continueSent = true;
+            this.outputStream.write(CONTINUE);
+            this.outputStream.flush();
+        }
+    }
+
+    private void continueIfExpected() {
+        try {
+            sendContinue();
+        } catch (IOException e) {
+            // reading the body will fail as well.
+            NanoHTTPD.LOG.log(Level.FINE, "Could not send 100 Continue", e);
+        }
+    }
+
+    /**
+     * Takes effect for the current request only; the server limit applies again
+     * to the next one.
+     */
+    @Override
+    public void setMaxBodySize(long maxBodySize) throws ResponseException {
+        this.maxBodySize = maxBodySize;
+        if (this.chunkedBodyStream != null && this.bodyStarted) {
+            this.chunkedBodyStream.setMaxLength(maxBodySize);
+        }
+        if (maxBodySize >= 0 && !this.chunked && this.bodyAnnounced && this.bodySize > maxBodySize) {
+            throw new ResponseException(Status.PAYLOAD_TOO_LARGE, "PAYLOAD TOO LARGE: Request body larger than " + maxBodySize + " bytes.");
+        }
+    }
+
     /**
-     * Deduce body length in bytes. Either from "content-length" header or read
-     * bytes.
+     * @throws ResponseException
+     *             with 413 if reading the body failed because it is larger than
+     *             allowed, with 431 if its trailer is.
+     */
+    private void checkBodyLimit() throws ResponseException {
+        if (this.chunkedBodyStream != null && this.chunkedBodyStream.isTrailerTooLarge()) {
+            throw new ResponseException(Status.REQUEST_HEADER_FIELDS_TOO_LARGE, "REQUEST HEADER FIELDS TOO LARGE: Request trailer longer than " + httpd.getMaxHeaderSize()
+                    + " bytes.");
+        }
+        if (this.chunkedBodyStream != null && this.chunkedBodyStream.isLimitExceeded()) {
+            throw new ResponseException(Status.PAYLOAD_TOO_LARGE, "PAYLOAD TOO LARGE: Request body larger than " + this.maxBodySize + " bytes.");
+        }
+        if (this.inflatingBodyStream != null && this.inflatingBodyStream.isLimitExceeded()) {
+            throw new ResponseException(Status.PAYLOAD_TOO_LARGE, "PAYLOAD TOO LARGE: Inflated request body larger than " + httpd.getMaxInflatedBodySize() + " bytes.");
+        }
+    }
+
+    /**
+     * @return true if an HTTP/1.1 client waits for "100 Continue"; HTTP/1.0
+     *         clients do not know it.
+     */
+    private boolean decodeExpectContinue() throws ResponseException {
+        String expect = this.headers.get("expect");
+        if (expect == null) {
+            return false;
+        }
+        if (!"100-continue".equalsIgnoreCase(expect.trim())) {
+            throw new ResponseException(Status.EXPECTATION_FAILED, "EXPECTATION FAILED: " + expect + " not supported.");
+        }
+        return RequestHeaderParser.HTTP_1_1.equals(this.protocolVersion);
+    }
+
+    /**
+     * Body length in bytes, as the request head announced it; -1 for a chunked
+     * or compressed body, whose length is not known up front.
      */
     public long getBodySize() {
-        if (this.headers.containsKey("content-length")) {
-            return Long.parseLong(this.headers.get("content-length"));
-        } else if (this.splitbyte < this.rlen) {
-            return this.rlen - this.splitbyte;
+        return this.contentEncoding != null ? -1 : this.bodySize;
+    }
+
+    /**
+     * @return the coding to undo, null for an uncompressed body.
+     * @throws ResponseException
+     *             with 415 for codings that cannot be decoded.
+     */
+    private String decodeContentEncoding() throws ResponseException {
+        String contentEncoding = this.headers.get("content-encoding");
+        if (contentEncoding == null || "identity".equalsIgnoreCase(contentEncoding.trim())) {
+            return null;
+        }
+        if (!InflatingInputStream.isSupported(contentEncoding.trim())) {
+            throw new ResponseException(Status.UNSUPPORTED_MEDIA_TYPE, "UNSUPPORTED MEDIA TYPE: Content-Encoding " + contentEncoding + " not supported.");
+        }
+        return contentEncoding.trim();
+    }
+
+    /**
+     * @return true if the body is sent in chunks; other transfer codings are
+     *         not supported.
+     */
+    private boolean decodeChunked() throws ResponseException {
+        String transferEncoding = this.headers.get("transfer-encoding");
+        if (transferEncoding == null) {
+            return false;
+        }
+        int comma = transferEncoding.lastIndexOf(',');
+        if (!"chunked".equalsIgnoreCase(transferEncoding.substring(comma + 1).trim())) {
+            throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Request body not chunked, length unknown.");
+        }
+        if (comma >= 0) {
+            throw new ResponseException(Status.NOT_IMPLEMENTED, "NOT IMPLEMENTED: Transfer-Encoding " + transferEncoding + " not supported.");
+        }
+        return true;
+    }
+
+    /**
+     * Deduce body length in bytes from the "content-length" header. A request
+     * without content-length or chunked transfer encoding has no body (RFC 7230
+     * section 3.3.3); any bytes after its head belong to the next request.
+     */
+    private long decodeBodySize() throws ResponseException {
+        String contentLength = this.headers.get("content-length");
+        if (contentLength != null) {
+            try {
+                long size = Long.parseLong(contentLength.trim());
+                if (size >= 0) {
+                    return size;
+                }
+            } catch (NumberFormatException e) {
+                // answered below.
+            }
+            throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Invalid Content-Length " + contentLength);
         }
         return 0;
     }
 
     @Override
     public void parseBody(Map<String, String> files) throws IOException, ResponseException {
+        ContentType contentType = null;
+        if (Method.POST.equals(this.method)) {
+            contentType = new ContentType(this.headers.get("content-type"));
+            if (contentType.isMultipart()) {
+                String boundary = contentType.getBoundary();
+                if (boundary == null) {
+                    throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html");
+                }
+                decodeMultipartFormData(contentType, getBodyStream(), getParameters(), files);
+                this.firstParmsValid = false;
+                return;
+            }
+        } else if (Method.PUT.equals(this.method)) {
+            try {
+                files.put("content", saveTmpFile(getBodyStream(), null));
+            } catch (IOException e) {
+                checkBodyLimit();
+                throw e;
+            }
+            return;
+        }
         RandomAccessFile randomAccessFile = null;
         try {
             long size = getBodySize();
-            ByteArrayOutputStream baos = null;
-            DataOutput requestDataOutput = null;
-
-            // Store the request in memory or a file, depending on size
-            if (size < MEMORY_STORE_LIMIT) {
-                baos = new ByteArrayOutputStream();
-                requestDataOutput = new DataOutputStream(baos);
-            } else {
-                randomAccessFile = getTmpBucket();
-                requestDataOutput = randomAccessFile;
-            }
+            InputStream body = getBodyStream();
+            ByteBuffer fbuf = null;
 
-            // Read all the body and write it to request_data_output
-            byte[] buf = new byte[REQUEST_BUFFER_LEN];
-            while (this.rlen >= 0 && size > 0) {
-                this.rlen = this.inputStream.read(buf, 0, (int) Math.min(size, REQUEST_BUFFER_LEN));
-                size -= this.rlen;
-                if (this.rlen > 0) {
-                    requestDataOutput.write(buf, 0, this.rlen);
+            // Store the request in memory or a file, depending on size; a
+            // chunked body goes to the file once it outgrows the memory.
+            byte[] bytes = new byte[size >= 0 && size < MEMORY_STORE_LIMIT ? (int) size : MEMORY_STORE_LIMIT];
+            int len = 0;
+            while (len < bytes.length) {
+                int read = body.read(bytes, len, bytes.length - len);
+                if (read == -1) {
+                    break;
                 }
+                len += read;
             }
-
-            ByteBuffer fbuf = null;
-            if (baos != null) {
-                fbuf = ByteBuffer.wrap(baos.toByteArray(), 0, baos.size());
+            if (len < MEMORY_STORE_LIMIT) {
+                fbuf = ByteBuffer.wrap(bytes, 0, len);
             } else {
+                randomAccessFile = getTmpBucket();
+                randomAccessFile.write(bytes, 0, len);
+                byte[] buf = new byte[BUFSIZE];
+                int read;
+                while ((read = body.read(buf, 0, buf.length)) != -1) {
+                    randomAccessFile.write(buf, 0, read);
+                }
                 fbuf = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
                 randomAccessFile.seek(0);
             }
 
             // If the method is POST, there may be parameters
             // in data section, too, read it:
-            if (Method.POST.equals(this.method)) {
-                ContentType contentType = new ContentType(this.headers.get("content-type"));
-                if (contentType.isMultipart()) {
-                    String boundary = contentType.getBoundary();
-                    if (boundary == null) {
-                        throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html");
-                    }
-                    decodeMultipartFormData(contentType, fbuf, this.parms, files);
-                } else {
-                    byte[] postBytes = new byte[fbuf.remaining()];
-                    fbuf.get(postBytes);
-                    String postLine = new String(postBytes, contentType.getEncoding()).trim();
-                    // Handle application/x-www-form-urlencoded
-                    if ("application/x-www-form-urlencoded".equalsIgnoreCase(contentType.getContentType())) {
-                        decodeParms(postLine, this.parms);
-                    } else if (postLine.length() != 0) {
-                        // Special case for raw POST data => create a
-                        // special files entry "postData" with raw content
-                        // data
-                        files.put(POST_DATA, postLine);
-                    }
+            if (contentType != null) {
+                byte[] postBytes = new byte[fbuf.remaining()];
+                fbuf.get(postBytes);
+                String postLine = new String(postBytes, contentType.getEncoding()).trim();
+                // Handle application/x-www-form-urlencoded
+                if ("application/x-www-form-urlencoded".equalsIgnoreCase(contentType.getContentType())) {
+                    decodeParms(postLine, getParameters());
+                    this.firstParmsValid = false;
+                    // reported like a query from here on
+                    this.queryParameterString = postLine;
+                } else if (postLine.length() != 0) {
+                    // Special case for raw POST data => create a
+                    // special files entry "postData" with raw content
+                    // data
+                    files.put(POST_DATA, postLine);
                 }
-            } else if (Method.PUT.equals(this.method)) {
-                files.put("content", saveTmpFile(fbuf, 0, fbuf.limit(), null));
             }
+        } catch (IOException e) {
+            checkBodyLimit();
+            throw e;
         } finally {
             NanoHTTPD.safeClose(randomAccessFile);
         }
     }
 
     /**
-     * Retrieves the content of a sent file and saves it to a temporary file.
-     * The full path to the saved file is returned.
+     * Retrieves the content of a sent file and saves it to a temporary file
+     * while it is read. The full path to the saved file is returned, an empty
+     * string if there was no content.
      */
-    private String saveTmpFile(ByteBuffer b, int offset, int len, String filename_hint) {
-        String path = "";
-        if (len > 0) {
-            FileOutputStream fileOutputStream = null;
+    private String saveTmpFile(InputStream data, String filename_hint) throws IOException {
+        byte[] buf = new byte[BUFSIZE];
+        int read = data.read(buf);
+        if (read == -1) {
+            return "";
+        }
+        OutputStream fileOutputStream = null;
+        try {
+            ITempFile tempFile;
             try {
-                ITempFile tempFile = this.tempFileManager.createTempFile(filename_hint);
-                ByteBuffer src = b.duplicate();
-                fileOutputStream = new FileOutputStream(tempFile.getName());
-                FileChannel dest = fileOutputStream.getChannel();
-                src.position(offset).limit(offset + len);
-                dest.write(src.slice());
-                path = tempFile.getName();
-            } catch (Exception e) { // Catch exception if any
+                tempFile = this.tempFileManager.createTempFile(filename_hint);
+            } catch (Exception e) {
                 throw new Error(e); // we won't recover, so throw an error
-            } finally {
-                NanoHTTPD.safeClose(fileOutputStream);
             }
+            fileOutputStream = new FileOutputStream(tempFile.getName());
+            do {
+                fileOutputStream.write(buf, 0, read);
+            } while ((read = data.read(buf)) != -1);
+            return tempFile.getName();
+        } finally {
+            NanoHTTPD.safeClose(fileOutputStream);
         }
-        return path;
     }
 
     @Override
     public String getRemoteIpAddress() {
         return this.remoteIp;
     }
+
+    /**
+     * Drops input the session buffered beyond what the handler read. For
+     * engines that frame requests themselves, skip unread request bodies on
+     * their own and reuse the session for the next request.
+     */
+    public void discardBufferedInput() {
+        this.inputStream.discard();
+    }
+
+    /**
+     * Buffered input that counts what was read from it and can drop what it
+     * holds.
+     */
+    private static final class RequestInputStream extends BufferedInputStream {
+
+        private long totalRead;
+
+        private long markedTotalRead;
+
+        RequestInputStream(InputStream in) {
+            super(in, HTTPSession.BUFSIZE);
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                this.totalRead++;
+            }
+            return b;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                this.totalRead += read;
+            }
+            return read;
+        }
+
+        @Override
+        public synchronized long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            this.totalRead += skipped;
+            return skipped;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            super.mark(readlimit);
+            this.markedTotalRead = this.totalRead;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            super.reset();
+            this.totalRead = this.markedTotalRead;
+        }
+
+        /**
+         * @return the bytes read or skipped so far, minus those read again
+         *         after a reset.
+         */
+        synchronized long getTotalRead() {
+            return this.totalRead;
+        }
+
+        synchronized void discard() {
+            this.totalRead += this.count - this.pos;
+            this.pos = this.count;
+            this.markpos = -1;
+        }
+    }
 }
@@ -51,10 +51,51 @@ public interface IHTTPSession {
 
     CookieHandler getCookies();
 
+    /**
+     * @return the header fields by their lower-cased names.
+     */
     Map<String, String> getHeaders();
 
+    /**
+     * @return the values of every field of that name, in the order they were
+     *         sent; the name is matched without regard to case.
+     */
+    List<String> getAllHeaders(String name);
+
+    /**
+     * @return the raw input of the connection; reads can run past the body into
+     *         the next request, and a compressed body is not inflated.
+     */
     InputStream getInputStream();
 
+    /**
+     * The body of the request, ending where the body ends. Lets a handler
+     * process large uploads incrementally; a body read to its end or closed
+     * leaves the connection at the next request. Do not mix with
+     * {@link #getInputStream()} or {@link #parseBody(Map)}, which reads the
+     * body through this stream. A body sent with "Content-Encoding: gzip" or
+     * "deflate" is inflated.
+     */
+    InputStream getBodyStream();
+
+    /**
+     * Sends "100 Continue" if the client announced "Expect: 100-continue" and
+     * waits for it. Happens on its own when the body is first accessed, a
+     * handler that rejects the request without reading the body never sends it.
+     */
+    void sendContinue() throws IOException;
+
+    /**
+     * Limits the body of the current request, overriding the server limit.
+     * 
+     * @param maxBodySize
+     *            most bytes accepted, -1 for no limit.
+     * @throws ResponseException
+     *             with 413 if the announced length is already larger; a chunked
+     *             body fails when reading passes the limit.
+     */
+    void setMaxBodySize(long maxBodySize) throws ResponseException;
+
     Method getMethod();
 
     /**
@@ -49,6 +49,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -59,14 +60,25 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLServerSocketFactory;
 import javax.net.ssl.TrustManagerFactory;
 
+import org.nanohttpd.protocols.http.nio.SelectorServerRunnable;
+import org.nanohttpd.protocols.http.pipelining.PipeliningClientHandler;
+import org.nanohttpd.protocols.http.response.DeferredResponse;
 import org.nanohttpd.protocols.http.response.Response;
 import org.nanohttpd.protocols.http.response.Status;
+import org.nanohttpd.protocols.http.sockets.ChannelServerSocketFactory;
 import org.nanohttpd.protocols.http.sockets.DefaultServerSocketFactory;
+import org.nanohttpd.protocols.http.sockets.ReusePortSupport;
+import org.nanohttpd.protocols.http.sockets.SSLEngineFactory;
 import org.nanohttpd.protocols.http.sockets.SecureServerSocketFactory;
+import org.nanohttpd.protocols.http.sockets.UnixDomainServerSocketFactory;
+import org.nanohttpd.protocols.http.sockets.UnixDomainSocketSupport;
 import org.nanohttpd.protocols.http.tempfiles.DefaultTempFileManagerFactory;
 import org.nanohttpd.protocols.http.tempfiles.ITempFileManager;
 import org.nanohttpd.protocols.http.threading.DefaultAsyncRunner;
 import org.nanohttpd.protocols.http.threading.IAsyncRunner;
+import org.nanohttpd.protocols.http.threading.IdleConnectionParker;
+import org.nanohttpd.protocols.http.threading.ShardedAsyncRunner;
+import org.nanohttpd.protocols.http.threading.VirtualThreadAsyncRunner;
 import org.nanohttpd.util.IFactory;
 import org.nanohttpd.util.IFactoryThrowing;
 import org.nanohttpd.util.IHandler;
@@ -164,6 +176,27 @@ public abstract class NanoHTTPD {
      */
     public static final int SOCKET_READ_TIMEOUT = 5000;
 
+    /**
+     * Default of {@link #setBodyDrainLimit(long)}.
+     */
+    public static final long DEFAULT_BODY_DRAIN_LIMIT = 64 * 1024;
+
+    /**
+     * Default of {@link #setDeferredResponseTimeout(long)}, one minute.
+     */
+    public static final long DEFAULT_DEFERRED_RESPONSE_TIMEOUT = 60 * 1000;
+
+    /**
+     * Default of {@link #setMaxHeaderSize(int)}, the common limit of web
+     * servers.
+     */
+    public static final int DEFAULT_MAX_HEADER_SIZE = 8192;
+
+    /**
+     * Default of {@link #setMaxInflatedBodySize(long)}.
+     */
+    public static final long DEFAULT_MAX_INFLATED_BODY_SIZE = 64L * 1024 * 1024;
+
     /**
      * Common MIME type for dynamic content: plain text
      */
@@ -330,12 +363,44 @@ public abstract class NanoHTTPD {
 
     private Thread myThread;
 
+    /**
+     * Number of threads accepting connections, see
+     * {@link #setAcceptors(int, boolean)}.
+     */
+    private int acceptors = 1;
+
+    private boolean reusePort;
+
+    /**
+     * Creates the shards of the async runner for several acceptors, null for
+     * the default, see {@link #setAcceptors(int, boolean)}.
+     */
+    private IFactory<IAsyncRunner> shardFactory;
+
+    /**
+     * Whether the async runner was set with
+     * {@link #setAsyncRunner(IAsyncRunner)} rather than by default.
+     */
+    private boolean asyncRunnerConfigured;
+
+    /**
+     * Listener threads of the acceptors beyond the main listener.
+     */
+    private final List<Thread> acceptorThreads = new ArrayList<Thread>();
+
+    /**
+     * SO_REUSEPORT server sockets of the acceptors beyond the main listener.
+     */
+    private final List<ServerSocket> acceptorSockets = new ArrayList<ServerSocket>();
+
     private IHandler<IHTTPSession, Response> httpHandler;
 
     protected List<IHandler<IHTTPSession, Response>> interceptors = new ArrayList<IHandler<IHTTPSession, Response>>(4);
 
     /**
-     * Pluggable strategy for asynchronously executing requests.
+     * Pluggable strategy for asynchronously executing requests. Defaults to one
+     * virtual thread per connection where the JVM supports it, one platform
+     * thread per connection otherwise.
      */
     protected IAsyncRunner asyncRunner;
 
@@ -344,6 +409,58 @@ public abstract class NanoHTTPD {
      */
     private IFactory<ITempFileManager> tempFileManagerFactory;
 
+    /**
+     * Number of selector threads of the non-blocking engine, 0 to use the
+     * classic thread per connection engine.
+     */
+    private int selectorThreads;
+
+    /**
+     * Creates the TLS engines of the selector engine, null to serve plain HTTP.
+     */
+    private SSLEngineFactory sslEngineFactory;
+
+    /**
+     * Holds idle keep-alive connections between requests, null to keep them on
+     * their worker thread.
+     */
+    private IdleConnectionParker idleConnectionParker;
+
+    private final ServerCounters counters = new ServerCounters();
+
+    /**
+     * Maximum number of pipelined requests per connection, 0 to serve pipelined
+     * requests one after the other like any other.
+     */
+    private int pipelineDepth;
+
+    private boolean pipelineConcurrent;
+
+    /**
+     * Whether clients may switch a connection to HTTP/2 (h2c).
+     */
+    private boolean http2Enabled;
+
+    /**
+     * Shared buffers for request heads, null to give every session its own.
+     */
+    private RequestBufferPool requestBufferPool;
+
+    private long bodyDrainLimit = DEFAULT_BODY_DRAIN_LIMIT;
+
+    private long deferredResponseTimeout = DEFAULT_DEFERRED_RESPONSE_TIMEOUT;
+
+    private long maxRequestBodySize = -1;
+
+    private int maxHeaderSize = DEFAULT_MAX_HEADER_SIZE;
+
+    private long maxInflatedBodySize = DEFAULT_MAX_INFLATED_BODY_SIZE;
+
+    /**
+     * Set while {@link #stop(long, TimeUnit)} waits for running requests.
+     */
+    private volatile boolean draining;
+
     /**
      * Constructs an HTTP server on given port.
      */
@@ -366,7 +483,7 @@ public abstract class NanoHTTPD {
         this.hostname = hostname;
         this.myPort = port;
         setTempFileManagerFactory(new DefaultTempFileManagerFactory());
-        setAsyncRunner(new DefaultAsyncRunner());
+        this.asyncRunner = createDefaultAsyncRunner();
 
         // creates a default handler that redirects to deprecated serve();
         this.httpHandler = new IHandler<IHTTPSession, Response>() {
@@ -382,6 +499,30 @@ public abstract class NanoHTTPD {
         this.httpHandler = handler;
     }
 
+    /**
+     * Sets a handler that answers requests asynchronously. The worker thread is
+     * released as soon as the handler returns, the response is sent when the
+     * handler completes it.
+     */
+    public void setAsyncHTTPHandler(final IAsyncHandler handler) {
+        setHTTPHandler(new IHandler<IHTTPSession, Response>() {
+
+            @Override
+            public Response handle(IHTTPSession input) {
+                DeferredResponse response = new DeferredResponse();
+                handler.handle(input, response);
+                return response;
+            }
+        });
+    }
+
+    /**
+     * Adds a handler that sees each request before the HTTP handler and may
+     * answer it by returning a response, or return null to pass it on.
+     * Interceptors run before the body is read: one that rejects a request
+     * without touching the body spares the client sending it if it asked with
+     * "Expect: 100-continue".
+     */
     public void addHTTPInterceptor(IHandler<IHTTPSession, Response> interceptor) {
         interceptors.add(interceptor);
     }
@@ -404,6 +545,9 @@ public abstract class NanoHTTPD {
      * @return the client handler
      */
     protected ClientHandler createClientHandler(final Socket finalAccept, final InputStream inputStream) {
+        if (this.pipelineDepth > 0) {
+            return new PipeliningClientHandler(this, inputStream, finalAccept, this.pipelineDepth, this.pipelineConcurrent);
+        }
         return new ClientHandler(this, inputStream, finalAccept);
     }
 
@@ -416,7 +560,26 @@ public abstract class NanoHTTPD {
      * @return the server runnable.
      */
     protected ServerRunnable createServerRunnable(final int timeout) {
-        return new ServerRunnable(this, timeout);
+        return createServerRunnable(timeout, null, 0);
+    }
+
+    /**
+     * Instantiate the server runnable of one acceptor, can be overwritten by
+     * subclasses to provide a subclass of the ServerRunnable.
+     * 
+     * @param timeout
+     *            the socet timeout to use.
+     * @param serverSocket
+     *            the socket to accept on, null for the main server socket.
+     * @param acceptor
+     *            index of the acceptor, 0 for the main listener.
+     * @return the server runnable.
+     */
+    protected ServerRunnable createServerRunnable(final int timeout, ServerSocket serverSocket, int acceptor) {
+        if (this.selectorThreads > 0) {
+            return new SelectorServerRunnable(this, timeout, serverSocket, acceptor, this.selectorThreads);
+        }
+        return new ServerRunnable(this, timeout, serverSocket, acceptor);
     }
 
     /**
@@ -476,6 +639,10 @@ public abstract class NanoHTTPD {
      *         "foo bar"
      */
     public static String decodePercent(String str) {
+        if (str.indexOf('%') < 0 && str.indexOf('+') < 0) {
+            // nothing to decode, spare the URLDecoder its copy.
+            return str;
+        }
         String decoded = null;
         try {
             decoded = URLDecoder.decode(str, "UTF8");
@@ -490,7 +657,15 @@ public abstract class NanoHTTPD {
     }
 
     public final boolean isAlive() {
-        return wasStarted() && !this.myServerSocket.isClosed() && this.myThread.isAlive();
+        if (!wasStarted() || this.myServerSocket.isClosed() || !this.myThread.isAlive()) {
+            return false;
+        }
+        for (Thread acceptorThread : this.acceptorThreads) {
+            if (!acceptorThread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public IFactoryThrowing<ServerSocket, IOException> getServerSocketFactory() {
@@ -509,13 +684,302 @@ public abstract class NanoHTTPD {
         return tempFileManagerFactory;
     }
 
+    /**
+     * Call before start() to read and frame requests on a few selector threads
+     * instead of blocking one thread per connection. Only complete requests are
+     * handed to the async runner, idle keep-alive connections cost no thread at
+     * all.
+     * 
+     * @param selectorThreads
+     *            number of selector event loops, usually one or two per core.
+     * @throws IllegalStateException
+     *             if makeSecure() was called with an SSLServerSocketFactory,
+     *             the selector engine serves TLS through
+     *             {@link #makeSecure(SSLEngineFactory, int)} only.
+     */
+    public void useSelectorEngine(int selectorThreads) {
+        if (this.serverSocketFactory instanceof SecureServerSocketFactory) {
+            throw new IllegalStateException("The selector engine cannot serve TLS from an SSLServerSocketFactory, use makeSecure(SSLEngineFactory, int)");
+        }
+        this.serverSocketFactory = new ChannelServerSocketFactory();
+        this.selectorThreads = selectorThreads;
+    }
+
+    /**
+     * Call before start() to listen on a Unix domain socket instead of a TCP
+     * port, e.g. behind a proxy on the same host. Requires Java 16 or later;
+     * connections are served by the selector engine and their clients get the
+     * remote IP 127.0.0.1. Hostname and port of the server are not used, the
+     * socket file is removed again by stop(). For TLS call
+     * {@link #makeSecure(SSLEngineFactory, int)} first.
+     * 
+     * @param path
+     *            file system path of the socket, must not exist yet.
+     * @param selectorThreads
+     *            number of selector event loops, at least 1.
+     */
+    public void listenOnUnixSocket(String path, int selectorThreads) {
+        if (!UnixDomainSocketSupport.isSupported()) {
+            throw new UnsupportedOperationException("Unix domain sockets need Java 16 or later");
+        }
+        this.serverSocketFactory = new UnixDomainServerSocketFactory(path);
+        this.selectorThreads = Math.max(1, selectorThreads);
+    }
+
+    /**
+     * Call before start() to give the worker thread of a keep-alive connection
+     * back while the connection waits for its next request. The connection is
+     * watched by a single selector thread meanwhile.
+     * 
+     * @param idleTimeout
+     *            milliseconds an idle connection is kept open, independent of
+     *            the read timeout applied within a request.
+     * @throws IllegalStateException
+     *             if makeSecure() was called with an SSLServerSocketFactory,
+     *             its sockets have no channel to watch.
+     */
+    public void parkIdleConnections(int idleTimeout) {
+        if (this.serverSocketFactory instanceof SecureServerSocketFactory) {
+            throw new IllegalStateException("Idle connections of an SSLServerSocketFactory cannot be parked");
+        }
+        this.serverSocketFactory = new ChannelServerSocketFactory();
+        this.idleConnectionParker = new IdleConnectionParker(this, idleTimeout);
+    }
+
+    /**
+     * Call before start() to support HTTP/1.1 pipelining explicitly: requests a
+     * client sends without waiting for the answers are read ahead and, if
+     * <code>concurrent</code>, served in parallel, while their responses are
+     * still written in request order. Applies to the classic engine, the
+     * selector engine always serves pipelined requests one by one.
+     * 
+     * @param maxDepth
+     *            maximum number of requests of one connection in the pipeline,
+     *            reading pauses when reached; 0 disables.
+     * @param concurrent
+     *            whether to dispatch pipelined requests to the async runner.
+     */
+    public void setPipelining(int maxDepth, boolean concurrent) {
+        this.pipelineDepth = maxDepth;
+        this.pipelineConcurrent = concurrent;
+    }
+
+    /**
+     * Lets clients speak HTTP/2 over cleartext connections, either starting
+     * with the HTTP/2 connection preface or upgrading an HTTP/1.1 request with
+     * "Upgrade: h2c". The streams of a connection are served concurrently by
+     * the async runner, each by a regular {@link HTTPSession}, so handlers and
+     * interceptors work unchanged.
+     */
+    public void setHttp2Enabled(boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+    }
+
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    /**
+     * Lets all sessions share the buffers request heads are read into. Without
+     * a pool every connection keeps a buffer of its own for its lifetime, with
+     * one only connections in the middle of reading a request hold one.
+     */
+    public void setRequestBufferPool(RequestBufferPool requestBufferPool) {
+        this.requestBufferPool = requestBufferPool;
+    }
+
+    public RequestBufferPool getRequestBufferPool() {
+        return requestBufferPool;
+    }
+
+    /**
+     * Sets how much of a request body the handler left unread is skipped after
+     * the response to keep the connection open for the next request. If more is
+     * left the connection is closed instead, so an aborted large upload does
+     * not have to be received in full.
+     */
+    public void setBodyDrainLimit(long bodyDrainLimit) {
+        this.bodyDrainLimit = bodyDrainLimit;
+    }
+
+    public long getBodyDrainLimit() {
+        return bodyDrainLimit;
+    }
+
+    /**
+     * Sets how long a {@link DeferredResponse} may stay incomplete once its
+     * handler returned, in milliseconds. The request is then answered with
+     * "503 Service Unavailable" and a later completion is ignored. 0 waits
+     * forever.
+     */
+    public void setDeferredResponseTimeout(long deferredResponseTimeout) {
+        this.deferredResponseTimeout = deferredResponseTimeout;
+    }
+
+    public long getDeferredResponseTimeout() {
+        return deferredResponseTimeout;
+    }
+
+    /**
+     * Sets the largest request body accepted, -1 (the default) for no limit. A
+     * larger announced body is answered with 413 before the handler runs and
+     * before the client is told to continue; handlers and interceptors can
+     * change the limit per request with
+     * {@link IHTTPSession#setMaxBodySize(long)}.
+     */
+    public void setMaxRequestBodySize(long maxRequestBodySize) {
+        this.maxRequestBodySize = maxRequestBodySize;
+    }
+
+    public long getMaxRequestBodySize() {
+        return maxRequestBodySize;
+    }
+
+    /**
+     * Sets how large a compressed request body may inflate, -1 for no limit.
+     * Bodies sent with "Content-Encoding: gzip" or "deflate" are decompressed
+     * while they are read; one that inflates beyond the limit is answered with
+     * 413 by {@link IHTTPSession#parseBody(Map)}.
+     */
+    public void setMaxInflatedBodySize(long maxInflatedBodySize) {
+        this.maxInflatedBodySize = maxInflatedBodySize;
+    }
+
+    public long getMaxInflatedBodySize() {
+        return maxInflatedBodySize;
+    }
+
+    /**
+     * Sets the longest request head, request line and header fields, accepted;
+     * a longer one is answered with 431. Head buffers start at
+     * {@link RequestBufferPool#DEFAULT_BUFFER_SIZE} bytes and only grow for the
+     * requests that need it. Over HTTP/2 it limits the decoded header list.
+     */
+    public void setMaxHeaderSize(int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    public IdleConnectionParker getIdleConnectionParker() {
+        return idleConnectionParker;
+    }
+
+    /**
+     * Call before start() to accept connections on several threads. With
+     * <code>reusePort</code> every acceptor gets its own server socket bound
+     * with SO_REUSEPORT, so the kernel balances new connections between them;
+     * where the JVM or platform does not offer that option, or without
+     * <code>reusePort</code>, the acceptors share the one server socket.
+     * <p>
+     * Unless {@link #setAsyncRunner(IAsyncRunner)} configured a runner, each
+     * acceptor runs its connections on its own shard of a
+     * {@link ShardedAsyncRunner} of default runners. A configured runner, e.g.
+     * a {@link org.nanohttpd.protocols.http.threading.BoundedAsyncRunner}, is
+     * shared by all acceptors instead; see
+     * {@link #setAcceptors(int, boolean, IFactory)} to shard it.
+     * </p>
+     * 
+     * @param acceptors
+     *            number of acceptor threads, at least 1.
+     * @param reusePort
+     *            whether to give each acceptor its own SO_REUSEPORT socket.
+     */
+    public void setAcceptors(int acceptors, boolean reusePort) {
+        setAcceptors(acceptors, reusePort, null);
+    }
+
+    /**
+     * Call before start() to accept connections on several threads, each
+     * running its connections on its own shard of a {@link ShardedAsyncRunner}.
+     * start() builds the shards with <code>shardFactory</code> and the sharded
+     * runner takes the place of the one set with
+     * {@link #setAsyncRunner(IAsyncRunner)}, whichever was called first.
+     * 
+     * @param acceptors
+     *            number of acceptor threads, at least 1.
+     * @param reusePort
+     *            whether to give each acceptor its own SO_REUSEPORT socket.
+     * @param shardFactory
+     *            creates the runner of one acceptor, e.g. a
+     *            {@link org.nanohttpd.protocols.http.threading.BoundedAsyncRunner}
+     *            to shed load per shard; null for the behaviour of
+     *            {@link #setAcceptors(int, boolean)}.
+     */
+    public void setAcceptors(int acceptors, boolean reusePort, IFactory<IAsyncRunner> shardFactory) {
+        if (acceptors < 1) {
+            throw new IllegalArgumentException("acceptors must be at least 1");
+        }
+        this.acceptors = acceptors;
+        this.reusePort = reusePort;
+        this.shardFactory = shardFactory;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
     /**
      * Call before start() to serve over HTTPS instead of HTTP
+     * 
+     * @throws IllegalStateException
+     *             if the selector engine was chosen already, see
+     *             {@link #makeSecure(SSLEngineFactory, int)}, or idle
+     *             connections are parked.
      */
     public void makeSecure(SSLServerSocketFactory sslServerSocketFactory, String[] sslProtocols) {
+        checkBlockingSockets();
         this.serverSocketFactory = new SecureServerSocketFactory(sslServerSocketFactory, sslProtocols);
     }
 
+    /**
+     * Call before start() to serve HTTPS and offer the given protocols with
+     * ALPN. Connections on which the client picks "h2" are served as HTTP/2.
+     * 
+     * @param applicationProtocols
+     *            in order of preference, e.g. {"h2", "http/1.1"}.
+     * @throws IllegalStateException
+     *             if the selector engine was chosen already or idle connections
+     *             are parked.
+     */
+    public void makeSecure(SSLServerSocketFactory sslServerSocketFactory, String[] sslProtocols, String[] applicationProtocols) {
+        checkBlockingSockets();
+        this.serverSocketFactory = new SecureServerSocketFactory(sslServerSocketFactory, sslProtocols, applicationProtocols);
+    }
+
+    /**
+     * Call before start() to serve HTTPS on the selector engine: the TLS
+     * handshakes are driven by the selector threads without blocking, and
+     * clients resume their cached sessions as configured on the factory.
+     * 
+     * @param selectorThreads
+     *            number of selector event loops, see
+     *            {@link #useSelectorEngine(int)}.
+     */
+    public void makeSecure(SSLEngineFactory sslEngineFactory, int selectorThreads) {
+        useSelectorEngine(Math.max(1, selectorThreads));
+        this.sslEngineFactory = sslEngineFactory;
+    }
+
+    /**
+     * An SSLServerSocketFactory makes blocking sockets without a channel, which
+     * the selector engine cannot serve.
+     */
+    private void checkBlockingSockets() {
+        if (this.selectorThreads > 0) {
+            throw new IllegalStateException("The selector engine serves TLS through makeSecure(SSLEngineFactory, int) only");
+        }
+        if (this.idleConnectionParker != null) {
+            throw new IllegalStateException("Idle connections of an SSLServerSocketFactory cannot be parked");
+        }
+    }
+
+    public SSLEngineFactory getSSLEngineFactory() {
+        return sslEngineFactory;
+    }
+
     /**
      * This is the "master" method that delegates requests to handlers and makes
      * sure there is a response to every request. You are not supposed to call
@@ -558,6 +1022,11 @@ public abstract class NanoHTTPD {
      */
     public void setAsyncRunner(IAsyncRunner asyncRunner) {
         this.asyncRunner = asyncRunner;
+        this.asyncRunnerConfigured = true;
+    }
+
+    public IAsyncRunner getAsyncRunner() {
+        return asyncRunner;
     }
 
     /**
@@ -600,12 +1069,65 @@ public abstract class NanoHTTPD {
     public void start(final int timeout, boolean daemon) throws IOException {
         this.myServerSocket = this.getServerSocketFactory().create();
         this.myServerSocket.setReuseAddress(true);
+        boolean ownSockets = this.acceptors > 1 && this.reusePort && ReusePortSupport.enable(this.myServerSocket);
+        if (this.acceptors > 1 && this.reusePort && !ownSockets) {
+            NanoHTTPD.LOG.log(Level.WARNING, "SO_REUSEPORT is not supported, the acceptors share one server socket");
+        }
+        this.acceptorThreads.clear();
+        this.acceptorSockets.clear();
+        if (this.acceptors > 1) {
+            shardAsyncRunner();
+        }
 
         ServerRunnable serverRunnable = createServerRunnable(timeout);
         this.myThread = new Thread(serverRunnable);
         this.myThread.setDaemon(daemon);
         this.myThread.setName("NanoHttpd Main Listener");
         this.myThread.start();
+        awaitBind(serverRunnable);
+
+        for (int acceptor = 1; acceptor < this.acceptors; acceptor++) {
+            ServerSocket serverSocket = this.myServerSocket;
+            if (ownSockets) {
+                serverSocket = this.getServerSocketFactory().create();
+                serverSocket.setReuseAddress(true);
+                ReusePortSupport.enable(serverSocket);
+                this.acceptorSockets.add(serverSocket);
+            }
+            ServerRunnable acceptorRunnable = createServerRunnable(timeout, serverSocket, acceptor);
+            Thread acceptorThread = new Thread(acceptorRunnable);
+            acceptorThread.setDaemon(daemon);
+            acceptorThread.setName("NanoHttpd Listener (#" + acceptor + ")");
+            this.acceptorThreads.add(acceptorThread);
+            acceptorThread.start();
+            try {
+                awaitBind(acceptorRunnable);
+            } catch (IOException e) {
+                stop();
+                throw e;
+            }
+        }
+    }
+
+    private void shardAsyncRunner() {
+        if (this.shardFactory != null) {
+            this.asyncRunner = new ShardedAsyncRunner(this.acceptors, this.shardFactory);
+        } else if (!this.asyncRunnerConfigured) {
+            this.asyncRunner = new ShardedAsyncRunner(this.acceptors, new IFactory<IAsyncRunner>() {
+
+                @Override
+                public IAsyncRunner create() {
+                    return createDefaultAsyncRunner();
+                }
+            });
+        }
+    }
+
+    private static IAsyncRunner createDefaultAsyncRunner() {
+        return VirtualThreadAsyncRunner.isSupported() ? new VirtualThreadAsyncRunner() : new DefaultAsyncRunner();
+    }
+
+    private void awaitBind(ServerRunnable serverRunnable) throws IOException {
         while (!serverRunnable.hasBinded() && serverRunnable.getBindException() == null) {
             try {
                 Thread.sleep(10L);
@@ -620,16 +1142,72 @@ public abstract class NanoHTTPD {
         }
     }
 
+    /**
+     * Stops the server gracefully: no new connections are accepted, requests
+     * being served may finish within the drain timeout and are answered with
+     * "Connection: close". Whatever is still open afterwards is closed as by
+     * {@link #stop()}.
+     * 
+     * @param drainTimeout
+     *            how long to wait for running requests.
+     * @param unit
+     *            unit of the drain timeout.
+     */
+    public void stop(long drainTimeout, TimeUnit unit) {
+        this.draining = true;
+        try {
+            safeClose(this.myServerSocket);
+            for (ServerSocket acceptorSocket : this.acceptorSockets) {
+                safeClose(acceptorSocket);
+            }
+            long deadline = System.currentTimeMillis() + unit.toMillis(drainTimeout);
+            while (this.counters.getInFlightRequests() > 0 && System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(10L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            this.draining = false;
+            stop();
+        }
+    }
+
+    /**
+     * @return true while a graceful stop waits for running requests.
+     */
+    public boolean isDraining() {
+        return this.draining;
+    }
+
+    /**
+     * @return the live connection and request counters of this server.
+     */
+    public ServerCounters getCounters() {
+        return this.counters;
+    }
+
     /**
      * Stop the server.
      */
     public void stop() {
         try {
             safeClose(this.myServerSocket);
+            for (ServerSocket acceptorSocket : this.acceptorSockets) {
+                safeClose(acceptorSocket);
+            }
             this.asyncRunner.closeAll();
+            if (this.idleConnectionParker != null) {
+                this.idleConnectionParker.closeAll();
+            }
             if (this.myThread != null) {
                 this.myThread.join();
             }
+            for (Thread acceptorThread : this.acceptorThreads) {
+                acceptorThread.join();
+            }
         } catch (Exception e) {
             NanoHTTPD.LOG.log(Level.SEVERE, "Could not stop all connections", e);
         }
@@ -0,0 +1,96 @@
+package org.nanohttpd.protocols.http;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Buffers for reading request heads, shared by all sessions of a server. A
+ * session takes a buffer only once the first byte of a request arrived and
+ * gives it back when the request is done, so idle keep-alive connections hold
+ * none. A head that does not fit is read into a larger copy, which is not
+ * pooled.
+ */
+public class RequestBufferPool {
+
+    /**
+     * Large enough for the head of most requests.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 2048;
+
+    private final BlockingQueue<byte[]> buffers;
+
+    private final int bufferSize;
+
+    /**
+     * @param maxPooled
+     *            buffers kept for reuse at most, more are left to the garbage
+     *            collector.
+     */
+    public RequestBufferPool(int maxPooled) {
+        this(maxPooled, DEFAULT_BUFFER_SIZE);
+    }
+
+    public RequestBufferPool(int maxPooled, int bufferSize) {
+        this.buffers = new ArrayBlockingQueue<byte[]>(Math.max(1, maxPooled));
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return a buffer of {@link #getBufferSize()} bytes, its content is
+     *         undefined.
+     */
+    public byte[] acquire() {
+        byte[] buffer = this.buffers.poll();
+        return buffer != null ? buffer : new byte[this.bufferSize];
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer.length == this.bufferSize) {
+            this.buffers.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * @return the number of buffers waiting for reuse.
+     */
+    public int getPooled() {
+        return this.buffers.size();
+    }
+}
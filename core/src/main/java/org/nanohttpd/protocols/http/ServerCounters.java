@@ -0,0 +1,93 @@
+package org.nanohttpd.protocols.http;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters of a server: open client connections and requests currently
+ * being served. Updated by the server engines, read for monitoring and by the
+ * graceful {@link NanoHTTPD#stop(long, java.util.concurrent.TimeUnit) stop}.
+ */
+public final class ServerCounters {
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+
+    private final AtomicLong completedRequests = new AtomicLong();
+
+    /**
+     * @return the number of accepted connections not closed yet, idle
+     *         keep-alive connections included.
+     */
+    public int getOpenConnections() {
+        return this.openConnections.get();
+    }
+
+    /**
+     * @return the number of requests whose head was read and whose response was
+     *         not completely sent yet.
+     */
+    public int getInFlightRequests() {
+        return this.inFlightRequests.get();
+    }
+
+    /**
+     * @return the number of requests served since the server was created.
+     */
+    public long getCompletedRequests() {
+        return this.completedRequests.get();
+    }
+
+    public void connectionOpened() {
+        this.openConnections.incrementAndGet();
+    }
+
+    public void connectionClosed() {
+        this.openConnections.decrementAndGet();
+    }
+
+    public void requestStarted() {
+        this.inFlightRequests.incrementAndGet();
+    }
+
+    public void requestFinished() {
+        // counted as completed first, whoever sees no request in flight sees
+        // it completed.
+        this.completedRequests.incrementAndGet();
+        this.inFlightRequests.decrementAndGet();
+    }
+}
@@ -36,9 +36,13 @@ package org.nanohttpd.protocols.http;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.logging.Level;
 
+import org.nanohttpd.protocols.http.threading.IAsyncRunner;
+import org.nanohttpd.protocols.http.threading.ShardedAsyncRunner;
+
 /**
  * The runnable that will be used for the main listening thread.
  */
@@ -48,36 +52,100 @@ public class ServerRunnable implements Runnable {
 
     private final int timeout;
 
+    private final ServerSocket serverSocket;
+
+    private final int acceptor;
+
     private IOException bindException;
 
     private boolean hasBinded = false;
 
     public ServerRunnable(NanoHTTPD httpd, int timeout) {
+        this(httpd, timeout, null, 0);
+    }
+
+    /**
+     * @param serverSocket
+     *            the socket to accept on, null for the main server socket. It
+     *            is bound to the server's address unless already bound.
+     * @param acceptor
+     *            index of this acceptor, selects the worker shard of a
+     *            {@link ShardedAsyncRunner}.
+     */
+    public ServerRunnable(NanoHTTPD httpd, int timeout, ServerSocket serverSocket, int acceptor) {
         this.httpd = httpd;
         this.timeout = timeout;
+        this.serverSocket = serverSocket;
+        this.acceptor = acceptor;
     }
 
     @Override
     public void run() {
         try {
-            httpd.getMyServerSocket().bind(httpd.hostname != null ? new InetSocketAddress(httpd.hostname, httpd.myPort) : new InetSocketAddress(httpd.myPort));
+            ServerSocket socket = getServerSocket();
+            if (!socket.isBound()) {
+                // further SO_REUSEPORT listeners join the port the main socket
+                // got, which matters when it was bound to port 0.
+                int port = httpd.getMyServerSocket().isBound() ? httpd.getListeningPort() : httpd.myPort;
+                socket.bind(httpd.hostname != null ? new InetSocketAddress(httpd.hostname, port) : new InetSocketAddress(port));
+            }
             hasBinded = true;
         } catch (IOException e) {
             this.bindException = e;
             return;
         }
+        acceptConnections();
+    }
+
+    /**
+     * Accepts connections on the bound server socket until it is closed,
+     * handing every one of them to the async runner.
+     */
+    protected void acceptConnections() {
         do {
             try {
-                final Socket finalAccept = httpd.getMyServerSocket().accept();
+                final Socket finalAccept = getServerSocket().accept();
                 if (this.timeout > 0) {
                     finalAccept.setSoTimeout(this.timeout);
                 }
                 final InputStream inputStream = finalAccept.getInputStream();
-                httpd.asyncRunner.exec(httpd.createClientHandler(finalAccept, inputStream));
+                httpd.getCounters().connectionOpened();
+                getAsyncRunner().exec(httpd.createClientHandler(finalAccept, inputStream));
             } catch (IOException e) {
                 NanoHTTPD.LOG.log(Level.FINE, "Communication with the client broken", e);
             }
-        } while (!httpd.getMyServerSocket().isClosed());
+        } while (!getServerSocket().isClosed());
+    }
+
+    /**
+     * @return the server socket this runnable accepts on.
+     */
+    public ServerSocket getServerSocket() {
+        return this.serverSocket != null ? this.serverSocket : httpd.getMyServerSocket();
+    }
+
+    public int getAcceptor() {
+        return acceptor;
+    }
+
+    /**
+     * @return the runner for connections accepted here, the own shard when the
+     *         server runs a {@link ShardedAsyncRunner}.
+     */
+    public IAsyncRunner getAsyncRunner() {
+        IAsyncRunner runner = httpd.getAsyncRunner();
+        if (runner instanceof ShardedAsyncRunner) {
+            return ((ShardedAsyncRunner) runner).getShard(this.acceptor);
+        }
+        return runner;
+    }
+
+    public NanoHTTPD getHttpd() {
+        return httpd;
+    }
+
+    public int getTimeout() {
+        return timeout;
     }
 
     public IOException getBindException() {
@@ -0,0 +1,115 @@
+package org.nanohttpd.protocols.http.nio;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.logging.Level;
+
+import org.nanohttpd.protocols.http.ClientHandler;
+import org.nanohttpd.protocols.http.HTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+
+/**
+ * Serves one complete request of a {@link ChannelConnection} on a worker thread
+ * and gives the connection back to its selector loop afterwards.
+ */
+public class ChannelClientHandler extends ClientHandler {
+
+    private final NanoHTTPD httpd;
+
+    private final ChannelConnection connection;
+
+    public ChannelClientHandler(NanoHTTPD httpd, ChannelConnection connection) {
+        super(httpd, connection.getInputStream(), connection.getSocket());
+        this.httpd = httpd;
+        this.connection = connection;
+    }
+
+    public ChannelConnection getConnection() {
+        return this.connection;
+    }
+
+    @Override
+    public void close() {
+        this.connection.close();
+    }
+
+    @Override
+    public void abort(byte[] rawResponse) {
+        this.connection.abort(rawResponse);
+    }
+
+    @Override
+    public void run() {
+        HTTPSession session = null;
+        boolean suspend = false;
+        try {
+            session = this.connection.createSession(this.httpd);
+            session.execute();
+            // a handler that read past its request owns the connection now,
+            // keep serving it in blocking fashion like the classic engine.
+            while (!session.isSuspended() && this.connection.isRaw() && this.connection.isOpen()) {
+                session.execute();
+            }
+            if (session.isSuspended()) {
+                suspend = true;
+            } else {
+                this.connection.requestDone();
+            }
+        } catch (Exception e) {
+            if (!(e instanceof SocketException && "NanoHttpd Shutdown".equals(e.getMessage())) && !(e instanceof SocketTimeoutException)) {
+                NanoHTTPD.LOG.log(Level.SEVERE, "Communication with the client broken, or an bug in the handler code", e);
+            }
+            this.connection.close();
+        } finally {
+            if (!suspend) {
+                this.httpd.getAsyncRunner().closed(this);
+            }
+        }
+        if (suspend) {
+            session.resumeWhenComplete(this);
+        }
+    }
+
+    @Override
+    protected void deferredResponseSent(boolean keepAlive) {
+        this.httpd.getAsyncRunner().closed(this);
+        if (keepAlive) {
+            this.connection.requestDone();
+        } else {
+            this.connection.close();
+        }
+    }
+}
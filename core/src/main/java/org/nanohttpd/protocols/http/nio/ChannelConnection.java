@@ -0,0 +1,459 @@
+package org.nanohttpd.protocols.http.nio;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+
+import org.nanohttpd.protocols.http.HTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.sockets.UnixDomainSocketSupport;
+import org.nanohttpd.protocols.http.tempfiles.ITempFileManager;
+
+/**
+ * One client connection of the selector engine.
+ * <p>
+ * While the connection waits for a request it belongs to its selector loop,
+ * which reads into the connection buffer until a complete request is there. The
+ * request is then handed to a worker that runs a regular {@link HTTPSession}
+ * over the streams of this connection, and given back to the loop once the
+ * response has been written.
+ * </p>
+ * <p>
+ * The input stream ends where the dispatched request ends. A handler that reads
+ * further (for example a websocket after its handshake) switches the connection
+ * to raw mode: the worker then keeps it and reads from the channel in blocking
+ * fashion, just like the classic engine.
+ * </p>
+ * <p>
+ * With TLS all reads and writes go through a {@link TlsChannel}, the selector
+ * loop drives its handshake as part of reading the first request.
+ * </p>
+ */
+public class ChannelConnection {
+
+    private static final int INITIAL_BUFFER_SIZE = 2048;
+
+    private final SelectorLoop loop;
+
+    private final SocketChannel channel;
+
+    /**
+     * The channel itself, or the TLS layer over it.
+     */
+    private final ByteChannel transport;
+
+    private final TlsChannel tls;
+
+    /**
+     * Unix domain channels have no socket adaptor and no peer IP.
+     */
+    private final boolean unixDomain;
+
+    private final int timeout;
+
+    private final InputStream inputStream = new ConnectionInputStream();
+
+    private final OutputStream outputStream = new ConnectionOutputStream();
+
+    private SelectionKey key;
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    private ByteBuffer view = ByteBuffer.wrap(this.buffer);
+
+    private int start;
+
+    private int end;
+
+    /**
+     * Bytes of the dispatched request not yet read by the worker.
+     */
+    private long remaining;
+
+    private boolean raw;
+
+    private volatile boolean dispatched;
+
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    private volatile boolean closed;
+
+    private ITempFileManager tempFileManager;
+
+    private HTTPSession session;
+
+    ChannelConnection(SelectorLoop loop, SocketChannel channel, TlsChannel tls, int timeout) {
+        this.loop = loop;
+        this.channel = channel;
+        this.tls = tls;
+        this.transport = tls != null ? tls : channel;
+        this.unixDomain = UnixDomainSocketSupport.isUnixDomain(channel);
+        this.timeout = timeout;
+        if (tls != null) {
+            tls.setTaskExecutor(new Executor() {
+
+                @Override
+                public void execute(Runnable tasks) {
+                    ChannelConnection.this.loop.runHandshakeTasks(ChannelConnection.this, tasks);
+                }
+            });
+        }
+    }
+
+    public SocketChannel getChannel() {
+        return this.channel;
+    }
+
+    /**
+     * @return stream over the current request, continuing with the raw
+     *         connection if read past its end.
+     */
+    public InputStream getInputStream() {
+        return this.inputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return this.outputStream;
+    }
+
+    /**
+     * @return the socket adaptor of the channel, null for a Unix domain
+     *         connection.
+     */
+    public Socket getSocket() {
+        return this.unixDomain ? null : this.channel.socket();
+    }
+
+    /**
+     * @return the address of the client; clients on a Unix domain socket are on
+     *         this host and reported as loopback.
+     */
+    public InetAddress getRemoteAddress() {
+        return this.unixDomain ? InetAddress.getLoopbackAddress() : this.channel.socket().getInetAddress();
+    }
+
+    public boolean isOpen() {
+        return !this.closed && this.channel.isOpen();
+    }
+
+    /**
+     * @return true once the worker read past the end of its request and owns
+     *         the connection.
+     */
+    public boolean isRaw() {
+        return this.raw;
+    }
+
+    /**
+     * Returns the session for the dispatched request. Like in the classic
+     * engine, one session and its temporary files serve all requests of the
+     * connection.
+     */
+    public HTTPSession createSession(NanoHTTPD httpd) {
+        if (this.session == null) {
+            this.tempFileManager = httpd.getTempFileManagerFactory().create();
+            this.session = new HTTPSession(httpd, this.tempFileManager, this.inputStream, this.outputStream, getRemoteAddress());
+        } else {
+            // whatever the session buffered of the previous request was
+            // skipped by requestDone() already.
+            this.session.discardBufferedInput();
+        }
+        return this.session;
+    }
+
+    /**
+     * Writes the raw bytes to the client and closes the connection.
+     */
+    public void abort(byte[] rawResponse) {
+        try {
+            this.outputStream.write(rawResponse);
+        } catch (IOException e) {
+            NanoHTTPD.LOG.log(Level.FINE, "Could not send rejection to the client", e);
+        } finally {
+            close();
+        }
+    }
+
+    public void close() {
+        if (!this.closed) {
+            this.closed = true;
+            NanoHTTPD.safeClose(this.transport);
+            this.loop.removed(this);
+        }
+    }
+
+    /**
+     * Called by the worker after the session handled its request. Whatever the
+     * handler left unread of the request is skipped and the connection goes
+     * back to its selector loop.
+     */
+    public void requestDone() {
+        if (!isOpen() || this.raw) {
+            return;
+        }
+        if (this.remaining > this.end - this.start) {
+            // the rest of a streamed body is still on the wire, dropping the
+            // connection is cheaper than reading it.
+            close();
+            return;
+        }
+        this.start += (int) this.remaining;
+        this.remaining = 0;
+        if (this.start == this.end) {
+            this.start = 0;
+            this.end = 0;
+            if (this.buffer.length > INITIAL_BUFFER_SIZE) {
+                setBuffer(new byte[INITIAL_BUFFER_SIZE]);
+            }
+        }
+        this.lastActivity = System.currentTimeMillis();
+        this.dispatched = false;
+        this.loop.resume(this);
+    }
+
+    /**
+     * Selector thread: registers a new connection or re-arms one a worker gave
+     * back, dispatching right away if a pipelined request is already buffered.
+     */
+    void resume(Selector selector) throws IOException {
+        if (!isOpen()) {
+            return;
+        }
+        if (this.key == null) {
+            this.key = this.channel.register(selector, SelectionKey.OP_READ, this);
+        } else if (!dispatchIfComplete()) {
+            this.key.interestOps(SelectionKey.OP_READ);
+            if (this.tls != null && this.tls.canProceed()) {
+                // decrypted ahead by the worker or handshake tasks done, the
+                // selector will not report either.
+                onReadable();
+            }
+        }
+    }
+
+    /**
+     * Selector thread: reads what is available and dispatches the request if it
+     * is complete.
+     */
+    void onReadable() throws IOException {
+        int read;
+        do {
+            if (this.end == this.buffer.length) {
+                makeRoom();
+            }
+            this.view.limit(this.buffer.length).position(this.end);
+            read = this.tls != null ? this.tls.readDeferringTasks(this.view) : this.channel.read(this.view);
+            if (read < 0) {
+                close();
+                return;
+            }
+            if (this.tls != null && this.tls.isRunningTasks()) {
+                // unread records would wake the selector over and over,
+                // handshakeTasksDone() re-arms the key.
+                this.key.interestOps(0);
+                return;
+            }
+            this.end += read;
+            this.lastActivity = System.currentTimeMillis();
+            if (dispatchIfComplete()) {
+                return;
+            }
+            // a TLS record may hold more than the buffer took.
+        } while (read > 0 && this.tls != null && this.tls.hasBuffered());
+    }
+
+    /**
+     * Any thread: the delegated tasks of the TLS handshake finished, the
+     * selector loop goes on with it.
+     */
+    void handshakeTasksDone() {
+        this.lastActivity = System.currentTimeMillis();
+        this.loop.resume(this);
+    }
+
+    boolean isExpired(long now) {
+        return !this.dispatched && this.timeout > 0 && now - this.lastActivity > this.timeout;
+    }
+
+    private boolean dispatchIfComplete() {
+        if (this.start == this.end) {
+            return false;
+        }
+        long frame = this.loop.getFramer().frame(this.buffer, this.start, this.end);
+        if (frame == RequestFramer.NEED_MORE) {
+            if (this.end - this.start < maxBufferSize()) {
+                return false;
+            }
+            frame = RequestFramer.UNBOUNDED;
+        }
+        this.raw = frame == RequestFramer.UNBOUNDED;
+        this.remaining = this.raw ? 0 : frame;
+        this.dispatched = true;
+        try {
+            this.key.interestOps(0);
+        } catch (CancelledKeyException e) {
+            return true;
+        }
+        this.loop.dispatch(this);
+        return true;
+    }
+
+    private int maxBufferSize() {
+        return HTTPSession.BUFSIZE + this.loop.getFramer().getMaxBufferedBody();
+    }
+
+    private void makeRoom() {
+        if (this.start > 0) {
+            System.arraycopy(this.buffer, this.start, this.buffer, 0, this.end - this.start);
+            this.end -= this.start;
+            this.start = 0;
+        } else {
+            byte[] larger = new byte[Math.min(this.buffer.length * 2, maxBufferSize())];
+            System.arraycopy(this.buffer, 0, larger, 0, this.end);
+            setBuffer(larger);
+        }
+    }
+
+    private void setBuffer(byte[] buffer) {
+        this.buffer = buffer;
+        this.view = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Worker thread: refills the empty buffer from the channel, blocking up to
+     * the read timeout.
+     * 
+     * @return false at the end of the stream.
+     */
+    private boolean fill() throws IOException {
+        this.start = 0;
+        this.end = 0;
+        while (true) {
+            this.view.limit(this.buffer.length).position(0);
+            int read = this.transport.read(this.view);
+            if (read < 0) {
+                return false;
+            }
+            if (read > 0) {
+                this.end = read;
+                return true;
+            }
+            ChannelSupport.await(this.channel, SelectionKey.OP_READ, this.timeout);
+        }
+    }
+
+    private final class ConnectionInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ChannelConnection.this.raw && ChannelConnection.this.remaining == 0) {
+                ChannelConnection.this.raw = true;
+            }
+            if (ChannelConnection.this.start == ChannelConnection.this.end && !fill()) {
+                return -1;
+            }
+            int count = Math.min(len, ChannelConnection.this.end - ChannelConnection.this.start);
+            if (!ChannelConnection.this.raw) {
+                count = (int) Math.min(count, ChannelConnection.this.remaining);
+                ChannelConnection.this.remaining -= count;
+            }
+            System.arraycopy(ChannelConnection.this.buffer, ChannelConnection.this.start, b, off, count);
+            ChannelConnection.this.start += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            int buffered = ChannelConnection.this.end - ChannelConnection.this.start;
+            return ChannelConnection.this.raw ? buffered : (int) Math.min(buffered, ChannelConnection.this.remaining);
+        }
+
+        @Override
+        public void close() {
+            ChannelConnection.this.close();
+        }
+    }
+
+    private final class ConnectionOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{
+                (byte) b
+            }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer data = ByteBuffer.wrap(b, off, len);
+            while (data.hasRemaining()) {
+                if (ChannelConnection.this.transport.write(data) == 0) {
+                    // like a blocking socket, writes wait for the client as
+                    // long as it takes; stop() still ends the wait by
+                    // closing the channel.
+                    ChannelSupport.await(ChannelConnection.this.channel, SelectionKey.OP_WRITE, 0);
+                }
+            }
+            while (ChannelConnection.this.tls != null && !ChannelConnection.this.tls.flush()) {
+                ChannelSupport.await(ChannelConnection.this.channel, SelectionKey.OP_WRITE, 0);
+            }
+        }
+
+        @Override
+        public void close() {
+            ChannelConnection.this.close();
+        }
+    }
+}
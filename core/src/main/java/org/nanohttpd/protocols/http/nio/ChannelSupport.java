@@ -0,0 +1,99 @@
+package org.nanohttpd.protocols.http.nio;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Blocking waits on non-blocking channels, for the worker threads that stream
+ * request bodies and responses over a channel owned by a selector loop. The
+ * waits use private selectors borrowed from a shared pool, so the loop's
+ * selector is never touched from outside its thread.
+ */
+final class ChannelSupport {
+
+    private static final long POLL_INTERVAL = 500;
+
+    private static final Queue<Selector> SELECTORS = new ConcurrentLinkedQueue<Selector>();
+
+    private ChannelSupport() {
+    }
+
+    /**
+     * Blocks until the channel is ready for the given operation.
+     * 
+     * @param timeout
+     *            in milliseconds, 0 to wait forever.
+     * @throws SocketTimeoutException
+     *             if the channel did not get ready in time.
+     */
+    static void await(SelectableChannel channel, int ops, int timeout) throws IOException {
+        Selector selector = SELECTORS.poll();
+        if (selector == null) {
+            selector = Selector.open();
+        }
+        SelectionKey key;
+        try {
+            key = channel.register(selector, ops);
+        } catch (IOException e) {
+            SELECTORS.add(selector);
+            throw e;
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            // wake up regularly, a channel closed by another thread does not
+            // necessarily wake the selector.
+            while (selector.select(POLL_INTERVAL) == 0) {
+                if (!channel.isOpen()) {
+                    throw new ClosedChannelException();
+                }
+                if (timeout > 0 && System.currentTimeMillis() >= deadline) {
+                    throw new SocketTimeoutException("Timeout waiting for the channel to become " + (ops == SelectionKey.OP_READ ? "readable" : "writable"));
+                }
+            }
+        } finally {
+            key.cancel();
+            // flush the cancelled key before the selector is reused
+            selector.selectNow();
+            SELECTORS.add(selector);
+        }
+    }
+}
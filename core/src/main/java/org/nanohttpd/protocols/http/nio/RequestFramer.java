@@ -0,0 +1,280 @@
+package org.nanohttpd.protocols.http.nio;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import org.nanohttpd.protocols.http.HTTPSession;
+
+/**
+ * Finds where a buffered HTTP/1.x request ends without parsing it, so that a
+ * selector thread can decide when a request is complete enough to be handed to
+ * a worker, or a pipelining connection can split its buffered requests. Only
+ * the headers relevant for framing (content-length, transfer-encoding and
+ * expect) are looked at, everything else is left to HTTPSession.
+ */
+public class RequestFramer {
+
+    /**
+     * More bytes are needed before the request can be dispatched.
+     */
+    public static final long NEED_MORE = -1;
+
+    /**
+     * The request can be dispatched but its end is unknown, the worker has to
+     * read it from the connection in blocking mode.
+     */
+    public static final long UNBOUNDED = -2;
+
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes();
+
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes();
+
+    private static final byte[] EXPECT = "expect".getBytes();
+
+    private final int maxBufferedBody;
+
+    /**
+     * @param maxBufferedBody
+     *            bodies larger than this are not collected by the selector, the
+     *            request is dispatched as soon as its header is complete and
+     *            the worker streams the body.
+     */
+    public RequestFramer(int maxBufferedBody) {
+        this.maxBufferedBody = maxBufferedBody;
+    }
+
+    public int getMaxBufferedBody() {
+        return maxBufferedBody;
+    }
+
+    /**
+     * @return the total length of the request starting at <code>start</code>
+     *         (which may be larger than the bytes buffered so far if the body
+     *         is streamed), {@link #NEED_MORE} or {@link #UNBOUNDED}.
+     */
+    public long frame(byte[] buf, int start, int end) {
+        int headerEnd = findHeaderEnd(buf, start, end);
+        if (headerEnd < 0) {
+            return end - start >= HTTPSession.BUFSIZE ? UNBOUNDED : NEED_MORE;
+        }
+        long contentLength = 0;
+        boolean chunked = false;
+        boolean expect = false;
+        int lineStart = nextLine(buf, start, headerEnd);
+        while (lineStart < headerEnd) {
+            int lineEnd = nextLine(buf, lineStart, headerEnd);
+            int colon = indexOf(buf, lineStart, lineEnd, (byte) ':');
+            if (colon > 0) {
+                int nameEnd = trimEnd(buf, lineStart, colon);
+                if (equalsIgnoreCase(buf, lineStart, nameEnd, CONTENT_LENGTH)) {
+                    contentLength = parseLong(buf, colon + 1, lineEnd);
+                    if (contentLength < 0) {
+                        return UNBOUNDED;
+                    }
+                } else if (equalsIgnoreCase(buf, lineStart, nameEnd, TRANSFER_ENCODING)) {
+                    chunked = containsChunked(buf, colon + 1, lineEnd);
+                } else if (equalsIgnoreCase(buf, lineStart, nameEnd, EXPECT)) {
+                    expect = true;
+                }
+            }
+            lineStart = lineEnd;
+        }
+        int headerLength = headerEnd - start;
+        if (expect) {
+            // the client waits for the answer to its expectation before it
+            // sends the body.
+            return chunked ? UNBOUNDED : headerLength + contentLength;
+        }
+        if (chunked) {
+            int chunksEnd = findChunksEnd(buf, headerEnd, end);
+            if (chunksEnd >= 0) {
+                return chunksEnd - start;
+            }
+            return end - headerEnd > this.maxBufferedBody ? UNBOUNDED : NEED_MORE;
+        }
+        if (end - start >= headerLength + contentLength || contentLength > this.maxBufferedBody) {
+            return headerLength + contentLength;
+        }
+        return NEED_MORE;
+    }
+
+    /**
+     * Same rules as HTTPSession: the header ends with an empty line, either
+     * CRLF CRLF or (tolerated) LF LF.
+     * 
+     * @return index of the first byte after the header or -1.
+     */
+    static int findHeaderEnd(byte[] buf, int start, int end) {
+        for (int i = start; i + 1 < end; i++) {
+            if (buf[i] == '\r' && buf[i + 1] == '\n' && i + 3 < end && buf[i + 2] == '\r' && buf[i + 3] == '\n') {
+                return i + 4;
+            }
+            if (buf[i] == '\n' && buf[i + 1] == '\n') {
+                return i + 2;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Walks the chunks of a chunked body and its trailer.
+     * 
+     * @return index of the first byte after the body or -1 if incomplete.
+     */
+    private static int findChunksEnd(byte[] buf, int pos, int end) {
+        while (true) {
+            int lineEnd = indexOf(buf, pos, end, (byte) '\n');
+            if (lineEnd < 0) {
+                return -1;
+            }
+            long size = parseHex(buf, pos, lineEnd);
+            if (size < 0) {
+                // malformed, let the worker fail on it.
+                return lineEnd + 1;
+            }
+            pos = lineEnd + 1;
+            if (size == 0) {
+                // trailer fields until an empty line
+                while (true) {
+                    lineEnd = indexOf(buf, pos, end, (byte) '\n');
+                    if (lineEnd < 0) {
+                        return -1;
+                    }
+                    boolean empty = lineEnd == pos || lineEnd == pos + 1 && buf[pos] == '\r';
+                    pos = lineEnd + 1;
+                    if (empty) {
+                        return pos;
+                    }
+                }
+            }
+            if (end - pos < size) {
+                return -1;
+            }
+            pos += (int) size;
+            lineEnd = indexOf(buf, pos, end, (byte) '\n');
+            if (lineEnd < 0) {
+                return -1;
+            }
+            pos = lineEnd + 1;
+        }
+    }
+
+    private static boolean containsChunked(byte[] buf, int start, int end) {
+        byte[] chunked = "chunked".getBytes();
+        for (int i = start; i + chunked.length <= end; i++) {
+            if (equalsIgnoreCase(buf, i, i + chunked.length, chunked)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] buf, int start, int end, byte[] lowerCase) {
+        if (end - start != lowerCase.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerCase.length; i++) {
+            byte b = buf[start + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] buf, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the first byte of the line after the one starting at
+     *         <code>start</code>.
+     */
+    private static int nextLine(byte[] buf, int start, int end) {
+        int lf = indexOf(buf, start, end, (byte) '\n');
+        return lf < 0 ? end : lf + 1;
+    }
+
+    private static long parseLong(byte[] buf, int start, int end) {
+        long value = 0;
+        boolean digits = false;
+        for (int i = start; i < end; i++) {
+            byte b = buf[i];
+            if (b >= '0' && b <= '9') {
+                if (value > (Long.MAX_VALUE - 9) / 10) {
+                    return -1;
+                }
+                value = value * 10 + b - '0';
+                digits = true;
+            } else if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return -1;
+            }
+        }
+        return digits ? value : -1;
+    }
+
+    private static long parseHex(byte[] buf, int start, int end) {
+        long value = 0;
+        boolean digits = false;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(buf[i], 16);
+            if (digit < 0) {
+                if (buf[i] == ';' || buf[i] == ' ' || buf[i] == '\t' || buf[i] == '\r') {
+                    break;
+                }
+                return -1;
+            }
+            if (value > Long.MAX_VALUE >> 4) {
+                return -1;
+            }
+            value = value << 4 | digit;
+            digits = true;
+        }
+        return digits ? value : -1;
+    }
+
+    private static int trimEnd(byte[] buf, int start, int end) {
+        while (end > start && (buf[end - 1] == ' ' || buf[end - 1] == '\t')) {
+            end--;
+        }
+        return end;
+    }
+}
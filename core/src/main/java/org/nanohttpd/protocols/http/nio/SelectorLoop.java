@@ -0,0 +1,205 @@
+package org.nanohttpd.protocols.http.nio;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.sockets.SSLEngineFactory;
+
+/**
+ * Event loop of the selector engine: waits for readable connections, collects
+ * their bytes until a request is complete and then dispatches it to the async
+ * runner. Idle connections are closed after the server's socket timeout.
+ * <p>
+ * The selector is only used from the loop thread; other threads hand
+ * connections over through a queue and wake the selector up.
+ * </p>
+ */
+class SelectorLoop implements Runnable {
+
+    /**
+     * Interval in milliseconds at which idle connections are looked for.
+     */
+    private static final long EXPIRY_INTERVAL = 1000;
+
+    private final SelectorServerRunnable server;
+
+    private final RequestFramer framer;
+
+    private final Selector selector;
+
+    private final Queue<ChannelConnection> pending = new ConcurrentLinkedQueue<ChannelConnection>();
+
+    private final Set<ChannelConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<ChannelConnection, Boolean>());
+
+    private volatile boolean running = true;
+
+    SelectorLoop(SelectorServerRunnable server, RequestFramer framer) throws IOException {
+        this.server = server;
+        this.framer = framer;
+        this.selector = Selector.open();
+    }
+
+    RequestFramer getFramer() {
+        return this.framer;
+    }
+
+    /**
+     * Any thread: adopts a freshly accepted, non-blocking channel.
+     */
+    void register(SocketChannel channel) {
+        SSLEngineFactory sslEngineFactory = this.server.getHttpd().getSSLEngineFactory();
+        TlsChannel tls = null;
+        if (sslEngineFactory != null) {
+            tls = new TlsChannel(channel, sslEngineFactory.create(), sslEngineFactory.getStatistics(), this.server.getTimeout());
+        }
+        ChannelConnection connection = new ChannelConnection(this, channel, tls, this.server.getTimeout());
+        this.connections.add(connection);
+        this.server.getHttpd().getCounters().connectionOpened();
+        resume(connection);
+    }
+
+    /**
+     * Any thread: gives a connection back after its request was served.
+     */
+    void resume(ChannelConnection connection) {
+        this.pending.add(connection);
+        this.selector.wakeup();
+    }
+
+    void removed(ChannelConnection connection) {
+        if (this.connections.remove(connection)) {
+            this.server.getHttpd().getCounters().connectionClosed();
+        }
+    }
+
+    void dispatch(ChannelConnection connection) {
+        this.server.getAsyncRunner().exec(this.server.createClientHandler(connection));
+    }
+
+    /**
+     * Runs delegated tasks of a TLS handshake on the async runner, they may
+     * take milliseconds of CPU the other connections of the loop should not
+     * wait for. The connection is given back to the loop once they are done.
+     */
+    void runHandshakeTasks(final ChannelConnection connection, final Runnable tasks) {
+        try {
+            this.server.getAsyncRunner().execTask(new Runnable() {
+
+                @Override
+                public void run() {
+                    tasks.run();
+                    connection.handshakeTasksDone();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // without the tasks the handshake cannot go on, and there is no
+            // HTTP to answer with yet.
+            connection.close();
+        }
+    }
+
+    /**
+     * Stops the loop, it closes all its connections on the way out.
+     */
+    void shutdown() {
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long nextExpiry = System.currentTimeMillis() + EXPIRY_INTERVAL;
+        try {
+            while (this.running) {
+                this.selector.select(EXPIRY_INTERVAL);
+                ChannelConnection connection;
+                while ((connection = this.pending.poll()) != null) {
+                    try {
+                        connection.resume(this.selector);
+                    } catch (IOException e) {
+                        NanoHTTPD.LOG.log(Level.FINE, "Could not register connection", e);
+                        connection.close();
+                    }
+                }
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    connection = (ChannelConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                    } catch (CancelledKeyException e) {
+                        connection.close();
+                    } catch (IOException e) {
+                        NanoHTTPD.LOG.log(Level.FINE, "Communication with the client broken", e);
+                        connection.close();
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextExpiry) {
+                    for (ChannelConnection candidate : this.connections) {
+                        if (candidate.isExpired(now)) {
+                            candidate.close();
+                        }
+                    }
+                    nextExpiry = now + EXPIRY_INTERVAL;
+                }
+            }
+        } catch (IOException e) {
+            NanoHTTPD.LOG.log(Level.SEVERE, "Selector loop failed", e);
+        } finally {
+            for (ChannelConnection connection : new ArrayList<ChannelConnection>(this.connections)) {
+                connection.close();
+            }
+            NanoHTTPD.safeClose(this.selector);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.nanohttpd.protocols.http.nio;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.ServerRunnable;
+
+/**
+ * Listening runnable of the selector engine. Accepted connections are spread
+ * over a few {@link SelectorLoop} threads which read requests without blocking;
+ * only complete requests reach the async runner, wrapped in a
+ * {@link ChannelClientHandler}. Handlers and responses are the same as with the
+ * classic engine.
+ * <p>
+ * Requires a server socket created by a
+ * {@link org.nanohttpd.protocols.http.sockets.ChannelServerSocketFactory}; with
+ * any other server socket it falls back to the blocking engine.
+ * </p>
+ */
+public class SelectorServerRunnable extends ServerRunnable {
+
+    /**
+     * Request bodies up to this size are collected by the selector before the
+     * request is dispatched, larger ones are streamed by the worker.
+     */
+    public static final int DEFAULT_MAX_BUFFERED_BODY = 64 * 1024;
+
+    private final int selectorThreads;
+
+    public SelectorServerRunnable(NanoHTTPD httpd, int timeout, int selectorThreads) {
+        this(httpd, timeout, null, 0, selectorThreads);
+    }
+
+    public SelectorServerRunnable(NanoHTTPD httpd, int timeout, ServerSocket serverSocket, int acceptor, int selectorThreads) {
+        super(httpd, timeout, serverSocket, acceptor);
+        this.selectorThreads = Math.max(1, selectorThreads);
+    }
+
+    @Override
+    protected void acceptConnections() {
+        ServerSocketChannel serverChannel = getServerSocket().getChannel();
+        if (serverChannel == null) {
+            NanoHTTPD.LOG.log(Level.WARNING, "Server socket is not backed by a channel, using the blocking engine");
+            super.acceptConnections();
+            return;
+        }
+        SelectorLoop[] loops = new SelectorLoop[this.selectorThreads];
+        Thread[] threads = new Thread[this.selectorThreads];
+        try {
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new SelectorLoop(this, new RequestFramer(DEFAULT_MAX_BUFFERED_BODY));
+                threads[i] = new Thread(loops[i]);
+                threads[i].setDaemon(true);
+                threads[i].setName("NanoHttpd Selector (#" + (i + 1) + ")");
+                threads[i].start();
+            }
+            int next = 0;
+            while (serverChannel.isOpen()) {
+                try {
+                    SocketChannel channel = serverChannel.accept();
+                    channel.configureBlocking(false);
+                    loops[next].register(channel);
+                    next = (next + 1) % loops.length;
+                } catch (ClosedChannelException e) {
+                    break;
+                } catch (IOException e) {
+                    NanoHTTPD.LOG.log(Level.FINE, "Communication with the client broken", e);
+                }
+            }
+        } catch (IOException e) {
+            NanoHTTPD.LOG.log(Level.SEVERE, "Could not open selector", e);
+        } finally {
+            // while the server drains, requests of accepted connections are
+            // still served.
+            while (getHttpd().isDraining()) {
+                try {
+                    Thread.sleep(10L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            for (int i = 0; i < loops.length; i++) {
+                if (loops[i] != null) {
+                    loops[i].shutdown();
+                }
+            }
+            for (int i = 0; i < threads.length; i++) {
+                try {
+                    if (threads[i] != null) {
+                        threads[i].join();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the handler serving one request of the given connection,
+     * subclasses can return a subclass of the ChannelClientHandler.
+     */
+    protected ChannelClientHandler createClientHandler(ChannelConnection connection) {
+        return new ChannelClientHandler(getHttpd(), connection);
+    }
+}
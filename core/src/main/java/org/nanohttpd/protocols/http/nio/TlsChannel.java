@@ -0,0 +1,428 @@
+package org.nanohttpd.protocols.http.nio;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import org.nanohttpd.protocols.http.sockets.HandshakeStatistics;
+
+/**
+ * TLS over a non-blocking socket channel with an SSLEngine. Reads and writes
+ * plaintext like the channel itself: a read returns 0 while no complete record
+ * is there, so the selector loop can drive the handshake without blocking.
+ * <p>
+ * Handshake messages are written right away; only if the socket buffer is full
+ * does the reading thread wait for it, which a handshake fitting in a few
+ * kilobytes hardly ever does. The selector loop reads through
+ * {@link #readDeferringTasks(ByteBuffer)}, which hands delegated tasks of the
+ * engine, e.g. key exchange computations, to the task executor instead of
+ * running them on the selector thread; other reads and writes run them inline.
+ * Reading and writing may happen on different threads at the same time, e.g.
+ * for HTTP/2.
+ * </p>
+ */
+class TlsChannel implements ByteChannel {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+
+    private final SSLEngine engine;
+
+    private final HandshakeStatistics statistics;
+
+    private final int timeout;
+
+    private final Object readLock = new Object();
+
+    private final Object writeLock = new Object();
+
+    /**
+     * Buffers are kept in write mode between calls.
+     */
+    private ByteBuffer netIn;
+
+    private ByteBuffer appIn;
+
+    private ByteBuffer netOut;
+
+    /**
+     * Sessions created before this connection was accepted were resumed.
+     */
+    private final long accepted = System.currentTimeMillis();
+
+    private long handshakeStart;
+
+    private volatile boolean handshaking = true;
+
+    private boolean inboundDone;
+
+    private final Object taskLock = new Object();
+
+    private Executor taskExecutor;
+
+    private boolean tasksRunning;
+
+    TlsChannel(SocketChannel channel, SSLEngine engine, HandshakeStatistics statistics, int timeout) {
+        this.channel = channel;
+        this.engine = engine;
+        this.statistics = statistics;
+        this.timeout = timeout;
+        this.netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+
+    /**
+     * @param taskExecutor
+     *            runs delegated tasks for
+     *            {@link #readDeferringTasks(ByteBuffer)}.
+     */
+    void setTaskExecutor(Executor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return read(dst, false);
+    }
+
+    /**
+     * Reads like {@link #read(ByteBuffer)}, but never runs delegated tasks on
+     * the calling thread: they go to the task executor and the read returns 0
+     * until they are done, see {@link #isRunningTasks()}.
+     */
+    int readDeferringTasks(ByteBuffer dst) throws IOException {
+        return read(dst, this.taskExecutor != null);
+    }
+
+    /**
+     * @return true while delegated tasks run on the task executor, reads make
+     *         no progress until then.
+     */
+    boolean isRunningTasks() {
+        synchronized (this.taskLock) {
+            return this.tasksRunning;
+        }
+    }
+
+    /**
+     * @return true if a read would make progress without the socket reporting
+     *         anything, e.g. after delegated tasks finished.
+     */
+    boolean canProceed() {
+        synchronized (this.readLock) {
+            if (this.appIn.position() > 0 || this.netIn.position() > 0) {
+                return true;
+            }
+            HandshakeStatus status = this.engine.getHandshakeStatus();
+            return status == HandshakeStatus.NEED_WRAP || status == HandshakeStatus.NEED_TASK && !isRunningTasks();
+        }
+    }
+
+    private int read(ByteBuffer dst, boolean deferTasks) throws IOException {
+        synchronized (this.readLock) {
+            try {
+                while (this.appIn.position() == 0) {
+                    if (this.inboundDone) {
+                        return -1;
+                    }
+                    HandshakeStatus status = this.engine.getHandshakeStatus();
+                    if (status == HandshakeStatus.NEED_TASK) {
+                        if (deferTasks) {
+                            startTasks();
+                            return 0;
+                        }
+                        runTasks();
+                    } else if (status == HandshakeStatus.NEED_WRAP) {
+                        wrapHandshake();
+                    } else if (!unwrap()) {
+                        return 0;
+                    }
+                }
+            } catch (SSLException e) {
+                handshakeFailed();
+                throw e;
+            }
+            this.appIn.flip();
+            int count = Math.min(dst.remaining(), this.appIn.remaining());
+            int limit = this.appIn.limit();
+            this.appIn.limit(this.appIn.position() + count);
+            dst.put(this.appIn);
+            this.appIn.limit(limit);
+            this.appIn.compact();
+            return count;
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        synchronized (this.writeLock) {
+            if (!flush()) {
+                return 0;
+            }
+            int consumed = 0;
+            while (src.hasRemaining()) {
+                SSLEngineResult result = this.engine.wrap(src, this.netOut);
+                consumed += result.bytesConsumed();
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new ClosedChannelException();
+                }
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    this.netOut = enlarge(this.netOut, this.engine.getSession().getPacketBufferSize());
+                } else if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+                    runTasks();
+                } else if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    break;
+                }
+                if (!flush()) {
+                    break;
+                }
+            }
+            return consumed;
+        }
+    }
+
+    /**
+     * Writes out what is left of encrypted data without blocking.
+     * 
+     * @return true if nothing is pending any more.
+     */
+    boolean flush() throws IOException {
+        synchronized (this.writeLock) {
+            this.netOut.flip();
+            try {
+                while (this.netOut.hasRemaining() && this.channel.write(this.netOut) > 0) {
+                    // keep writing
+                }
+            } finally {
+                this.netOut.compact();
+            }
+            return this.netOut.position() == 0;
+        }
+    }
+
+    /**
+     * @return true if decrypted or received bytes are waiting to be read, the
+     *         selector does not know of those.
+     */
+    boolean hasBuffered() {
+        synchronized (this.readLock) {
+            return this.appIn.position() > 0 || this.netIn.position() > 0;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.handshaking && this.handshakeStart != 0) {
+            handshakeFailed();
+        }
+        try {
+            this.engine.closeOutbound();
+            synchronized (this.writeLock) {
+                this.engine.wrap(EMPTY, this.netOut);
+                flush();
+            }
+        } catch (IOException e) {
+            // the close_notify is a courtesy only
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Decrypts what was received, reading from the socket if needed.
+     * 
+     * @return false if the socket has nothing more for now.
+     */
+    private boolean unwrap() throws IOException {
+        this.netIn.flip();
+        SSLEngineResult result;
+        try {
+            result = this.engine.unwrap(this.netIn, this.appIn);
+        } finally {
+            this.netIn.compact();
+        }
+        switch (result.getStatus()) {
+            case BUFFER_UNDERFLOW:
+                if (!this.netIn.hasRemaining()) {
+                    this.netIn = enlarge(this.netIn, this.engine.getSession().getPacketBufferSize());
+                }
+                int read = this.channel.read(this.netIn);
+                if (read < 0) {
+                    this.inboundDone = true;
+                    if (this.handshakeStart != 0) {
+                        handshakeFailed();
+                    }
+                    try {
+                        this.engine.closeInbound();
+                    } catch (SSLException e) {
+                        // closed without close_notify, as most clients do.
+                    }
+                    return true;
+                }
+                if (read == 0) {
+                    return false;
+                }
+                if (this.handshakeStart == 0) {
+                    this.handshakeStart = System.nanoTime();
+                }
+                break;
+            case BUFFER_OVERFLOW:
+                this.appIn = enlarge(this.appIn, this.engine.getSession().getApplicationBufferSize());
+                break;
+            case CLOSED:
+                this.inboundDone = true;
+                break;
+            default:
+                break;
+        }
+        handshakeStep(result);
+        return true;
+    }
+
+    private void wrapHandshake() throws IOException {
+        SSLEngineResult result;
+        synchronized (this.writeLock) {
+            result = this.engine.wrap(EMPTY, this.netOut);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                this.netOut = enlarge(this.netOut, this.engine.getSession().getPacketBufferSize());
+            }
+        }
+        while (!flush()) {
+            ChannelSupport.await(this.channel, SelectionKey.OP_WRITE, this.timeout);
+        }
+        handshakeStep(result);
+    }
+
+    private void handshakeStep(SSLEngineResult result) {
+        if (result.getHandshakeStatus() == HandshakeStatus.FINISHED && this.handshaking) {
+            this.handshaking = false;
+            boolean resumed = this.engine.getSession().getCreationTime() < this.accepted;
+            this.statistics.handshakeCompleted(resumed, System.nanoTime() - this.handshakeStart);
+        }
+    }
+
+    private void handshakeFailed() {
+        if (this.handshaking) {
+            this.handshaking = false;
+            this.statistics.handshakeFailed();
+        }
+    }
+
+    private void runTasks() throws InterruptedIOException {
+        awaitTasks();
+        Runnable task;
+        while ((task = this.engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Hands the pending delegated tasks to the task executor, unless they are
+     * running there already.
+     */
+    private void startTasks() {
+        synchronized (this.taskLock) {
+            if (this.tasksRunning) {
+                return;
+            }
+            this.tasksRunning = true;
+        }
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        Runnable task;
+        while ((task = this.engine.getDelegatedTask()) != null) {
+            tasks.add(task);
+        }
+        this.taskExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    for (Runnable delegated : tasks) {
+                        delegated.run();
+                    }
+                } finally {
+                    synchronized (TlsChannel.this.taskLock) {
+                        TlsChannel.this.tasksRunning = false;
+                        TlsChannel.this.taskLock.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for delegated tasks running on the task executor, the engine has no
+     * others to give out meanwhile.
+     */
+    private void awaitTasks() throws InterruptedIOException {
+        synchronized (this.taskLock) {
+            while (this.tasksRunning) {
+                try {
+                    this.taskLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the TLS handshake");
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int required) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(required, buffer.capacity() * 2));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+}
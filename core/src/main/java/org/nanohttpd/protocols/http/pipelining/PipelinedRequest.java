@@ -0,0 +1,148 @@
+package org.nanohttpd.protocols.http.pipelining;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+
+import org.nanohttpd.protocols.http.ClientHandler;
+import org.nanohttpd.protocols.http.HTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+
+/**
+ * One request of a pipelining connection, executed either on the reading thread
+ * or by the async runner. Its response goes to the request's slot of the
+ * connection's {@link ResponseSequencer}.
+ */
+public class PipelinedRequest extends ClientHandler {
+
+    private final NanoHTTPD httpd;
+
+    private final PipeliningClientHandler connection;
+
+    private final HTTPSession session;
+
+    private final ResponseSequencer.Slot slot;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private volatile boolean keepAlive;
+
+    /**
+     * @param slot
+     *            where the response goes, null if the session writes to the
+     *            connection directly.
+     */
+    public PipelinedRequest(NanoHTTPD httpd, PipeliningClientHandler connection, Socket socket, HTTPSession session, ResponseSequencer.Slot slot) {
+        super(httpd, null, socket);
+        this.httpd = httpd;
+        this.connection = connection;
+        this.session = session;
+        this.slot = slot;
+    }
+
+    @Override
+    public void run() {
+        boolean suspend = false;
+        boolean served = false;
+        try {
+            this.session.execute();
+            suspend = this.session.isSuspended();
+            served = true;
+        } catch (Exception e) {
+            if (!(e instanceof SocketException && "NanoHttpd Shutdown".equals(e.getMessage())) && !(e instanceof SocketTimeoutException)) {
+                NanoHTTPD.LOG.log(Level.SEVERE, "Communication with the client broken, or an bug in the handler code", e);
+            }
+        } finally {
+            if (!suspend) {
+                finished(served);
+            }
+        }
+        if (suspend) {
+            this.session.resumeWhenComplete(this);
+        }
+    }
+
+    @Override
+    protected void deferredResponseSent(boolean keepAlive) {
+        finished(keepAlive);
+    }
+
+    /**
+     * Closing a request closes its connection, e.g. on stop().
+     */
+    @Override
+    public void close() {
+        this.connection.close();
+    }
+
+    /**
+     * The async runner rejected the request, its raw response still keeps its
+     * place in the pipeline.
+     */
+    @Override
+    public void abort(byte[] rawResponse) {
+        try {
+            if (this.slot != null) {
+                this.slot.write(rawResponse);
+            }
+        } catch (IOException e) {
+            NanoHTTPD.LOG.log(Level.FINE, "Could not send rejection to the client", e);
+        }
+        finished(false);
+    }
+
+    /**
+     * Waits until the response was sent.
+     * 
+     * @return true if the connection stays open for further requests.
+     */
+    public boolean await() throws InterruptedException {
+        this.done.await();
+        return this.keepAlive;
+    }
+
+    private void finished(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        if (this.slot != null) {
+            this.slot.finish(!keepAlive);
+        }
+        this.httpd.getAsyncRunner().closed(this);
+        this.done.countDown();
+    }
+}
@@ -0,0 +1,198 @@
+package org.nanohttpd.protocols.http.pipelining;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.logging.Level;
+
+import org.nanohttpd.protocols.http.ClientHandler;
+import org.nanohttpd.protocols.http.HTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.nio.RequestFramer;
+import org.nanohttpd.protocols.http2.Http2Connection;
+
+/**
+ * Client handler supporting HTTP/1.1 pipelining explicitly: it keeps reading
+ * while earlier requests are served, splits every complete request off the
+ * buffer and, if configured, dispatches it to the async runner right away.
+ * Responses are written strictly in request order by a
+ * {@link ResponseSequencer}; at most <code>maxDepth</code> requests are in the
+ * pipeline at once.
+ * <p>
+ * A request whose body is too large to buffer ends pipelining for the
+ * connection: once the pipeline is empty the rest of it is served one request
+ * after the other, as by the plain ClientHandler.
+ * </p>
+ */
+public class PipeliningClientHandler extends ClientHandler {
+
+    /**
+     * Bodies up to this size are buffered so that their request can take part
+     * in the pipeline.
+     */
+    public static final int MAX_BUFFERED_BODY = 64 * 1024;
+
+    private final NanoHTTPD httpd;
+
+    private final InputStream inputStream;
+
+    private final Socket acceptSocket;
+
+    private final int maxDepth;
+
+    private final boolean concurrent;
+
+    private final RequestFramer framer = new RequestFramer(MAX_BUFFERED_BODY);
+
+    private volatile ResponseSequencer sequencer;
+
+    /**
+     * @param maxDepth
+     *            maximum number of requests in the pipeline at once.
+     * @param concurrent
+     *            whether the requests in the pipeline are served concurrently
+     *            by the async runner, or one by one on this thread.
+     */
+    public PipeliningClientHandler(NanoHTTPD httpd, InputStream inputStream, Socket acceptSocket, int maxDepth, boolean concurrent) {
+        super(httpd, inputStream, acceptSocket);
+        this.httpd = httpd;
+        this.inputStream = inputStream;
+        this.acceptSocket = acceptSocket;
+        this.maxDepth = maxDepth;
+        this.concurrent = concurrent;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        ResponseSequencer active = this.sequencer;
+        if (active != null) {
+            active.abort();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            OutputStream outputStream = this.acceptSocket.getOutputStream();
+            if (serveNegotiatedHttp2(outputStream)) {
+                return;
+            }
+            ResponseSequencer responses = new ResponseSequencer(outputStream, this, this.maxDepth);
+            this.sequencer = responses;
+            byte[] buf = new byte[HTTPSession.BUFSIZE];
+            int start = 0;
+            int end = 0;
+            boolean first = true;
+            while (!this.acceptSocket.isClosed() && !responses.isClosing()) {
+                long length = this.framer.frame(buf, start, end);
+                if (length == RequestFramer.NEED_MORE) {
+                    if (start > 0) {
+                        System.arraycopy(buf, start, buf, 0, end - start);
+                        end -= start;
+                        start = 0;
+                    }
+                    if (end == buf.length) {
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                    }
+                    int read;
+                    try {
+                        read = this.inputStream.read(buf, end, buf.length - end);
+                    } catch (SocketTimeoutException e) {
+                        // the timeout is for idle clients, not for clients
+                        // waiting on their responses.
+                        if (end == 0 && responses.getDepth() > 0) {
+                            continue;
+                        }
+                        throw e;
+                    }
+                    if (read == -1) {
+                        break;
+                    }
+                    end += read;
+                } else if (length == RequestFramer.UNBOUNDED || length > end - start || first && this.httpd.isHttp2Enabled()
+                        && Http2Connection.isHttp2Start(buf, start, end - start)) {
+                    // too large to pipeline, or HTTP/2 taking over the
+                    // connection: a plain session serves the rest.
+                    if (responses.awaitIdle()) {
+                        serveSerially(new SequenceInputStream(new ByteArrayInputStream(buf, start, end - start), this.inputStream), outputStream);
+                    }
+                    break;
+                } else {
+                    first = false;
+                    ResponseSequencer.Slot slot = responses.open();
+                    if (slot == null) {
+                        break;
+                    }
+                    InputStream request = new ByteArrayInputStream(Arrays.copyOfRange(buf, start, start + (int) length));
+                    start += (int) length;
+                    HTTPSession session = new HTTPSession(this.httpd, this.httpd.getTempFileManagerFactory().create(), request, slot, this.acceptSocket.getInetAddress());
+                    PipelinedRequest pipelined = new PipelinedRequest(this.httpd, this, this.acceptSocket, session, slot);
+                    if (this.concurrent) {
+                        this.httpd.getAsyncRunner().exec(pipelined);
+                    } else {
+                        pipelined.run();
+                    }
+                }
+            }
+            // the client may stop sending before all answers are out.
+            responses.awaitIdle();
+        } catch (Exception e) {
+            if (!(e instanceof SocketException && "NanoHttpd Shutdown".equals(e.getMessage())) && !(e instanceof SocketTimeoutException)) {
+                NanoHTTPD.LOG.log(Level.SEVERE, "Communication with the client broken, or an bug in the handler code", e);
+            }
+        } finally {
+            close();
+            this.httpd.getAsyncRunner().closed(this);
+        }
+    }
+
+    private void serveSerially(InputStream input, OutputStream outputStream) throws InterruptedException {
+        HTTPSession session = new HTTPSession(this.httpd, this.httpd.getTempFileManagerFactory().create(), input, outputStream, this.acceptSocket.getInetAddress());
+        while (!this.acceptSocket.isClosed()) {
+            PipelinedRequest request = new PipelinedRequest(this.httpd, this, this.acceptSocket, session, null);
+            request.run();
+            if (!request.await()) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package org.nanohttpd.protocols.http.pipelining;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+
+import org.nanohttpd.protocols.http.ClientHandler;
+
+/**
+ * Writes the responses of pipelined requests strictly in request order,
+ * whatever order their handlers finish in. Every request gets a {@link Slot}:
+ * the oldest open slot writes straight through to the connection, younger ones
+ * buffer up to <code>maxBuffered</code> bytes in memory until all slots before
+ * them are finished. A handler writing more than that waits until its response
+ * is the oldest, so at most <code>maxDepth</code> times
+ * <code>maxBuffered</code> bytes are held per connection. The connection is
+ * written to outside the lock of the sequencer, so slow clients do not hold up
+ * handlers that only buffer.
+ */
+public class ResponseSequencer {
+
+    /**
+     * Bytes a response waiting for its turn may buffer by default.
+     */
+    public static final int MAX_BUFFERED_RESPONSE = 64 * 1024;
+
+    /**
+     * Output stream of one response.
+     */
+    public final class Slot extends OutputStream {
+
+        /**
+         * Bytes written before the slot's turn; null once it writes straight to
+         * the connection.
+         */
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        private boolean finished;
+
+        private boolean closeAfter;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{
+                (byte) b
+            }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (ResponseSequencer.this) {
+                while (true) {
+                    if (this.finished) {
+                        throw new IOException("Response already finished");
+                    }
+                    if (ResponseSequencer.this.broken) {
+                        throw new IOException("Connection closed");
+                    }
+                    if (this.buffer == null) {
+                        break;
+                    }
+                    if (this.buffer.size() + len <= ResponseSequencer.this.maxBuffered) {
+                        this.buffer.write(b, off, len);
+                        return;
+                    }
+                    try {
+                        ResponseSequencer.this.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+            try {
+                ResponseSequencer.this.out.write(b, off, len);
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (ResponseSequencer.this) {
+                if (this.buffer != null || ResponseSequencer.this.broken) {
+                    return;
+                }
+            }
+            ResponseSequencer.this.out.flush();
+        }
+
+        /**
+         * Same as {@link #finish(boolean) finish(false)}, so that closing the
+         * stream of a response does not close the connection.
+         */
+        @Override
+        public void close() {
+            finish(false);
+        }
+
+        /**
+         * Marks the response as complete.
+         * 
+         * @param closeConnection
+         *            whether the connection ends after this response; the
+         *            responses of later requests are dropped then.
+         */
+        public void finish(boolean closeConnection) {
+            synchronized (ResponseSequencer.this) {
+                if (this.finished) {
+                    return;
+                }
+                this.finished = true;
+                this.closeAfter = closeConnection;
+            }
+            advance();
+        }
+    }
+
+    private final OutputStream out;
+
+    private final ClientHandler connection;
+
+    private final int maxDepth;
+
+    private final int maxBuffered;
+
+    private final LinkedList<Slot> slots = new LinkedList<Slot>();
+
+    /**
+     * Whether a thread is writing buffered responses to the connection.
+     */
+    private boolean draining;
+
+    private boolean closing;
+
+    private boolean broken;
+
+    /**
+     * @param connection
+     *            closed once the response asking for it is sent, or when
+     *            writing fails.
+     * @param maxDepth
+     *            maximum number of requests in the pipeline at once.
+     */
+    public ResponseSequencer(OutputStream out, ClientHandler connection, int maxDepth) {
+        this(out, connection, maxDepth, MAX_BUFFERED_RESPONSE);
+    }
+
+    /**
+     * @param maxBuffered
+     *            bytes a response waiting for its turn may buffer.
+     */
+    public ResponseSequencer(OutputStream out, ClientHandler connection, int maxDepth, int maxBuffered) {
+        this.out = out;
+        this.connection = connection;
+        this.maxDepth = Math.max(1, maxDepth);
+        this.maxBuffered = maxBuffered;
+    }
+
+    /**
+     * Opens the slot for the next request, waiting while the pipeline is full.
+     * 
+     * @return the slot, or null if the connection is to be closed.
+     */
+    public synchronized Slot open() throws InterruptedException {
+        while (this.slots.size() >= this.maxDepth && !this.closing && !this.broken) {
+            wait();
+        }
+        if (this.closing || this.broken) {
+            return null;
+        }
+        Slot slot = new Slot();
+        if (this.slots.isEmpty()) {
+            slot.buffer = null;
+        }
+        this.slots.add(slot);
+        return slot;
+    }
+
+    /**
+     * Waits until all opened slots are finished.
+     * 
+     * @return false if the connection is to be closed.
+     */
+    public synchronized boolean awaitIdle() throws InterruptedException {
+        while (!this.slots.isEmpty() && !this.broken) {
+            wait();
+        }
+        return !this.closing && !this.broken;
+    }
+
+    /**
+     * @return the number of requests whose response is not finished.
+     */
+    public synchronized int getDepth() {
+        return this.slots.size();
+    }
+
+    /**
+     * @return true once a response asked to close the connection or writing to
+     *         it failed.
+     */
+    public synchronized boolean isClosing() {
+        return this.closing || this.broken;
+    }
+
+    /**
+     * Gives up on all pending responses, e.g. because the connection broke.
+     */
+    public synchronized void abort() {
+        this.broken = true;
+        notifyAll();
+    }
+
+    /**
+     * Retires finished slots and writes what the next ones buffered, until the
+     * oldest open slot can write on its own. Only one thread does this at a
+     * time; another one finishing a slot meanwhile leaves it to that thread.
+     */
+    private void advance() {
+        synchronized (this) {
+            if (this.draining) {
+                return;
+            }
+            this.draining = true;
+        }
+        try {
+            byte[] pending;
+            while ((pending = nextPending()) != null) {
+                this.out.write(pending);
+            }
+            if (!isClosing()) {
+                this.out.flush();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                this.draining = false;
+            }
+            abort();
+        }
+        if (isClosing()) {
+            // also wakes up the reader, blocked on the next request.
+            this.connection.close();
+        }
+    }
+
+    /**
+     * @return the bytes the oldest open slot buffered, or null once there are
+     *         none and draining stopped.
+     */
+    private synchronized byte[] nextPending() {
+        // any change here may let a waiting handler or the reader go on.
+        notifyAll();
+        while (!this.broken && !this.slots.isEmpty()) {
+            Slot head = this.slots.getFirst();
+            if (head.buffer != null && head.buffer.size() > 0) {
+                byte[] pending = head.buffer.toByteArray();
+                head.buffer.reset();
+                return pending;
+            }
+            if (!head.finished) {
+                // writes straight to the connection from now on.
+                head.buffer = null;
+                break;
+            }
+            this.slots.removeFirst();
+            if (head.closeAfter) {
+                this.closing = true;
+                this.slots.clear();
+            }
+        }
+        this.draining = false;
+        return null;
+    }
+}
@@ -0,0 +1,283 @@
+package org.nanohttpd.protocols.http.request;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a request body sent with "Transfer-Encoding: chunked". Chunk
+ * extensions and trailer fields are skipped, the trailer within a limit of its
+ * own. The stream ends after the last chunk and its trailer, so the handler
+ * cannot run into the next request on the connection; closing it skips the rest
+ * of the body instead of closing the connection.
+ * <p>
+ * An instance can be reset for request after request, but not used
+ * concurrently.
+ * </p>
+ */
+public class ChunkedInputStream extends InputStream {
+
+    /**
+     * Longest chunk size line or trailer line accepted.
+     */
+    public static final int MAX_LINE_LENGTH = 4096;
+
+    private final InputStream in;
+
+    /**
+     * Bytes left in the current chunk.
+     */
+    private long chunkRemaining;
+
+    private boolean firstChunk;
+
+    private boolean eof;
+
+    /**
+     * Most body bytes accepted, -1 for no limit.
+     */
+    private long maxLength = -1;
+
+    private long length;
+
+    private boolean limitExceeded;
+
+    /**
+     * Most trailer bytes accepted, line breaks included; -1 for no limit.
+     */
+    private int maxTrailerSize = -1;
+
+    private boolean trailerTooLarge;
+
+    public ChunkedInputStream(InputStream in) {
+        this.in = in;
+        reset();
+    }
+
+    /**
+     * Starts the body of the next request.
+     */
+    public void reset() {
+        this.chunkRemaining = 0;
+        this.firstChunk = true;
+        this.eof = false;
+        this.length = 0;
+        this.limitExceeded = false;
+        this.trailerTooLarge = false;
+    }
+
+    /**
+     * Makes reads fail once the body announces more than <code>maxLength</code>
+     * bytes, -1 for no limit.
+     */
+    public void setMaxLength(long maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return true if a read failed because the body is larger than allowed.
+     */
+    public boolean isLimitExceeded() {
+        return this.limitExceeded;
+    }
+
+    /**
+     * Makes reads fail once the trailer fields after the last chunk take more
+     * than <code>maxTrailerSize</code> bytes, -1 for no limit.
+     */
+    public void setMaxTrailerSize(int maxTrailerSize) {
+        this.maxTrailerSize = maxTrailerSize;
+    }
+
+    /**
+     * @return true if a read failed because the trailer is larger than allowed.
+     */
+    public boolean isTrailerTooLarge() {
+        return this.trailerTooLarge;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!hasData()) {
+            return -1;
+        }
+        int b = this.in.read();
+        if (b == -1) {
+            throw new EOFException("Chunked request body ended inside a chunk");
+        }
+        this.chunkRemaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!hasData()) {
+            return -1;
+        }
+        int read = this.in.read(b, off, (int) Math.min(len, this.chunkRemaining));
+        if (read == -1) {
+            throw new EOFException("Chunked request body ended inside a chunk");
+        }
+        this.chunkRemaining -= read;
+        return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return this.eof ? 0 : (int) Math.min(this.in.available(), this.chunkRemaining);
+    }
+
+    /**
+     * Skips what is left of the body, the connection stays open.
+     */
+    @Override
+    public void close() throws IOException {
+        byte[] buf = null;
+        while (!this.eof) {
+            if (buf == null) {
+                buf = new byte[512];
+            }
+            read(buf, 0, buf.length);
+        }
+    }
+
+    /**
+     * Moves on to the next chunk if the current one is used up.
+     * 
+     * @return false once the last chunk was read.
+     */
+    private boolean hasData() throws IOException {
+        if (this.eof) {
+            return false;
+        }
+        if (this.limitExceeded) {
+            throw new IOException("Chunked request body larger than " + this.maxLength + " bytes");
+        }
+        if (this.trailerTooLarge) {
+            throw new IOException("Trailer of the chunked request body larger than " + this.maxTrailerSize + " bytes");
+        }
+        if (this.chunkRemaining == 0) {
+            if (!this.firstChunk && skipLine() != 0) {
+                throw new IOException("Missing CRLF after a chunk of the request body");
+            }
+            this.firstChunk = false;
+            this.chunkRemaining = readChunkSize();
+            if (this.maxLength >= 0 && this.chunkRemaining > this.maxLength - this.length) {
+                this.limitExceeded = true;
+                this.chunkRemaining = 0;
+                throw new IOException("Chunked request body larger than " + this.maxLength + " bytes");
+            }
+            this.length += this.chunkRemaining;
+            if (this.chunkRemaining == 0) {
+                // trailer fields until an empty line
+                int trailerSize = 0;
+                int line;
+                while ((line = skipLine()) > 0) {
+                    trailerSize += line + 2;
+                    if (this.maxTrailerSize >= 0 && trailerSize > this.maxTrailerSize) {
+                        this.trailerTooLarge = true;
+                        throw new IOException("Trailer of the chunked request body larger than " + this.maxTrailerSize + " bytes");
+                    }
+                }
+                this.eof = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a chunk size line: hex digits, optionally followed by blanks and
+     * extensions.
+     */
+    private long readChunkSize() throws IOException {
+        long size = 0;
+        int digits = 0;
+        boolean sizeEnded = false;
+        boolean extension = false;
+        int length = 0;
+        int b;
+        while ((b = this.in.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("Chunked request body ended in a chunk size");
+            }
+            if (++length > MAX_LINE_LENGTH) {
+                throw new IOException("Chunk size line of the request body too long");
+            }
+            if (extension || b == '\r') {
+                continue;
+            }
+            int digit = Character.digit(b, 16);
+            if (digit >= 0 && !sizeEnded) {
+                if (size > Long.MAX_VALUE >> 4) {
+                    throw new IOException("Chunk size of the request body too large");
+                }
+                size = size << 4 | digit;
+                digits++;
+            } else if (b == ';') {
+                extension = true;
+            } else if (b == ' ' || b == '\t') {
+                sizeEnded = true;
+            } else {
+                throw new IOException("Invalid chunk size in the request body");
+            }
+        }
+        if (digits == 0) {
+            throw new IOException("Invalid chunk size in the request body");
+        }
+        return size;
+    }
+
+    /**
+     * @return the length of the line skipped, without its line break.
+     */
+    private int skipLine() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = this.in.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("Chunked request body ended early");
+            }
+            if (b != '\r' && ++length > MAX_LINE_LENGTH) {
+                throw new IOException("Line of the chunked request body too long");
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,175 @@
+package org.nanohttpd.protocols.http.request;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decompresses a request body sent with "Content-Encoding: gzip" or "deflate".
+ * The decompressor is set up on the first read, so an empty body stays empty.
+ * Since a small body can inflate to a huge one, the inflated length can be
+ * limited; reading past the limit fails. Closing the stream closes the body
+ * stream it reads from.
+ */
+public class InflatingInputStream extends InputStream {
+
+    public static final String GZIP = "gzip";
+
+    public static final String X_GZIP = "x-gzip";
+
+    public static final String DEFLATE = "deflate";
+
+    private final PushbackInputStream in;
+
+    private final boolean gzip;
+
+    private final long maxLength;
+
+    private InputStream inflated;
+
+    /**
+     * The inflater of a deflate body, which has to be ended explicitly.
+     */
+    private Inflater inflater;
+
+    private long length;
+
+    private boolean limitExceeded;
+
+    /**
+     * @param coding
+     *            one of the supported codings, see {@link #isSupported(String)}
+     *            .
+     * @param maxLength
+     *            most inflated bytes accepted, -1 for no limit.
+     */
+    public InflatingInputStream(InputStream in, String coding, long maxLength) {
+        this.in = new PushbackInputStream(in, 2);
+        this.gzip = !DEFLATE.equalsIgnoreCase(coding);
+        this.maxLength = maxLength;
+    }
+
+    public static boolean isSupported(String coding) {
+        return GZIP.equalsIgnoreCase(coding) || X_GZIP.equalsIgnoreCase(coding) || DEFLATE.equalsIgnoreCase(coding);
+    }
+
+    /**
+     * @return the inflated bytes read so far.
+     */
+    public long getLength() {
+        return this.length;
+    }
+
+    /**
+     * @return true if reading failed because the body inflated beyond the
+     *         limit.
+     */
+    public boolean isLimitExceeded() {
+        return this.limitExceeded;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int read;
+        while ((read = read(b, 0, 1)) == 0) {
+        }
+        return read == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (this.limitExceeded) {
+            throw new IOException("Inflated request body larger than " + this.maxLength + " bytes");
+        }
+        if (this.inflated == null && !open()) {
+            return -1;
+        }
+        int read = this.inflated.read(b, off, len);
+        if (read > 0) {
+            this.length += read;
+            if (this.maxLength >= 0 && this.length > this.maxLength) {
+                this.limitExceeded = true;
+                throw new IOException("Inflated request body larger than " + this.maxLength + " bytes");
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.inflated != null) {
+                this.inflated.close();
+            } else {
+                this.in.close();
+            }
+        } finally {
+            if (this.inflater != null) {
+                this.inflater.end();
+            }
+        }
+    }
+
+    /**
+     * @return false if the body is empty.
+     */
+    private boolean open() throws IOException {
+        int first = this.in.read();
+        if (first == -1) {
+            return false;
+        }
+        if (this.gzip) {
+            this.in.unread(first);
+            this.inflated = new GZIPInputStream(this.in);
+            return true;
+        }
+        int second = this.in.read();
+        if (second != -1) {
+            this.in.unread(second);
+        }
+        this.in.unread(first);
+        // "deflate" is meant to be zlib wrapped, but some clients send the raw
+        // format; a zlib header is recognized by its check bits.
+        boolean zlib = second != -1 && (first & 0x0f) == 8 && ((first << 8) + second) % 31 == 0;
+        this.inflater = new Inflater(!zlib);
+        this.inflated = new InflaterInputStream(this.in, this.inflater);
+        return true;
+    }
+}
@@ -0,0 +1,376 @@
+package org.nanohttpd.protocols.http.request;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+import org.nanohttpd.protocols.http.HTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.NanoHTTPD.ResponseException;
+import org.nanohttpd.protocols.http.response.Status;
+
+/**
+ * Reads a multipart/form-data body in a single pass, part after part, without
+ * staging it. The data of the current part is streamed from
+ * {@link #getPartInputStream()} until the next delimiter, which is searched
+ * with Boyer-Moore-Horspool in the one buffer the body goes through; a part not
+ * read to its end is skipped by {@link #nextPart()}.
+ * <p>
+ * The preamble before the first delimiter and the epilogue after the closing
+ * one are ignored. Part header lines may end with CRLF or LF, part data ends
+ * before the CRLF of the next delimiter.
+ * </p>
+ */
+public class MultipartParser {
+
+    private final InputStream in;
+
+    /**
+     * CRLF "--" boundary.
+     */
+    private final byte[] delimiter;
+
+    /**
+     * Horspool shift for the byte under the last position of the delimiter.
+     */
+    private final int[] shift = new int[256];
+
+    private final Charset charset;
+
+    private final int maxHeaderSize;
+
+    private final byte[] buf;
+
+    private int pos;
+
+    private int end;
+
+    /**
+     * Bytes before this index are part data.
+     */
+    private int dataLimit;
+
+    /**
+     * Index of the next delimiter in the buffer, -1 if not found yet.
+     */
+    private int delimiterAt = -1;
+
+    private boolean eof;
+
+    private boolean started;
+
+    private boolean finished;
+
+    /**
+     * Bytes of the current part header read so far.
+     */
+    private int headerSize;
+
+    private final Map<String, String> headers = new HashMap<String, String>();
+
+    private String name;
+
+    private String fileName;
+
+    private String contentType;
+
+    private final InputStream partInputStream = new PartInputStream();
+
+    /**
+     * @param maxHeaderSize
+     *            most bytes accepted for the header lines of a part.
+     */
+    public MultipartParser(InputStream in, String boundary, String encoding, int maxHeaderSize) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(Charset.forName("ISO-8859-1"));
+        this.charset = Charset.forName(encoding);
+        this.maxHeaderSize = maxHeaderSize;
+        int length = this.delimiter.length;
+        for (int i = 0; i < this.shift.length; i++) {
+            this.shift[i] = length;
+        }
+        for (int i = 0; i < length - 1; i++) {
+            this.shift[this.delimiter[i] & 0xff] = length - 1 - i;
+        }
+        this.buf = new byte[Math.max(HTTPSession.BUFSIZE, 2 * (length + maxHeaderSize))];
+        // the first delimiter may start the body, without the CRLF of its
+        // own.
+        this.buf[0] = '\r';
+        this.buf[1] = '\n';
+        this.end = 2;
+    }
+
+    /**
+     * Skips what is left of the current part and reads the header of the next
+     * one.
+     * 
+     * @return false after the last part.
+     */
+    public boolean nextPart() throws IOException, ResponseException {
+        if (this.finished) {
+            return false;
+        }
+        try {
+            while (available() > 0) {
+                this.pos = this.dataLimit;
+            }
+        } catch (EOFException e) {
+            if (!this.started) {
+                throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but contains no boundary string.");
+            }
+            throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Multipart body ended before its closing boundary.");
+        }
+        this.started = true;
+        this.pos += this.delimiter.length;
+        this.delimiterAt = -1;
+        while (this.end - this.pos < 2) {
+            if (!fill()) {
+                throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Multipart body ended in a boundary.");
+            }
+        }
+        if (this.buf[this.pos] == '-' && this.buf[this.pos + 1] == '-') {
+            this.finished = true;
+            return false;
+        }
+        readPartHeader();
+        this.dataLimit = this.pos;
+        return true;
+    }
+
+    /**
+     * @return the name of the current part from its Content-Disposition.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the file name of the current part, null for a field.
+     */
+    public String getFileName() {
+        return this.fileName;
+    }
+
+    /**
+     * @return the content type of the current part, null if not given.
+     */
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    /**
+     * @return the header fields of the current part, by lower-case name.
+     */
+    public Map<String, String> getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * @return the data of the current part; the same stream serves all parts.
+     */
+    public InputStream getPartInputStream() {
+        return this.partInputStream;
+    }
+
+    private void readPartHeader() throws IOException, ResponseException {
+        this.headers.clear();
+        this.name = null;
+        this.fileName = null;
+        this.contentType = null;
+        this.headerSize = 0;
+        // the rest of the delimiter line, transport padding.
+        readLine();
+        String line;
+        while ((line = readLine()).trim().length() > 0) {
+            Matcher matcher = NanoHTTPD.CONTENT_DISPOSITION_PATTERN.matcher(line);
+            if (matcher.matches()) {
+                matcher = NanoHTTPD.CONTENT_DISPOSITION_ATTRIBUTE_PATTERN.matcher(matcher.group(2));
+                while (matcher.find()) {
+                    String key = matcher.group(1);
+                    if ("name".equalsIgnoreCase(key)) {
+                        this.name = matcher.group(2);
+                    } else if ("filename".equalsIgnoreCase(key)) {
+                        this.fileName = matcher.group(2);
+                    }
+                }
+            }
+            matcher = NanoHTTPD.CONTENT_TYPE_PATTERN.matcher(line);
+            if (matcher.matches()) {
+                this.contentType = matcher.group(2).trim();
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                this.headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+        }
+    }
+
+    /**
+     * @return the next line without its line break.
+     */
+    private String readLine() throws IOException, ResponseException {
+        int lf;
+        while ((lf = indexOf((byte) '\n')) < 0) {
+            if (this.headerSize + this.end - this.pos > this.maxHeaderSize) {
+                throw new ResponseException(Status.INTERNAL_ERROR, "Multipart header size exceeds MAX_HEADER_SIZE.");
+            }
+            if (!fill()) {
+                throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Multipart body ended in the header of a part.");
+            }
+        }
+        this.headerSize += lf + 1 - this.pos;
+        if (this.headerSize > this.maxHeaderSize) {
+            throw new ResponseException(Status.INTERNAL_ERROR, "Multipart header size exceeds MAX_HEADER_SIZE.");
+        }
+        int lineEnd = lf > this.pos && this.buf[lf - 1] == '\r' ? lf - 1 : lf;
+        String line = new String(this.buf, this.pos, lineEnd - this.pos, this.charset);
+        this.pos = lf + 1;
+        return line;
+    }
+
+    private int indexOf(byte b) {
+        for (int i = this.pos; i < this.end; i++) {
+            if (this.buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the part data bytes buffered at the read position, reading more
+     *         if none are; 0 once the part ends there.
+     */
+    private int available() throws IOException {
+        while (true) {
+            if (this.pos < this.dataLimit) {
+                return this.dataLimit - this.pos;
+            }
+            if (this.delimiterAt == this.pos) {
+                return 0;
+            }
+            scan();
+            if (this.pos == this.dataLimit && this.delimiterAt != this.pos && !fill()) {
+                throw new EOFException("Multipart body ended before its closing boundary");
+            }
+        }
+    }
+
+    /**
+     * Searches the delimiter in what was not searched yet. Without a match,
+     * everything but a possible start of the delimiter at the end of the buffer
+     * is part data.
+     */
+    private void scan() {
+        int length = this.delimiter.length;
+        int last = length - 1;
+        int i = this.dataLimit;
+        while (i + length <= this.end) {
+            int j = last;
+            while (this.buf[i + j] == this.delimiter[j]) {
+                if (j == 0) {
+                    this.delimiterAt = i;
+                    this.dataLimit = i;
+                    return;
+                }
+                j--;
+            }
+            i += this.shift[this.buf[i + last] & 0xff];
+        }
+        this.dataLimit = Math.max(this.dataLimit, this.end - last);
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer and reads more.
+     * 
+     * @return false at the end of the body.
+     */
+    private boolean fill() throws IOException {
+        if (this.eof) {
+            return false;
+        }
+        if (this.pos > 0) {
+            System.arraycopy(this.buf, this.pos, this.buf, 0, this.end - this.pos);
+            this.end -= this.pos;
+            this.dataLimit = Math.max(0, this.dataLimit - this.pos);
+            if (this.delimiterAt >= 0) {
+                this.delimiterAt -= this.pos;
+            }
+            this.pos = 0;
+        }
+        int read = this.in.read(this.buf, this.end, this.buf.length - this.end);
+        if (read == -1) {
+            this.eof = true;
+            return false;
+        }
+        this.end += read;
+        return true;
+    }
+
+    private final class PartInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            if (MultipartParser.this.available() == 0) {
+                return -1;
+            }
+            return MultipartParser.this.buf[MultipartParser.this.pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int count = Math.min(len, MultipartParser.this.available());
+            if (count == 0) {
+                return -1;
+            }
+            System.arraycopy(MultipartParser.this.buf, MultipartParser.this.pos, b, off, count);
+            MultipartParser.this.pos += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return Math.max(0, MultipartParser.this.dataLimit - MultipartParser.this.pos);
+        }
+    }
+}
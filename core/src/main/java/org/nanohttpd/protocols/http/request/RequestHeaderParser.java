@@ -0,0 +1,423 @@
+package org.nanohttpd.protocols.http.request;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.NanoHTTPD.ResponseException;
+import org.nanohttpd.protocols.http.response.Status;
+
+/**
+ * Parses the head of an HTTP/1.x request directly from the bytes it was read
+ * into. Lines end with CRLF, LF or a single CR, request line tokens are
+ * separated by blanks, header names are lower-cased and names and values are
+ * trimmed, all as a BufferedReader with a StringTokenizer would see it. The
+ * method, the protocol version and common header names are recognized without
+ * creating strings; only the URI, header values and uncommon header names are
+ * copied, and with {@link RequestHeaders} only when they are asked for.
+ * <p>
+ * An instance can be reused for request after request, but not concurrently.
+ * </p>
+ */
+public class RequestHeaderParser {
+
+    public static final String HTTP_1_1 = "HTTP/1.1";
+
+    public static final String HTTP_1_0 = "HTTP/1.0";
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final Method[] METHODS = Method.values();
+
+    /**
+     * Header names by their length, most frequent first.
+     */
+    private static final String[][] COMMON_HEADERS = byLength(new String[]{
+        "host",
+        "user-agent",
+        "accept",
+        "accept-encoding",
+        "accept-language",
+        "accept-charset",
+        "connection",
+        "content-length",
+        "content-type",
+        "cookie",
+        "referer",
+        "origin",
+        "authorization",
+        "cache-control",
+        "pragma",
+        "upgrade",
+        "upgrade-insecure-requests",
+        "if-modified-since",
+        "if-none-match",
+        "if-match",
+        "range",
+        "expect",
+        "transfer-encoding",
+        "content-encoding",
+        "te",
+        "dnt",
+        "x-forwarded-for",
+        "x-forwarded-proto",
+        "x-forwarded-host",
+        "x-real-ip",
+        "x-requested-with",
+        "http2-settings",
+        "sec-fetch-site",
+        "sec-fetch-mode",
+        "sec-fetch-dest",
+        "sec-fetch-user",
+        "sec-websocket-key",
+        "sec-websocket-version",
+        "sec-websocket-protocol",
+        "sec-websocket-extensions"
+    });
+
+    private static final byte[] HTTP_1_1_BYTES = HTTP_1_1.getBytes(ISO_8859_1);
+
+    private static final byte[] HTTP_1_0_BYTES = HTTP_1_0.getBytes(ISO_8859_1);
+
+    private byte[] buf;
+
+    private int methodStart;
+
+    private int methodEnd;
+
+    private Method method;
+
+    private String uri;
+
+    private String query;
+
+    private String protocolVersion;
+
+    /**
+     * Parses the request line and the header fields up to the empty line ending
+     * the head, or up to <code>end</code>.
+     * 
+     * @param headers
+     *            receives the header fields; {@link RequestHeaders} keeps
+     *            repeated fields and copies only the head, any other map gets
+     *            the later of repeated fields.
+     * @throws ResponseException
+     *             if the request line lacks the method or the URI.
+     */
+    public void parse(byte[] buf, int end, Map<String, String> headers) throws ResponseException {
+        this.buf = buf;
+        int lineEnd = lineEnd(buf, 0, end);
+        int pos = skipBlanks(buf, 0, lineEnd);
+        if (pos == lineEnd) {
+            throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Syntax error. Usage: GET /example/file.html");
+        }
+        this.methodStart = pos;
+        this.methodEnd = tokenEnd(buf, pos, lineEnd);
+        this.method = lookupMethod(buf, this.methodStart, this.methodEnd);
+
+        pos = skipBlanks(buf, this.methodEnd, lineEnd);
+        if (pos == lineEnd) {
+            throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Missing URI. Usage: GET /example/file.html");
+        }
+        int uriEnd = tokenEnd(buf, pos, lineEnd);
+        int question = indexOf(buf, pos, uriEnd, (byte) '?');
+        if (question >= 0) {
+            this.uri = NanoHTTPD.decodePercent(string(buf, pos, question));
+            this.query = string(buf, question + 1, uriEnd);
+        } else {
+            this.uri = NanoHTTPD.decodePercent(string(buf, pos, uriEnd));
+            this.query = null;
+        }
+
+        pos = skipBlanks(buf, uriEnd, lineEnd);
+        if (pos < lineEnd) {
+            this.protocolVersion = version(buf, pos, tokenEnd(buf, pos, lineEnd));
+        } else {
+            this.protocolVersion = HTTP_1_1;
+            NanoHTTPD.LOG.log(Level.FINE, "no protocol version specified, strange. Assuming HTTP/1.1.");
+        }
+
+        RequestHeaders compact = headers instanceof RequestHeaders ? (RequestHeaders) headers : null;
+        if (compact != null) {
+            compact.reset(buf, end);
+        }
+        pos = nextLine(buf, lineEnd, end);
+        while (pos < end) {
+            lineEnd = lineEnd(buf, pos, end);
+            int start = trimStart(buf, pos, lineEnd);
+            if (start == lineEnd) {
+                break;
+            }
+            int colon = indexOf(buf, start, lineEnd, (byte) ':');
+            if (colon >= 0) {
+                int nameEnd = trimEnd(buf, start, colon);
+                int valueStart = trimStart(buf, colon + 1, lineEnd);
+                int valueEnd = trimEnd(buf, valueStart, lineEnd);
+                if (compact != null) {
+                    compact.add(commonHeaderName(buf, start, nameEnd), start, nameEnd, valueStart, valueEnd);
+                } else {
+                    headers.put(headerName(buf, start, nameEnd), string(buf, valueStart, valueEnd));
+                }
+            }
+            pos = nextLine(buf, lineEnd, end);
+        }
+    }
+
+    /**
+     * @return the method of the last request, null if it is not one of
+     *         {@link Method}.
+     */
+    public Method getMethod() {
+        return this.method;
+    }
+
+    /**
+     * @return the method of the last request as sent.
+     */
+    public String getMethodName() {
+        return string(this.buf, this.methodStart, this.methodEnd);
+    }
+
+    /**
+     * @return the percent-decoded path of the last request, without the query.
+     */
+    public String getUri() {
+        return this.uri;
+    }
+
+    /**
+     * @return the raw query of the last request, null if it had none.
+     */
+    public String getQuery() {
+        return this.query;
+    }
+
+    public String getProtocolVersion() {
+        return this.protocolVersion;
+    }
+
+    /**
+     * @return true if the value contains "close" in any case, e.g. as a token
+     *         of a Connection header.
+     */
+    public static boolean containsClose(String value) {
+        if (value == null) {
+            return false;
+        }
+        String close = "close";
+        for (int i = 0; i + close.length() <= value.length(); i++) {
+            int j = 0;
+            while (j < close.length() && (value.charAt(i + j) | 0x20) == close.charAt(j)) {
+                j++;
+            }
+            if (j == close.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String headerName(byte[] buf, int start, int end) {
+        String name = commonHeaderName(buf, start, end);
+        return name != null ? name : string(buf, start, end).toLowerCase(Locale.US);
+    }
+
+    /**
+     * @return the shared lower-cased name, null if it is not a common one.
+     */
+    private static String commonHeaderName(byte[] buf, int start, int end) {
+        String[] candidates = end - start < COMMON_HEADERS.length ? COMMON_HEADERS[end - start] : null;
+        if (candidates != null) {
+            for (String candidate : candidates) {
+                if (equalsIgnoreCase(buf, start, candidate)) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Method lookupMethod(byte[] buf, int start, int end) {
+        for (Method candidate : METHODS) {
+            String name = candidate.name();
+            if (name.length() == end - start && equals(buf, start, name)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static String version(byte[] buf, int start, int end) {
+        if (end - start == HTTP_1_1_BYTES.length) {
+            if (equals(buf, start, HTTP_1_1)) {
+                return HTTP_1_1;
+            }
+            if (equals(buf, start, HTTP_1_0)) {
+                return HTTP_1_0;
+            }
+        }
+        return string(buf, start, end);
+    }
+
+    /**
+     * Header bytes are ASCII as a rule, anything else is decoded with the
+     * platform charset like a Reader would.
+     */
+    static String string(byte[] buf, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buf[i] < 0) {
+                return new String(buf, start, end - start, Charset.defaultCharset());
+            }
+        }
+        return new String(buf, start, end - start, ISO_8859_1);
+    }
+
+    private static boolean equals(byte[] buf, int start, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            if (buf[start + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param lowerCase
+     *            of the same length as the compared bytes.
+     */
+    private static boolean equalsIgnoreCase(byte[] buf, int start, String lowerCase) {
+        for (int i = 0; i < lowerCase.length(); i++) {
+            int b = buf[start + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCase.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] buf, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the CR or LF ending the line, or <code>end</code>.
+     */
+    private static int lineEnd(byte[] buf, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buf[i] == '\r' || buf[i] == '\n') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static int nextLine(byte[] buf, int lineEnd, int end) {
+        if (lineEnd < end && buf[lineEnd] == '\r') {
+            lineEnd++;
+            if (lineEnd < end && buf[lineEnd] == '\n') {
+                lineEnd++;
+            }
+            return lineEnd;
+        }
+        return lineEnd < end ? lineEnd + 1 : end;
+    }
+
+    /**
+     * Request line tokens are separated like by a StringTokenizer.
+     */
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\f';
+    }
+
+    private static int skipBlanks(byte[] buf, int start, int end) {
+        while (start < end && isBlank(buf[start])) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int tokenEnd(byte[] buf, int start, int end) {
+        while (start < end && !isBlank(buf[start])) {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * Trimming drops control characters and spaces, like String.trim().
+     */
+    private static int trimStart(byte[] buf, int start, int end) {
+        while (start < end && (buf[start] & 0xff) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(byte[] buf, int start, int end) {
+        while (end > start && (buf[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private static String[][] byLength(String[] names) {
+        int longest = 0;
+        for (String name : names) {
+            longest = Math.max(longest, name.length());
+        }
+        String[][] table = new String[longest + 1][];
+        for (String name : names) {
+            String[] bucket = table[name.length()];
+            String[] grown = new String[bucket == null ? 1 : bucket.length + 1];
+            if (bucket != null) {
+                System.arraycopy(bucket, 0, grown, 0, bucket.length);
+            }
+            grown[grown.length - 1] = name;
+            table[name.length()] = grown;
+        }
+        return table;
+    }
+}
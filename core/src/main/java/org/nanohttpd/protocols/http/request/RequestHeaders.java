@@ -0,0 +1,420 @@
+package org.nanohttpd.protocols.http.request;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The header fields of a request in the order they were sent, kept as slices of
+ * a copy of the request head. Names are looked up without regard to case and
+ * without creating strings; a value becomes a string when it is first asked
+ * for. Repeated fields are all kept, {@link #getAll(String)} returns each of
+ * them.
+ * <p>
+ * As a {@link Map} the fields appear under their lower-cased names, a repeated
+ * field with its values joined by ", " ("; " for cookies) as RFC 7230 allows.
+ * Putting a field replaces all fields of that name. The entry and key sets are
+ * views: removing through them or their iterators removes all fields of that
+ * name, but their entries cannot be changed.
+ * </p>
+ * <p>
+ * An instance can be reused for request after request, but not used
+ * concurrently.
+ * </p>
+ */
+public class RequestHeaders extends AbstractMap<String, String> {
+
+    private static final int INITIAL_FIELDS = 16;
+
+    /**
+     * Copy of the request head the slices point into; a pooled head buffer goes
+     * back to the pool before an asynchronous response completes.
+     */
+    private byte[] bytes = new byte[0];
+
+    /**
+     * Name start, name end, value start and value end of each field; -1 for a
+     * field that was put as strings, its value may then be null.
+     */
+    private int[] slices = new int[INITIAL_FIELDS * 4];
+
+    /**
+     * Lower-cased names, null until created; well known names are shared
+     * constants.
+     */
+    private String[] names = new String[INITIAL_FIELDS];
+
+    /**
+     * Values, null until first asked for.
+     */
+    private String[] values = new String[INITIAL_FIELDS];
+
+    private boolean[] removed = new boolean[INITIAL_FIELDS];
+
+    private int count;
+
+    /**
+     * Drops the fields of the previous request and copies the head of the next
+     * one, the fields are then added as slices of it.
+     */
+    void reset(byte[] buf, int end) {
+        clear();
+        if (this.bytes.length < end) {
+            this.bytes = new byte[Math.max(end, this.bytes.length * 2)];
+        }
+        System.arraycopy(buf, 0, this.bytes, 0, end);
+    }
+
+    /**
+     * Adds a field found in the head passed to {@link #reset(byte[], int)}.
+     * 
+     * @param name
+     *            the lower-cased name if it is a well known one, null to create
+     *            it from the bytes when needed.
+     */
+    void add(String name, int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        int i = append(name, null);
+        this.slices[i * 4] = nameStart;
+        this.slices[i * 4 + 1] = nameEnd;
+        this.slices[i * 4 + 2] = valueStart;
+        this.slices[i * 4 + 3] = valueEnd;
+    }
+
+    /**
+     * Adds a field, keeping fields of the same name.
+     */
+    public void add(String name, String value) {
+        int i = append(name.toLowerCase(Locale.US), value);
+        this.slices[i * 4] = -1;
+    }
+
+    /**
+     * @return the values of all fields of that name in the order they were
+     *         sent, an empty list if there is none.
+     */
+    public List<String> getAll(String name) {
+        List<String> all = null;
+        for (int i = 0; i < this.count; i++) {
+            if (matches(i, name)) {
+                if (all == null) {
+                    all = new ArrayList<String>(2);
+                }
+                all.add(value(i));
+            }
+        }
+        return all == null ? Collections.<String> emptyList() : all;
+    }
+
+    /**
+     * @return the value of the field, the values joined if it was repeated,
+     *         null if there is none.
+     */
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String name = (String) key;
+        int first = indexOf(name, 0);
+        if (first < 0) {
+            return null;
+        }
+        int next = indexOf(name, first + 1);
+        if (next < 0) {
+            return value(first);
+        }
+        String separator = "cookie".equalsIgnoreCase(name) ? "; " : ", ";
+        StringBuilder joined = new StringBuilder().append(value(first));
+        for (int i = next; i >= 0; i = indexOf(name, i + 1)) {
+            joined.append(separator).append(value(i));
+        }
+        return joined.toString();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && indexOf((String) key, 0) >= 0;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        String previous = remove(key);
+        int i = append(key.toLowerCase(Locale.US), value);
+        this.slices[i * 4] = -1;
+        return previous;
+    }
+
+    @Override
+    public String remove(Object key) {
+        String previous = get(key);
+        if (key instanceof String) {
+            String name = (String) key;
+            for (int i = indexOf(name, 0); i >= 0; i = indexOf(name, i + 1)) {
+                this.removed[i] = true;
+            }
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < this.count; i++) {
+            this.names[i] = null;
+            this.values[i] = null;
+        }
+        this.count = 0;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < this.count; i++) {
+            if (!this.removed[i] && indexOf(name(i), 0) == i) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (int i = 0; i < this.count; i++) {
+            if (!this.removed[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return RequestHeaders.this.size();
+            }
+
+            @Override
+            public void clear() {
+                RequestHeaders.this.clear();
+            }
+        };
+    }
+
+    /**
+     * The lower-cased names; like the map they are matched without regard to
+     * case.
+     */
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+
+            @Override
+            public Iterator<String> iterator() {
+                final Iterator<Entry<String, String>> entries = new EntryIterator();
+                return new Iterator<String>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return entries.next().getKey();
+                    }
+
+                    @Override
+                    public void remove() {
+                        entries.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return RequestHeaders.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                if (!containsKey(o)) {
+                    return false;
+                }
+                RequestHeaders.this.remove(o);
+                return true;
+            }
+
+            @Override
+            public void clear() {
+                RequestHeaders.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Visits the first field of each name; fields put while iterating are
+     * visited if they are new names.
+     */
+    private class EntryIterator implements Iterator<Entry<String, String>> {
+
+        private int next = -1;
+
+        private String current;
+
+        private EntryIterator() {
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next < RequestHeaders.this.count;
+        }
+
+        @Override
+        public Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.current = name(this.next);
+            advance();
+            return new SimpleImmutableEntry<String, String>(this.current, get(this.current));
+        }
+
+        @Override
+        public void remove() {
+            if (this.current == null) {
+                throw new IllegalStateException();
+            }
+            RequestHeaders.this.remove(this.current);
+            this.current = null;
+        }
+
+        private void advance() {
+            do {
+                this.next++;
+            } while (this.next < RequestHeaders.this.count && (RequestHeaders.this.removed[this.next] || indexOf(name(this.next), 0) != this.next));
+        }
+    }
+
+    private int append(String name, String value) {
+        if (this.count == this.names.length) {
+            int capacity = this.count * 2;
+            int[] slices = new int[capacity * 4];
+            System.arraycopy(this.slices, 0, slices, 0, this.count * 4);
+            this.slices = slices;
+            String[] names = new String[capacity];
+            System.arraycopy(this.names, 0, names, 0, this.count);
+            this.names = names;
+            String[] values = new String[capacity];
+            System.arraycopy(this.values, 0, values, 0, this.count);
+            this.values = values;
+            boolean[] removed = new boolean[capacity];
+            System.arraycopy(this.removed, 0, removed, 0, this.count);
+            this.removed = removed;
+        }
+        int i = this.count++;
+        this.names[i] = name;
+        this.values[i] = value;
+        this.removed[i] = false;
+        return i;
+    }
+
+    private int indexOf(String name, int from) {
+        for (int i = from; i < this.count; i++) {
+            if (matches(i, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int i, String name) {
+        if (this.removed[i]) {
+            return false;
+        }
+        if (this.names[i] != null) {
+            return this.names[i].equalsIgnoreCase(name);
+        }
+        int start = this.slices[i * 4];
+        int end = this.slices[i * 4 + 1];
+        if (end - start != name.length()) {
+            return false;
+        }
+        for (int j = 0; j < name.length(); j++) {
+            if (toLowerCase(this.bytes[start + j]) != toLowerCase(name.charAt(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLowerCase(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private String name(int i) {
+        if (this.names[i] == null) {
+            this.names[i] = RequestHeaderParser.string(this.bytes, this.slices[i * 4], this.slices[i * 4 + 1]).toLowerCase(Locale.US);
+        }
+        return this.names[i];
+    }
+
+    private String value(int i) {
+        if (this.values[i] == null && this.slices[i * 4] >= 0) {
+            this.values[i] = RequestHeaderParser.string(this.bytes, this.slices[i * 4 + 2], this.slices[i * 4 + 3]);
+        }
+        return this.values[i];
+    }
+}
@@ -0,0 +1,157 @@
+package org.nanohttpd.protocols.http.response;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.nanohttpd.protocols.http.NanoHTTPD;
+
+/**
+ * Placeholder returned from serve() or a handler when the actual response is
+ * produced later, e.g. once a backend answered. The connection's thread is
+ * released meanwhile; {@link #complete(Response)} may be called from any thread
+ * and sends the response from there. Requests following on the same keep-alive
+ * connection are only read after it was sent. The server gives up waiting after
+ * {@link NanoHTTPD#setDeferredResponseTimeout(long) a timeout} and answers with
+ * "503 Service Unavailable" instead.
+ */
+public class DeferredResponse extends Response {
+
+    /**
+     * Created with the first timeout, a single daemon thread serves all of
+     * them.
+     */
+    private static final class Timeouts {
+
+        static final ScheduledThreadPoolExecutor EXECUTOR = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "NanoHttpd Deferred Response Timeouts");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        static {
+            EXECUTOR.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    private Response response;
+
+    private Runnable listener;
+
+    private ScheduledFuture<?> timeout;
+
+    public DeferredResponse() {
+        super(Status.OK, NanoHTTPD.MIME_PLAINTEXT, null, 0);
+    }
+
+    /**
+     * Completes this placeholder with the response to send, a null response is
+     * answered with "500 Internal Server Error".
+     * 
+     * @return false if it was completed before, the response is ignored then.
+     */
+    public boolean complete(Response response) {
+        Runnable notify;
+        synchronized (this) {
+            if (this.response != null) {
+                return false;
+            }
+            this.response =
+                    response != null ? response : Response.newFixedLengthResponse(Status.INTERNAL_ERROR, NanoHTTPD.MIME_PLAINTEXT,
+                            "SERVER INTERNAL ERROR: Deferred response completed with null.");
+            notify = this.listener;
+            this.listener = null;
+            if (this.timeout != null) {
+                this.timeout.cancel(false);
+                this.timeout = null;
+            }
+        }
+        if (notify != null) {
+            notify.run();
+        }
+        return true;
+    }
+
+    /**
+     * Completes this placeholder with "503 Service Unavailable" unless it is
+     * completed otherwise within the given time. Only the first call counts.
+     */
+    public void expireAfter(long millis) {
+        synchronized (this) {
+            if (this.response != null || this.timeout != null) {
+                return;
+            }
+            this.timeout = Timeouts.EXECUTOR.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    complete(Response.newFixedLengthResponse(Status.SERVICE_UNAVAILABLE, NanoHTTPD.MIME_PLAINTEXT, "SERVICE UNAVAILABLE: The response was not ready in time."));
+                }
+            }, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized boolean isDone() {
+        return this.response != null;
+    }
+
+    /**
+     * @return the response this placeholder was completed with, null before.
+     */
+    public synchronized Response getResponse() {
+        return this.response;
+    }
+
+    /**
+     * Runs the listener once the response is available, right away on the
+     * calling thread if it is already. Only one listener is supported, it is
+     * registered by the server.
+     */
+    public void whenComplete(Runnable listener) {
+        synchronized (this) {
+            if (this.response == null) {
+                this.listener = listener;
+                return;
+            }
+        }
+        listener.run();
+    }
+}
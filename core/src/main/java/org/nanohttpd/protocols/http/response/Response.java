@@ -53,6 +53,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.zip.GZIPOutputStream;
 
@@ -65,6 +67,12 @@ import org.nanohttpd.protocols.http.request.Method;
  */
 public class Response implements Closeable {
 
+    /**
+     * Whether a subclass overrides one of the deprecated PrintWriter hooks, its
+     * head is then written through them like before.
+     */
+    private static final ConcurrentMap<Class<?>, Boolean> PRINT_WRITER_HOOKS = new ConcurrentHashMap<Class<?>, Boolean>();
+
     /**
      * HTTP status code after processing, e.g. "200 OK", Status.OK
      */
@@ -226,58 +234,145 @@ public class Response implements Closeable {
      * Sends given response to the socket.
      */
     public void send(OutputStream outputStream) {
-        SimpleDateFormat gmtFrmt = new SimpleDateFormat("E, d MMM yyyy HH:mm:ss 'GMT'", Locale.US);
-        gmtFrmt.setTimeZone(TimeZone.getTimeZone("GMT"));
-
         try {
             if (this.status == null) {
                 throw new Error("sendResponse(): Status can't be null.");
             }
-            PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(outputStream, new ContentType(this.mimeType).getEncoding())), false);
-            pw.append("HTTP/1.1 ").append(this.status.getDescription()).append(" \r\n");
-            if (this.mimeType != null) {
-                printHeader(pw, "Content-Type", this.mimeType);
-            }
-            if (getHeader("date") == null) {
-                printHeader(pw, "Date", gmtFrmt.format(new Date()));
-            }
-            for (Entry<String, String> entry : this.header.entrySet()) {
-                printHeader(pw, entry.getKey(), entry.getValue());
-            }
-            for (String cookieHeader : this.cookieHeaders) {
-                printHeader(pw, "Set-Cookie", cookieHeader);
-            }
-            if (getHeader("connection") == null) {
-                printHeader(pw, "Connection", (this.keepAlive ? "keep-alive" : "close"));
-            }
-            if (getHeader("content-length") != null) {
-                setUseGzip(false);
-            }
-            if (useGzipWhenAccepted()) {
-                printHeader(pw, "Content-Encoding", "gzip");
-                setChunkedTransfer(true);
-            }
-            long pending = this.data != null ? this.contentLength : 0;
-            if (this.requestMethod != Method.HEAD && this.chunkedTransfer) {
-                printHeader(pw, "Transfer-Encoding", "chunked");
-            } else if (!useGzipWhenAccepted()) {
-                pending = sendContentLengthHeaderIfNotAlreadyPresent(pw, pending);
+            // the head goes out together with the first bytes of the body.
+            ResponseHeaderWriter out = ResponseHeaderWriter.acquire(outputStream, this.mimeType);
+            try {
+                long pending = overridesPrintWriterHooks() ? sendHeadWithPrintWriter(out) : sendHead(out);
+                sendBodyWithCorrectTransferAndEncoding(out, pending);
+                out.flush();
+            } finally {
+                out.release();
             }
-            pw.append("\r\n");
-            pw.flush();
-            sendBodyWithCorrectTransferAndEncoding(outputStream, pending);
-            outputStream.flush();
             NanoHTTPD.safeClose(this.data);
         } catch (IOException ioe) {
             NanoHTTPD.LOG.log(Level.SEVERE, "Could not send response to the client", ioe);
         }
     }
 
+    /**
+     * @return the number of body bytes to send.
+     */
+    private long sendHead(ResponseHeaderWriter out) throws IOException {
+        out.writeStatusLine(this.status);
+        if (this.mimeType != null) {
+            printHeader(out, "Content-Type", this.mimeType);
+        }
+        if (getHeader("date") == null) {
+            out.writeDate();
+        }
+        for (Entry<String, String> entry : this.header.entrySet()) {
+            printHeader(out, entry.getKey(), entry.getValue());
+        }
+        for (String cookieHeader : this.cookieHeaders) {
+            printHeader(out, "Set-Cookie", cookieHeader);
+        }
+        if (getHeader("connection") == null) {
+            out.writeConnection(this.keepAlive);
+        }
+        if (getHeader("content-length") != null) {
+            setUseGzip(false);
+        }
+        if (useGzipWhenAccepted()) {
+            out.writeContentEncodingGzip();
+            setChunkedTransfer(true);
+        }
+        long pending = this.data != null ? this.contentLength : 0;
+        if (this.requestMethod != Method.HEAD && this.chunkedTransfer) {
+            out.writeTransferEncodingChunked();
+        } else if (!useGzipWhenAccepted()) {
+            pending = sendContentLengthHeaderIfNotAlreadyPresent(out, pending);
+        }
+        out.endHeaders();
+        return pending;
+    }
+
+    /**
+     * Writes the head the way it was written before {@link ResponseHeaderWriter},
+     * for subclasses overriding the deprecated PrintWriter hooks.
+     * 
+     * @return the number of body bytes to send.
+     */
+    @SuppressWarnings("deprecation")
+    private long sendHeadWithPrintWriter(OutputStream outputStream) throws IOException {
+        SimpleDateFormat gmtFrmt = new SimpleDateFormat("E, d MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        gmtFrmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+        PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(outputStream, new ContentType(this.mimeType).getEncoding())), false);
+        pw.append("HTTP/1.1 ").append(this.status.getDescription()).append(" \r\n");
+        if (this.mimeType != null) {
+            printHeader(pw, "Content-Type", this.mimeType);
+        }
+        if (getHeader("date") == null) {
+            printHeader(pw, "Date", gmtFrmt.format(new Date()));
+        }
+        for (Entry<String, String> entry : this.header.entrySet()) {
+            printHeader(pw, entry.getKey(), entry.getValue());
+        }
+        for (String cookieHeader : this.cookieHeaders) {
+            printHeader(pw, "Set-Cookie", cookieHeader);
+        }
+        if (getHeader("connection") == null) {
+            printHeader(pw, "Connection", (this.keepAlive ? "keep-alive" : "close"));
+        }
+        if (getHeader("content-length") != null) {
+            setUseGzip(false);
+        }
+        if (useGzipWhenAccepted()) {
+            printHeader(pw, "Content-Encoding", "gzip");
+            setChunkedTransfer(true);
+        }
+        long pending = this.data != null ? this.contentLength : 0;
+        if (this.requestMethod != Method.HEAD && this.chunkedTransfer) {
+            printHeader(pw, "Transfer-Encoding", "chunked");
+        } else if (!useGzipWhenAccepted()) {
+            pending = sendContentLengthHeaderIfNotAlreadyPresent(pw, pending);
+        }
+        pw.append("\r\n");
+        pw.flush();
+        return pending;
+    }
+
+    private boolean overridesPrintWriterHooks() {
+        Class<?> type = getClass();
+        Boolean overrides = PRINT_WRITER_HOOKS.get(type);
+        if (overrides == null) {
+            overrides = Boolean.FALSE;
+            for (Class<?> c = type; c != Response.class && !overrides; c = c.getSuperclass()) {
+                overrides = declares(c, "printHeader", PrintWriter.class, String.class, String.class) || declares(c, "sendContentLengthHeaderIfNotAlreadyPresent", PrintWriter.class, long.class);
+            }
+            PRINT_WRITER_HOOKS.put(type, overrides);
+        }
+        return overrides;
+    }
+
+    private static boolean declares(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            type.getDeclaredMethod(name, parameterTypes);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @deprecated override {@link #printHeader(ResponseHeaderWriter, String, String)};
+     *             still called for every header of subclasses overriding it.
+     */
+    @Deprecated
     @SuppressWarnings("static-method")
     protected void printHeader(PrintWriter pw, String key, String value) {
         pw.append(key).append(": ").append(value).append("\r\n");
     }
 
+    /**
+     * @deprecated override
+     *             {@link #sendContentLengthHeaderIfNotAlreadyPresent(ResponseHeaderWriter, long)};
+     *             still called for subclasses overriding it.
+     */
+    @Deprecated
     protected long sendContentLengthHeaderIfNotAlreadyPresent(PrintWriter pw, long defaultSize) {
         String contentLengthString = getHeader("content-length");
         long size = defaultSize;
@@ -287,8 +382,28 @@ public class Response implements Closeable {
             } catch (NumberFormatException ex) {
                 NanoHTTPD.LOG.severe("content-length was no number " + contentLengthString);
             }
-        }else{
-        	pw.print("Content-Length: " + size + "\r\n");
+        } else {
+            pw.print("Content-Length: " + size + "\r\n");
+        }
+        return size;
+    }
+
+    @SuppressWarnings("static-method")
+    protected void printHeader(ResponseHeaderWriter out, String key, String value) throws IOException {
+        out.writeHeader(key, value);
+    }
+
+    protected long sendContentLengthHeaderIfNotAlreadyPresent(ResponseHeaderWriter out, long defaultSize) throws IOException {
+        String contentLengthString = getHeader("content-length");
+        long size = defaultSize;
+        if (contentLengthString != null) {
+            try {
+                size = Long.parseLong(contentLengthString);
+            } catch (NumberFormatException ex) {
+                NanoHTTPD.LOG.severe("content-length was no number " + contentLengthString);
+            }
+        } else {
+            out.writeContentLength(size);
         }
         return size;
     }
@@ -342,6 +457,11 @@ public class Response implements Closeable {
      *             if something goes wrong while sending the data.
      */
     private void sendBody(OutputStream outputStream, long pending) throws IOException {
+        if (outputStream instanceof ResponseHeaderWriter) {
+            // straight into the buffer behind the head.
+            ((ResponseHeaderWriter) outputStream).transferFrom(this.data, pending);
+            return;
+        }
         long BUFFER_SIZE = 16 * 1024;
         byte[] buff = new byte[(int) BUFFER_SIZE];
         boolean sendEverything = pending == -1;
@@ -353,6 +473,8 @@ public class Response implements Closeable {
             }
             try {
                 outputStream.write(buff, 0, read);
+                // a chunk goes out as soon as it is read.
+                outputStream.flush();
             } catch (Exception e) {
                 if(this.data != null) {
                     this.data.close();
@@ -0,0 +1,292 @@
+package org.nanohttpd.protocols.http.response;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.nanohttpd.protocols.http.HTTPSession;
+import org.nanohttpd.protocols.http.content.ContentType;
+
+/**
+ * Writes the head of a response into a buffer that the first bytes of the body
+ * follow, so that a small response leaves in a single write. Status lines and
+ * frequent header lines are encoded once and copied from then on, the Date
+ * value is formatted at most once per second for all responses. Header text is
+ * ASCII as a rule; anything else is encoded with the charset of the content
+ * type, as before.
+ * <p>
+ * An instance belongs to a thread and is reused for response after response,
+ * see {@link #acquire(OutputStream, String)}.
+ * </p>
+ */
+public class ResponseHeaderWriter extends OutputStream {
+
+    private static final byte[] COLON = ascii(": ");
+
+    private static final byte[] CRLF = ascii("\r\n");
+
+    private static final byte[] CONNECTION_KEEP_ALIVE = ascii("Connection: keep-alive\r\n");
+
+    private static final byte[] CONNECTION_CLOSE = ascii("Connection: close\r\n");
+
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+
+    private static final byte[] CONTENT_ENCODING_GZIP = ascii("Content-Encoding: gzip\r\n");
+
+    private static final byte[] TRANSFER_ENCODING_CHUNKED = ascii("Transfer-Encoding: chunked\r\n");
+
+    private static final byte[][] STATUS_LINES = new byte[Status.values().length][];
+
+    static {
+        for (Status status : Status.values()) {
+            STATUS_LINES[status.ordinal()] = statusLine(status);
+        }
+    }
+
+    private static final ThreadLocal<ResponseHeaderWriter> WRITERS = new ThreadLocal<ResponseHeaderWriter>();
+
+    /**
+     * The Date header line of the current second.
+     */
+    private static volatile DateLine dateLine;
+
+    private final byte[] buf = new byte[HTTPSession.BUFSIZE];
+
+    private int count;
+
+    private OutputStream out;
+
+    private String mimeType;
+
+    private boolean inUse;
+
+    /**
+     * @return the writer of this thread, or a new one if it is still busy with
+     *         another response.
+     */
+    public static ResponseHeaderWriter acquire(OutputStream out, String mimeType) {
+        ResponseHeaderWriter writer = WRITERS.get();
+        if (writer == null) {
+            writer = new ResponseHeaderWriter();
+            WRITERS.set(writer);
+        } else if (writer.inUse) {
+            writer = new ResponseHeaderWriter();
+        }
+        writer.inUse = true;
+        writer.out = out;
+        writer.mimeType = mimeType;
+        writer.count = 0;
+        return writer;
+    }
+
+    /**
+     * Lets go of the output stream, anything not flushed is dropped.
+     */
+    public void release() {
+        this.out = null;
+        this.mimeType = null;
+        this.count = 0;
+        this.inUse = false;
+    }
+
+    public void writeStatusLine(IStatus status) throws IOException {
+        if (status instanceof Status) {
+            write(STATUS_LINES[((Status) status).ordinal()]);
+        } else {
+            write(statusLine(status));
+        }
+    }
+
+    public void writeHeader(String name, String value) throws IOException {
+        writeText(name);
+        write(COLON);
+        writeText(value);
+        write(CRLF);
+    }
+
+    public void writeDate() throws IOException {
+        long second = System.currentTimeMillis() / 1000;
+        DateLine line = dateLine;
+        if (line == null || line.second != second) {
+            line = new DateLine(second);
+            dateLine = line;
+        }
+        write(line.bytes);
+    }
+
+    public void writeConnection(boolean keepAlive) throws IOException {
+        write(keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE);
+    }
+
+    public void writeContentLength(long length) throws IOException {
+        write(CONTENT_LENGTH);
+        writeDecimal(length);
+        write(CRLF);
+    }
+
+    public void writeContentEncodingGzip() throws IOException {
+        write(CONTENT_ENCODING_GZIP);
+    }
+
+    public void writeTransferEncodingChunked() throws IOException {
+        write(TRANSFER_ENCODING_CHUNKED);
+    }
+
+    /**
+     * Ends the head with the empty line.
+     */
+    public void endHeaders() throws IOException {
+        write(CRLF);
+    }
+
+    /**
+     * Copies body bytes from the input through the free part of the buffer.
+     * What one read returns is sent on at once, so a body that is still being
+     * produced is not held back; the head leaves with the first read.
+     * 
+     * @param pending
+     *            most bytes to copy, -1 to copy everything.
+     */
+    public void transferFrom(InputStream in, long pending) throws IOException {
+        boolean everything = pending == -1;
+        while (pending > 0 || everything) {
+            if (this.count == this.buf.length) {
+                flushBuffer();
+            }
+            int len = this.buf.length - this.count;
+            if (!everything && pending < len) {
+                len = (int) pending;
+            }
+            int read = in.read(this.buf, this.count, len);
+            if (read <= 0) {
+                break;
+            }
+            this.count += read;
+            if (!everything) {
+                pending -= read;
+            }
+            flush();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (this.count == this.buf.length) {
+            flushBuffer();
+        }
+        this.buf[this.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (this.count == this.buf.length) {
+                flushBuffer();
+            }
+            int copied = Math.min(len, this.buf.length - this.count);
+            System.arraycopy(b, off, this.buf, this.count, copied);
+            this.count += copied;
+            off += copied;
+            len -= copied;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        this.out.flush();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (this.count > 0) {
+            this.out.write(this.buf, 0, this.count);
+            this.count = 0;
+        }
+    }
+
+    private void writeText(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                write(text.getBytes(new ContentType(this.mimeType).getEncoding()));
+                return;
+            }
+        }
+        for (int i = 0; i < text.length(); i++) {
+            write(text.charAt(i));
+        }
+    }
+
+    private void writeDecimal(long value) throws IOException {
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            write((int) ('0' + value / divisor % 10));
+        }
+    }
+
+    private static byte[] statusLine(IStatus status) {
+        return ascii("HTTP/1.1 " + status.getDescription() + " \r\n");
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(Charset.forName("ISO-8859-1"));
+    }
+
+    private static final class DateLine {
+
+        private final long second;
+
+        private final byte[] bytes;
+
+        DateLine(long second) {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            this.second = second;
+            this.bytes = ascii("Date: " + format.format(new Date(second * 1000)) + "\r\n");
+        }
+    }
+}
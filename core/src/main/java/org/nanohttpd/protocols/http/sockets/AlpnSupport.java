@@ -0,0 +1,118 @@
+package org.nanohttpd.protocols.http.sockets;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+import org.nanohttpd.protocols.http.NanoHTTPD;
+
+/**
+ * Access to TLS application layer protocol negotiation (ALPN), which lets
+ * client and server agree on HTTP/2 ("h2") during the handshake. The API exists
+ * since Java 9 (and 8u252), it is reached through reflection so the library
+ * still runs on older JVMs, where simply no protocol is negotiated.
+ */
+public final class AlpnSupport {
+
+    public static final String HTTP_2 = "h2";
+
+    public static final String HTTP_1_1 = "http/1.1";
+
+    private static final Method SET_APPLICATION_PROTOCOLS;
+
+    private static final Method GET_APPLICATION_PROTOCOL;
+
+    static {
+        Method setApplicationProtocols = null;
+        Method getApplicationProtocol = null;
+        try {
+            setApplicationProtocols = SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+            getApplicationProtocol = SSLSocket.class.getMethod("getApplicationProtocol");
+        } catch (Exception e) {
+            // no ALPN in this JVM.
+            setApplicationProtocols = null;
+        }
+        SET_APPLICATION_PROTOCOLS = setApplicationProtocols;
+        GET_APPLICATION_PROTOCOL = getApplicationProtocol;
+    }
+
+    private AlpnSupport() {
+    }
+
+    public static boolean isSupported() {
+        return SET_APPLICATION_PROTOCOLS != null;
+    }
+
+    /**
+     * Sets the protocols to offer, in order of preference.
+     * 
+     * @return false if ALPN is not supported.
+     */
+    public static boolean setApplicationProtocols(SSLParameters parameters, String[] protocols) {
+        if (!isSupported()) {
+            return false;
+        }
+        try {
+            SET_APPLICATION_PROTOCOLS.invoke(parameters, (Object) protocols);
+            return true;
+        } catch (Exception e) {
+            NanoHTTPD.LOG.log(Level.WARNING, "Could not set the ALPN protocols", e);
+            return false;
+        }
+    }
+
+    /**
+     * Completes the handshake of the socket if still pending.
+     * 
+     * @return the negotiated protocol, null if none.
+     */
+    public static String negotiate(SSLSocket socket) throws IOException {
+        if (!isSupported()) {
+            return null;
+        }
+        socket.startHandshake();
+        try {
+            String protocol = (String) GET_APPLICATION_PROTOCOL.invoke(socket);
+            return protocol == null || protocol.isEmpty() ? null : protocol;
+        } catch (Exception e) {
+            NanoHTTPD.LOG.log(Level.WARNING, "Could not get the ALPN protocol", e);
+            return null;
+        }
+    }
+}
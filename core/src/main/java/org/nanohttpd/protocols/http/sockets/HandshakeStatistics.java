@@ -0,0 +1,107 @@
+package org.nanohttpd.protocols.http.sockets;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the TLS handshakes done by an {@link SSLEngineFactory}: how many
+ * there were, how many of them resumed a cached session instead of a full key
+ * exchange, how many failed and how long they took.
+ */
+public final class HandshakeStatistics {
+
+    private final AtomicLong fullHandshakes = new AtomicLong();
+
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
+    private final AtomicLong failedHandshakes = new AtomicLong();
+
+    private final AtomicLong handshakeNanos = new AtomicLong();
+
+    /**
+     * @return the number of completed handshakes, full and resumed.
+     */
+    public long getHandshakes() {
+        return this.fullHandshakes.get() + this.resumedHandshakes.get();
+    }
+
+    public long getFullHandshakes() {
+        return this.fullHandshakes.get();
+    }
+
+    public long getResumedHandshakes() {
+        return this.resumedHandshakes.get();
+    }
+
+    /**
+     * @return the number of handshakes that ended with an error or with the
+     *         client going away.
+     */
+    public long getFailedHandshakes() {
+        return this.failedHandshakes.get();
+    }
+
+    /**
+     * @return share of the completed handshakes that resumed a session, 0 if
+     *         there were none yet.
+     */
+    public double getResumedRatio() {
+        long handshakes = getHandshakes();
+        return handshakes == 0 ? 0 : (double) this.resumedHandshakes.get() / handshakes;
+    }
+
+    /**
+     * @return mean duration of the completed handshakes in milliseconds, from
+     *         the first byte of the client to the end of the handshake.
+     */
+    public double getAverageHandshakeMillis() {
+        long handshakes = getHandshakes();
+        return handshakes == 0 ? 0 : (double) this.handshakeNanos.get() / handshakes / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public void handshakeCompleted(boolean resumed, long nanos) {
+        this.handshakeNanos.addAndGet(nanos);
+        if (resumed) {
+            this.resumedHandshakes.incrementAndGet();
+        } else {
+            this.fullHandshakes.incrementAndGet();
+        }
+    }
+
+    public void handshakeFailed() {
+        this.failedHandshakes.incrementAndGet();
+    }
+}
@@ -0,0 +1,111 @@
+package org.nanohttpd.protocols.http.sockets;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.nanohttpd.protocols.http.NanoHTTPD;
+
+/**
+ * Access to the SO_REUSEPORT socket option, which lets several server sockets
+ * bind the same port and has the kernel spread incoming connections over them.
+ * The option is exposed by the JDK since Java 9 and only on platforms
+ * supporting it (e.g. Linux), it is reached through reflection so the library
+ * still runs on older JVMs.
+ */
+public final class ReusePortSupport {
+
+    private static final Object SO_REUSEPORT;
+
+    private static final Method SET_OPTION;
+
+    private static final Method SUPPORTED_OPTIONS;
+
+    static {
+        Object option = null;
+        Method setOption = null;
+        Method supportedOptions = null;
+        try {
+            Class<?> socketOption = Class.forName("java.net.SocketOption");
+            option = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+            setOption = ServerSocket.class.getMethod("setOption", socketOption, Object.class);
+            supportedOptions = ServerSocket.class.getMethod("supportedOptions");
+        } catch (Exception e) {
+            // pre Java 9, SO_REUSEPORT is not available.
+            option = null;
+        }
+        SO_REUSEPORT = option;
+        SET_OPTION = setOption;
+        SUPPORTED_OPTIONS = supportedOptions;
+    }
+
+    private ReusePortSupport() {
+    }
+
+    /**
+     * @return true if SO_REUSEPORT can be set on the given, still unbound
+     *         server socket.
+     */
+    public static boolean isSupported(ServerSocket serverSocket) {
+        if (SO_REUSEPORT == null) {
+            return false;
+        }
+        try {
+            return ((Set<?>) SUPPORTED_OPTIONS.invoke(serverSocket)).contains(SO_REUSEPORT);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets SO_REUSEPORT on the given, still unbound server socket.
+     * 
+     * @return false if the option is not supported for this socket.
+     */
+    public static boolean enable(ServerSocket serverSocket) {
+        if (!isSupported(serverSocket)) {
+            return false;
+        }
+        try {
+            SET_OPTION.invoke(serverSocket, SO_REUSEPORT, Boolean.TRUE);
+            return true;
+        } catch (Exception e) {
+            NanoHTTPD.LOG.log(Level.WARNING, "Could not set SO_REUSEPORT", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.nanohttpd.protocols.http.sockets;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+
+import org.nanohttpd.util.IFactory;
+
+/**
+ * Creates the server side SSLEngines for TLS on the selector engine, where the
+ * handshake is driven by the selector threads instead of blocking a thread per
+ * connection. Keeps the {@link HandshakeStatistics} of all its engines.
+ * <p>
+ * Clients that come back within the session timeout resume their cached session
+ * and skip the full key exchange; the cache is tuned with
+ * {@link #configureSessionCache(int, int)}.
+ * </p>
+ */
+public class SSLEngineFactory implements IFactory<SSLEngine> {
+
+    private final SSLContext sslContext;
+
+    private final String[] sslProtocols;
+
+    private final HandshakeStatistics statistics = new HandshakeStatistics();
+
+    /**
+     * @param sslProtocols
+     *            protocols to enable, null for the defaults of the context.
+     */
+    public SSLEngineFactory(SSLContext sslContext, String[] sslProtocols) {
+        this.sslContext = sslContext;
+        this.sslProtocols = sslProtocols;
+    }
+
+    /**
+     * Sizes the server session cache of the context, shared by all engines.
+     * 
+     * @param cacheSize
+     *            maximum number of cached sessions, 0 for no limit.
+     * @param timeoutSeconds
+     *            how long a session can be resumed, 0 for no limit.
+     */
+    public void configureSessionCache(int cacheSize, int timeoutSeconds) {
+        SSLSessionContext sessions = this.sslContext.getServerSessionContext();
+        sessions.setSessionCacheSize(cacheSize);
+        sessions.setSessionTimeout(timeoutSeconds);
+    }
+
+    public SSLContext getSSLContext() {
+        return this.sslContext;
+    }
+
+    public HandshakeStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    @Override
+    public SSLEngine create() {
+        SSLEngine engine = this.sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        if (this.sslProtocols != null) {
+            engine.setEnabledProtocols(this.sslProtocols);
+        }
+        return engine;
+    }
+}
@@ -36,6 +36,7 @@ package org.nanohttpd.protocols.http.sockets;
 import java.io.IOException;
 import java.net.ServerSocket;
 
+import javax.net.ssl.SSLParameters;
 import javax.net.ssl.SSLServerSocket;
 import javax.net.ssl.SSLServerSocketFactory;
 
@@ -50,9 +51,21 @@ public class SecureServerSocketFactory implements IFactoryThrowing<ServerSocket,
 
     private String[] sslProtocols;
 
+    private String[] applicationProtocols;
+
     public SecureServerSocketFactory(SSLServerSocketFactory sslServerSocketFactory, String[] sslProtocols) {
+        this(sslServerSocketFactory, sslProtocols, null);
+    }
+
+    /**
+     * @param applicationProtocols
+     *            protocols offered with ALPN in order of preference, e.g.
+     *            {"h2", "http/1.1"}; null to not negotiate.
+     */
+    public SecureServerSocketFactory(SSLServerSocketFactory sslServerSocketFactory, String[] sslProtocols, String[] applicationProtocols) {
         this.sslServerSocketFactory = sslServerSocketFactory;
         this.sslProtocols = sslProtocols;
+        this.applicationProtocols = applicationProtocols;
     }
 
     @Override
@@ -67,6 +80,12 @@ public class SecureServerSocketFactory implements IFactoryThrowing<ServerSocket,
         ss.setUseClientMode(false);
         ss.setWantClientAuth(false);
         ss.setNeedClientAuth(false);
+        if (this.applicationProtocols != null) {
+            SSLParameters parameters = ss.getSSLParameters();
+            if (AlpnSupport.setApplicationProtocols(parameters, this.applicationProtocols)) {
+                ss.setSSLParameters(parameters);
+            }
+        }
         return ss;
     }
 
@@ -0,0 +1,136 @@
+package org.nanohttpd.protocols.http.sockets;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Server socket front for a Unix domain {@link ServerSocketChannel}, which has
+ * no socket adaptor of its own. It lets the server start and stop such a
+ * listener like any other; connections are accepted from the channel by the
+ * selector engine.
+ */
+class UnixDomainServerSocket extends ServerSocket {
+
+    private final String path;
+
+    private final ServerSocketChannel channel;
+
+    private volatile boolean bound;
+
+    UnixDomainServerSocket(String path) throws IOException {
+        this.path = path;
+        this.channel = UnixDomainSocketSupport.openServerChannel();
+    }
+
+    /**
+     * Binds the path of this socket, the given endpoint is ignored.
+     */
+    @Override
+    public void bind(SocketAddress endpoint, int backlog) throws IOException {
+        this.channel.bind(UnixDomainSocketSupport.address(this.path), backlog);
+        this.bound = true;
+    }
+
+    @Override
+    public boolean isBound() {
+        return this.bound;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return !this.channel.isOpen();
+    }
+
+    @Override
+    public ServerSocketChannel getChannel() {
+        return this.channel;
+    }
+
+    @Override
+    public Socket accept() throws IOException {
+        throw new SocketException("Unix domain sockets are served by the selector engine only");
+    }
+
+    /**
+     * Closes the channel and removes the socket file it bound.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.channel.close();
+        } finally {
+            if (this.bound) {
+                this.bound = false;
+                new File(this.path).delete();
+            }
+        }
+    }
+
+    @Override
+    public void setReuseAddress(boolean on) {
+        // there is no address to reuse.
+    }
+
+    @Override
+    public int getLocalPort() {
+        return -1;
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return null;
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        try {
+            return this.channel.getLocalAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UnixDomainServerSocket[" + this.path + "]";
+    }
+}
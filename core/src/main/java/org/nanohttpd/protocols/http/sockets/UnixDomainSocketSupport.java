@@ -0,0 +1,124 @@
+package org.nanohttpd.protocols.http.sockets;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Access to Unix domain sockets, which the JDK offers to channels since Java
+ * 16. Reached through reflection so the library still runs on older JVMs, where
+ * {@link #isSupported()} simply returns false.
+ */
+public final class UnixDomainSocketSupport {
+
+    private static final Object UNIX;
+
+    private static final Method OPEN_SERVER_CHANNEL;
+
+    private static final Method ADDRESS_OF;
+
+    static {
+        Object unix = null;
+        Method openServerChannel = null;
+        Method addressOf = null;
+        try {
+            unix = Class.forName("java.net.StandardProtocolFamily").getField("UNIX").get(null);
+            openServerChannel = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+        } catch (Exception e) {
+            // pre Java 16, no Unix domain sockets.
+            unix = null;
+        }
+        UNIX = unix;
+        OPEN_SERVER_CHANNEL = openServerChannel;
+        ADDRESS_OF = addressOf;
+    }
+
+    private UnixDomainSocketSupport() {
+    }
+
+    public static boolean isSupported() {
+        return UNIX != null;
+    }
+
+    /**
+     * @return a new, unbound Unix domain server channel.
+     */
+    public static ServerSocketChannel openServerChannel() throws IOException {
+        return (ServerSocketChannel) invoke(OPEN_SERVER_CHANNEL, UNIX);
+    }
+
+    /**
+     * @return the socket address of the given file system path.
+     */
+    public static SocketAddress address(String path) throws IOException {
+        return (SocketAddress) invoke(ADDRESS_OF, path);
+    }
+
+    /**
+     * @return true if the channel is not an internet socket, its peers have no
+     *         IP address then.
+     */
+    public static boolean isUnixDomain(NetworkChannel channel) {
+        try {
+            SocketAddress local = channel.getLocalAddress();
+            return local != null && !(local instanceof InetSocketAddress);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static Object invoke(Method method, Object argument) throws IOException {
+        if (!isSupported()) {
+            throw new IOException("Unix domain sockets need Java 16 or later");
+        }
+        try {
+            return method.invoke(null, argument);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+    }
+}
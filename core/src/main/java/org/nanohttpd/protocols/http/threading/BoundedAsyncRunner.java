@@ -0,0 +1,166 @@
+package org.nanohttpd.protocols.http.threading;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nanohttpd.protocols.http.ClientHandler;
+
+/**
+ * Threading strategy running client connections on a bounded pool of worker
+ * threads.
+ * <p>
+ * Up to <code>corePoolSize</code> workers are started on demand. Once they are
+ * all busy, new connections wait in a queue of <code>queueCapacity</code>
+ * entries (a capacity of 0 means direct hand-off), and only when that queue is
+ * full further workers are started, up to <code>maxPoolSize</code>. A
+ * connection that fits nowhere is given to the {@link IRejectionPolicy}, which
+ * by default answers with a "503 Service Unavailable" without spawning a
+ * thread.
+ * </p>
+ * <p>
+ * Note that a worker stays with its connection for as long as the client keeps
+ * it alive, so the pool size is the number of simultaneously served
+ * connections, not requests.
+ * </p>
+ */
+public class BoundedAsyncRunner extends DefaultAsyncRunner {
+
+    /**
+     * Time in seconds an idle worker above the core size is kept alive.
+     */
+    public static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final ThreadPoolExecutor executor;
+
+    private final IRejectionPolicy rejectionPolicy;
+
+    private final AtomicLong threadCount = new AtomicLong();
+
+    public BoundedAsyncRunner(int corePoolSize, int maxPoolSize, int queueCapacity) {
+        this(corePoolSize, maxPoolSize, queueCapacity, new ServiceUnavailableRejectionPolicy());
+    }
+
+    public BoundedAsyncRunner(int corePoolSize, int maxPoolSize, int queueCapacity, IRejectionPolicy rejectionPolicy) {
+        BlockingQueue<Runnable> queue;
+        if (queueCapacity > 0) {
+            queue = new ArrayBlockingQueue<Runnable>(queueCapacity);
+        } else {
+            queue = new SynchronousQueue<Runnable>();
+        }
+        this.executor = new ThreadPoolExecutor(corePoolSize, maxPoolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return createWorkerThread(r);
+            }
+        });
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    @Override
+    public void closeAll() {
+        // connections still waiting for a worker are closed without ever
+        // running, waiting tasks go with the connections they belong to.
+        List<Runnable> waiting = new ArrayList<Runnable>();
+        this.executor.getQueue().drainTo(waiting);
+        for (Runnable runnable : waiting) {
+            if (runnable instanceof ClientHandler) {
+                ClientHandler clientHandler = (ClientHandler) runnable;
+                clientHandler.close();
+                closed(clientHandler);
+            }
+        }
+        super.closeAll();
+    }
+
+    @Override
+    public void exec(ClientHandler clientHandler) {
+        this.requestCount.incrementAndGet();
+        started(clientHandler);
+        try {
+            this.executor.execute(clientHandler);
+        } catch (RejectedExecutionException e) {
+            closed(clientHandler);
+            this.rejectionPolicy.rejected(clientHandler);
+        }
+    }
+
+    /**
+     * Runs the task on the pool, it is rejected like a connection when the pool
+     * and its queue are full.
+     */
+    @Override
+    public void execTask(Runnable task) {
+        this.executor.execute(task);
+    }
+
+    /**
+     * @return the number of connections waiting for a free worker.
+     */
+    public int getQueuedCount() {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of workers currently serving a connection.
+     */
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    /**
+     * Stops the worker threads once they are idle. Connections are not closed,
+     * use {@link #closeAll()} for that.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    protected Thread createWorkerThread(Runnable worker) {
+        Thread t = new Thread(worker);
+        t.setDaemon(true);
+        t.setName("NanoHttpd Request Processor (pool #" + this.threadCount.incrementAndGet() + ")");
+        return t;
+    }
+}
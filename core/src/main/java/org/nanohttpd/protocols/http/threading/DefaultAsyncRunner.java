@@ -36,6 +36,9 @@ package org.nanohttpd.protocols.http.threading;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.nanohttpd.protocols.http.ClientHandler;
 
@@ -50,21 +53,36 @@ import org.nanohttpd.protocols.http.ClientHandler;
  */
 public class DefaultAsyncRunner implements IAsyncRunner {
 
-    protected long requestCount;
+    /**
+     * Number of clients executed so far, exec() is called from many threads.
+     */
+    protected final AtomicLong requestCount = new AtomicLong();
 
-    private final List<ClientHandler> running = Collections.synchronizedList(new ArrayList<ClientHandler>());
+    /**
+     * Concurrent set, adding and removing a client is O(1) and never blocks
+     * other connections.
+     */
+    private final Set<ClientHandler> running = Collections.newSetFromMap(new ConcurrentHashMap<ClientHandler, Boolean>());
 
     /**
-     * @return a list with currently running clients.
+     * @return a snapshot of the currently running clients.
      */
     public List<ClientHandler> getRunning() {
-        return running;
+        return new ArrayList<ClientHandler>(this.running);
+    }
+
+    /**
+     * @return the number of currently running clients.
+     */
+    public int getRunningCount() {
+        return this.running.size();
     }
 
     @Override
     public void closeAll() {
-        // copy of the list for concurrency
-        for (ClientHandler clientHandler : new ArrayList<ClientHandler>(this.running)) {
+        // the iteration is weakly consistent, clients starting meanwhile may
+        // be missed but nothing is visited twice.
+        for (ClientHandler clientHandler : this.running) {
             clientHandler.close();
         }
     }
@@ -76,15 +94,35 @@ public class DefaultAsyncRunner implements IAsyncRunner {
 
     @Override
     public void exec(ClientHandler clientHandler) {
-        ++this.requestCount;
-        this.running.add(clientHandler);
+        this.requestCount.incrementAndGet();
+        started(clientHandler);
         createThread(clientHandler).start();
     }
 
+    @Override
+    public void execTask(Runnable task) {
+        createTaskThread(task).start();
+    }
+
+    /**
+     * Registers a client as running, until {@link #closed(ClientHandler)} is
+     * called for it.
+     */
+    protected void started(ClientHandler clientHandler) {
+        this.running.add(clientHandler);
+    }
+
     protected Thread createThread(ClientHandler clientHandler) {
         Thread t = new Thread(clientHandler);
         t.setDaemon(true);
-        t.setName("NanoHttpd Request Processor (#" + this.requestCount + ")");
+        t.setName("NanoHttpd Request Processor (#" + this.requestCount.get() + ")");
+        return t;
+    }
+
+    protected Thread createTaskThread(Runnable task) {
+        Thread t = new Thread(task);
+        t.setDaemon(true);
+        t.setName("NanoHttpd Task Processor");
         return t;
     }
 }
@@ -33,6 +33,8 @@ package org.nanohttpd.protocols.http.threading;
  * #L%
  */
 
+import java.util.concurrent.RejectedExecutionException;
+
 import org.nanohttpd.protocols.http.ClientHandler;
 
 /**
@@ -45,4 +47,14 @@ public interface IAsyncRunner {
     void closed(ClientHandler clientHandler);
 
     void exec(ClientHandler code);
+
+    /**
+     * Runs a task that is not a client connection, such as the delegated tasks
+     * of a TLS handshake. Tasks are neither registered as running nor closed by
+     * {@link #closeAll()}, their owner stays responsible for them.
+     * 
+     * @throws RejectedExecutionException
+     *             if the runner has no room for the task.
+     */
+    void execTask(Runnable task);
 }
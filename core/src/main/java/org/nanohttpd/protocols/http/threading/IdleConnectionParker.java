@@ -0,0 +1,239 @@
+package org.nanohttpd.protocols.http.threading;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+import org.nanohttpd.protocols.http.ClientHandler;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+
+/**
+ * Keeps idle keep-alive connections on a single selector thread instead of a
+ * blocked worker thread. A {@link ClientHandler} parks its connection after a
+ * response was sent and is given back to the async runner as soon as the next
+ * request starts to arrive.
+ * <p>
+ * Parked connections are closed after <code>idleTimeout</code> milliseconds
+ * without data; the socket read timeout still applies while a request is read.
+ * Only sockets backed by a channel can be parked, see
+ * {@link org.nanohttpd.protocols.http.sockets.ChannelServerSocketFactory}.
+ * </p>
+ */
+public class IdleConnectionParker implements Runnable {
+
+    /**
+     * Interval in milliseconds at which expired connections are looked for.
+     */
+    private static final long EXPIRY_INTERVAL = 1000;
+
+    private static final class Parked {
+
+        private final ClientHandler clientHandler;
+
+        private final SocketChannel channel;
+
+        private final long since = System.currentTimeMillis();
+
+        private Parked(ClientHandler clientHandler, SocketChannel channel) {
+            this.clientHandler = clientHandler;
+            this.channel = channel;
+        }
+    }
+
+    private final NanoHTTPD httpd;
+
+    private final int idleTimeout;
+
+    private final Queue<Parked> pending = new ConcurrentLinkedQueue<Parked>();
+
+    private Selector selector;
+
+    private volatile Thread thread;
+
+    /**
+     * @param idleTimeout
+     *            milliseconds a parked connection may stay idle, 0 for no
+     *            limit.
+     */
+    public IdleConnectionParker(NanoHTTPD httpd, int idleTimeout) {
+        this.httpd = httpd;
+        this.idleTimeout = idleTimeout;
+    }
+
+    public int getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    /**
+     * @return true if the connection on this socket can be parked.
+     */
+    public boolean canPark(Socket socket) {
+        return socket.getChannel() != null;
+    }
+
+    /**
+     * Parks the connection of the handler until the client sends more data. The
+     * handler must not be running anymore, it is executed again by the async
+     * runner once data arrives.
+     * 
+     * @return false if the connection could not be parked, the caller has to
+     *         close it.
+     */
+    public boolean park(ClientHandler clientHandler, Socket socket) {
+        SocketChannel channel = socket.getChannel();
+        if (channel == null || socket.isClosed()) {
+            return false;
+        }
+        try {
+            channel.configureBlocking(false);
+            Selector active = start();
+            this.pending.add(new Parked(clientHandler, channel));
+            active.wakeup();
+            return true;
+        } catch (IOException e) {
+            NanoHTTPD.LOG.log(Level.FINE, "Could not park connection", e);
+            return false;
+        }
+    }
+
+    /**
+     * Stops the parker thread and closes all parked connections, a later
+     * {@link #park(ClientHandler, Socket)} starts it again.
+     */
+    public void closeAll() {
+        Thread stopping;
+        synchronized (this) {
+            stopping = this.thread;
+            if (stopping == null) {
+                return;
+            }
+            this.selector.wakeup();
+            this.thread = null;
+        }
+        try {
+            stopping.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        Thread self = Thread.currentThread();
+        Selector active = this.selector;
+        long nextExpiry = System.currentTimeMillis() + EXPIRY_INTERVAL;
+        try {
+            while (this.thread == self) {
+                active.select(EXPIRY_INTERVAL);
+                Parked parked;
+                while ((parked = this.pending.poll()) != null) {
+                    try {
+                        parked.channel.register(active, SelectionKey.OP_READ, parked);
+                    } catch (IOException e) {
+                        parked.clientHandler.close();
+                    }
+                }
+                List<Parked> woken = new ArrayList<Parked>();
+                Iterator<SelectionKey> keys = active.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    key.cancel();
+                    woken.add((Parked) key.attachment());
+                }
+                long now = System.currentTimeMillis();
+                if (this.idleTimeout > 0 && now >= nextExpiry) {
+                    for (SelectionKey key : active.keys()) {
+                        Parked candidate = (Parked) key.attachment();
+                        if (key.isValid() && now - candidate.since >= this.idleTimeout) {
+                            key.cancel();
+                            candidate.clientHandler.close();
+                        }
+                    }
+                    nextExpiry = now + EXPIRY_INTERVAL;
+                }
+                if (!woken.isEmpty()) {
+                    // cancelled keys are only dropped by the next selection, a
+                    // channel can not block again while still registered.
+                    active.selectNow();
+                    for (Parked entry : woken) {
+                        resume(entry);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            NanoHTTPD.LOG.log(Level.SEVERE, "Idle connection parker failed", e);
+        } finally {
+            for (SelectionKey key : active.keys()) {
+                ((Parked) key.attachment()).clientHandler.close();
+            }
+            Parked parked;
+            while ((parked = this.pending.poll()) != null) {
+                parked.clientHandler.close();
+            }
+            NanoHTTPD.safeClose(active);
+        }
+    }
+
+    private void resume(Parked parked) {
+        try {
+            parked.channel.configureBlocking(true);
+            this.httpd.getAsyncRunner().exec(parked.clientHandler);
+        } catch (IOException e) {
+            NanoHTTPD.LOG.log(Level.FINE, "Could not resume parked connection", e);
+            parked.clientHandler.close();
+        }
+    }
+
+    private synchronized Selector start() throws IOException {
+        if (this.thread == null) {
+            this.selector = Selector.open();
+            this.thread = new Thread(this);
+            this.thread.setDaemon(true);
+            this.thread.setName("NanoHttpd Idle Connection Parker");
+            this.thread.start();
+        }
+        return this.selector;
+    }
+}
@@ -0,0 +1,76 @@
+package org.nanohttpd.protocols.http.threading;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.nio.charset.Charset;
+
+import org.nanohttpd.protocols.http.ClientHandler;
+import org.nanohttpd.protocols.http.response.Status;
+
+/**
+ * Rejection policy answering every rejected connection with a
+ * "503 Service Unavailable" and a Retry-After header. The response is built
+ * once and written as raw bytes directly on the socket, so shedding load
+ * neither spawns a thread nor allocates a Response per connection.
+ */
+public class ServiceUnavailableRejectionPolicy implements IRejectionPolicy {
+
+    /**
+     * Default number of seconds a client is asked to wait before retrying.
+     */
+    public static final int DEFAULT_RETRY_AFTER = 1;
+
+    private final byte[] rawResponse;
+
+    public ServiceUnavailableRejectionPolicy() {
+        this(DEFAULT_RETRY_AFTER);
+    }
+
+    /**
+     * @param retryAfterSeconds
+     *            value of the Retry-After header sent to rejected clients.
+     */
+    public ServiceUnavailableRejectionPolicy(int retryAfterSeconds) {
+        String body = Status.SERVICE_UNAVAILABLE.getDescription();
+        String response =
+                "HTTP/1.1 " + Status.SERVICE_UNAVAILABLE.getDescription() + " \r\n" + "Content-Type: text/plain\r\n" + "Retry-After: " + retryAfterSeconds + "\r\n"
+                        + "Connection: close\r\n" + "Content-Length: " + body.length() + "\r\n\r\n" + body;
+        this.rawResponse = response.getBytes(Charset.forName("US-ASCII"));
+    }
+
+    @Override
+    public void rejected(ClientHandler clientHandler) {
+        clientHandler.abort(this.rawResponse);
+    }
+}
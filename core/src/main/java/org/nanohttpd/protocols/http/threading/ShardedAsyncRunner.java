@@ -0,0 +1,144 @@
+package org.nanohttpd.protocols.http.threading;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.nanohttpd.protocols.http.ClientHandler;
+import org.nanohttpd.util.IFactory;
+
+/**
+ * Threading strategy made of independent shards, one per acceptor thread, so
+ * that the acceptors do not contend on the bookkeeping of a single runner.
+ * Connections accepted by acceptor <code>i</code> run on {@link #getShard(int)
+ * shard i}; connections executed from elsewhere are spread round robin, unless
+ * they already ran on a shard. A handler remembers its shard, which is the only
+ * one told when it is closed.
+ */
+public class ShardedAsyncRunner implements IAsyncRunner {
+
+    /**
+     * Records itself on every handler it runs.
+     */
+    private static final class Shard implements IAsyncRunner {
+
+        private final IAsyncRunner runner;
+
+        Shard(IAsyncRunner runner) {
+            this.runner = runner;
+        }
+
+        @Override
+        public void closeAll() {
+            this.runner.closeAll();
+        }
+
+        @Override
+        public void closed(ClientHandler clientHandler) {
+            this.runner.closed(clientHandler);
+        }
+
+        @Override
+        public void exec(ClientHandler clientHandler) {
+            clientHandler.setShard(this);
+            this.runner.exec(clientHandler);
+        }
+
+        @Override
+        public void execTask(Runnable task) {
+            this.runner.execTask(task);
+        }
+    }
+
+    private final IAsyncRunner[] shards;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ShardedAsyncRunner(int shardCount, IFactory<IAsyncRunner> shardFactory) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be at least 1");
+        }
+        this.shards = new IAsyncRunner[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            this.shards[i] = new Shard(shardFactory.create());
+        }
+    }
+
+    public int getShardCount() {
+        return this.shards.length;
+    }
+
+    /**
+     * @return the runner of the given acceptor, indices wrap around.
+     */
+    public IAsyncRunner getShard(int index) {
+        return this.shards[index % this.shards.length];
+    }
+
+    @Override
+    public void closeAll() {
+        for (IAsyncRunner shard : this.shards) {
+            shard.closeAll();
+        }
+    }
+
+    @Override
+    public void closed(ClientHandler clientHandler) {
+        IAsyncRunner shard = clientHandler.getShard();
+        if (shard != null) {
+            shard.closed(clientHandler);
+        }
+    }
+
+    /**
+     * Runs the handler on its shard, so that a handler resumed after it was
+     * suspended or parked stays known to a single shard.
+     */
+    @Override
+    public void exec(ClientHandler clientHandler) {
+        IAsyncRunner shard = clientHandler.getShard();
+        if (shard == null) {
+            shard = getShard((this.next.getAndIncrement() & Integer.MAX_VALUE));
+        }
+        shard.exec(clientHandler);
+    }
+
+    /**
+     * Spreads tasks round robin, they are not tied to a shard.
+     */
+    @Override
+    public void execTask(Runnable task) {
+        getShard((this.next.getAndIncrement() & Integer.MAX_VALUE)).execTask(task);
+    }
+}
@@ -0,0 +1,116 @@
+package org.nanohttpd.protocols.http.threading;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+
+import org.nanohttpd.protocols.http.ClientHandler;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+
+/**
+ * Threading strategy running every client connection on its own virtual thread
+ * (Java 21 and later).
+ * <p>
+ * Blocking reads in the session and in websocket frame loops then park the
+ * virtual thread instead of an OS thread, so a single server can hold tens of
+ * thousands of idle keep-alive connections. The virtual thread API is looked up
+ * by reflection, so this class compiles and runs on older JVMs where it simply
+ * behaves like {@link DefaultAsyncRunner}.
+ * </p>
+ */
+public class VirtualThreadAsyncRunner extends DefaultAsyncRunner {
+
+    private static final Method OF_VIRTUAL;
+
+    private static final Method BUILDER_NAME;
+
+    private static final Method BUILDER_UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderUnstarted = null;
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderName = builderClass.getMethod("name", String.class);
+            builderUnstarted = builderClass.getMethod("unstarted", Runnable.class);
+            // on Java 19 and 20 the builder exists but throws unless preview
+            // features are enabled.
+            ofVirtual.invoke(null);
+        } catch (Exception e) {
+            // no virtual threads on this JVM, stay with platform threads.
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_UNSTARTED = builderUnstarted;
+    }
+
+    /**
+     * @return true if the running JVM can create virtual threads.
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    @Override
+    protected Thread createThread(ClientHandler clientHandler) {
+        Thread t = createVirtualThread("NanoHttpd Request Processor (#" + this.requestCount.get() + ")", clientHandler);
+        return t != null ? t : super.createThread(clientHandler);
+    }
+
+    @Override
+    protected Thread createTaskThread(Runnable task) {
+        Thread t = createVirtualThread("NanoHttpd Task Processor", task);
+        return t != null ? t : super.createTaskThread(task);
+    }
+
+    /**
+     * @return an unstarted virtual thread, null if none can be created.
+     */
+    private static Thread createVirtualThread(String name, Runnable runnable) {
+        if (isSupported()) {
+            try {
+                Object builder = OF_VIRTUAL.invoke(null);
+                builder = BUILDER_NAME.invoke(builder, name);
+                return (Thread) BUILDER_UNSTARTED.invoke(builder, runnable);
+            } catch (Exception e) {
+                NanoHTTPD.LOG.log(Level.WARNING, "Could not create a virtual thread, falling back to a platform thread", e);
+            }
+        }
+        return null;
+    }
+}
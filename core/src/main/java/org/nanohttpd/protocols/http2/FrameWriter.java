@@ -0,0 +1,160 @@
+package org.nanohttpd.protocols.http2;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes HTTP/2 frames (RFC 7540, section 4) to the connection. Every frame
+ * goes out in one write, so frames of concurrent streams never interleave.
+ */
+public class FrameWriter {
+
+    public static final int HEADER_LENGTH = 9;
+
+    public static final int TYPE_DATA = 0x0;
+
+    public static final int TYPE_HEADERS = 0x1;
+
+    public static final int TYPE_PRIORITY = 0x2;
+
+    public static final int TYPE_RST_STREAM = 0x3;
+
+    public static final int TYPE_SETTINGS = 0x4;
+
+    public static final int TYPE_PUSH_PROMISE = 0x5;
+
+    public static final int TYPE_PING = 0x6;
+
+    public static final int TYPE_GOAWAY = 0x7;
+
+    public static final int TYPE_WINDOW_UPDATE = 0x8;
+
+    public static final int TYPE_CONTINUATION = 0x9;
+
+    public static final int FLAG_END_STREAM = 0x1;
+
+    public static final int FLAG_ACK = 0x1;
+
+    public static final int FLAG_END_HEADERS = 0x4;
+
+    public static final int FLAG_PADDED = 0x8;
+
+    public static final int FLAG_PRIORITY = 0x20;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final OutputStream outputStream;
+
+    public FrameWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    public synchronized void writeFrame(int type, int flags, int streamId, byte[] payload, int off, int len) throws IOException {
+        byte[] frame = new byte[HEADER_LENGTH + len];
+        frame[0] = (byte) (len >>> 16);
+        frame[1] = (byte) (len >>> 8);
+        frame[2] = (byte) len;
+        frame[3] = (byte) type;
+        frame[4] = (byte) flags;
+        putInt(frame, 5, streamId & 0x7fffffff);
+        System.arraycopy(payload, off, frame, HEADER_LENGTH, len);
+        this.outputStream.write(frame);
+        this.outputStream.flush();
+    }
+
+    /**
+     * Writes a header block as one HEADERS frame followed by as many
+     * CONTINUATION frames as needed, with no other frame in between.
+     */
+    public synchronized void writeHeaders(int streamId, byte[] block, boolean endStream, int maxFrameSize) throws IOException {
+        int length = Math.min(block.length, maxFrameSize);
+        int flags = endStream ? FLAG_END_STREAM : 0;
+        writeFrame(TYPE_HEADERS, length == block.length ? flags | FLAG_END_HEADERS : flags, streamId, block, 0, length);
+        for (int off = length; off < block.length; off += length) {
+            length = Math.min(block.length - off, maxFrameSize);
+            writeFrame(TYPE_CONTINUATION, off + length == block.length ? FLAG_END_HEADERS : 0, streamId, block, off, length);
+        }
+    }
+
+    /**
+     * @param settings
+     *            pairs of setting identifier and value.
+     */
+    public void writeSettings(int... settings) throws IOException {
+        byte[] payload = new byte[settings.length / 2 * 6];
+        for (int i = 0; i + 1 < settings.length; i += 2) {
+            int off = i / 2 * 6;
+            payload[off] = (byte) (settings[i] >>> 8);
+            payload[off + 1] = (byte) settings[i];
+            putInt(payload, off + 2, settings[i + 1]);
+        }
+        writeFrame(TYPE_SETTINGS, 0, 0, payload, 0, payload.length);
+    }
+
+    public void writeSettingsAck() throws IOException {
+        writeFrame(TYPE_SETTINGS, FLAG_ACK, 0, EMPTY, 0, 0);
+    }
+
+    public void writeGoAway(int lastStreamId, int errorCode) throws IOException {
+        byte[] payload = new byte[8];
+        putInt(payload, 0, lastStreamId);
+        putInt(payload, 4, errorCode);
+        writeFrame(TYPE_GOAWAY, 0, 0, payload, 0, payload.length);
+    }
+
+    public void writeRstStream(int streamId, int errorCode) throws IOException {
+        byte[] payload = new byte[4];
+        putInt(payload, 0, errorCode);
+        writeFrame(TYPE_RST_STREAM, 0, streamId, payload, 0, payload.length);
+    }
+
+    public void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = new byte[4];
+        putInt(payload, 0, increment);
+        writeFrame(TYPE_WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+    }
+
+    static void putInt(byte[] buf, int off, int value) {
+        buf[off] = (byte) (value >>> 24);
+        buf[off + 1] = (byte) (value >>> 16);
+        buf[off + 2] = (byte) (value >>> 8);
+        buf[off + 3] = (byte) value;
+    }
+
+    static int getInt(byte[] buf, int off) {
+        return (buf[off] & 0xff) << 24 | (buf[off + 1] & 0xff) << 16 | (buf[off + 2] & 0xff) << 8 | buf[off + 3] & 0xff;
+    }
+}
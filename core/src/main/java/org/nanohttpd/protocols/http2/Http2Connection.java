@@ -0,0 +1,834 @@
+package org.nanohttpd.protocols.http2;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+import org.nanohttpd.protocols.http.HTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http2.hpack.HeaderField;
+import org.nanohttpd.protocols.http2.hpack.HpackDecoder;
+import org.nanohttpd.protocols.http2.hpack.HpackEncoder;
+
+/**
+ * One HTTP/2 connection, over TLS when negotiated with ALPN, or over cleartext
+ * TCP (h2c), entered either with the client connection preface ("prior
+ * knowledge") or by an HTTP/1.1 request carrying "Upgrade: h2c".
+ * <p>
+ * The thread that took over the connection reads and handles all frames. Every
+ * stream becomes an {@link Http2Stream} run by the async runner of the server,
+ * where a regular {@link HTTPSession} serves it, so handlers and interceptors
+ * see the same {@link org.nanohttpd.protocols.http.IHTTPSession} as over
+ * HTTP/1.1.
+ * </p>
+ */
+public class Http2Connection {
+
+    public static final int DEFAULT_WINDOW_SIZE = 65535;
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+    /**
+     * Streams open at once, further ones are refused with REFUSED_STREAM.
+     */
+    public static final int MAX_CONCURRENT_STREAMS = 100;
+
+    /**
+     * Receive window of the whole connection, larger than the default so that a
+     * few streams can upload at full speed.
+     */
+    public static final int CONNECTION_WINDOW_SIZE = 1024 * 1024;
+
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    private static final int HEADER_TABLE_SIZE = 4096;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(ISO_8859_1);
+
+    /**
+     * Length of the request line part of the preface, what HTTPSession takes
+     * for a request head.
+     */
+    private static final int PREFACE_HEAD_LENGTH = 18;
+
+    private static final String BASE64_URL = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    private final NanoHTTPD httpd;
+
+    private final InputStream inputStream;
+
+    private final OutputStream outputStream;
+
+    private final FrameWriter writer;
+
+    private final InetAddress remoteAddress;
+
+    private final HpackDecoder decoder;
+
+    private final HpackEncoder encoder = new HpackEncoder();
+
+    private final Map<Integer, Http2Stream> streams = new ConcurrentHashMap<Integer, Http2Stream>();
+
+    /**
+     * Guards the send windows of the connection and of all its streams.
+     */
+    private final Object flowLock = new Object();
+
+    private int sendWindow = DEFAULT_WINDOW_SIZE;
+
+    private int initialSendWindow = DEFAULT_WINDOW_SIZE;
+
+    private volatile int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+    private int receiveWindow = CONNECTION_WINDOW_SIZE;
+
+    private int receivedUnacknowledged;
+
+    private volatile int lastStreamId;
+
+    private boolean goAwaySent;
+
+    private volatile boolean goAwayReceived;
+
+    private volatile boolean closed;
+
+    /**
+     * Stream whose header block continues in CONTINUATION frames, 0 if none.
+     */
+    private int continuationStreamId;
+
+    private boolean continuationEndStream;
+
+    private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+
+    /**
+     * @param remoteIp
+     *            address of the client, null if unknown.
+     */
+    public Http2Connection(NanoHTTPD httpd, InputStream inputStream, OutputStream outputStream, String remoteIp) throws IOException {
+        this.httpd = httpd;
+        this.decoder = new HpackDecoder(HEADER_TABLE_SIZE, httpd.getMaxHeaderSize());
+        this.inputStream = inputStream;
+        this.outputStream = outputStream;
+        this.writer = new FrameWriter(outputStream);
+        this.remoteAddress = remoteIp == null ? null : InetAddress.getByName(remoteIp);
+    }
+
+    /**
+     * @return true if the buffer starts with the request line of the HTTP/2
+     *         connection preface.
+     */
+    public static boolean isPreface(byte[] buf, int off, int len) {
+        if (len < PREFACE_HEAD_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < PREFACE_HEAD_LENGTH; i++) {
+            if (buf[off + i] != PREFACE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the buffered request starts HTTP/2, either with the
+     *         preface or as a request carrying HTTP2-Settings for an upgrade.
+     */
+    public static boolean isHttp2Start(byte[] buf, int off, int len) {
+        return isPreface(buf, off, len) || new String(buf, off, len, ISO_8859_1).toLowerCase(Locale.US).contains("\nhttp2-settings:");
+    }
+
+    /**
+     * @return true for a bodiless HTTP/1.1 request asking to upgrade to h2c
+     *         with valid HTTP2-Settings.
+     */
+    public static boolean isUpgrade(Map<String, String> headers) {
+        String upgrade = headers.get("upgrade");
+        String settings = headers.get("http2-settings");
+        if (upgrade == null || settings == null || decodeSettings(settings) == null) {
+            return false;
+        }
+        String contentLength = headers.get("content-length");
+        if (contentLength != null && !"0".equals(contentLength.trim()) || headers.containsKey("transfer-encoding")) {
+            return false;
+        }
+        for (String protocol : upgrade.split(",")) {
+            if ("h2c".equalsIgnoreCase(protocol.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Serves the connection after the request line of the preface was read,
+     * returns once it is closed.
+     */
+    public void servePriorKnowledge() throws IOException {
+        try {
+            writeServerPreface();
+            serve(PREFACE_HEAD_LENGTH);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Serves a connection on which HTTP/2 was negotiated with ALPN, returns
+     * once it is closed.
+     */
+    public void serveNegotiated() throws IOException {
+        try {
+            writeServerPreface();
+            serve(0);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Switches protocols after an upgrade request, which becomes stream 1, and
+     * serves the connection until it is closed.
+     * 
+     * @param head
+     *            the raw head of the upgrade request.
+     * @param settings
+     *            the value of its HTTP2-Settings header.
+     */
+    public void serveUpgrade(byte[] head, int headLength, String settings) throws IOException {
+        try {
+            this.outputStream.write("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n".getBytes(ISO_8859_1));
+            writeServerPreface();
+            try {
+                byte[] payload = decodeSettings(settings);
+                applySettings(payload, 0, payload.length);
+            } catch (Http2Exception e) {
+                goAway(e.getErrorCode());
+                return;
+            }
+            Http2Stream stream = Http2Stream.fromUpgrade(this, 1, new String(head, 0, headLength, ISO_8859_1));
+            this.streams.put(1, stream);
+            this.lastStreamId = 1;
+            dispatch(stream);
+            serve(0);
+        } finally {
+            close();
+        }
+    }
+
+    public NanoHTTPD getHttpd() {
+        return this.httpd;
+    }
+
+    InetAddress getRemoteAddress() {
+        return this.remoteAddress;
+    }
+
+    int getMaxFrameSize() {
+        return this.maxFrameSize;
+    }
+
+    private void writeServerPreface() throws IOException {
+        this.writer.writeSettings(SETTINGS_MAX_CONCURRENT_STREAMS, MAX_CONCURRENT_STREAMS, SETTINGS_ENABLE_PUSH, 0, SETTINGS_MAX_HEADER_LIST_SIZE,
+                this.httpd.getMaxHeaderSize());
+        this.writer.writeWindowUpdate(0, CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+    }
+
+    private void readPreface(int from) throws IOException {
+        byte[] rest = new byte[PREFACE.length - from];
+        readFully(rest, 0, rest.length);
+        for (int i = 0; i < rest.length; i++) {
+            if (rest[i] != PREFACE[from + i]) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid connection preface");
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of the client preface and then handles frames until the
+     * connection ends.
+     */
+    private void serve(int prefaceFrom) {
+        byte[] header = new byte[FrameWriter.HEADER_LENGTH];
+        try {
+            readPreface(prefaceFrom);
+            while (!this.closed && readFrameHeader(header)) {
+                int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+                int type = header[3] & 0xff;
+                int flags = header[4] & 0xff;
+                int streamId = FrameWriter.getInt(header, 5) & 0x7fffffff;
+                if (length > DEFAULT_MAX_FRAME_SIZE) {
+                    throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+                }
+                byte[] payload = new byte[length];
+                readFully(payload, 0, length);
+                try {
+                    handleFrame(type, flags, streamId, payload);
+                } catch (Http2Exception e) {
+                    if (e.isConnectionError()) {
+                        throw e;
+                    }
+                    resetStream(e.getStreamId(), e.getErrorCode());
+                }
+            }
+        } catch (Http2Exception e) {
+            NanoHTTPD.LOG.log(Level.FINE, "HTTP/2 connection error", e);
+            goAway(e.getErrorCode());
+        } catch (IOException e) {
+            if (!this.closed) {
+                NanoHTTPD.LOG.log(Level.FINE, "HTTP/2 connection broken", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the header of the next frame. Read timeouts between frames close an
+     * idle connection, but not one with streams still being served.
+     * 
+     * @return false if the connection ended.
+     */
+    private boolean readFrameHeader(byte[] header) throws IOException {
+        int first;
+        while (true) {
+            try {
+                first = this.inputStream.read();
+                break;
+            } catch (SocketTimeoutException e) {
+                if (this.streams.isEmpty()) {
+                    goAway(Http2Exception.NO_ERROR);
+                    return false;
+                }
+            }
+        }
+        if (first < 0) {
+            return false;
+        }
+        header[0] = (byte) first;
+        readFully(header, 1, header.length - 1);
+        return true;
+    }
+
+    private void readFully(byte[] buf, int off, int len) throws IOException {
+        while (len > 0) {
+            int read = this.inputStream.read(buf, off, len);
+            if (read < 0) {
+                throw new EOFException("Connection closed within a frame");
+            }
+            off += read;
+            len -= read;
+        }
+    }
+
+    private void handleFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+        if (this.continuationStreamId != 0 && (type != FrameWriter.TYPE_CONTINUATION || streamId != this.continuationStreamId)) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Header block interrupted");
+        }
+        switch (type) {
+            case FrameWriter.TYPE_DATA:
+                handleData(flags, streamId, payload);
+                break;
+            case FrameWriter.TYPE_HEADERS:
+                handleHeaders(flags, streamId, payload);
+                break;
+            case FrameWriter.TYPE_PRIORITY:
+                if (streamId == 0) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PRIORITY on stream 0");
+                }
+                if (payload.length != 5) {
+                    throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, streamId, "PRIORITY of " + payload.length + " bytes");
+                }
+                break;
+            case FrameWriter.TYPE_RST_STREAM:
+                handleRstStream(streamId, payload);
+                break;
+            case FrameWriter.TYPE_SETTINGS:
+                handleSettings(flags, streamId, payload);
+                break;
+            case FrameWriter.TYPE_PUSH_PROMISE:
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PUSH_PROMISE from a client");
+            case FrameWriter.TYPE_PING:
+                if (streamId != 0) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "PING on a stream");
+                }
+                if (payload.length != 8) {
+                    throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "PING of " + payload.length + " bytes");
+                }
+                if ((flags & FrameWriter.FLAG_ACK) == 0) {
+                    this.writer.writeFrame(FrameWriter.TYPE_PING, FrameWriter.FLAG_ACK, 0, payload, 0, payload.length);
+                }
+                break;
+            case FrameWriter.TYPE_GOAWAY:
+                this.goAwayReceived = true;
+                if (this.streams.isEmpty()) {
+                    close();
+                }
+                break;
+            case FrameWriter.TYPE_WINDOW_UPDATE:
+                handleWindowUpdate(streamId, payload);
+                break;
+            case FrameWriter.TYPE_CONTINUATION:
+                if (this.continuationStreamId == 0) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Unexpected CONTINUATION");
+                }
+                appendHeaderBlock(payload, 0, payload.length);
+                if ((flags & FrameWriter.FLAG_END_HEADERS) != 0) {
+                    headersComplete();
+                }
+                break;
+            default:
+                // unknown frame types are ignored.
+                break;
+        }
+    }
+
+    private void handleData(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        if (payload.length > this.receiveWindow) {
+            throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window exceeded");
+        }
+        // the connection window is given back right away, streams hold back
+        // their own window until the handler consumed the data.
+        this.receiveWindow -= payload.length;
+        this.receivedUnacknowledged += payload.length;
+        if (this.receivedUnacknowledged >= CONNECTION_WINDOW_SIZE / 2) {
+            this.writer.writeWindowUpdate(0, this.receivedUnacknowledged);
+            this.receiveWindow += this.receivedUnacknowledged;
+            this.receivedUnacknowledged = 0;
+        }
+        int off = 0;
+        int end = payload.length;
+        if ((flags & FrameWriter.FLAG_PADDED) != 0) {
+            end -= payload.length > 0 ? payload[0] & 0xff : 1;
+            off = 1;
+            if (end < off) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Padding too long");
+            }
+        }
+        Http2Stream stream = this.streams.get(streamId);
+        if (stream == null) {
+            if (streamId > this.lastStreamId) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+            }
+            // a stream we already answered or reset.
+            return;
+        }
+        stream.receiveData(payload, off, end - off, payload.length - (end - off), (flags & FrameWriter.FLAG_END_STREAM) != 0);
+        dispatchIfReady(stream);
+    }
+
+    private void handleHeaders(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "HEADERS on stream 0");
+        }
+        int off = 0;
+        int end = payload.length;
+        if ((flags & FrameWriter.FLAG_PADDED) != 0) {
+            end -= payload.length > 0 ? payload[0] & 0xff : 1;
+            off = 1;
+        }
+        if ((flags & FrameWriter.FLAG_PRIORITY) != 0) {
+            off += 5;
+        }
+        if (end < off) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "HEADERS too short");
+        }
+        this.continuationStreamId = streamId;
+        this.continuationEndStream = (flags & FrameWriter.FLAG_END_STREAM) != 0;
+        this.headerBlock.reset();
+        appendHeaderBlock(payload, off, end - off);
+        if ((flags & FrameWriter.FLAG_END_HEADERS) != 0) {
+            headersComplete();
+        }
+    }
+
+    private void appendHeaderBlock(byte[] payload, int off, int len) throws Http2Exception {
+        if (this.headerBlock.size() + len > 4 * this.httpd.getMaxHeaderSize()) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Header block too large");
+        }
+        this.headerBlock.write(payload, off, len);
+    }
+
+    private void headersComplete() throws IOException {
+        int streamId = this.continuationStreamId;
+        boolean endStream = this.continuationEndStream;
+        this.continuationStreamId = 0;
+        byte[] block = this.headerBlock.toByteArray();
+        List<HeaderField> fields;
+        try {
+            // decoded in any case, the decoder state has to follow every
+            // header block of the connection.
+            fields = this.decoder.decode(block, 0, block.length);
+        } catch (IOException e) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, e.getMessage());
+        }
+        Http2Stream stream = this.streams.get(streamId);
+        if (stream != null) {
+            // trailers, which are not passed on.
+            if (!endStream) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "Trailers without END_STREAM");
+            }
+            stream.receiveData(block, 0, 0, 0, true);
+            dispatchIfReady(stream);
+            return;
+        }
+        if (streamId <= this.lastStreamId) {
+            throw new Http2Exception(Http2Exception.STREAM_CLOSED, streamId, "HEADERS on closed stream " + streamId);
+        }
+        if ((streamId & 1) == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Client stream with even id " + streamId);
+        }
+        this.lastStreamId = streamId;
+        if (isGoAwaySent()) {
+            return;
+        }
+        if (this.streams.size() >= MAX_CONCURRENT_STREAMS) {
+            throw new Http2Exception(Http2Exception.REFUSED_STREAM, streamId, "Too many concurrent streams");
+        }
+        stream = Http2Stream.fromHeaders(this, streamId, fields, endStream);
+        this.streams.put(streamId, stream);
+        dispatchIfReady(stream);
+    }
+
+    private void handleRstStream(int streamId, byte[] payload) throws IOException {
+        if (streamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "RST_STREAM on stream 0");
+        }
+        if (payload.length != 4) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "RST_STREAM of " + payload.length + " bytes");
+        }
+        if (streamId > this.lastStreamId) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "RST_STREAM on idle stream " + streamId);
+        }
+        Http2Stream stream = this.streams.remove(streamId);
+        if (stream != null) {
+            stream.reset();
+        }
+    }
+
+    private void handleSettings(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "SETTINGS on a stream");
+        }
+        if ((flags & FrameWriter.FLAG_ACK) != 0) {
+            if (payload.length != 0) {
+                throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS ack with payload");
+            }
+            return;
+        }
+        applySettings(payload, 0, payload.length);
+        this.writer.writeSettingsAck();
+    }
+
+    private void applySettings(byte[] payload, int off, int len) throws Http2Exception {
+        if (len % 6 != 0) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS of " + len + " bytes");
+        }
+        for (int i = off; i < off + len; i += 6) {
+            int id = (payload[i] & 0xff) << 8 | payload[i + 1] & 0xff;
+            long value = FrameWriter.getInt(payload, i + 2) & 0xffffffffL;
+            switch (id) {
+                case SETTINGS_ENABLE_PUSH:
+                    if (value > 1) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid ENABLE_PUSH");
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value > MAX_WINDOW_SIZE) {
+                        throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Invalid INITIAL_WINDOW_SIZE");
+                    }
+                    synchronized (this.flowLock) {
+                        int delta = (int) value - this.initialSendWindow;
+                        for (Http2Stream stream : this.streams.values()) {
+                            if ((long) stream.sendWindow + delta > MAX_WINDOW_SIZE) {
+                                throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Stream window overflow");
+                            }
+                            stream.sendWindow += delta;
+                        }
+                        this.initialSendWindow = (int) value;
+                        this.flowLock.notifyAll();
+                    }
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid MAX_FRAME_SIZE");
+                    }
+                    this.maxFrameSize = (int) value;
+                    break;
+                default:
+                    // the encoder does not use the dynamic table, so
+                    // SETTINGS_HEADER_TABLE_SIZE does not matter either.
+                    break;
+            }
+        }
+    }
+
+    private void handleWindowUpdate(int streamId, byte[] payload) throws IOException {
+        if (payload.length != 4) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "WINDOW_UPDATE of " + payload.length + " bytes");
+        }
+        int increment = FrameWriter.getInt(payload, 0) & 0x7fffffff;
+        if (increment == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, streamId, "WINDOW_UPDATE of 0");
+        }
+        synchronized (this.flowLock) {
+            if (streamId == 0) {
+                if ((long) this.sendWindow + increment > MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+                this.sendWindow += increment;
+            } else {
+                Http2Stream stream = this.streams.get(streamId);
+                if (stream == null) {
+                    return;
+                }
+                if ((long) stream.sendWindow + increment > MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, streamId, "Stream window overflow");
+                }
+                stream.sendWindow += increment;
+            }
+            this.flowLock.notifyAll();
+        }
+    }
+
+    private void dispatchIfReady(Http2Stream stream) {
+        if (stream.isReady() && stream.claimDispatch()) {
+            dispatch(stream);
+        }
+    }
+
+    /**
+     * Runs the stream as a task of the async runner, it is not a connection of
+     * its own; the connection is closed with the client handler serving it.
+     */
+    private void dispatch(Http2Stream stream) {
+        try {
+            this.httpd.getAsyncRunner().execTask(stream);
+        } catch (RejectedExecutionException e) {
+            resetStream(stream.getId(), Http2Exception.REFUSED_STREAM);
+        }
+    }
+
+    int initialSendWindow() {
+        synchronized (this.flowLock) {
+            return this.initialSendWindow;
+        }
+    }
+
+    void writeHeaders(Http2Stream stream, List<HeaderField> fields, boolean endStream) throws IOException {
+        checkWritable(stream);
+        this.writer.writeHeaders(stream.getId(), this.encoder.encode(fields), endStream, this.maxFrameSize);
+    }
+
+    /**
+     * Sends DATA frames as far as the send windows allow, waiting for
+     * WINDOW_UPDATEs of the client otherwise.
+     */
+    void writeData(Http2Stream stream, byte[] data, int off, int len, boolean endStream) throws IOException {
+        do {
+            int count;
+            synchronized (this.flowLock) {
+                while (true) {
+                    checkWritable(stream);
+                    count = Math.min(Math.min(len, this.maxFrameSize), Math.min(this.sendWindow, stream.sendWindow));
+                    if (count > 0 || len == 0) {
+                        break;
+                    }
+                    try {
+                        this.flowLock.wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Interrupted waiting for the send window");
+                    }
+                }
+                this.sendWindow -= count;
+                stream.sendWindow -= count;
+            }
+            this.writer.writeFrame(FrameWriter.TYPE_DATA, endStream && count == len ? FrameWriter.FLAG_END_STREAM : 0, stream.getId(), data, off, count);
+            off += count;
+            len -= count;
+        } while (len > 0);
+    }
+
+    private void checkWritable(Http2Stream stream) throws IOException {
+        if (this.closed) {
+            throw new EOFException("HTTP/2 connection closed");
+        }
+        if (stream.isReset()) {
+            throw new Http2Exception(Http2Exception.CANCEL, stream.getId(), "Stream " + stream.getId() + " was reset");
+        }
+    }
+
+    void writeWindowUpdate(int streamId, int increment) {
+        try {
+            this.writer.writeWindowUpdate(streamId, increment);
+        } catch (IOException e) {
+            NanoHTTPD.LOG.log(Level.FINE, "Could not send WINDOW_UPDATE", e);
+        }
+    }
+
+    void wakeWriters() {
+        synchronized (this.flowLock) {
+            this.flowLock.notifyAll();
+        }
+    }
+
+    /**
+     * Sends RST_STREAM and forgets the stream.
+     */
+    void resetStream(int streamId, int errorCode) {
+        try {
+            this.writer.writeRstStream(streamId, errorCode);
+        } catch (IOException e) {
+            NanoHTTPD.LOG.log(Level.FINE, "Could not send RST_STREAM", e);
+        }
+        Http2Stream stream = this.streams.remove(streamId);
+        if (stream != null) {
+            stream.reset();
+        }
+    }
+
+    /**
+     * Called once a stream sent its complete response. Asks the client to stop
+     * sending a request body nobody reads anymore, and ends the connection
+     * after the last stream if the server drains or the client went away.
+     */
+    void streamFinished(Http2Stream stream) {
+        if (this.streams.remove(stream.getId()) != null && !stream.isRemoteEnded()) {
+            resetStream(stream.getId(), Http2Exception.NO_ERROR);
+        }
+        if (this.httpd.isDraining()) {
+            goAway(Http2Exception.NO_ERROR);
+        }
+        if ((isGoAwaySent() || this.goAwayReceived) && this.streams.isEmpty()) {
+            close();
+        }
+    }
+
+    private synchronized boolean isGoAwaySent() {
+        return this.goAwaySent;
+    }
+
+    private void goAway(int errorCode) {
+        synchronized (this) {
+            if (this.goAwaySent) {
+                return;
+            }
+            this.goAwaySent = true;
+        }
+        try {
+            this.writer.writeGoAway(this.lastStreamId, errorCode);
+        } catch (IOException e) {
+            NanoHTTPD.LOG.log(Level.FINE, "Could not send GOAWAY", e);
+        }
+    }
+
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        for (Http2Stream stream : this.streams.values()) {
+            stream.reset();
+        }
+        this.streams.clear();
+        wakeWriters();
+        NanoHTTPD.safeClose(this.outputStream);
+        NanoHTTPD.safeClose(this.inputStream);
+    }
+
+    /**
+     * Decodes the base64url HTTP2-Settings header (RFC 7540, section 3.2.1).
+     * 
+     * @return the SETTINGS payload or null if malformed.
+     */
+    static byte[] decodeSettings(String value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int bits = 0;
+        int buffer = 0;
+        for (char c : value.trim().toCharArray()) {
+            if (c == '=') {
+                break;
+            }
+            int digit = BASE64_URL.indexOf(c);
+            if (digit < 0) {
+                return null;
+            }
+            buffer = buffer << 6 | digit;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                out.write(buffer >>> bits & 0xff);
+            }
+        }
+        byte[] payload = out.toByteArray();
+        return payload.length % 6 == 0 ? payload : null;
+    }
+
+    /**
+     * @return the request method of a request head.
+     */
+    static String methodOf(String head) {
+        int space = head.indexOf(' ');
+        return (space < 0 ? head : head.substring(0, space)).toUpperCase(Locale.US);
+    }
+}
@@ -0,0 +1,90 @@
+package org.nanohttpd.protocols.http2;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+
+/**
+ * An HTTP/2 error with its error code (RFC 7540, section 7). Errors of stream 0
+ * are connection errors and end the connection with a GOAWAY, all others only
+ * reset their stream.
+ */
+public class Http2Exception extends IOException {
+
+    private static final long serialVersionUID = -3150238406235911651L;
+
+    public static final int NO_ERROR = 0x0;
+
+    public static final int PROTOCOL_ERROR = 0x1;
+
+    public static final int INTERNAL_ERROR = 0x2;
+
+    public static final int FLOW_CONTROL_ERROR = 0x3;
+
+    public static final int STREAM_CLOSED = 0x5;
+
+    public static final int FRAME_SIZE_ERROR = 0x6;
+
+    public static final int REFUSED_STREAM = 0x7;
+
+    public static final int CANCEL = 0x8;
+
+    public static final int COMPRESSION_ERROR = 0x9;
+
+    private final int errorCode;
+
+    private final int streamId;
+
+    public Http2Exception(int errorCode, String message) {
+        this(errorCode, 0, message);
+    }
+
+    public Http2Exception(int errorCode, int streamId, String message) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    public int getErrorCode() {
+        return this.errorCode;
+    }
+
+    public int getStreamId() {
+        return this.streamId;
+    }
+
+    public boolean isConnectionError() {
+        return this.streamId == 0;
+    }
+}
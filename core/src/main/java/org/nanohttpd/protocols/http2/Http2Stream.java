@@ -0,0 +1,433 @@
+package org.nanohttpd.protocols.http2;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.nanohttpd.protocols.http.HTTPSession;
+import org.nanohttpd.protocols.http.IDeferredResponseListener;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.request.Method;
+import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.response.Status;
+import org.nanohttpd.protocols.http.tempfiles.ITempFileManager;
+import org.nanohttpd.protocols.http2.hpack.HeaderField;
+
+/**
+ * One stream of an {@link Http2Connection}, run by the async runner. The
+ * request is turned back into an HTTP/1.1 request head followed by the body
+ * received in DATA frames, served by a regular {@link HTTPSession}, and the
+ * response is turned into HEADERS and DATA frames by a
+ * {@link ResponseTranscoder}.
+ * <p>
+ * A request body without content-length is collected until the client ends the
+ * stream, up to {@link #MAX_BUFFERED_BODY}, since HTTPSession needs to know the
+ * length of a body.
+ * </p>
+ */
+public class Http2Stream implements Runnable, IDeferredResponseListener {
+
+    public static final int MAX_BUFFERED_BODY = 1024 * 1024;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /**
+     * HTTP/1.1 connection headers, meaningless within a stream.
+     */
+    private static final Set<String> CONNECTION_HEADERS = new HashSet<String>(Arrays.asList("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade",
+            "http2-settings"));
+
+    private final Http2Connection connection;
+
+    private final NanoHTTPD httpd;
+
+    private final int id;
+
+    private final String method;
+
+    /**
+     * Request line and headers, without the empty line ending the head.
+     */
+    private final String head;
+
+    private final boolean lengthKnown;
+
+    private final ResponseTranscoder response;
+
+    private final LinkedList<byte[]> body = new LinkedList<byte[]>();
+
+    private int bodyOffset;
+
+    private int buffered;
+
+    private boolean remoteEnded;
+
+    private boolean tooLarge;
+
+    private int receiveWindow = Http2Connection.DEFAULT_WINDOW_SIZE;
+
+    private int consumedUnacknowledged;
+
+    private volatile boolean reset;
+
+    private boolean dispatched;
+
+    private HTTPSession session;
+
+    /**
+     * Guarded by the flow lock of the connection.
+     */
+    int sendWindow;
+
+    private Http2Stream(Http2Connection connection, int id, String method, String head, boolean lengthKnown, boolean remoteEnded) {
+        this.connection = connection;
+        this.httpd = connection.getHttpd();
+        this.id = id;
+        this.method = method;
+        this.head = head;
+        this.lengthKnown = lengthKnown;
+        this.remoteEnded = remoteEnded;
+        this.sendWindow = connection.initialSendWindow();
+        this.response = new ResponseTranscoder(connection, this, "HEAD".equals(method));
+    }
+
+    /**
+     * Creates a stream from its decoded request headers.
+     */
+    static Http2Stream fromHeaders(Http2Connection connection, int id, List<HeaderField> fields, boolean endStream) throws Http2Exception {
+        String method = null;
+        String path = null;
+        String authority = null;
+        boolean regular = false;
+        boolean host = false;
+        boolean contentLength = false;
+        StringBuilder headers = new StringBuilder();
+        StringBuilder cookie = null;
+        for (HeaderField field : fields) {
+            String name = field.getName();
+            String value = field.getValue();
+            if (!isValid(name) || !isValid(value) || name.isEmpty() || !name.equals(name.toLowerCase(Locale.US))) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, id, "Malformed header " + name);
+            }
+            if (name.startsWith(":")) {
+                if (regular) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, id, "Pseudo header after regular header");
+                }
+                if (":method".equals(name)) {
+                    method = value;
+                } else if (":path".equals(name)) {
+                    path = value;
+                } else if (":authority".equals(name)) {
+                    authority = value;
+                } else if (!":scheme".equals(name)) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, id, "Unknown pseudo header " + name);
+                }
+                continue;
+            }
+            regular = true;
+            if (CONNECTION_HEADERS.contains(name) || "expect".equals(name)) {
+                // no interim responses are relayed, DATA frames flow as the
+                // stream window allows.
+                continue;
+            }
+            if ("cookie".equals(name)) {
+                // clients may split the cookie header into several fields.
+                cookie = cookie == null ? new StringBuilder(value) : cookie.append("; ").append(value);
+                continue;
+            }
+            host |= "host".equals(name);
+            contentLength |= "content-length".equals(name);
+            headers.append(name).append(": ").append(value).append("\r\n");
+        }
+        if (method == null || path == null || path.isEmpty() || method.indexOf(' ') >= 0 || path.indexOf(' ') >= 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, id, "Missing or malformed :method or :path");
+        }
+        StringBuilder head = new StringBuilder();
+        head.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+        if (!host && authority != null) {
+            head.append("host: ").append(authority).append("\r\n");
+        }
+        head.append(headers);
+        if (cookie != null) {
+            head.append("cookie: ").append(cookie).append("\r\n");
+        }
+        return new Http2Stream(connection, id, method, head.toString(), endStream || contentLength, endStream);
+    }
+
+    /**
+     * Creates stream 1 from the head of the HTTP/1.1 request that asked for the
+     * upgrade, which has no body.
+     */
+    static Http2Stream fromUpgrade(Http2Connection connection, int id, String rawHead) {
+        StringBuilder head = new StringBuilder();
+        for (String line : rawHead.split("\n")) {
+            line = line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+            if (line.isEmpty()) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if (head.length() > 0 && colon > 0 && CONNECTION_HEADERS.contains(line.substring(0, colon).trim().toLowerCase(Locale.US))) {
+                continue;
+            }
+            head.append(line).append("\r\n");
+        }
+        return new Http2Stream(connection, id, Http2Connection.methodOf(rawHead), head.toString(), true, true);
+    }
+
+    private static boolean isValid(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\r' || c == '\n' || c == '\0') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    @Override
+    public void run() {
+        boolean suspend = false;
+        try {
+            if (isTooLarge()) {
+                Response tooLarge = Response.newFixedLengthResponse(Status.PAYLOAD_TOO_LARGE, NanoHTTPD.MIME_PLAINTEXT, "Request body without content-length too large");
+                tooLarge.setRequestMethod(Method.lookup(this.method));
+                tooLarge.setUseGzip(false);
+                tooLarge.send(this.response);
+            } else {
+                InputStream request = new SequenceInputStream(new ByteArrayInputStream(requestHead().getBytes(ISO_8859_1)), new BodyInputStream());
+                ITempFileManager tempFileManager = this.httpd.getTempFileManagerFactory().create();
+                if (this.connection.getRemoteAddress() == null) {
+                    this.session = new HTTPSession(this.httpd, tempFileManager, request, this.response);
+                } else {
+                    this.session = new HTTPSession(this.httpd, tempFileManager, request, this.response, this.connection.getRemoteAddress());
+                }
+                this.session.execute();
+                suspend = this.session.isSuspended();
+            }
+        } catch (Exception e) {
+            if (!(e instanceof SocketException && "NanoHttpd Shutdown".equals(e.getMessage())) && !(e instanceof SocketTimeoutException)) {
+                NanoHTTPD.LOG.log(Level.SEVERE, "Communication with the client broken, or an bug in the handler code", e);
+            }
+        } finally {
+            if (!suspend) {
+                finished();
+            }
+        }
+        if (suspend) {
+            this.session.resumeWhenComplete(this);
+        }
+    }
+
+    @Override
+    public void deferredResponseSent(boolean keepAlive) {
+        finished();
+    }
+
+    private void finished() {
+        this.response.finish();
+        this.connection.streamFinished(this);
+    }
+
+    private synchronized String requestHead() {
+        if (this.lengthKnown) {
+            return this.head + "\r\n";
+        }
+        return this.head + "content-length: " + this.buffered + "\r\n\r\n";
+    }
+
+    /**
+     * Reader thread: takes the payload of a DATA frame, or the end of the
+     * stream.
+     */
+    void receiveData(byte[] data, int off, int len, int padding, boolean endStream) throws Http2Exception {
+        int windowUpdate;
+        synchronized (this) {
+            if (this.remoteEnded) {
+                throw new Http2Exception(Http2Exception.STREAM_CLOSED, this.id, "DATA after END_STREAM");
+            }
+            if (len + padding > this.receiveWindow) {
+                throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, this.id, "Stream window exceeded");
+            }
+            this.receiveWindow -= len + padding;
+            windowUpdate = padding;
+            if (len > 0 && !this.tooLarge) {
+                this.body.add(Arrays.copyOfRange(data, off, off + len));
+                this.buffered += len;
+            }
+            if (!this.lengthKnown) {
+                // nobody reads the body before it is complete.
+                windowUpdate += len;
+                if (this.buffered > MAX_BUFFERED_BODY) {
+                    this.tooLarge = true;
+                    this.body.clear();
+                    this.buffered = 0;
+                }
+            }
+            this.remoteEnded = endStream;
+            this.receiveWindow += windowUpdate;
+            notifyAll();
+        }
+        if (windowUpdate > 0 && !endStream) {
+            this.connection.writeWindowUpdate(this.id, windowUpdate);
+        }
+    }
+
+    /**
+     * Gives the window of bytes the handler read back to the client.
+     */
+    private void consumed(int count) {
+        int windowUpdate;
+        synchronized (this) {
+            if (!this.lengthKnown || this.remoteEnded) {
+                return;
+            }
+            this.consumedUnacknowledged += count;
+            if (this.consumedUnacknowledged < Http2Connection.DEFAULT_WINDOW_SIZE / 2) {
+                return;
+            }
+            windowUpdate = this.consumedUnacknowledged;
+            this.consumedUnacknowledged = 0;
+            this.receiveWindow += windowUpdate;
+        }
+        this.connection.writeWindowUpdate(this.id, windowUpdate);
+    }
+
+    /**
+     * @return true once the request can be served.
+     */
+    synchronized boolean isReady() {
+        return this.lengthKnown || this.remoteEnded || this.tooLarge;
+    }
+
+    /**
+     * @return true the first time only.
+     */
+    boolean claimDispatch() {
+        boolean first = !this.dispatched;
+        this.dispatched = true;
+        return first;
+    }
+
+    synchronized boolean isRemoteEnded() {
+        return this.remoteEnded;
+    }
+
+    private synchronized boolean isTooLarge() {
+        return this.tooLarge;
+    }
+
+    boolean isReset() {
+        return this.reset;
+    }
+
+    void reset() {
+        synchronized (this) {
+            this.reset = true;
+            notifyAll();
+        }
+        this.connection.wakeWriters();
+    }
+
+    private final class BodyInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int count;
+            synchronized (Http2Stream.this) {
+                long deadline = System.currentTimeMillis() + NanoHTTPD.SOCKET_READ_TIMEOUT;
+                while (Http2Stream.this.body.isEmpty()) {
+                    if (Http2Stream.this.reset) {
+                        throw new SocketException("Stream " + Http2Stream.this.id + " was reset");
+                    }
+                    if (Http2Stream.this.remoteEnded) {
+                        return -1;
+                    }
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new SocketTimeoutException("Timeout reading the body of stream " + Http2Stream.this.id);
+                    }
+                    try {
+                        Http2Stream.this.wait(wait);
+                    } catch (InterruptedException e) {
+                        throw new SocketTimeoutException("Interrupted reading the body of stream " + Http2Stream.this.id);
+                    }
+                }
+                byte[] chunk = Http2Stream.this.body.getFirst();
+                count = Math.min(len, chunk.length - Http2Stream.this.bodyOffset);
+                System.arraycopy(chunk, Http2Stream.this.bodyOffset, b, off, count);
+                Http2Stream.this.bodyOffset += count;
+                if (Http2Stream.this.bodyOffset == chunk.length) {
+                    Http2Stream.this.body.removeFirst();
+                    Http2Stream.this.bodyOffset = 0;
+                }
+                Http2Stream.this.buffered -= count;
+            }
+            consumed(count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            synchronized (Http2Stream.this) {
+                return Http2Stream.this.buffered;
+            }
+        }
+    }
+}
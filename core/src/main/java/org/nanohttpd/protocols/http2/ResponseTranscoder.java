@@ -0,0 +1,294 @@
+package org.nanohttpd.protocols.http2;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http2.hpack.HeaderField;
+
+/**
+ * The output stream an HTTPSession writes the response of an
+ * {@link Http2Stream} to. The HTTP/1.1 status line and headers become a HEADERS
+ * frame, the body is taken out of its chunked or fixed length framing and sent
+ * in DATA frames, the last one ending the stream.
+ */
+public class ResponseTranscoder extends OutputStream {
+
+    private static final Set<String> CONNECTION_HEADERS = new HashSet<String>(Arrays.asList("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade"));
+
+    private static final int STATUS_LINE = 0;
+
+    private static final int HEADER = 1;
+
+    private static final int FIXED = 2;
+
+    private static final int CHUNK_SIZE = 3;
+
+    private static final int CHUNK_DATA = 4;
+
+    private static final int CHUNK_END = 5;
+
+    private static final int TRAILER = 6;
+
+    private static final int DONE = 7;
+
+    /**
+     * Remaining length of a body that ends with the response.
+     */
+    private static final long UNTIL_END = Long.MAX_VALUE;
+
+    private final Http2Connection connection;
+
+    private final Http2Stream stream;
+
+    private final boolean headRequest;
+
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    private final List<HeaderField> headers = new ArrayList<HeaderField>();
+
+    private final byte[] frame = new byte[Http2Connection.DEFAULT_MAX_FRAME_SIZE];
+
+    private int framed;
+
+    private int state = STATUS_LINE;
+
+    private long remaining;
+
+    private boolean chunked;
+
+    private long contentLength = -1;
+
+    private boolean headersSent;
+
+    private boolean ended;
+
+    ResponseTranscoder(Http2Connection connection, Http2Stream stream, boolean headRequest) {
+        this.connection = connection;
+        this.stream = stream;
+        this.headRequest = headRequest;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{
+            (byte) b
+        }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int count = 1;
+            switch (this.state) {
+                case FIXED:
+                case CHUNK_DATA:
+                    count = (int) Math.min(len, this.remaining);
+                    data(b, off, count);
+                    this.remaining -= count;
+                    if (this.remaining == 0) {
+                        if (this.state == FIXED) {
+                            end();
+                        } else {
+                            this.state = CHUNK_END;
+                        }
+                    }
+                    break;
+                case DONE:
+                    // e.g. the body of a HEAD response.
+                    return;
+                default:
+                    if (b[off] == '\n') {
+                        lineComplete();
+                    } else if (b[off] != '\r') {
+                        this.line.write(b[off]);
+                    }
+                    break;
+            }
+            off += count;
+            len -= count;
+        }
+    }
+
+    private void lineComplete() throws IOException {
+        String text = new String(this.line.toByteArray(), "ISO-8859-1");
+        this.line.reset();
+        switch (this.state) {
+            case STATUS_LINE:
+                String[] parts = text.split(" ");
+                if (parts.length < 2) {
+                    throw new IOException("Malformed status line " + text);
+                }
+                this.headers.add(new HeaderField(":status", parts[1]));
+                this.state = HEADER;
+                break;
+            case HEADER:
+                if (text.isEmpty()) {
+                    headersComplete();
+                } else {
+                    header(text);
+                }
+                break;
+            case CHUNK_SIZE:
+                int extension = text.indexOf(';');
+                long size = Long.parseLong((extension < 0 ? text : text.substring(0, extension)).trim(), 16);
+                if (size == 0) {
+                    this.state = TRAILER;
+                } else {
+                    this.remaining = size;
+                    this.state = CHUNK_DATA;
+                }
+                break;
+            case CHUNK_END:
+                this.state = CHUNK_SIZE;
+                break;
+            case TRAILER:
+                if (text.isEmpty()) {
+                    end();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void header(String text) {
+        int colon = text.indexOf(':');
+        if (colon <= 0) {
+            return;
+        }
+        String name = text.substring(0, colon).trim().toLowerCase(Locale.US);
+        String value = text.substring(colon + 1).trim();
+        if ("transfer-encoding".equals(name)) {
+            this.chunked = value.toLowerCase(Locale.US).contains("chunked");
+        } else if ("content-length".equals(name)) {
+            try {
+                this.contentLength = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                NanoHTTPD.LOG.log(Level.FINE, "Invalid content-length " + value, e);
+            }
+        }
+        if (!CONNECTION_HEADERS.contains(name)) {
+            this.headers.add(new HeaderField(name, value));
+        }
+    }
+
+    private void headersComplete() throws IOException {
+        String status = this.headers.get(0).getValue();
+        boolean noBody = this.headRequest || "204".equals(status) || "304".equals(status) || !this.chunked && this.contentLength == 0;
+        this.headersSent = true;
+        if (noBody) {
+            this.state = DONE;
+            this.ended = true;
+            this.connection.writeHeaders(this.stream, this.headers, true);
+            return;
+        }
+        this.connection.writeHeaders(this.stream, this.headers, false);
+        if (this.chunked) {
+            this.state = CHUNK_SIZE;
+        } else {
+            this.state = FIXED;
+            this.remaining = this.contentLength < 0 ? UNTIL_END : this.contentLength;
+        }
+    }
+
+    private void data(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int count = Math.min(len, this.frame.length - this.framed);
+            System.arraycopy(b, off, this.frame, this.framed, count);
+            this.framed += count;
+            off += count;
+            len -= count;
+            if (this.framed == this.frame.length) {
+                flushData(false);
+            }
+        }
+    }
+
+    private void flushData(boolean endStream) throws IOException {
+        this.connection.writeData(this.stream, this.frame, 0, this.framed, endStream);
+        this.framed = 0;
+    }
+
+    private void end() throws IOException {
+        this.state = DONE;
+        this.ended = true;
+        flushData(true);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (this.headersSent && !this.ended && this.framed > 0) {
+            flushData(false);
+        }
+    }
+
+    /**
+     * Ends the stream once the session is done with it: a response whose length
+     * was not known ends here, an incomplete one resets the stream.
+     */
+    public void finish() {
+        if (this.ended || this.stream.isReset()) {
+            return;
+        }
+        this.ended = true;
+        try {
+            if (this.state == FIXED && this.remaining == UNTIL_END) {
+                this.state = DONE;
+                flushData(true);
+                return;
+            }
+        } catch (IOException e) {
+            NanoHTTPD.LOG.log(Level.FINE, "Could not end stream " + this.stream.getId(), e);
+            return;
+        }
+        this.state = DONE;
+        this.connection.resetStream(this.stream.getId(), Http2Exception.INTERNAL_ERROR);
+    }
+
+    @Override
+    public void close() {
+        finish();
+    }
+}
@@ -0,0 +1,172 @@
+package org.nanohttpd.protocols.http2.hpack;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * The static table of HPACK followed by a dynamic table (RFC 7541, section
+ * 2.3): index 1 to 61 address the static entries, higher ones the dynamic
+ * entries from the newest to the oldest.
+ */
+public class HeaderTable {
+
+    static final HeaderField[] STATIC_TABLE = {
+        new HeaderField(":authority", ""),
+        new HeaderField(":method", "GET"),
+        new HeaderField(":method", "POST"),
+        new HeaderField(":path", "/"),
+        new HeaderField(":path", "/index.html"),
+        new HeaderField(":scheme", "http"),
+        new HeaderField(":scheme", "https"),
+        new HeaderField(":status", "200"),
+        new HeaderField(":status", "204"),
+        new HeaderField(":status", "206"),
+        new HeaderField(":status", "304"),
+        new HeaderField(":status", "400"),
+        new HeaderField(":status", "404"),
+        new HeaderField(":status", "500"),
+        new HeaderField("accept-charset", ""),
+        new HeaderField("accept-encoding", "gzip, deflate"),
+        new HeaderField("accept-language", ""),
+        new HeaderField("accept-ranges", ""),
+        new HeaderField("accept", ""),
+        new HeaderField("access-control-allow-origin", ""),
+        new HeaderField("age", ""),
+        new HeaderField("allow", ""),
+        new HeaderField("authorization", ""),
+        new HeaderField("cache-control", ""),
+        new HeaderField("content-disposition", ""),
+        new HeaderField("content-encoding", ""),
+        new HeaderField("content-language", ""),
+        new HeaderField("content-length", ""),
+        new HeaderField("content-location", ""),
+        new HeaderField("content-range", ""),
+        new HeaderField("content-type", ""),
+        new HeaderField("cookie", ""),
+        new HeaderField("date", ""),
+        new HeaderField("etag", ""),
+        new HeaderField("expect", ""),
+        new HeaderField("expires", ""),
+        new HeaderField("from", ""),
+        new HeaderField("host", ""),
+        new HeaderField("if-match", ""),
+        new HeaderField("if-modified-since", ""),
+        new HeaderField("if-none-match", ""),
+        new HeaderField("if-range", ""),
+        new HeaderField("if-unmodified-since", ""),
+        new HeaderField("last-modified", ""),
+        new HeaderField("link", ""),
+        new HeaderField("location", ""),
+        new HeaderField("max-forwards", ""),
+        new HeaderField("proxy-authenticate", ""),
+        new HeaderField("proxy-authorization", ""),
+        new HeaderField("range", ""),
+        new HeaderField("referer", ""),
+        new HeaderField("refresh", ""),
+        new HeaderField("retry-after", ""),
+        new HeaderField("server", ""),
+        new HeaderField("set-cookie", ""),
+        new HeaderField("strict-transport-security", ""),
+        new HeaderField("transfer-encoding", ""),
+        new HeaderField("user-agent", ""),
+        new HeaderField("vary", ""),
+        new HeaderField("via", ""),
+        new HeaderField("www-authenticate", "")
+    };
+
+    /**
+     * Index of the first static entry with a given name.
+     */
+    static final Map<String, Integer> STATIC_NAMES = new HashMap<String, Integer>();
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i].getName(), i + 1);
+        }
+    }
+
+    private final LinkedList<HeaderField> dynamic = new LinkedList<HeaderField>();
+
+    private int size;
+
+    private int maxSize;
+
+    public HeaderTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public HeaderField get(int index) throws IOException {
+        if (index < 1) {
+            throw new IOException("Invalid header table index " + index);
+        }
+        if (index <= STATIC_TABLE.length) {
+            return STATIC_TABLE[index - 1];
+        }
+        int dynamicIndex = index - STATIC_TABLE.length - 1;
+        if (dynamicIndex >= this.dynamic.size()) {
+            throw new IOException("Invalid header table index " + index);
+        }
+        return this.dynamic.get(dynamicIndex);
+    }
+
+    public void add(HeaderField field) {
+        this.dynamic.addFirst(field);
+        this.size += field.size();
+        evict();
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    public int getLength() {
+        return STATIC_TABLE.length + this.dynamic.size();
+    }
+
+    private void evict() {
+        // an entry larger than the table simply empties it.
+        while (this.size > this.maxSize && !this.dynamic.isEmpty()) {
+            this.size -= this.dynamic.removeLast().size();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.nanohttpd.protocols.http2.hpack;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes HPACK header blocks (RFC 7541). One decoder belongs to one
+ * connection, its dynamic table carries over from block to block.
+ */
+public class HpackDecoder {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private final HeaderTable table;
+
+    private final int maxTableSize;
+
+    private final int maxHeaderListSize;
+
+    private byte[] buf;
+
+    private int pos;
+
+    private int end;
+
+    /**
+     * @param maxTableSize
+     *            the SETTINGS_HEADER_TABLE_SIZE announced to the peer.
+     * @param maxHeaderListSize
+     *            decoded header lists above this size are refused.
+     */
+    public HpackDecoder(int maxTableSize, int maxHeaderListSize) {
+        this.table = new HeaderTable(maxTableSize);
+        this.maxTableSize = maxTableSize;
+        this.maxHeaderListSize = maxHeaderListSize;
+    }
+
+    public List<HeaderField> decode(byte[] block, int off, int len) throws IOException {
+        this.buf = block;
+        this.pos = off;
+        this.end = off + len;
+        List<HeaderField> fields = new ArrayList<HeaderField>();
+        int listSize = 0;
+        boolean fieldSeen = false;
+        while (this.pos < this.end) {
+            int b = this.buf[this.pos] & 0xff;
+            HeaderField field;
+            if ((b & 0x80) != 0) {
+                field = this.table.get(readInt(7));
+            } else if ((b & 0xc0) == 0x40) {
+                field = readLiteral(6);
+                this.table.add(field);
+            } else if ((b & 0xe0) == 0x20) {
+                // size updates are only allowed at the start of a block.
+                if (fieldSeen) {
+                    throw new IOException("Dynamic table size update after a header field");
+                }
+                int size = readInt(5);
+                if (size > this.maxTableSize) {
+                    throw new IOException("Dynamic table size update above the limit");
+                }
+                this.table.setMaxSize(size);
+                continue;
+            } else {
+                // without indexing or never indexed, both 4 bit prefixes.
+                field = readLiteral(4);
+            }
+            fieldSeen = true;
+            listSize += field.size();
+            if (listSize > this.maxHeaderListSize) {
+                throw new IOException("Header list too large");
+            }
+            fields.add(field);
+        }
+        return fields;
+    }
+
+    private HeaderField readLiteral(int prefix) throws IOException {
+        int index = readInt(prefix);
+        String name = index == 0 ? readString() : this.table.get(index).getName();
+        return new HeaderField(name, readString());
+    }
+
+    private String readString() throws IOException {
+        if (this.pos >= this.end) {
+            throw new IOException("Truncated header block");
+        }
+        boolean huffman = (this.buf[this.pos] & 0x80) != 0;
+        int length = readInt(7);
+        if (length > this.end - this.pos) {
+            throw new IOException("Truncated header block");
+        }
+        byte[] data;
+        if (huffman) {
+            data = Huffman.decode(this.buf, this.pos, length);
+        } else {
+            data = new byte[length];
+            System.arraycopy(this.buf, this.pos, data, 0, length);
+        }
+        this.pos += length;
+        return new String(data, ISO_8859_1);
+    }
+
+    private int readInt(int prefix) throws IOException {
+        int max = (1 << prefix) - 1;
+        int value = this.buf[this.pos++] & max;
+        if (value < max) {
+            return value;
+        }
+        int shift = 0;
+        int b;
+        do {
+            if (this.pos >= this.end) {
+                throw new IOException("Truncated header block");
+            }
+            if (shift > 21) {
+                throw new IOException("Integer overflow in header block");
+            }
+            b = this.buf[this.pos++] & 0xff;
+            value += (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
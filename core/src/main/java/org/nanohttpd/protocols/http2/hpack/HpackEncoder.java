@@ -0,0 +1,101 @@
+package org.nanohttpd.protocols.http2.hpack;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Encodes HPACK header blocks (RFC 7541). Fields fully present in the static
+ * table are indexed, all others are sent as literals without indexing, so the
+ * encoder never touches the peer's dynamic table and needs no state. Strings
+ * are Huffman coded where that is shorter.
+ */
+public class HpackEncoder {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    public byte[] encode(List<HeaderField> fields) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (HeaderField field : fields) {
+            encode(field, out);
+        }
+        return out.toByteArray();
+    }
+
+    private void encode(HeaderField field, ByteArrayOutputStream out) {
+        Integer nameIndex = HeaderTable.STATIC_NAMES.get(field.getName());
+        if (nameIndex != null) {
+            for (int i = nameIndex; i <= HeaderTable.STATIC_TABLE.length && HeaderTable.STATIC_TABLE[i - 1].getName().equals(field.getName()); i++) {
+                if (HeaderTable.STATIC_TABLE[i - 1].getValue().equals(field.getValue())) {
+                    writeInt(out, 0x80, 7, i);
+                    return;
+                }
+            }
+            writeInt(out, 0x00, 4, nameIndex);
+        } else {
+            writeInt(out, 0x00, 4, 0);
+            writeString(out, field.getName());
+        }
+        writeString(out, field.getValue());
+    }
+
+    private void writeString(ByteArrayOutputStream out, String value) {
+        byte[] data = value.getBytes(ISO_8859_1);
+        int huffmanLength = Huffman.encodedLength(data);
+        if (huffmanLength < data.length) {
+            writeInt(out, 0x80, 7, huffmanLength);
+            Huffman.encode(data, out);
+        } else {
+            writeInt(out, 0x00, 7, data.length);
+            out.write(data, 0, data.length);
+        }
+    }
+
+    static void writeInt(ByteArrayOutputStream out, int flags, int prefix, int value) {
+        int max = (1 << prefix) - 1;
+        if (value < max) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
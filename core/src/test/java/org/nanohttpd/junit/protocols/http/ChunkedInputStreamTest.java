@@ -0,0 +1,146 @@
+package org.nanohttpd.junit.protocols.http;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+import org.nanohttpd.protocols.http.request.ChunkedInputStream;
+
+public class ChunkedInputStreamTest {
+
+    @Test
+    public void testChunksAreJoinedAndTheStreamEndsAfterTheLastChunk() throws Exception {
+        ByteArrayInputStream in = input("5\r\nHello\r\n7\r\n, world\r\n0\r\n\r\nGET /next");
+        assertEquals("Hello, world", readAll(new ChunkedInputStream(in)));
+        assertEquals("GET /next", readAll(in));
+    }
+
+    @Test
+    public void testExtensionsTrailersAndBareLineFeedsAreAccepted() throws Exception {
+        ByteArrayInputStream in = input("A ; name=value\nabcdefghij\n0;last\r\nExpires: never\r\nX-Checksum: 1\r\n\r\nrest");
+        assertEquals("abcdefghij", readAll(new ChunkedInputStream(in)));
+        assertEquals("rest", readAll(in));
+    }
+
+    @Test
+    public void testCloseSkipsTheRestOfTheBody() throws Exception {
+        ByteArrayInputStream in = input("3\r\nabc\r\n3\r\ndef\r\n0\r\n\r\nrest");
+        ChunkedInputStream chunked = new ChunkedInputStream(in);
+        assertEquals('a', chunked.read());
+        chunked.close();
+        assertEquals(-1, chunked.read());
+        assertEquals("rest", readAll(in));
+    }
+
+    @Test
+    public void testResetStartsTheNextBody() throws Exception {
+        ByteArrayInputStream in = input("1\r\na\r\n0\r\n\r\n2\r\nbc\r\n0\r\n\r\n");
+        ChunkedInputStream chunked = new ChunkedInputStream(in);
+        assertEquals("a", readAll(chunked));
+        chunked.reset();
+        assertEquals("bc", readAll(chunked));
+    }
+
+    @Test
+    public void testMalformedChunkSizeIsRejected() throws Exception {
+        assertFails("x\r\nabc\r\n0\r\n\r\n", IOException.class);
+        assertFails("\r\nabc\r\n0\r\n\r\n", IOException.class);
+        assertFails("11111111111111111\r\n", IOException.class);
+    }
+
+    @Test
+    public void testMissingLineBreakAfterAChunkIsRejected() throws Exception {
+        assertFails("3\r\nabcdef\r\n0\r\n\r\n", IOException.class);
+    }
+
+    @Test
+    public void testBodyEndingEarlyIsRejected() throws Exception {
+        assertFails("10\r\nabc", EOFException.class);
+        assertFails("3\r\nabc\r\n", EOFException.class);
+        assertFails("0\r\nExpires: never", EOFException.class);
+    }
+
+    @Test
+    public void testTrailerIsLimitedAsAWhole() throws Exception {
+        StringBuilder trailer = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            trailer.append("X-Field-").append(i).append(": 0123456789\r\n");
+        }
+        ChunkedInputStream chunked = new ChunkedInputStream(input("1\r\na\r\n0\r\n" + trailer + "\r\n"));
+        chunked.setMaxTrailerSize(trailer.length());
+        assertEquals("a", readAll(chunked));
+
+        chunked = new ChunkedInputStream(input("1\r\na\r\n0\r\n" + trailer + "\r\n"));
+        chunked.setMaxTrailerSize(trailer.length() - 1);
+        assertEquals('a', chunked.read());
+        try {
+            chunked.read();
+            fail("accepted a trailer over the limit");
+        } catch (IOException e) {
+            assertTrue(chunked.isTrailerTooLarge());
+        }
+    }
+
+    private static void assertFails(String body, Class<? extends IOException> expected) {
+        try {
+            readAll(new ChunkedInputStream(input(body)));
+            fail("accepted " + body);
+        } catch (IOException e) {
+            assertEquals(expected, e.getClass());
+        }
+    }
+
+    private static ByteArrayInputStream input(String text) throws IOException {
+        return new ByteArrayInputStream(text.getBytes("US-ASCII"));
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            out.write(buf, 0, read);
+        }
+        return out.toString("US-ASCII");
+    }
+}
@@ -0,0 +1,252 @@
+package org.nanohttpd.junit.protocols.http;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.nanohttpd.protocols.http.ClientHandler;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.threading.DefaultAsyncRunner;
+
+public class DefaultAsyncRunnerTest {
+
+    private static final int BACKGROUND_CONNECTIONS = 20000;
+
+    private static final int CHURN_THREADS = 8;
+
+    private static final int CHURN_PER_THREAD = 20000;
+
+    /**
+     * Registers clients without starting threads for them.
+     */
+    private static class RegistryOnlyRunner extends DefaultAsyncRunner {
+
+        public void register(ClientHandler clientHandler) {
+            started(clientHandler);
+        }
+    }
+
+    /**
+     * Counts executed clients without running them.
+     */
+    private static class NotStartingRunner extends DefaultAsyncRunner {
+
+        public long getRequestCount() {
+            return this.requestCount.get();
+        }
+
+        @Override
+        protected Thread createThread(ClientHandler clientHandler) {
+            return new Thread() {
+
+                @Override
+                public synchronized void start() {
+                    // never runs
+                }
+            };
+        }
+    }
+
+    private static class CountingClientHandler extends ClientHandler {
+
+        private final AtomicInteger closes;
+
+        public CountingClientHandler(NanoHTTPD httpd, AtomicInteger closes) {
+            super(httpd, null, null);
+            this.closes = closes;
+        }
+
+        @Override
+        public void close() {
+            this.closes.incrementAndGet();
+        }
+    }
+
+    private final NanoHTTPD httpd = new NanoHTTPD(8192) {
+
+        @Override
+        public Response serve(IHTTPSession session) {
+            return null;
+        }
+    };
+
+    @Test
+    public void connectDisconnectChurnAtHighConnectionCount() throws Exception {
+        final RegistryOnlyRunner runner = new RegistryOnlyRunner();
+        final AtomicInteger closes = new AtomicInteger();
+        List<ClientHandler> background = new ArrayList<ClientHandler>();
+        for (int i = 0; i < BACKGROUND_CONNECTIONS; i++) {
+            ClientHandler clientHandler = new CountingClientHandler(this.httpd, closes);
+            background.add(clientHandler);
+            runner.register(clientHandler);
+        }
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < CHURN_THREADS; t++) {
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < CHURN_PER_THREAD; i++) {
+                        ClientHandler clientHandler = new CountingClientHandler(DefaultAsyncRunnerTest.this.httpd, closes);
+                        runner.register(clientHandler);
+                        runner.closed(clientHandler);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(BACKGROUND_CONNECTIONS, runner.getRunningCount());
+        assertEquals(BACKGROUND_CONNECTIONS, runner.getRunning().size());
+        assertEquals(0, closes.get());
+
+        for (ClientHandler clientHandler : background) {
+            runner.closed(clientHandler);
+        }
+        assertEquals(0, runner.getRunningCount());
+    }
+
+    @Test
+    public void closeAllWhileClientsComeAndGo() throws Exception {
+        final RegistryOnlyRunner runner = new RegistryOnlyRunner();
+        final AtomicInteger closes = new AtomicInteger();
+        for (int i = 0; i < BACKGROUND_CONNECTIONS; i++) {
+            runner.register(new CountingClientHandler(this.httpd, closes));
+        }
+        Thread churn = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                AtomicInteger ignored = new AtomicInteger();
+                for (int i = 0; i < CHURN_PER_THREAD; i++) {
+                    ClientHandler clientHandler = new CountingClientHandler(DefaultAsyncRunnerTest.this.httpd, ignored);
+                    runner.register(clientHandler);
+                    runner.closed(clientHandler);
+                }
+            }
+        });
+        churn.start();
+        runner.closeAll();
+        churn.join();
+        // every client present for the whole iteration is closed exactly
+        // once.
+        assertEquals(BACKGROUND_CONNECTIONS, closes.get());
+    }
+
+    @Test
+    public void concurrentExecsAreAllCounted() throws Exception {
+        final NotStartingRunner runner = new NotStartingRunner();
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < CHURN_THREADS; t++) {
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < CHURN_PER_THREAD; i++) {
+                        ClientHandler clientHandler = new CountingClientHandler(DefaultAsyncRunnerTest.this.httpd, new AtomicInteger());
+                        runner.exec(clientHandler);
+                        runner.closed(clientHandler);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals((long) CHURN_THREADS * CHURN_PER_THREAD, runner.getRequestCount());
+    }
+
+    @Test
+    public void runningIsASnapshot() {
+        RegistryOnlyRunner runner = new RegistryOnlyRunner();
+        ClientHandler clientHandler = new CountingClientHandler(this.httpd, new AtomicInteger());
+        runner.register(clientHandler);
+        List<ClientHandler> snapshot = runner.getRunning();
+        runner.closed(clientHandler);
+        assertEquals(1, snapshot.size());
+        assertTrue(runner.getRunning().isEmpty());
+    }
+
+    @Test
+    public void tasksAreNotRegisteredAsRunning() throws Exception {
+        DefaultAsyncRunner runner = new DefaultAsyncRunner();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        runner.execTask(new Runnable() {
+
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // ends the task
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runner.getRunningCount());
+        runner.closeAll();
+        release.countDown();
+    }
+}
@@ -74,6 +74,30 @@ public class HttpSSLServerTest extends HttpServerTest {
         httpclient.execute(httphead);
     }
 
+    @Test(expected = IllegalStateException.class)
+    public void testSelectorEngineDoesNotDropTheSSLServerSocketFactory() {
+        this.testServer.useSelectorEngine(1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSSLServerSocketFactoryIsRefusedOnTheSelectorEngine() throws IOException {
+        TestServer server = new TestServer(9044);
+        server.useSelectorEngine(1);
+        server.makeSecure(NanoHTTPD.makeSSLSocketFactory("/keystore.jks", "password".toCharArray()), null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParkingDoesNotDropTheSSLServerSocketFactory() {
+        this.testServer.parkIdleConnections(1000);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSSLServerSocketFactoryIsRefusedWhenParking() throws IOException {
+        TestServer server = new TestServer(9044);
+        server.parkIdleConnections(1000);
+        server.makeSecure(NanoHTTPD.makeSSLSocketFactory("/keystore.jks", "password".toCharArray()), null);
+    }
+
     @Before
     public void setUp() throws Exception {
         System.setProperty("javax.net.ssl.trustStore", new File("src/test/resources/keystore.jks").getAbsolutePath());
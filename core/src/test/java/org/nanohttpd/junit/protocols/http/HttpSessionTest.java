@@ -34,14 +34,23 @@ package org.nanohttpd.junit.protocols.http;
  */
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.Test;
 import org.nanohttpd.protocols.http.HTTPSession;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.response.Response;
 
 public class HttpSessionTest extends HttpServerTest {
 
@@ -57,4 +66,59 @@ public class HttpSessionTest extends HttpServerTest {
         HTTPSession session = this.testServer.createSession(HttpSessionTest.TEST_TEMP_FILE_MANAGER, inputStream, outputStream, inetAddress);
         assertEquals("127.0.0.1", session.getRemoteIpAddress());
     }
+
+    @Test
+    public void testParametersAreDecodedOnceAndGetParmsIsCached() throws Exception {
+        final List<Object> seen = new ArrayList<Object>();
+        NanoHTTPD server = new NanoHTTPD(0) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                seen.add(session.getParameters());
+                seen.add(session.getParameters());
+                seen.add(session.getParms());
+                seen.add(session.getParms());
+                return Response.newFixedLengthResponse("");
+            }
+        };
+        execute(server, "GET /?a=1&&b=x%20y&a=2 HTTP/1.1\r\n\r\n");
+        assertSame(seen.get(0), seen.get(1));
+        assertSame(seen.get(2), seen.get(3));
+        Map<?, ?> parameters = (Map<?, ?>) seen.get(0);
+        assertEquals(2, parameters.size());
+        assertEquals(Arrays.asList("1", "2"), parameters.get("a"));
+        assertEquals(Arrays.asList("x y"), parameters.get("b"));
+        assertEquals("1", ((Map<?, ?>) seen.get(2)).get("a"));
+    }
+
+    @Test
+    public void testGetParmsIncludesFormParametersAfterParseBody() throws Exception {
+        final List<Object> seen = new ArrayList<Object>();
+        NanoHTTPD server = new NanoHTTPD(0) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                seen.add(session.getParms().get("form"));
+                try {
+                    session.parseBody(new HashMap<String, String>());
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                seen.add(session.getParms().get("form"));
+                seen.add(session.getParms().get("query"));
+                seen.add(session.getQueryParameterString());
+                return Response.newFixedLengthResponse("");
+            }
+        };
+        String body = "form=f%26v";
+        execute(server, "POST /?query=q HTTP/1.1\r\nContent-Type: application/x-www-form-urlencoded\r\nContent-Length: " + body.length() + "\r\n\r\n" + body);
+        assertEquals(Arrays.asList(null, "f&v", "q", body), seen);
+    }
+
+    private void execute(NanoHTTPD server, String request) throws Exception {
+        HTTPSession session =
+                new HTTPSession(server, HttpSessionTest.TEST_TEMP_FILE_MANAGER, new ByteArrayInputStream(request.getBytes()), new ByteArrayOutputStream(),
+                        InetAddress.getByName("127.0.0.1"));
+        session.execute();
+    }
 }
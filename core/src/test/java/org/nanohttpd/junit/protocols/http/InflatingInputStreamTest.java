@@ -0,0 +1,120 @@
+package org.nanohttpd.junit.protocols.http;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+import org.nanohttpd.protocols.http.request.InflatingInputStream;
+
+public class InflatingInputStreamTest {
+
+    private static final String TEXT = "{\"id\":1,\"values\":[1,2,3,4,5,6,7,8,9,10]}";
+
+    @Test
+    public void testGzipBodyIsInflated() throws Exception {
+        InflatingInputStream in = new InflatingInputStream(new ByteArrayInputStream(gzip(TEXT)), "gzip", -1);
+        assertEquals(TEXT, readAll(in));
+        assertEquals(TEXT.length(), in.getLength());
+    }
+
+    @Test
+    public void testZlibAndRawDeflateBodiesAreInflated() throws Exception {
+        assertEquals(TEXT, readAll(new InflatingInputStream(new ByteArrayInputStream(deflate(TEXT, false)), "deflate", -1)));
+        assertEquals(TEXT, readAll(new InflatingInputStream(new ByteArrayInputStream(deflate(TEXT, true)), "Deflate", -1)));
+    }
+
+    @Test
+    public void testEmptyBodyStaysEmpty() throws Exception {
+        assertEquals(-1, new InflatingInputStream(new ByteArrayInputStream(new byte[0]), "gzip", -1).read());
+    }
+
+    @Test
+    public void testReadingPastTheLimitFails() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            text.append('a');
+        }
+        InflatingInputStream in = new InflatingInputStream(new ByteArrayInputStream(gzip(text.toString())), "x-gzip", 1000);
+        try {
+            readAll(in);
+            fail("limit not enforced");
+        } catch (IOException e) {
+            assertTrue(in.isLimitExceeded());
+        }
+    }
+
+    @Test
+    public void testSupportedCodings() {
+        assertTrue(InflatingInputStream.isSupported("GZIP"));
+        assertTrue(InflatingInputStream.isSupported("deflate"));
+        assertTrue(!InflatingInputStream.isSupported("br"));
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(text.getBytes("US-ASCII"));
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(String text, boolean raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, raw));
+        deflate.write(text.getBytes("US-ASCII"));
+        deflate.close();
+        return out.toByteArray();
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[7];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            out.write(buf, 0, read);
+        }
+        return out.toString("US-ASCII");
+    }
+}
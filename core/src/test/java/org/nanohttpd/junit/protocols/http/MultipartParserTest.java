@@ -0,0 +1,204 @@
+package org.nanohttpd.junit.protocols.http;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Test;
+import org.nanohttpd.protocols.http.NanoHTTPD.ResponseException;
+import org.nanohttpd.protocols.http.request.MultipartParser;
+import org.nanohttpd.protocols.http.response.Status;
+
+public class MultipartParserTest {
+
+    private static final String BOUNDARY = "----WebKitFormBoundary7MA4YWxkTrZu0gW";
+
+    @Test
+    public void testFieldsAndFilesAreReadInOrder() throws Exception {
+        String body =
+                "preamble\r\n--" + BOUNDARY + "\r\n" + "Content-Disposition: form-data; name=\"title\"\r\n\r\nHello\r\n--" + BOUNDARY + "\r\n"
+                        + "Content-Disposition: form-data; name=\"upload\"; filename=\"a.txt\"\r\nContent-Type: text/plain\r\n\r\nline 1\r\nline 2\r\n--" + BOUNDARY
+                        + "--\r\nepilogue";
+        MultipartParser parser = parser(body.getBytes("US-ASCII"), 7);
+
+        assertTrue(parser.nextPart());
+        assertEquals("title", parser.getName());
+        assertNull(parser.getFileName());
+        assertNull(parser.getContentType());
+        assertEquals("Hello", read(parser.getPartInputStream()));
+
+        assertTrue(parser.nextPart());
+        assertEquals("upload", parser.getName());
+        assertEquals("a.txt", parser.getFileName());
+        assertEquals("text/plain", parser.getContentType());
+        assertEquals("text/plain", parser.getHeaders().get("content-type"));
+        assertEquals("line 1\r\nline 2", read(parser.getPartInputStream()));
+
+        assertFalse(parser.nextPart());
+        assertFalse(parser.nextPart());
+    }
+
+    @Test
+    public void testBodyMayStartWithTheDelimiterAndPartsMayBeEmpty() throws Exception {
+        String body = "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"empty\"\r\n\r\n\r\n--" + BOUNDARY + "--";
+        MultipartParser parser = parser(body.getBytes("US-ASCII"), 1);
+        assertTrue(parser.nextPart());
+        assertEquals("empty", parser.getName());
+        assertEquals("", read(parser.getPartInputStream()));
+        assertFalse(parser.nextPart());
+    }
+
+    @Test
+    public void testDataResemblingTheDelimiterIsKept() throws Exception {
+        String data = "\r\n--" + BOUNDARY.substring(0, 20) + "\r\n--" + BOUNDARY.substring(0, BOUNDARY.length() - 1) + "x--\r\n";
+        String body = "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"tricky\"\r\n\r\n" + data + "\r\n--" + BOUNDARY + "--\r\n";
+        MultipartParser parser = parser(body.getBytes("US-ASCII"), 3);
+        assertTrue(parser.nextPart());
+        assertEquals(data, read(parser.getPartInputStream()));
+        assertFalse(parser.nextPart());
+    }
+
+    @Test
+    public void testLargePartIsStreamedAndUnreadPartsAreSkipped() throws Exception {
+        byte[] data = new byte[1024 * 1024];
+        new Random(42).nextBytes(data);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (String name : new String[]{
+            "skipped",
+            "read"
+        }) {
+            body.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + name + "\"; filename=\"" + name + ".bin\"\r\n" + "Content-Type: application/octet-stream\r\n\r\n")
+                    .getBytes("US-ASCII"));
+            body.write(data);
+            body.write("\r\n".getBytes("US-ASCII"));
+        }
+        body.write(("--" + BOUNDARY + "--\r\n").getBytes("US-ASCII"));
+        MultipartParser parser = parser(body.toByteArray(), 4096);
+
+        assertTrue(parser.nextPart());
+        assertEquals("skipped", parser.getName());
+        assertEquals(data[0] & 0xff, parser.getPartInputStream().read());
+        assertTrue(parser.nextPart());
+        assertEquals("read", parser.getName());
+        ByteArrayOutputStream part = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int read;
+        while ((read = parser.getPartInputStream().read(buf)) != -1) {
+            part.write(buf, 0, read);
+        }
+        assertArrayEquals(data, part.toByteArray());
+        assertFalse(parser.nextPart());
+    }
+
+    @Test
+    public void testBodyWithoutDelimiterIsRejected() throws Exception {
+        assertRejected("no parts here", Status.BAD_REQUEST);
+    }
+
+    @Test
+    public void testBodyEndingInAPartIsRejected() throws Exception {
+        String body =
+                "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\nvalue\r\n--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"b\"\r\n\r\ncut";
+        MultipartParser parser = parser(body.getBytes("US-ASCII"), 5);
+        assertTrue(parser.nextPart());
+        assertTrue(parser.nextPart());
+        try {
+            parser.nextPart();
+            fail("accepted a truncated body");
+        } catch (ResponseException e) {
+            assertEquals(Status.BAD_REQUEST, e.getStatus());
+        }
+    }
+
+    @Test
+    public void testOversizedPartHeaderIsRejected() throws Exception {
+        StringBuilder header = new StringBuilder("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"a\"\r\n");
+        while (header.length() < 2048) {
+            header.append("X-Filler: 0123456789\r\n");
+        }
+        assertRejected(header + "\r\nvalue\r\n--" + BOUNDARY + "--\r\n", Status.INTERNAL_ERROR);
+    }
+
+    private static void assertRejected(String body, Status status) throws IOException {
+        try {
+            parser(body.getBytes("US-ASCII"), 13).nextPart();
+            fail("accepted " + body);
+        } catch (ResponseException e) {
+            assertEquals(status, e.getStatus());
+        }
+    }
+
+    private static MultipartParser parser(byte[] body, int readSize) {
+        return new MultipartParser(new TricklingInputStream(body, readSize), BOUNDARY, "UTF-8", 1024);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            out.write(b);
+        }
+        return out.toString("US-ASCII");
+    }
+
+    /**
+     * Hands out at most <code>readSize</code> bytes per read, as a slow
+     * connection would.
+     */
+    private static final class TricklingInputStream extends ByteArrayInputStream {
+
+        private final int readSize;
+
+        TricklingInputStream(byte[] buf, int readSize) {
+            super(buf);
+            this.readSize = readSize;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, this.readSize));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.nanohttpd.junit.protocols.http;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.nanohttpd.protocols.http.HTTPSession;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.RequestBufferPool;
+import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.response.Status;
+
+/**
+ * Keeps the garbage a keep-alive request leaves behind in check, measured with
+ * the allocation counters of the HotSpot ThreadMXBean. The response is written
+ * from prepared bytes, so that only the request handling is measured, or sent
+ * as usual to include the response head.
+ */
+public class RequestAllocationTest {
+
+    private static final byte[] REQUEST = ("GET /index.html?lang=en HTTP/1.1\r\n" + "Host: localhost\r\n" + "User-Agent: allocation-test\r\n" + "Accept: */*\r\n"
+            + "Accept-Encoding: identity\r\n" + "Cookie: session=1234\r\n" + "\r\n").getBytes();
+
+    private static final int WARM_UP = 5000;
+
+    private static final int MEASURED = 5000;
+
+    private static final byte[] RESPONSE = "HTTP/1.1 200 OK \r\nContent-Length: 2\r\n\r\nok".getBytes();
+
+    private static final byte[] BODY = "ok".getBytes();
+
+    /**
+     * Bytes per request, the Response object of the handler included.
+     */
+    private static final long BUDGET = 4096;
+
+    @Test
+    public void testKeepAliveRequestsStayWithinTheAllocationBudget() throws Exception {
+        long perRequest = measure(null, false);
+        assertTrue("allocated " + perRequest + " bytes per request", perRequest < BUDGET);
+    }
+
+    @Test
+    public void testPooledHeadBuffersStayWithinTheAllocationBudget() throws Exception {
+        long perRequest = measure(new RequestBufferPool(4), false);
+        assertTrue("allocated " + perRequest + " bytes per request", perRequest < BUDGET);
+    }
+
+    @Test
+    public void testSentResponsesStayWithinTheAllocationBudget() throws Exception {
+        long perRequest = measure(null, true);
+        assertTrue("allocated " + perRequest + " bytes per request", perRequest < BUDGET);
+    }
+
+    private long measure(RequestBufferPool pool, final boolean send) throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        NanoHTTPD server = new NanoHTTPD(0) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                if (send) {
+                    return Response.newFixedLengthResponse(Status.OK, NanoHTTPD.MIME_PLAINTEXT, BODY);
+                }
+                return new PreparedResponse();
+            }
+        };
+        server.setRequestBufferPool(pool);
+        HTTPSession session =
+                new HTTPSession(server, new HttpServerTest.TestTempFileManager(), new RepeatingInputStream(), new DiscardingOutputStream(), InetAddress.getLoopbackAddress());
+        for (int i = 0; i < WARM_UP; i++) {
+            session.execute();
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED; i++) {
+            session.execute();
+        }
+        return (threads.getThreadAllocatedBytes(threadId) - before) / MEASURED;
+    }
+
+    /**
+     * The same request over and over, as sent on a keep-alive connection.
+     */
+    private static final class RepeatingInputStream extends InputStream {
+
+        private int pos;
+
+        @Override
+        public int read() {
+            int b = REQUEST[this.pos] & 0xff;
+            this.pos = (this.pos + 1) % REQUEST.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int count = Math.min(len, REQUEST.length - this.pos);
+            System.arraycopy(REQUEST, this.pos, b, off, count);
+            this.pos = (this.pos + count) % REQUEST.length;
+            return count;
+        }
+    }
+
+    private static final class PreparedResponse extends Response {
+
+        PreparedResponse() {
+            super(Status.OK, NanoHTTPD.MIME_PLAINTEXT, null, 0);
+        }
+
+        @Override
+        public void send(OutputStream outputStream) {
+            try {
+                outputStream.write(RESPONSE);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final class DiscardingOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+        }
+    }
+}
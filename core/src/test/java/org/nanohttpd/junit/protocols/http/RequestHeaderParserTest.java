@@ -0,0 +1,154 @@
+package org.nanohttpd.junit.protocols.http;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.nanohttpd.protocols.http.NanoHTTPD.ResponseException;
+import org.nanohttpd.protocols.http.request.Method;
+import org.nanohttpd.protocols.http.request.RequestHeaderParser;
+import org.nanohttpd.protocols.http.response.Status;
+
+public class RequestHeaderParserTest {
+
+    private final RequestHeaderParser parser = new RequestHeaderParser();
+
+    private final Map<String, String> headers = new HashMap<String, String>();
+
+    @Test
+    public void testRequestLineIsSplitIntoMethodUriQueryAndVersion() throws Exception {
+        parse("GET /path/to%20file?a=1&b=%20 HTTP/1.0\r\n\r\n");
+        assertEquals(Method.GET, this.parser.getMethod());
+        assertEquals("/path/to file", this.parser.getUri());
+        assertEquals("a=1&b=%20", this.parser.getQuery());
+        assertSame(RequestHeaderParser.HTTP_1_0, this.parser.getProtocolVersion());
+    }
+
+    @Test
+    public void testTokensMayBeSurroundedByBlanksAndVersionMayBeMissing() throws Exception {
+        parse(" \tPOST\t /upload  \r\n\r\n");
+        assertEquals(Method.POST, this.parser.getMethod());
+        assertEquals("/upload", this.parser.getUri());
+        assertNull(this.parser.getQuery());
+        assertSame(RequestHeaderParser.HTTP_1_1, this.parser.getProtocolVersion());
+    }
+
+    @Test
+    public void testUnknownMethodKeepsItsName() throws Exception {
+        parse("get / HTTP/1.1\r\n\r\n");
+        assertNull(this.parser.getMethod());
+        assertEquals("get", this.parser.getMethodName());
+    }
+
+    @Test
+    public void testHeaderNamesAreLowerCasedAndValuesTrimmed() throws Exception {
+        parse("GET / HTTP/1.1\r\nHOST:  example.org \r\nX-Custom-Header:\tsome value\r\nNoColon\r\nAccept: */*\r\nAccept: text/html\r\n\r\nIgnored: body");
+        assertSame("host", findKey("host"));
+        assertEquals("example.org", this.headers.get("host"));
+        assertEquals("some value", this.headers.get("x-custom-header"));
+        assertEquals("text/html", this.headers.get("accept"));
+        assertFalse(this.headers.containsKey("ignored"));
+        assertEquals(3, this.headers.size());
+    }
+
+    @Test
+    public void testLinesMayEndWithLfOrCr() throws Exception {
+        parse("GET / HTTP/1.1\nHost: a\rUser-Agent: b\n \t\nAfter: blank");
+        assertEquals("a", this.headers.get("host"));
+        assertEquals("b", this.headers.get("user-agent"));
+        assertFalse(this.headers.containsKey("after"));
+    }
+
+    @Test
+    public void testNonAsciiValuesAreDecodedWithThePlatformCharset() throws Exception {
+        byte[] value = "caf\u00e9".getBytes("UTF-8");
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        request.write("GET / HTTP/1.1\r\nX-Name: ".getBytes("US-ASCII"));
+        request.write(value);
+        request.write("\r\n\r\n".getBytes("US-ASCII"));
+        this.parser.parse(request.toByteArray(), request.size(), this.headers);
+        assertEquals(new String(value, Charset.defaultCharset()), this.headers.get("x-name"));
+    }
+
+    @Test
+    public void testMissingMethodOrUriIsABadRequest() throws Exception {
+        String[] requests = {
+            "\r\nHost: a\r\n\r\n",
+            "GET\r\n\r\n"
+        };
+        for (String request : requests) {
+            try {
+                parse(request);
+                fail("accepted " + request);
+            } catch (ResponseException e) {
+                assertEquals(Status.BAD_REQUEST, e.getStatus());
+            }
+        }
+    }
+
+    @Test
+    public void testContainsCloseIgnoresCase() {
+        assertTrue(RequestHeaderParser.containsClose("close"));
+        assertTrue(RequestHeaderParser.containsClose("Upgrade, CLOSE"));
+        assertFalse(RequestHeaderParser.containsClose("keep-alive"));
+        assertFalse(RequestHeaderParser.containsClose("clos"));
+        assertFalse(RequestHeaderParser.containsClose(null));
+    }
+
+    private void parse(String request) throws ResponseException {
+        byte[] bytes = request.getBytes();
+        this.headers.clear();
+        this.parser.parse(bytes, bytes.length, this.headers);
+    }
+
+    private String findKey(String name) {
+        for (String key : this.headers.keySet()) {
+            if (key.equals(name)) {
+                return key;
+            }
+        }
+        return null;
+    }
+}
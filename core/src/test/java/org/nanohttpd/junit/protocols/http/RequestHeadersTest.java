@@ -0,0 +1,152 @@
+package org.nanohttpd.junit.protocols.http;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.nanohttpd.protocols.http.NanoHTTPD.ResponseException;
+import org.nanohttpd.protocols.http.request.RequestHeaderParser;
+import org.nanohttpd.protocols.http.request.RequestHeaders;
+
+public class RequestHeadersTest {
+
+    private final RequestHeaderParser parser = new RequestHeaderParser();
+
+    private final RequestHeaders headers = new RequestHeaders();
+
+    @Test
+    public void testNamesAreMatchedWithoutRegardToCase() throws Exception {
+        parse("GET / HTTP/1.1\r\nContent-Type: text/plain\r\nX-Custom-Header: 1\r\n\r\n");
+        assertEquals("text/plain", this.headers.get("content-type"));
+        assertEquals("text/plain", this.headers.get("CONTENT-TYPE"));
+        assertEquals("1", this.headers.get("x-custom-header"));
+        assertTrue(this.headers.containsKey("X-Custom-Header"));
+        assertNull(this.headers.get("accept"));
+        assertEquals(2, this.headers.size());
+    }
+
+    @Test
+    public void testRepeatedFieldsAreKept() throws Exception {
+        parse("GET / HTTP/1.1\r\nForwarded: for=1.2.3.4\r\nCookie: a=1\r\nforwarded: for=5.6.7.8\r\nCookie: b=2\r\n\r\n");
+        assertEquals(Arrays.asList("for=1.2.3.4", "for=5.6.7.8"), this.headers.getAll("Forwarded"));
+        assertEquals("for=1.2.3.4, for=5.6.7.8", this.headers.get("forwarded"));
+        assertEquals("a=1; b=2", this.headers.get("cookie"));
+        assertEquals(Collections.<String> emptyList(), this.headers.getAll("host"));
+        assertEquals(2, this.headers.size());
+    }
+
+    @Test
+    public void testPutReplacesAndRemoveDropsAllFieldsOfTheName() throws Exception {
+        parse("GET / HTTP/1.1\r\nAccept: a\r\nAccept: b\r\nHost: localhost\r\n\r\n");
+        assertEquals("a, b", this.headers.put("accept", "c"));
+        assertEquals(Arrays.asList("c"), this.headers.getAll("accept"));
+        assertEquals("localhost", this.headers.remove("host"));
+        assertFalse(this.headers.containsKey("host"));
+        Map<String, String> expected = new LinkedHashMap<String, String>();
+        expected.put("accept", "c");
+        assertEquals(expected, this.headers);
+    }
+
+    @Test
+    public void testNullCanBePut() throws Exception {
+        parse("GET / HTTP/1.1\r\nAccept: a\r\nHost: localhost\r\n\r\n");
+        assertEquals("a", this.headers.put("accept", null));
+        assertTrue(this.headers.containsKey("accept"));
+        assertNull(this.headers.get("accept"));
+        assertNull(this.headers.remove("accept"));
+        assertFalse(this.headers.containsKey("accept"));
+        assertEquals(1, this.headers.size());
+    }
+
+    @Test
+    public void testFieldsCanBeRemovedThroughTheViews() throws Exception {
+        parse("GET / HTTP/1.1\r\nHost: localhost\r\nX-B: 1\r\nX-A: 2\r\nX-B: 3\r\nX-C: 4\r\n\r\n");
+        assertTrue(this.headers.keySet().remove("X-B"));
+        assertNull(this.headers.get("x-b"));
+        Iterator<Map.Entry<String, String>> entries = this.headers.entrySet().iterator();
+        while (entries.hasNext()) {
+            if ("x-a".equals(entries.next().getKey())) {
+                entries.remove();
+            }
+        }
+        assertEquals(Arrays.asList("host", "x-c"), new ArrayList<String>(this.headers.keySet()));
+        assertEquals(2, this.headers.size());
+    }
+
+    @Test
+    public void testEntriesAppearInOrderUnderLowerCasedNames() throws Exception {
+        parse("GET / HTTP/1.1\r\nHost: localhost\r\nX-B: 1\r\nX-A: 2\r\nX-B: 3\r\n\r\n");
+        this.headers.add("Remote-Addr", "127.0.0.1");
+        Map<String, String> expected = new LinkedHashMap<String, String>();
+        expected.put("host", "localhost");
+        expected.put("x-b", "1, 3");
+        expected.put("x-a", "2");
+        expected.put("remote-addr", "127.0.0.1");
+        assertEquals(expected.entrySet().toString(), this.headers.entrySet().toString());
+    }
+
+    @Test
+    public void testInstanceIsReusedAndGrows() throws Exception {
+        StringBuilder request = new StringBuilder("GET / HTTP/1.1\r\n");
+        for (int i = 0; i < 40; i++) {
+            request.append("X-Field-").append(i).append(": ").append(i).append("\r\n");
+        }
+        parse(request.append("\r\n").toString());
+        assertEquals(40, this.headers.size());
+        assertEquals("39", this.headers.get("x-field-39"));
+        parse("GET / HTTP/1.1\r\nHost: other\r\n\r\n");
+        assertEquals(1, this.headers.size());
+        assertNull(this.headers.get("x-field-0"));
+        assertEquals("other", this.headers.get("host"));
+    }
+
+    private void parse(String request) throws ResponseException {
+        byte[] bytes = request.getBytes();
+        this.headers.clear();
+        this.parser.parse(bytes, bytes.length, this.headers);
+        // the fields must not depend on the buffer, it is reused
+        Arrays.fill(bytes, (byte) 0);
+    }
+}
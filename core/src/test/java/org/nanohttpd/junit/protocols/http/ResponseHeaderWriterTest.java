@@ -0,0 +1,202 @@
+package org.nanohttpd.junit.protocols.http;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.response.Status;
+
+public class ResponseHeaderWriterTest {
+
+    @Test
+    public void testSmallResponseIsWrittenAtOnce() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        Response response = Response.newFixedLengthResponse(Status.NOT_FOUND, "text/plain", "missing".getBytes("US-ASCII"));
+        response.setUseGzip(false);
+        response.addHeader("X-Test", "1");
+        response.send(out);
+        assertEquals(1, out.writes);
+        String text = out.toString("US-ASCII");
+        assertTrue(text, text.matches("HTTP/1\\.1 404 Not Found \r\n" + "Content-Type: text/plain\r\n"
+                + "Date: [A-Z][a-z]{2}, \\d{2} [A-Z][a-z]{2} \\d{4} \\d{2}:\\d{2}:\\d{2} GMT\r\n" + "X-Test: 1\r\n" + "Connection: keep-alive\r\n" + "Content-Length: 7\r\n"
+                + "\r\n" + "missing"));
+    }
+
+    @Test
+    public void testNonAsciiHeaderIsEncodedWithTheContentCharset() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        Response response = Response.newFixedLengthResponse(Status.OK, "text/plain; charset=UTF-8", new byte[0]);
+        response.addHeader("Content-Disposition", "attachment; filename=\"ä.txt\"");
+        response.send(out);
+        assertTrue(out.toString("UTF-8").contains("Content-Disposition: attachment; filename=\"ä.txt\"\r\n"));
+    }
+
+    @Test
+    public void testDeprecatedPrintWriterHooksAreStillCalled() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        Response response = new Response(Status.OK, "text/plain", new ByteArrayInputStream("hello".getBytes("US-ASCII")), 5) {
+
+            @Override
+            @SuppressWarnings("deprecation")
+            protected void printHeader(PrintWriter pw, String key, String value) {
+                super.printHeader(pw, key.toUpperCase(), value);
+            }
+
+            @Override
+            @SuppressWarnings("deprecation")
+            protected long sendContentLengthHeaderIfNotAlreadyPresent(PrintWriter pw, long defaultSize) {
+                pw.print("X-Length: " + defaultSize + "\r\n");
+                return super.sendContentLengthHeaderIfNotAlreadyPresent(pw, defaultSize);
+            }
+        };
+        response.setUseGzip(false);
+        response.send(out);
+        String text = out.toString("US-ASCII");
+        assertTrue(text, text.startsWith("HTTP/1.1 200 OK \r\nCONTENT-TYPE: text/plain\r\nDATE: "));
+        assertTrue(text, text.endsWith("CONNECTION: keep-alive\r\nX-Length: 5\r\nContent-Length: 5\r\n\r\nhello"));
+    }
+
+    @Test
+    public void testLargeBodyFollowsTheHead() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        byte[] body = new byte[100000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+        Response response = Response.newFixedLengthResponse(Status.OK, "application/octet-stream", body);
+        response.send(out);
+        String text = out.toString("US-ASCII");
+        assertTrue(text.contains("Content-Length: 100000\r\n"));
+        assertEquals(new String(body, "US-ASCII"), text.substring(text.indexOf("\r\n\r\n") + 4));
+    }
+
+    @Test
+    public void testStreamedChunksAreNotHeldBack() throws Exception {
+        PausingInputStream data = new PausingInputStream();
+        Response response = Response.newChunkedResponse(Status.OK, "application/octet-stream", data);
+        assertFirstPartArrivesDuringThePause(response, data, "5\r\nfirst\r\n");
+    }
+
+    @Test
+    public void testStreamedFixedLengthBodyIsNotHeldBack() throws Exception {
+        PausingInputStream data = new PausingInputStream();
+        Response response = Response.newFixedLengthResponse(Status.OK, "application/octet-stream", data, 10);
+        assertFirstPartArrivesDuringThePause(response, data, "\r\n\r\nfirst");
+    }
+
+    private static void assertFirstPartArrivesDuringThePause(final Response response, PausingInputStream data, String expected) throws Exception {
+        final CountingOutputStream out = new CountingOutputStream();
+        Thread sender = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                response.send(out);
+            }
+        });
+        sender.start();
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!out.toString("US-ASCII").endsWith(expected) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(out.toString("US-ASCII"), out.toString("US-ASCII").endsWith(expected));
+        } finally {
+            data.resume.countDown();
+            sender.join(5000);
+        }
+        assertTrue(out.toString("US-ASCII").contains("later"));
+    }
+
+    /**
+     * Gives "first", then waits to be resumed before it gives "later".
+     */
+    private static final class PausingInputStream extends InputStream {
+
+        private final CountDownLatch resume = new CountDownLatch(1);
+
+        private final byte[][] parts = {
+            "first".getBytes(),
+            "later".getBytes()
+        };
+
+        private int part;
+
+        @Override
+        public int read() throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.part == this.parts.length) {
+                return -1;
+            }
+            if (this.part > 0) {
+                try {
+                    this.resume.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            byte[] bytes = this.parts[this.part++];
+            System.arraycopy(bytes, 0, b, off, bytes.length);
+            return bytes.length;
+        }
+    }
+
+    private static final class CountingOutputStream extends ByteArrayOutputStream {
+
+        private int writes;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            this.writes++;
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+        }
+    }
+}
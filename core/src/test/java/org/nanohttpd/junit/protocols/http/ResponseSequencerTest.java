@@ -0,0 +1,132 @@
+package org.nanohttpd.junit.protocols.http;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.nanohttpd.protocols.http.pipelining.ResponseSequencer;
+
+public class ResponseSequencerTest {
+
+    @Test(timeout = 10000)
+    public void testWaitingResponseBuffersAtMostTheLimit() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseSequencer sequencer = new ResponseSequencer(out, null, 4, 8);
+        ResponseSequencer.Slot first = sequencer.open();
+        final ResponseSequencer.Slot second = sequencer.open();
+        second.write("0123".getBytes());
+        Thread writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    second.write("456789".getBytes());
+                    second.finish(false);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writer.start();
+        while (writer.getState() != Thread.State.WAITING) {
+            Thread.sleep(5);
+        }
+        assertEquals("", out.toString("US-ASCII"));
+
+        first.write("first ".getBytes());
+        first.finish(false);
+        writer.join();
+        assertEquals("first 0123456789", out.toString("US-ASCII"));
+        assertEquals(0, sequencer.getDepth());
+    }
+
+    @Test(timeout = 10000)
+    public void testSlowConnectionDoesNotHoldUpBufferingResponses() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        OutputStream out = new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{
+                    (byte) b
+                }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                received.write(b, off, len);
+            }
+        };
+        ResponseSequencer sequencer = new ResponseSequencer(out, null, 4);
+        final ResponseSequencer.Slot first = sequencer.open();
+        ResponseSequencer.Slot second = sequencer.open();
+        Thread writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    first.write("first ".getBytes());
+                    first.finish(false);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writer.start();
+        assertEquals(true, writing.await(5, TimeUnit.SECONDS));
+
+        // the first response is stuck in the connection, the second one is
+        // buffered meanwhile.
+        second.write("second".getBytes());
+        second.finish(false);
+        release.countDown();
+        writer.join();
+        assertEquals("first second", received.toString("US-ASCII"));
+    }
+}
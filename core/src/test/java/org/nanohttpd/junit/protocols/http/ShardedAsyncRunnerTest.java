@@ -0,0 +1,159 @@
+package org.nanohttpd.junit.protocols.http;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.nanohttpd.protocols.http.ClientHandler;
+import org.nanohttpd.protocols.http.threading.IAsyncRunner;
+import org.nanohttpd.protocols.http.threading.ShardedAsyncRunner;
+import org.nanohttpd.util.IFactory;
+
+public class ShardedAsyncRunnerTest {
+
+    /**
+     * Counts the handlers it was given, without running them.
+     */
+    private static class RecordingRunner implements IAsyncRunner {
+
+        private int executed;
+
+        private int closed;
+
+        private int tasks;
+
+        @Override
+        public void closeAll() {
+        }
+
+        @Override
+        public void closed(ClientHandler clientHandler) {
+            this.closed++;
+        }
+
+        @Override
+        public void exec(ClientHandler clientHandler) {
+            this.executed++;
+        }
+
+        @Override
+        public void execTask(Runnable task) {
+            this.tasks++;
+        }
+    }
+
+    private final List<RecordingRunner> runners = new ArrayList<RecordingRunner>();
+
+    private final ShardedAsyncRunner sharded = new ShardedAsyncRunner(3, new IFactory<IAsyncRunner>() {
+
+        @Override
+        public IAsyncRunner create() {
+            RecordingRunner runner = new RecordingRunner();
+            ShardedAsyncRunnerTest.this.runners.add(runner);
+            return runner;
+        }
+    });
+
+    @Test
+    public void testOnlyTheAcceptorsShardIsToldOfTheClose() {
+        ClientHandler handler = new ClientHandler(null, null, null);
+        this.sharded.getShard(1).exec(handler);
+        this.sharded.closed(handler);
+        assertCounts(new int[]{
+            0,
+            1,
+            0
+        }, new int[]{
+            0,
+            1,
+            0
+        });
+    }
+
+    @Test
+    public void testResumedHandlerStaysOnItsShard() {
+        ClientHandler first = new ClientHandler(null, null, null);
+        ClientHandler second = new ClientHandler(null, null, null);
+        this.sharded.exec(first);
+        this.sharded.exec(second);
+        this.sharded.exec(second);
+        this.sharded.closed(second);
+        this.sharded.closed(first);
+        assertCounts(new int[]{
+            1,
+            2,
+            0
+        }, new int[]{
+            1,
+            1,
+            0
+        });
+    }
+
+    @Test
+    public void testTasksAreSpreadOverTheShards() {
+        Runnable task = new Runnable() {
+
+            @Override
+            public void run() {
+            }
+        };
+        for (int i = 0; i < 6; i++) {
+            this.sharded.execTask(task);
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals("tasks on shard " + i, 2, this.runners.get(i).tasks);
+        }
+        assertCounts(new int[]{
+            0,
+            0,
+            0
+        }, new int[]{
+            0,
+            0,
+            0
+        });
+    }
+
+    private void assertCounts(int[] executed, int[] closed) {
+        for (int i = 0; i < executed.length; i++) {
+            assertEquals("executed on shard " + i, executed[i], this.runners.get(i).executed);
+            assertEquals("closed on shard " + i, closed[i], this.runners.get(i).closed);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.nanohttpd.junit.protocols.http;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.nanohttpd.protocols.http.ClientHandler;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.threading.DefaultAsyncRunner;
+import org.nanohttpd.protocols.http.threading.VirtualThreadAsyncRunner;
+
+public class VirtualThreadAsyncRunnerTest {
+
+    private static class ExposedRunner extends VirtualThreadAsyncRunner {
+
+        public Thread thread(ClientHandler clientHandler) {
+            return createThread(clientHandler);
+        }
+    }
+
+    private static class TestServer extends NanoHTTPD {
+
+        public TestServer() {
+            super(8192);
+        }
+
+        public Class<?> runnerClass() {
+            return this.asyncRunner.getClass();
+        }
+    }
+
+    private static boolean jvmHasVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual").invoke(null);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void supportMatchesTheRunningJvm() {
+        assertEquals(jvmHasVirtualThreads(), VirtualThreadAsyncRunner.isSupported());
+    }
+
+    @Test
+    public void serverSelectsVirtualThreadsWhenAvailable() {
+        Class<?> expected = jvmHasVirtualThreads() ? VirtualThreadAsyncRunner.class : DefaultAsyncRunner.class;
+        assertEquals(expected, new TestServer().runnerClass());
+    }
+
+    @Test
+    public void createdThreadRunsTheClientHandler() throws Exception {
+        final CountDownLatch ran = new CountDownLatch(1);
+        ClientHandler clientHandler = new ClientHandler(new TestServer(), null, null) {
+
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        };
+        Thread thread = new ExposedRunner().thread(clientHandler);
+        assertTrue(thread.getName().startsWith("NanoHttpd Request Processor"));
+        assertTrue(thread.isDaemon());
+        thread.start();
+        assertTrue(ran.await(2, TimeUnit.SECONDS));
+    }
+}
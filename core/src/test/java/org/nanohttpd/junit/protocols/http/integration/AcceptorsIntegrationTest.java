@@ -0,0 +1,166 @@
+package org.nanohttpd.junit.protocols.http.integration;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.threading.BoundedAsyncRunner;
+import org.nanohttpd.protocols.http.threading.IAsyncRunner;
+import org.nanohttpd.protocols.http.threading.ShardedAsyncRunner;
+import org.nanohttpd.util.IFactory;
+
+public class AcceptorsIntegrationTest {
+
+    private static final int PORT = 8192;
+
+    private NanoHTTPD server;
+
+    private NanoHTTPD createServer(int port) {
+        return new NanoHTTPD(port) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                return Response.newFixedLengthResponse("ok");
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        if (this.server != null) {
+            this.server.stop();
+        }
+    }
+
+    @Test
+    public void acceptorsSharingOneSocketServeRequests() throws Exception {
+        this.server = createServer(PORT);
+        this.server.setAcceptors(3, false);
+        this.server.start();
+        assertTrue(this.server.getAsyncRunner() instanceof ShardedAsyncRunner);
+        assertEquals(3, ((ShardedAsyncRunner) this.server.getAsyncRunner()).getShardCount());
+        assertTrue(this.server.isAlive());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("HTTP/1.1 200 OK", request(PORT));
+        }
+        this.server.stop();
+        assertFalse(this.server.isAlive());
+    }
+
+    @Test
+    public void reusePortAcceptorsJoinTheEphemeralPort() throws Exception {
+        this.server = createServer(0);
+        this.server.setAcceptors(2, true);
+        this.server.start();
+        int port = this.server.getListeningPort();
+        assertTrue(port > 0);
+        assertTrue(this.server.isAlive());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("HTTP/1.1 200 OK", request(port));
+        }
+        this.server.stop();
+        assertFalse(this.server.isAlive());
+    }
+
+    @Test
+    public void configuredRunnerIsSharedByTheAcceptors() throws Exception {
+        BoundedAsyncRunner runner = new BoundedAsyncRunner(2, 2, 0);
+        this.server = createServer(PORT);
+        this.server.setAsyncRunner(runner);
+        this.server.setAcceptors(2, false);
+        this.server.start();
+        try {
+            assertTrue(this.server.getAsyncRunner() == runner);
+            assertEquals("HTTP/1.1 200 OK", request(PORT));
+        } finally {
+            this.server.stop();
+            runner.shutdown();
+        }
+    }
+
+    @Test
+    public void shardsAreBuiltFromTheFactoryOnStart() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        this.server = createServer(PORT);
+        this.server.setAcceptors(2, false, new IFactory<IAsyncRunner>() {
+
+            @Override
+            public IAsyncRunner create() {
+                created.incrementAndGet();
+                return new BoundedAsyncRunner(4, 4, 16);
+            }
+        });
+        // the order of the calls does not matter.
+        this.server.setAsyncRunner(new BoundedAsyncRunner(1, 1, 0));
+        assertEquals(0, created.get());
+        this.server.start();
+        assertEquals(2, created.get());
+        assertTrue(this.server.getAsyncRunner() instanceof ShardedAsyncRunner);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("HTTP/1.1 200 OK", request(PORT));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void atLeastOneAcceptorIsRequired() {
+        createServer(PORT).setAcceptors(0, false);
+    }
+
+    private static String request(int port) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes("US-ASCII"));
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            return in.readLine().trim();
+        } finally {
+            socket.close();
+        }
+    }
+}
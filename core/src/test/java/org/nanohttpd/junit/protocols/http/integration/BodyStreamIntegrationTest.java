@@ -0,0 +1,342 @@
+package org.nanohttpd.junit.protocols.http.integration;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.readBody;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.readLine;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.send;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.response.Response;
+
+public class BodyStreamIntegrationTest {
+
+    private static final int PORT = 8192;
+
+    private NanoHTTPD server;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new NanoHTTPD(PORT) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                if ("/ignore".equals(session.getUri())) {
+                    return Response.newFixedLengthResponse("ignored");
+                }
+                try {
+                    InputStream body = session.getBodyStream();
+                    if ("/count".equals(session.getUri())) {
+                        byte[] buf = new byte[4096];
+                        long count = 0;
+                        int read;
+                        while ((read = body.read(buf)) != -1) {
+                            count += read;
+                        }
+                        return Response.newFixedLengthResponse("count=" + count);
+                    } else if ("/form".equals(session.getUri())) {
+                        session.parseBody(new HashMap<String, String>());
+                        return Response.newFixedLengthResponse("form=" + session.getParameters());
+                    } else if ("/prefix".equals(session.getUri())) {
+                        byte[] prefix = new byte[5];
+                        int read = body.read(prefix);
+                        body.close();
+                        return Response.newFixedLengthResponse("prefix=" + new String(prefix, 0, read, "US-ASCII"));
+                    }
+                } catch (Exception e) {
+                    return Response.newFixedLengthResponse(e.getMessage());
+                }
+                return Response.newFixedLengthResponse("uri=" + session.getUri());
+            }
+        };
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void testBodyStreamEndsAtTheContentLength() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /count HTTP/1.1\r\nHost: localhost\r\nContent-Length: 10\r\n\r\n0123456789" + "GET /next HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("count=10", readBody(in));
+            assertEquals("uri=/next", readBody(in));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testRequestWithoutLengthHasNoBody() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /count HTTP/1.1\r\nHost: localhost\r\n\r\n" + "GET /second HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("count=0", readBody(in));
+            assertEquals("uri=/second", readBody(in));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testClosingTheBodyStreamSkipsTheRestOfTheBody() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < 100000; i++) {
+                body.append((char) ('a' + i % 26));
+            }
+            send(socket, "POST /prefix HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length() + "\r\n\r\n" + body);
+            InputStream in = socket.getInputStream();
+            assertEquals("prefix=abcde", readBody(in));
+            send(socket, "GET /next HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("uri=/next", readBody(in));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testLargeBodyIsStreamed() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            int size = 64 * 1024 * 1024;
+            send(socket, "POST /count HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + size + "\r\n\r\n");
+            OutputStream out = socket.getOutputStream();
+            byte[] chunk = new byte[64 * 1024];
+            for (int sent = 0; sent < size; sent += chunk.length) {
+                out.write(chunk);
+            }
+            out.flush();
+            assertEquals("count=" + size, readBody(socket.getInputStream()));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testChunkedBodyIsDecoded() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /count HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n" + "4\r\nWiki\r\n5;ext=1\r\npedia\r\n0\r\nX-Trailer: 1\r\n\r\n"
+                    + "GET /next HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("count=9", readBody(in));
+            assertEquals("uri=/next", readBody(in));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testChunkedFormIsParsed() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /form HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/x-www-form-urlencoded\r\nTransfer-Encoding: chunked\r\n\r\n"
+                    + "4\r\na=1&\r\n3\r\nb=2\r\n0\r\n\r\n");
+            assertEquals("form={a=[1], b=[2]}", readBody(socket.getInputStream()));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testLargeChunkedBodyIsStreamed() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /count HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n");
+            OutputStream out = socket.getOutputStream();
+            byte[] chunk = new byte[64 * 1024];
+            int chunks = 1024;
+            for (int i = 0; i < chunks; i++) {
+                out.write((Integer.toHexString(chunk.length) + "\r\n").getBytes("US-ASCII"));
+                out.write(chunk);
+                out.write("\r\n".getBytes("US-ASCII"));
+            }
+            send(socket, "0\r\n\r\n");
+            assertEquals("count=" + chunks * chunk.length, readBody(socket.getInputStream()));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testUnsupportedTransferCodingIsRejected() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /count HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: gzip\r\n\r\n");
+            String status = readLine(socket.getInputStream());
+            assertTrue(status, status.startsWith("HTTP/1.1 400 "));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testGzipFormIsInflated() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            byte[] body = gzip("a=1&b=2");
+            send(socket, "POST /form HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/x-www-form-urlencoded\r\nContent-Encoding: gzip\r\nContent-Length: "
+                    + body.length + "\r\n\r\n");
+            socket.getOutputStream().write(body);
+            send(socket, "GET /next HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("form={a=[1], b=[2]}", readBody(in));
+            assertEquals("uri=/next", readBody(in));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testBodyInflatingBeyondTheLimitIsRejected() throws Exception {
+        this.server.setMaxInflatedBodySize(1000);
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            StringBuilder text = new StringBuilder("a=");
+            for (int i = 0; i < 100000; i++) {
+                text.append('a');
+            }
+            byte[] body = gzip(text.toString());
+            send(socket, "POST /form HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/x-www-form-urlencoded\r\nContent-Encoding: gzip\r\nContent-Length: "
+                    + body.length + "\r\n\r\n");
+            socket.getOutputStream().write(body);
+            String response = readBody(socket.getInputStream());
+            assertTrue(response, response.startsWith("PAYLOAD TOO LARGE"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testUnsupportedContentCodingIsRejected() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /count HTTP/1.1\r\nHost: localhost\r\nContent-Encoding: br\r\nContent-Length: 3\r\n\r\nabc");
+            String status = readLine(socket.getInputStream());
+            assertTrue(status, status.startsWith("HTTP/1.1 415 "));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testUnreadBodyIsDrainedBeforeTheNextRequest() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < 10000; i++) {
+                body.append((char) ('a' + i % 26));
+            }
+            send(socket, "POST /ignore HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length() + "\r\n\r\n" + body + "GET /next HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("ignored", readBody(in));
+            assertEquals("uri=/next", readBody(in));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testUnreadChunkedBodyIsDrainedBeforeTheNextRequest() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /ignore HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nabc\r\n0\r\n\r\n"
+                    + "GET /next HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("ignored", readBody(in));
+            assertEquals("uri=/next", readBody(in));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testUnreadEncodedBodyIsDrainedWithoutInflating() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /ignore HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\nContent-Encoding: gzip\r\n\r\n3\r\nabc\r\n0\r\n\r\n"
+                    + "GET /next HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("ignored", readBody(in));
+            assertEquals("uri=/next", readBody(in));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testUnreadBodyAboveTheDrainLimitClosesTheConnection() throws Exception {
+        this.server.setBodyDrainLimit(1024);
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            // most of the body is never sent, the server must not wait for
+            // it.
+            send(socket, "POST /ignore HTTP/1.1\r\nHost: localhost\r\nContent-Length: 1000000\r\n\r\n0123456789");
+            InputStream in = socket.getInputStream();
+            assertEquals("ignored", readBody(in));
+            assertEquals(-1, in.read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(text.getBytes("US-ASCII"));
+        gzip.close();
+        return out.toByteArray();
+    }
+}
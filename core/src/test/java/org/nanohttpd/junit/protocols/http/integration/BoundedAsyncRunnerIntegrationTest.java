@@ -0,0 +1,160 @@
+package org.nanohttpd.junit.protocols.http.integration;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.threading.BoundedAsyncRunner;
+
+public class BoundedAsyncRunnerIntegrationTest {
+
+    private static final int PORT = 8192;
+
+    private NanoHTTPD server;
+
+    private BoundedAsyncRunner runner;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new NanoHTTPD(PORT) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                return Response.newFixedLengthResponse("ok");
+            }
+        };
+        this.runner = new BoundedAsyncRunner(1, 1, 0);
+        this.server.setAsyncRunner(this.runner);
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+        this.runner.shutdown();
+    }
+
+    @Test
+    public void connectionsBeyondThePoolAreRejectedWith503() throws Exception {
+        Socket busy = new Socket("localhost", PORT);
+        try {
+            List<String> first = request(busy);
+            assertEquals("HTTP/1.1 200 OK", first.get(0));
+
+            // the only worker now waits for the next request on the kept
+            // alive connection.
+            Socket rejected = new Socket("localhost", PORT);
+            try {
+                List<String> response = request(rejected);
+                assertEquals("HTTP/1.1 503 Service Unavailable", response.get(0));
+                assertTrue(response.contains("Retry-After: 1"));
+                assertTrue(response.contains("Connection: close"));
+                assertEquals(-1, rejected.getInputStream().read());
+            } finally {
+                rejected.close();
+            }
+        } finally {
+            busy.close();
+        }
+
+        // closing the busy connection frees the worker again.
+        long deadline = System.currentTimeMillis() + 2000;
+        while (this.runner.getActiveCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        Socket next = new Socket("localhost", PORT);
+        try {
+            assertEquals("HTTP/1.1 200 OK", request(next).get(0));
+        } finally {
+            next.close();
+        }
+    }
+
+    @Test
+    public void stopClosesPooledConnections() throws Exception {
+        Socket busy = new Socket("localhost", PORT);
+        try {
+            assertEquals("HTTP/1.1 200 OK", request(busy).get(0));
+            this.server.stop();
+            assertEquals(-1, busy.getInputStream().read());
+            long deadline = System.currentTimeMillis() + 2000;
+            while (!this.runner.getRunning().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertTrue(this.runner.getRunning().isEmpty());
+        } finally {
+            busy.close();
+        }
+    }
+
+    /**
+     * Sends a GET and reads the status line and headers of the answer, the body
+     * is consumed according to its Content-Length.
+     */
+    private List<String> request(Socket socket) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+        out.flush();
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"), 1);
+        List<String> lines = new ArrayList<String>();
+        int contentLength = 0;
+        String line = in.readLine();
+        while (line != null && !line.isEmpty()) {
+            lines.add(line.trim());
+            if (line.toLowerCase().startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+            }
+            line = in.readLine();
+        }
+        for (int i = 0; i < contentLength; i++) {
+            in.read();
+        }
+        return lines;
+    }
+}
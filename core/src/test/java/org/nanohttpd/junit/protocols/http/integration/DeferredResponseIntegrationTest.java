@@ -0,0 +1,245 @@
+package org.nanohttpd.junit.protocols.http.integration;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.readBody;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.send;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.nanohttpd.protocols.http.IAsyncHandler;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.response.DeferredResponse;
+import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.threading.BoundedAsyncRunner;
+
+public class DeferredResponseIntegrationTest {
+
+    private static final int PORT = 8192;
+
+    private final BlockingQueue<DeferredResponse> pending = new LinkedBlockingQueue<DeferredResponse>();
+
+    private final CountDownLatch held = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private NanoHTTPD server;
+
+    private BoundedAsyncRunner runner;
+
+    /**
+     * Starts a server with a single worker thread, "/later" requests are
+     * answered by the test through the pending queue, "/hold" requests keep the
+     * worker until released.
+     */
+    private void startServer(boolean selectorEngine) throws IOException {
+        this.server = new NanoHTTPD(PORT) {
+        };
+        this.server.setAsyncHTTPHandler(new IAsyncHandler() {
+
+            @Override
+            public void handle(IHTTPSession session, DeferredResponse response) {
+                if ("/later".equals(session.getUri())) {
+                    DeferredResponseIntegrationTest.this.pending.add(response);
+                } else if ("/hold".equals(session.getUri())) {
+                    DeferredResponseIntegrationTest.this.held.countDown();
+                    try {
+                        DeferredResponseIntegrationTest.this.release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    response.complete(Response.newFixedLengthResponse("held"));
+                } else {
+                    response.complete(Response.newFixedLengthResponse("uri=" + session.getUri()));
+                }
+            }
+        });
+        if (selectorEngine) {
+            this.server.useSelectorEngine(1);
+        }
+        this.runner = new BoundedAsyncRunner(1, 1, 0);
+        this.server.setAsyncRunner(this.runner);
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (this.server != null) {
+            this.server.stop();
+            this.runner.shutdown();
+        }
+    }
+
+    @Test
+    public void pendingResponseReleasesTheWorker() throws Exception {
+        startServer(false);
+        assertWorkerReleased();
+    }
+
+    @Test
+    public void pendingResponseReleasesTheWorkerOnSelectorEngine() throws Exception {
+        startServer(true);
+        assertWorkerReleased();
+    }
+
+    @Test
+    public void pipelinedRequestWaitsForTheDeferredResponse() throws Exception {
+        startServer(false);
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            socket.setSoTimeout(5000);
+            send(socket, "GET /later HTTP/1.1\r\nHost: localhost\r\n\r\nGET /next HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            DeferredResponse response = this.pending.poll(5, TimeUnit.SECONDS);
+            Thread.sleep(100L);
+            assertEquals(0, socket.getInputStream().available());
+            response.complete(Response.newFixedLengthResponse("first"));
+            assertEquals("first", readBody(socket.getInputStream()));
+            assertEquals("uri=/next", readBody(socket.getInputStream()));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void completingWithNullAnswersWithInternalError() throws Exception {
+        startServer(false);
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            socket.setSoTimeout(5000);
+            send(socket, "GET /later HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            DeferredResponse response = this.pending.poll(5, TimeUnit.SECONDS);
+            assertTrue(response.complete(null));
+            assertFalse(response.complete(Response.newFixedLengthResponse("ignored")));
+            assertTrue(readBody(socket.getInputStream()).startsWith("SERVER INTERNAL ERROR"));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void rejectedResumeClosesWithoutAnUnaskedResponse() throws Exception {
+        startServer(false);
+        Socket waiting = new Socket("localhost", PORT);
+        Socket holding = null;
+        try {
+            waiting.setSoTimeout(5000);
+            send(waiting, "GET /later HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            DeferredResponse response = this.pending.poll(5, TimeUnit.SECONDS);
+            waitForIdleWorker();
+            holding = new Socket("localhost", PORT);
+            send(holding, "GET /hold HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertTrue(this.held.await(5, TimeUnit.SECONDS));
+
+            // no worker to continue the connection with, it is closed.
+            response.complete(Response.newFixedLengthResponse("finally"));
+            assertEquals("finally", readBody(waiting.getInputStream()));
+            assertEquals(-1, waiting.getInputStream().read());
+        } finally {
+            this.release.countDown();
+            waiting.close();
+            if (holding != null) {
+                holding.close();
+            }
+        }
+    }
+
+    private void assertWorkerReleased() throws Exception {
+        Socket waiting = new Socket("localhost", PORT);
+        try {
+            waiting.setSoTimeout(5000);
+            send(waiting, "GET /later HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            DeferredResponse response = this.pending.poll(5, TimeUnit.SECONDS);
+            waitForIdleWorker();
+
+            // the only worker is free again although /later is unanswered.
+            Socket other = new Socket("localhost", PORT);
+            try {
+                other.setSoTimeout(5000);
+                send(other, "GET /now HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                assertEquals("uri=/now", readBody(other.getInputStream()));
+            } finally {
+                other.close();
+            }
+            waitForIdleWorker();
+
+            response.complete(Response.newFixedLengthResponse("finally"));
+            assertEquals("finally", readBody(waiting.getInputStream()));
+            waitForIdleWorker();
+
+            // the connection stays usable for the next request.
+            send(waiting, "GET /again HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("uri=/again", readBody(waiting.getInputStream()));
+        } finally {
+            waiting.close();
+        }
+    }
+
+    @Test
+    public void incompleteResponseTimesOut() throws Exception {
+        startServer(false);
+        this.server.setDeferredResponseTimeout(200);
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            socket.setSoTimeout(5000);
+            send(socket, "GET /later HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            DeferredResponse response = this.pending.poll(5, TimeUnit.SECONDS);
+            assertTrue(readBody(socket.getInputStream()).startsWith("SERVICE UNAVAILABLE"));
+            assertFalse(response.complete(Response.newFixedLengthResponse("too late")));
+
+            // the connection stays usable for the next request.
+            send(socket, "GET /again HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("uri=/again", readBody(socket.getInputStream()));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void waitForIdleWorker() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (this.runner.getActiveCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+    }
+}
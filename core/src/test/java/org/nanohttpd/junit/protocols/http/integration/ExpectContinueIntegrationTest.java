@@ -0,0 +1,227 @@
+package org.nanohttpd.junit.protocols.http.integration;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.contentLength;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.read;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.readHead;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.readLine;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.send;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.response.Status;
+import org.nanohttpd.util.IHandler;
+
+public class ExpectContinueIntegrationTest {
+
+    private static final int PORT = 8192;
+
+    private static final String CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n";
+
+    private NanoHTTPD server;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new NanoHTTPD(PORT) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                try {
+                    if ("/form".equals(session.getUri())) {
+                        session.parseBody(new HashMap<String, String>());
+                        return Response.newFixedLengthResponse("form=" + session.getParameters());
+                    }
+                    InputStream body = session.getBodyStream();
+                    byte[] buf = new byte[4096];
+                    long count = 0;
+                    int read;
+                    while ((read = body.read(buf)) != -1) {
+                        count += read;
+                    }
+                    return Response.newFixedLengthResponse("count=" + count);
+                } catch (NanoHTTPD.ResponseException e) {
+                    return Response.newFixedLengthResponse(e.getStatus(), NanoHTTPD.MIME_PLAINTEXT, e.getMessage());
+                } catch (IOException e) {
+                    return Response.newFixedLengthResponse(e.getMessage());
+                }
+            }
+        };
+        this.server.addHTTPInterceptor(new IHandler<IHTTPSession, Response>() {
+
+            @Override
+            public Response handle(IHTTPSession session) {
+                if ("/private".equals(session.getUri())) {
+                    return Response.newFixedLengthResponse(Status.UNAUTHORIZED, NanoHTTPD.MIME_PLAINTEXT, "denied");
+                }
+                if ("/small".equals(session.getUri())) {
+                    try {
+                        session.setMaxBodySize(5);
+                    } catch (NanoHTTPD.ResponseException e) {
+                        return Response.newFixedLengthResponse(e.getStatus(), NanoHTTPD.MIME_PLAINTEXT, e.getMessage());
+                    }
+                }
+                return null;
+            }
+        });
+        this.server.setMaxRequestBodySize(1000);
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void testContinueIsSentWhenTheBodyIsRead() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /count HTTP/1.1\r\nHost: localhost\r\nExpect: 100-continue\r\nContent-Length: 10\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals(CONTINUE, read(in, CONTINUE.length()));
+            send(socket, "0123456789");
+            assertEquals("200 count=10", readResponse(in));
+            send(socket, "GET /next HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("200 count=0", readResponse(in));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testRejectionBeforeTheBodySkipsContinue() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /private HTTP/1.1\r\nHost: localhost\r\nExpect: 100-continue\r\nContent-Length: 10\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("401 denied", readResponse(in));
+            // the body never comes, the connection cannot be reused.
+            assertEquals(-1, in.read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testBodyLargerThanTheServerLimitIsRejectedBeforeTheHandler() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /count HTTP/1.1\r\nHost: localhost\r\nExpect: 100-continue\r\nContent-Length: 1000000\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("HTTP/1.1 413 Payload Too Large ", readLine(in));
+            // the 100 Continue never came and the connection is closed.
+            while (in.read() != -1) {
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testInterceptorCanLowerTheLimit() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /small HTTP/1.1\r\nHost: localhost\r\nContent-Length: 10\r\n\r\n0123456789");
+            String response = readResponse(socket.getInputStream());
+            assertEquals(response, "413", response.substring(0, 3));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testChunkedBodyIsCutAtTheLimit() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /form HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\nContent-Type: application/x-www-form-urlencoded\r\n\r\n" + "3e8\r\n");
+            OutputStream out = socket.getOutputStream();
+            out.write(new byte[1000]);
+            send(socket, "\r\n10\r\n0123456789abcdef\r\n0\r\n\r\n");
+            String response = readResponse(socket.getInputStream());
+            assertEquals(response, "413", response.substring(0, 3));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testChunkedTrailerIsCutAtTheHeaderLimit() throws Exception {
+        StringBuilder trailer = new StringBuilder();
+        while (trailer.length() <= this.server.getMaxHeaderSize()) {
+            trailer.append("X-Trailer: 0123456789012345678901234567890123456789\r\n");
+        }
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /form HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\nContent-Type: application/x-www-form-urlencoded\r\n\r\n"
+                    + "3\r\na=1\r\n0\r\n" + trailer + "\r\n");
+            String response = readResponse(socket.getInputStream());
+            assertEquals(response, "431", response.substring(0, 3));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testUnknownExpectationFails() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "POST /count HTTP/1.1\r\nHost: localhost\r\nExpect: something\r\nContent-Length: 10\r\n\r\n");
+            assertEquals("HTTP/1.1 417 Expectation Failed ", readLine(socket.getInputStream()));
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Reads one response and returns its status code and body, the body length
+     * is taken from the Content-Length header.
+     */
+    private static String readResponse(InputStream in) throws IOException {
+        List<String> head = readHead(in);
+        return head.get(0).split(" ")[1] + " " + read(in, contentLength(head));
+    }
+}
@@ -34,6 +34,7 @@ package org.nanohttpd.junit.protocols.http.integration;
  */
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
@@ -104,6 +105,8 @@ public class GetAndPostIntegrationTest extends IntegrationTestBase<GetAndPostInt
             }
             if ("/encodingtest".equals(uri)) {
                 return Response.newFixedLengthResponse(Status.OK, MIME_HTML, "<html><head><title>Testé ça</title></head><body>Testé ça</body></html>");
+            } else if ("/remote".equals(uri)) {
+                return Response.newFixedLengthResponse(String.valueOf(session.getAllHeaders("remote-addr")));
             } else if ("/chin".equals(uri)) {
                 return Response.newFixedLengthResponse(Status.OK, "application/octet-stream", sb.toString());
             } else {
@@ -128,6 +131,17 @@ public class GetAndPostIntegrationTest extends IntegrationTestBase<GetAndPostInt
         assertEquals("GET:testGetRequestWithParameters-params=2;age=120;gender=Male", responseBody);
     }
 
+    @Test
+    public void testClientCannotSpoofTheRemoteAddress() throws Exception {
+        HttpGet httpget = new HttpGet("http://localhost:8192/remote");
+        httpget.addHeader("Remote-Addr", "10.0.0.1");
+        ResponseHandler<String> responseHandler = new BasicResponseHandler();
+        String responseBody = this.httpclient.execute(httpget, responseHandler);
+
+        assertEquals(1, responseBody.split(",").length);
+        assertFalse(responseBody.contains("10.0.0.1"));
+    }
+
     @Test
     public void testPostRequestWithFormEncodedParameters() throws Exception {
         this.testServer.response = "testPostRequestWithFormEncodedParameters";
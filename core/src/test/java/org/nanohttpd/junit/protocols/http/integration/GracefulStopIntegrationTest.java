@@ -0,0 +1,183 @@
+package org.nanohttpd.junit.protocols.http.integration;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.readHead;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.send;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.response.Response;
+
+public class GracefulStopIntegrationTest {
+
+    private static final int PORT = 8192;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private NanoHTTPD server;
+
+    private void startServer(boolean selectorEngine) throws IOException {
+        this.server = new NanoHTTPD(PORT) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                if ("/slow".equals(session.getUri())) {
+                    try {
+                        GracefulStopIntegrationTest.this.release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return Response.newFixedLengthResponse("done");
+            }
+        };
+        if (selectorEngine) {
+            this.server.useSelectorEngine(1);
+        }
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.release.countDown();
+        if (this.server != null) {
+            this.server.stop();
+        }
+    }
+
+    @Test
+    public void runningRequestFinishesWithConnectionClose() throws Exception {
+        startServer(false);
+        assertDrains();
+    }
+
+    @Test
+    public void runningRequestFinishesWithConnectionCloseOnSelectorEngine() throws Exception {
+        startServer(true);
+        assertDrains();
+    }
+
+    @Test
+    public void drainTimeoutForcesConnectionsClosed() throws Exception {
+        startServer(false);
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            waitFor(1, true);
+            long start = System.currentTimeMillis();
+            this.server.stop(200, TimeUnit.MILLISECONDS);
+            assertTrue(System.currentTimeMillis() - start >= 200);
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void countersFollowConnectionsAndRequests() throws Exception {
+        startServer(false);
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("HTTP/1.1 200 OK ", readHead(socket.getInputStream()).get(0));
+            assertEquals(1, this.server.getCounters().getOpenConnections());
+            waitFor(0, true);
+            assertEquals(0, this.server.getCounters().getInFlightRequests());
+            assertEquals(1L, this.server.getCounters().getCompletedRequests());
+        } finally {
+            socket.close();
+        }
+        waitFor(0, false);
+        assertEquals(0, this.server.getCounters().getOpenConnections());
+    }
+
+    private void assertDrains() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            waitFor(1, true);
+            Thread stopper = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    GracefulStopIntegrationTest.this.server.stop(5, TimeUnit.SECONDS);
+                }
+            });
+            stopper.start();
+            // draining starts just before the server socket is closed.
+            while (!this.server.isDraining() || !this.server.getMyServerSocket().isClosed()) {
+                Thread.sleep(10L);
+            }
+            try {
+                new Socket("localhost", PORT).close();
+                fail("new connections must be refused while draining");
+            } catch (ConnectException e) {
+                // expected
+            }
+            this.release.countDown();
+            List<String> head = readHead(socket.getInputStream());
+            assertEquals("HTTP/1.1 200 OK ", head.get(0));
+            assertTrue(head.contains("Connection: close"));
+            stopper.join(5000);
+            assertFalse(stopper.isAlive());
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void waitFor(int expected, boolean requests) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < deadline) {
+            int actual = requests ? this.server.getCounters().getInFlightRequests() : this.server.getCounters().getOpenConnections();
+            if (actual == expected) {
+                return;
+            }
+            Thread.sleep(10L);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.nanohttpd.junit.protocols.http.integration;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.readBody;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.readLine;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.send;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.RequestBufferPool;
+import org.nanohttpd.protocols.http.response.Response;
+
+public class HeaderSizeIntegrationTest {
+
+    private static final int PORT = 8192;
+
+    private NanoHTTPD server;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new NanoHTTPD(PORT) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                String cookie = session.getHeaders().get("cookie");
+                return Response.newFixedLengthResponse("cookie=" + (cookie == null ? 0 : cookie.length()));
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void testHeaderLargerThanTheBufferIsRead() throws Exception {
+        this.server.setMaxHeaderSize(32 * 1024);
+        this.server.start();
+        assertLargeHeaderIsRead();
+    }
+
+    @Test
+    public void testHeaderLargerThanThePooledBufferIsRead() throws Exception {
+        this.server.setMaxHeaderSize(32 * 1024);
+        this.server.setRequestBufferPool(new RequestBufferPool(2));
+        this.server.start();
+        assertLargeHeaderIsRead();
+    }
+
+    @Test
+    public void testHeaderLargerThanTheLimitIsRejected() throws Exception {
+        this.server.start();
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "GET / HTTP/1.1\r\nHost: localhost\r\nCookie: " + repeat('x', NanoHTTPD.DEFAULT_MAX_HEADER_SIZE) + "\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("HTTP/1.1 431 Request Header Fields Too Large ", readLine(in));
+            while (in.read() != -1) {
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void assertLargeHeaderIsRead() throws IOException {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            String cookie = repeat('x', 20000);
+            send(socket, "GET / HTTP/1.1\r\nHost: localhost\r\nCookie: " + cookie + "\r\n\r\n" + "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("HTTP/1.1 200 OK ", readLine(in));
+            assertEquals("cookie=20000", readBody(in));
+            assertEquals("HTTP/1.1 200 OK ", readLine(in));
+            assertEquals("cookie=0", readBody(in));
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder text = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            text.append(c);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,148 @@
+package org.nanohttpd.junit.protocols.http.integration;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.readBody;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.send;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.threading.DefaultAsyncRunner;
+
+public class IdleConnectionParkerIntegrationTest {
+
+    private static final int PORT = 8192;
+
+    private static final int IDLE_TIMEOUT = 300;
+
+    private NanoHTTPD server;
+
+    private DefaultAsyncRunner runner;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new NanoHTTPD(PORT) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                return Response.newFixedLengthResponse("uri=" + session.getUri());
+            }
+        };
+        this.runner = new DefaultAsyncRunner();
+        this.server.setAsyncRunner(this.runner);
+        this.server.parkIdleConnections(IDLE_TIMEOUT);
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void idleConnectionReleasesItsThreadAndIsResumed() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "GET /first HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("uri=/first", readBody(socket.getInputStream()));
+            waitForIdleWorkers();
+            assertTrue(this.runner.getRunning().isEmpty());
+
+            send(socket, "GET /second HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("uri=/second", readBody(socket.getInputStream()));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void pipelinedRequestIsServedWithoutParking() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "GET /a HTTP/1.1\r\nHost: localhost\r\n\r\nGET /b HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("uri=/a", readBody(in));
+            assertEquals("uri=/b", readBody(in));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void parkedConnectionIsClosedAfterIdleTimeout() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            socket.setSoTimeout(5000);
+            send(socket, "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("uri=/", readBody(socket.getInputStream()));
+            long start = System.currentTimeMillis();
+            assertEquals(-1, socket.getInputStream().read());
+            assertTrue(System.currentTimeMillis() - start >= IDLE_TIMEOUT / 2);
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void stopClosesParkedConnections() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            socket.setSoTimeout(5000);
+            send(socket, "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("uri=/", readBody(socket.getInputStream()));
+            waitForIdleWorkers();
+            this.server.stop();
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void waitForIdleWorkers() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!this.runner.getRunning().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.nanohttpd.junit.protocols.http.integration;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.readBody;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.send;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.request.Method;
+import org.nanohttpd.protocols.http.response.Response;
+
+public class PipeliningIntegrationTest {
+
+    private static final int PORT = 8192;
+
+    private static final int[] DELAYS = {
+        250,
+        200,
+        150,
+        100,
+        50
+    };
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicInteger maxActive = new AtomicInteger();
+
+    private NanoHTTPD server;
+
+    private void startServer(int maxDepth, boolean concurrent) throws IOException {
+        this.server = new NanoHTTPD(PORT) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                int now = PipeliningIntegrationTest.this.active.incrementAndGet();
+                int max = PipeliningIntegrationTest.this.maxActive.get();
+                while (now > max && !PipeliningIntegrationTest.this.maxActive.compareAndSet(max, now)) {
+                    max = PipeliningIntegrationTest.this.maxActive.get();
+                }
+                try {
+                    if (Method.POST.equals(session.getMethod())) {
+                        Map<String, String> files = new HashMap<String, String>();
+                        session.parseBody(files);
+                        return Response.newFixedLengthResponse(String.valueOf(files.get("postData").length()));
+                    }
+                    String delay = session.getParms().get("delay");
+                    if (delay != null) {
+                        Thread.sleep(Long.parseLong(delay));
+                    }
+                    return Response.newFixedLengthResponse("uri=" + session.getUri());
+                } catch (Exception e) {
+                    return Response.newFixedLengthResponse(e.toString());
+                } finally {
+                    PipeliningIntegrationTest.this.active.decrementAndGet();
+                }
+            }
+        };
+        this.server.setPipelining(maxDepth, concurrent);
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (this.server != null) {
+            this.server.stop();
+        }
+    }
+
+    @Test
+    public void concurrentPipelineAnswersInOrderFasterThanSerial() throws Exception {
+        startServer(8, true);
+        long pipelined = timeDelayedRequests();
+        this.server.stop();
+        startServer(8, false);
+        long serial = timeDelayedRequests();
+
+        int total = 0;
+        for (int delay : DELAYS) {
+            total += delay;
+        }
+        assertTrue("serial took " + serial, serial >= total);
+        assertTrue("pipelined took " + pipelined + ", serial " + serial, pipelined < serial);
+    }
+
+    @Test
+    public void pipelineDepthIsCapped() throws Exception {
+        startServer(2, true);
+        timeDelayedRequests();
+        assertTrue(this.maxActive.get() <= 2);
+    }
+
+    @Test
+    public void connectionCloseEndsThePipeline() throws Exception {
+        startServer(8, true);
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            socket.setSoTimeout(5000);
+            send(socket, "GET /a?delay=100 HTTP/1.1\r\nHost: localhost\r\n\r\n" + "GET /b HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                    + "GET /c HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("uri=/a", readBody(in));
+            assertEquals("uri=/b", readBody(in));
+            assertEquals(-1, in.read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void bodiesArePipelinedAndLargeBodiesServedSerially() throws Exception {
+        startServer(8, true);
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            socket.setSoTimeout(5000);
+            StringBuilder large = new StringBuilder();
+            for (int i = 0; i < 100 * 1024; i++) {
+                large.append('x');
+            }
+            send(socket, post("small body") + "GET /between HTTP/1.1\r\nHost: localhost\r\n\r\n" + post(large.toString()) + "GET /after HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("10", readBody(in));
+            assertEquals("uri=/between", readBody(in));
+            assertEquals(String.valueOf(large.length()), readBody(in));
+            assertEquals("uri=/after", readBody(in));
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Sends all delayed requests at once and reads the responses, which have to
+     * come back in request order.
+     */
+    private long timeDelayedRequests() throws IOException {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            socket.setSoTimeout(5000);
+            long start = System.currentTimeMillis();
+            StringBuilder requests = new StringBuilder();
+            for (int i = 0; i < DELAYS.length; i++) {
+                requests.append("GET /r" + i + "?delay=" + DELAYS[i] + " HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            }
+            send(socket, requests.toString());
+            InputStream in = socket.getInputStream();
+            for (int i = 0; i < DELAYS.length; i++) {
+                assertEquals("uri=/r" + i, readBody(in));
+            }
+            return System.currentTimeMillis() - start;
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static String post(String body) {
+        return "POST /post HTTP/1.1\r\nHost: localhost\r\nContent-Type: text/plain\r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+    }
+}
@@ -0,0 +1,126 @@
+package org.nanohttpd.junit.protocols.http.integration;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Speaks HTTP/1.1 over a plain socket for the tests that need exact control of
+ * the bytes on the wire, e.g. to pipeline requests.
+ */
+final class RawHttp {
+
+    private RawHttp() {
+    }
+
+    static void send(Socket socket, String text) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(text.getBytes("US-ASCII"));
+        out.flush();
+    }
+
+    /**
+     * @return the next line without its line break, null at the end of the
+     *         stream.
+     */
+    static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                return line.length() > 0 ? line.toString() : null;
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Reads the lines of a response head up to the empty line that ends it.
+     */
+    static List<String> readHead(InputStream in) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        while (true) {
+            String line = readLine(in);
+            if (line == null) {
+                throw new IOException("connection closed in the response head");
+            }
+            if (line.isEmpty()) {
+                return lines;
+            }
+            lines.add(line);
+        }
+    }
+
+    /**
+     * @return the value of the Content-Length header, 0 if there is none.
+     */
+    static int contentLength(List<String> head) {
+        for (String line : head) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                return Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+            }
+        }
+        return 0;
+    }
+
+    static String read(InputStream in, int length) throws IOException {
+        byte[] buf = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(buf, read, length - read);
+            if (count == -1) {
+                throw new IOException("connection closed");
+            }
+            read += count;
+        }
+        return new String(buf, "US-ASCII");
+    }
+
+    /**
+     * Reads one response, or the rest of it if its status line was read
+     * already, and returns its body; the body length is taken from the
+     * Content-Length header.
+     */
+    static String readBody(InputStream in) throws IOException {
+        return read(in, contentLength(readHead(in)));
+    }
+}
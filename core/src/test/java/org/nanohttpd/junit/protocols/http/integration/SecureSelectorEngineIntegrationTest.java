@@ -0,0 +1,250 @@
+package org.nanohttpd.junit.protocols.http.integration;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.readBody;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.send;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.request.Method;
+import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.sockets.HandshakeStatistics;
+import org.nanohttpd.protocols.http.sockets.SSLEngineFactory;
+
+public class SecureSelectorEngineIntegrationTest {
+
+    private static final int PORT = 8192;
+
+    private NanoHTTPD server;
+
+    private SSLEngineFactory engineFactory;
+
+    private SSLContext clientContext;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new NanoHTTPD(PORT) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                if (Method.POST.equals(session.getMethod())) {
+                    Map<String, String> files = new HashMap<String, String>();
+                    try {
+                        session.parseBody(files);
+                    } catch (Exception e) {
+                        return Response.newFixedLengthResponse(e.getMessage());
+                    }
+                    return Response.newFixedLengthResponse(String.valueOf(files.get("postData").length()));
+                }
+                if ("/large".equals(session.getUri())) {
+                    return Response.newFixedLengthResponse(letters(100 * 1024));
+                }
+                return Response.newFixedLengthResponse("uri=" + session.getUri());
+            }
+        };
+        KeyStore keyStore = loadKeyStore();
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, "password".toCharArray());
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        this.engineFactory = new SSLEngineFactory(serverContext, null);
+        this.engineFactory.configureSessionCache(100, 60);
+        this.server.makeSecure(this.engineFactory, 1);
+        this.server.start();
+
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        this.clientContext = SSLContext.getInstance("TLS");
+        this.clientContext.init(null, trustManagerFactory.getTrustManagers(), null);
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void keepAliveAndPipelinedRequestsAreServedOverTls() throws Exception {
+        Socket socket = connect();
+        try {
+            send(socket, "GET /first HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("uri=/first", readBody(socket.getInputStream()));
+            send(socket, "GET /a HTTP/1.1\r\nHost: localhost\r\n\r\nGET /b HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("uri=/a", readBody(socket.getInputStream()));
+            assertEquals("uri=/b", readBody(socket.getInputStream()));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void largeBodiesAreReadAndWritten() throws Exception {
+        Socket socket = connect();
+        try {
+            int size = 200 * 1024;
+            send(socket, "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Type: text/plain\r\nContent-Length: " + size + "\r\n\r\n" + letters(size));
+            assertEquals(String.valueOf(size), readBody(socket.getInputStream()));
+            send(socket, "GET /large HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals(letters(100 * 1024), readBody(socket.getInputStream()));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void reconnectingClientResumesItsSession() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            Socket socket = connect();
+            try {
+                send(socket, "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                assertEquals("uri=/", readBody(socket.getInputStream()));
+            } finally {
+                socket.close();
+            }
+        }
+        HandshakeStatistics statistics = this.engineFactory.getStatistics();
+        assertEquals(2, statistics.getHandshakes());
+        assertEquals(1, statistics.getFullHandshakes());
+        assertEquals(1, statistics.getResumedHandshakes());
+        assertEquals(0.5, statistics.getResumedRatio(), 0.001);
+        assertTrue(statistics.getAverageHandshakeMillis() > 0);
+    }
+
+    @Test
+    public void concurrentHandshakeChurnIsServed() throws Exception {
+        final int clients = 8;
+        final int connections = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int c = 0; c < clients; c++) {
+                final int client = c;
+                results.add(executor.submit(new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < connections; i++) {
+                            Socket socket = connect();
+                            try {
+                                send(socket, "GET /" + client + "/" + i + " HTTP/1.1\r\nHost: localhost\r\n\r\n");
+                                assertEquals("uri=/" + client + "/" + i, readBody(socket.getInputStream()));
+                            } finally {
+                                socket.close();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        HandshakeStatistics statistics = this.engineFactory.getStatistics();
+        assertEquals(clients * connections, statistics.getHandshakes());
+        assertEquals(0, statistics.getFailedHandshakes());
+    }
+
+    @Test
+    public void plainHttpOnTheTlsPortIsCountedAsFailedHandshake() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            socket.setSoTimeout(5000);
+            send(socket, "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            while (in.read() != -1) {
+                // the server answers with an alert at most
+            }
+        } catch (IOException e) {
+            // connection reset
+        } finally {
+            socket.close();
+        }
+        HandshakeStatistics statistics = this.engineFactory.getStatistics();
+        assertEquals(1, statistics.getFailedHandshakes());
+        assertEquals(0, statistics.getHandshakes());
+    }
+
+    private KeyStore loadKeyStore() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        InputStream keyStoreStream = getClass().getResourceAsStream("/keystore.jks");
+        try {
+            keyStore.load(keyStoreStream, "password".toCharArray());
+        } finally {
+            keyStoreStream.close();
+        }
+        return keyStore;
+    }
+
+    private Socket connect() throws IOException {
+        SSLSocket socket = (SSLSocket) this.clientContext.getSocketFactory().createSocket("localhost", PORT);
+        socket.setSoTimeout(5000);
+        socket.startHandshake();
+        return socket;
+    }
+
+    private static String letters(int size) {
+        StringBuilder text = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,204 @@
+package org.nanohttpd.junit.protocols.http.integration;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.readBody;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.send;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nanohttpd.protocols.http.ClientHandler;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.nio.ChannelClientHandler;
+import org.nanohttpd.protocols.http.request.Method;
+import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.threading.DefaultAsyncRunner;
+
+public class SelectorEngineIntegrationTest {
+
+    private static final int PORT = 8192;
+
+    private NanoHTTPD server;
+
+    private DefaultAsyncRunner runner;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new NanoHTTPD(PORT) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                if (Method.POST.equals(session.getMethod())) {
+                    Map<String, String> files = new HashMap<String, String>();
+                    try {
+                        session.parseBody(files);
+                    } catch (Exception e) {
+                        return Response.newFixedLengthResponse(e.getMessage());
+                    }
+                    return Response.newFixedLengthResponse(String.valueOf(files.get("postData").length()));
+                }
+                return Response.newFixedLengthResponse("uri=" + session.getUri());
+            }
+        };
+        this.runner = new DefaultAsyncRunner();
+        this.server.setAsyncRunner(this.runner);
+        this.server.useSelectorEngine(2);
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void keepAliveConnectionIsServedByWorkersOnlyWhileARequestIsActive() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "GET /first HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("uri=/first", readBody(socket.getInputStream()));
+            waitForIdleWorkers();
+            assertTrue(this.runner.getRunning().isEmpty());
+
+            send(socket, "GET /second HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("uri=/second", readBody(socket.getInputStream()));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void requestSentInPiecesIsDispatchedOnceComplete() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "GET /pie");
+            Thread.sleep(50L);
+            assertTrue(this.runner.getRunning().isEmpty());
+            send(socket, "ces HTTP/1.1\r\nHost: local");
+            Thread.sleep(50L);
+            send(socket, "host\r\n\r\n");
+            assertEquals("uri=/pieces", readBody(socket.getInputStream()));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void pipelinedRequestsAreAnsweredInOrder() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "GET /a HTTP/1.1\r\nHost: localhost\r\n\r\nGET /b HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("uri=/a", readBody(in));
+            assertEquals("uri=/b", readBody(in));
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void smallAndLargeBodiesAreRead() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            int[] sizes = {
+                10,
+                200 * 1024
+            };
+            for (int size : sizes) {
+                StringBuilder body = new StringBuilder(size);
+                for (int i = 0; i < size; i++) {
+                    body.append((char) ('a' + i % 26));
+                }
+                send(socket, "POST / HTTP/1.1\r\nHost: localhost\r\nContent-Type: text/plain\r\nContent-Length: " + size + "\r\n\r\n" + body);
+                assertEquals(String.valueOf(size), readBody(socket.getInputStream()));
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void requestsRunInChannelClientHandlers() throws Exception {
+        final ChannelClientHandler[] seen = new ChannelClientHandler[1];
+        this.server.stop();
+        DefaultAsyncRunner recording = new DefaultAsyncRunner() {
+
+            @Override
+            public void exec(ClientHandler clientHandler) {
+                seen[0] = (ChannelClientHandler) clientHandler;
+                super.exec(clientHandler);
+            }
+        };
+        this.server.setAsyncRunner(recording);
+        this.server.start();
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("uri=/", readBody(socket.getInputStream()));
+            assertTrue(seen[0] != null);
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void stopClosesIdleConnections() throws Exception {
+        Socket socket = new Socket("localhost", PORT);
+        try {
+            send(socket, "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n");
+            assertEquals("uri=/", readBody(socket.getInputStream()));
+            this.server.stop();
+            assertEquals(-1, socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void waitForIdleWorkers() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!this.runner.getRunning().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+    }
+}
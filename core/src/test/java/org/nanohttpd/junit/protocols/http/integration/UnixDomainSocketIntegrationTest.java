@@ -0,0 +1,109 @@
+package org.nanohttpd.junit.protocols.http.integration;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.nanohttpd.junit.protocols.http.integration.RawHttp.readBody;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.sockets.UnixDomainSocketSupport;
+
+public class UnixDomainSocketIntegrationTest {
+
+    private NanoHTTPD server;
+
+    private File socketFile;
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue(UnixDomainSocketSupport.isSupported());
+        this.socketFile = File.createTempFile("nanohttpd", ".sock");
+        this.socketFile.delete();
+        this.server = new NanoHTTPD(0) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                return Response.newFixedLengthResponse(session.getUri() + " from " + session.getRemoteIpAddress());
+            }
+        };
+        this.server.listenOnUnixSocket(this.socketFile.getPath(), 1);
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (this.server != null) {
+            this.server.stop();
+        }
+    }
+
+    @Test
+    public void keepAliveRequestsAreServedWithLoopbackClientAddress() throws Exception {
+        assertTrue(this.socketFile.exists());
+        assertEquals(-1, this.server.getListeningPort());
+        SocketChannel channel = SocketChannel.open(UnixDomainSocketSupport.address(this.socketFile.getPath()));
+        try {
+            InputStream in = Channels.newInputStream(channel);
+            OutputStream out = Channels.newOutputStream(channel);
+            out.write("GET /first HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes("US-ASCII"));
+            assertEquals("/first from 127.0.0.1", readBody(in));
+            out.write("GET /second HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes("US-ASCII"));
+            assertEquals("/second from 127.0.0.1", readBody(in));
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void stopRemovesTheSocketFile() {
+        this.server.stop();
+        assertFalse(this.server.isAlive());
+        assertFalse(this.socketFile.exists());
+    }
+}
@@ -0,0 +1,154 @@
+package org.nanohttpd.junit.protocols.http2;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.nanohttpd.protocols.http2.hpack.HeaderField;
+import org.nanohttpd.protocols.http2.hpack.HpackDecoder;
+import org.nanohttpd.protocols.http2.hpack.HpackEncoder;
+import org.nanohttpd.protocols.http2.hpack.Huffman;
+
+/**
+ * Decodes the examples of RFC 7541, Appendix C.
+ */
+public class HpackTest {
+
+    @Test
+    public void requestsWithoutHuffmanCoding() throws IOException {
+        HpackDecoder decoder = new HpackDecoder(4096, 8192);
+        assertFields(decoder.decode(bytes("828684410f7777772e6578616d706c652e636f6d"), 0, 20), ":method", "GET", ":scheme", "http", ":path", "/", ":authority",
+                "www.example.com");
+        assertFields(decoder.decode(bytes("828684be58086e6f2d6361636865"), 0, 14), ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                "cache-control", "no-cache");
+        byte[] third = bytes("828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565");
+        assertFields(decoder.decode(third, 0, third.length), ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key",
+                "custom-value");
+    }
+
+    @Test
+    public void requestsWithHuffmanCoding() throws IOException {
+        HpackDecoder decoder = new HpackDecoder(4096, 8192);
+        byte[] first = bytes("828684418cf1e3c2e5f23a6ba0ab90f4ff");
+        assertFields(decoder.decode(first, 0, first.length), ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+        byte[] second = bytes("828684be5886a8eb10649cbf");
+        assertFields(decoder.decode(second, 0, second.length), ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache");
+        byte[] third = bytes("828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf");
+        assertFields(decoder.decode(third, 0, third.length), ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key",
+                "custom-value");
+    }
+
+    @Test
+    public void responsesEvictFromASmallTable() throws IOException {
+        HpackDecoder decoder = new HpackDecoder(256, 8192);
+        byte[] first = bytes("488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a62d1bff6e919d29ad171863c78f0b97c8e9ae82ae43d3");
+        assertFields(decoder.decode(first, 0, first.length), ":status", "302", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location",
+                "https://www.example.com");
+        byte[] second = bytes("4883640effc1c0bf");
+        assertFields(decoder.decode(second, 0, second.length), ":status", "307", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location",
+                "https://www.example.com");
+        byte[] third =
+                bytes("88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a839bd9ab77ad94e7821dd7f2e6c7b335dfdfcd5b3960d5af27087f3672c1ab270fb5291f9587316065c003ed4ee5b1063d5007");
+        assertFields(decoder.decode(third, 0, third.length), ":status", "200", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:22 GMT", "location",
+                "https://www.example.com", "content-encoding", "gzip", "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1");
+    }
+
+    @Test
+    public void huffmanRoundTrip() throws IOException {
+        byte[] text = new byte[256];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (byte) i;
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        Huffman.encode(text, encoded);
+        assertEquals(Huffman.encodedLength(text), encoded.size());
+        assertArrayEquals(text, Huffman.decode(encoded.toByteArray(), 0, encoded.size()));
+    }
+
+    @Test(expected = IOException.class)
+    public void huffmanPaddingMustBeOnes() throws IOException {
+        // "a" is 00011, padded with zeros instead of ones.
+        Huffman.decode(new byte[]{
+            0x18
+        }, 0, 1);
+    }
+
+    @Test
+    public void encodedFieldsDecodeUnchanged() throws IOException {
+        List<HeaderField> fields = new ArrayList<HeaderField>();
+        fields.add(new HeaderField(":status", "200"));
+        fields.add(new HeaderField(":status", "201"));
+        fields.add(new HeaderField("content-type", "text/html"));
+        fields.add(new HeaderField("x-custom-header-with-a-rather-long-name", "value"));
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            longValue.append((char) ('a' + i % 26));
+        }
+        fields.add(new HeaderField("set-cookie", longValue.toString()));
+        byte[] block = new HpackEncoder().encode(fields);
+        List<HeaderField> decoded = new HpackDecoder(4096, 8192).decode(block, 0, block.length);
+        assertEquals(fields.toString(), decoded.toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void headerListSizeIsLimited() throws IOException {
+        byte[] block = new HpackEncoder().encode(Arrays.asList(new HeaderField("a", "1"), new HeaderField("b", "2")));
+        new HpackDecoder(4096, 60).decode(block, 0, block.length);
+    }
+
+    private static void assertFields(List<HeaderField> fields, String... expected) {
+        List<String> actual = new ArrayList<String>();
+        for (HeaderField field : fields) {
+            actual.add(field.getName());
+            actual.add(field.getValue());
+        }
+        assertEquals(Arrays.asList(expected), actual);
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,428 @@
+package org.nanohttpd.junit.protocols.http2;
+
+/*
+ * #%L
+ * NanoHttpd-Core
+ * %%
+ * Copyright (C) 2012 - 2016 nanohttpd
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the nanohttpd nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import org.nanohttpd.protocols.http.IHTTPSession;
+import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.request.Method;
+import org.nanohttpd.protocols.http.response.Response;
+import org.nanohttpd.protocols.http.sockets.AlpnSupport;
+import org.nanohttpd.protocols.http2.hpack.HeaderField;
+import org.nanohttpd.protocols.http2.hpack.HpackDecoder;
+import org.nanohttpd.protocols.http2.hpack.HpackEncoder;
+
+public class Http2IntegrationTest {
+
+    private static final int PORT = 8192;
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+
+    private static final int DATA = 0x0;
+
+    private static final int HEADERS = 0x1;
+
+    private static final int SETTINGS = 0x4;
+
+    private static final int PING = 0x6;
+
+    private static final int WINDOW_UPDATE = 0x8;
+
+    private static final int END_STREAM = 0x1;
+
+    private static final int END_HEADERS = 0x4;
+
+    private static final int BIG = 100000;
+
+    private NanoHTTPD server;
+
+    private Socket socket;
+
+    private final HpackDecoder decoder = new HpackDecoder(4096, 65536);
+
+    private void startServer(boolean http2Enabled) throws IOException {
+        createServer();
+        this.server.setHttp2Enabled(http2Enabled);
+        this.server.start();
+    }
+
+    private void startSecureServer() throws IOException {
+        createServer();
+        this.server.makeSecure(NanoHTTPD.makeSSLSocketFactory("/keystore.jks", "password".toCharArray()), null, new String[]{
+            AlpnSupport.HTTP_2,
+            AlpnSupport.HTTP_1_1
+        });
+        this.server.start();
+    }
+
+    private void createServer() {
+        this.server = new NanoHTTPD(PORT) {
+
+            @Override
+            public Response serve(IHTTPSession session) {
+                try {
+                    if (Method.POST.equals(session.getMethod())) {
+                        Map<String, String> files = new HashMap<String, String>();
+                        session.parseBody(files);
+                        return Response.newFixedLengthResponse(String.valueOf(files.get("postData").length()));
+                    }
+                    if ("/big".equals(session.getUri())) {
+                        return Response.newFixedLengthResponse(new String(new char[BIG]).replace('\0', 'x'));
+                    }
+                    String delay = session.getParms().get("delay");
+                    if (delay != null) {
+                        Thread.sleep(Long.parseLong(delay));
+                    }
+                    return Response.newFixedLengthResponse("uri=" + session.getUri() + " cookie=" + session.getHeaders().get("cookie"));
+                } catch (Exception e) {
+                    return Response.newFixedLengthResponse(e.toString());
+                }
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (this.socket != null) {
+            this.socket.close();
+        }
+        if (this.server != null) {
+            this.server.stop();
+        }
+    }
+
+    @Test
+    public void streamsAreServedConcurrently() throws Exception {
+        startServer(true);
+        connect();
+        long start = System.currentTimeMillis();
+        request(1, "GET", "/slow?delay=500", true);
+        request(3, "GET", "/fast", true);
+        request(5, "GET", "/faster", true, new HeaderField("cookie", "a=1"), new HeaderField("cookie", "b=2"));
+        List<Integer> order = new ArrayList<Integer>();
+        Map<Integer, String> bodies = readResponses(3, order);
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(Integer.valueOf(1), order.get(2));
+        assertEquals("uri=/slow cookie=null", bodies.get(1));
+        assertEquals("uri=/fast cookie=null", bodies.get(3));
+        assertEquals("uri=/faster cookie=a=1; b=2", bodies.get(5));
+    }
+
+    @Test
+    public void requestBodiesArePassedToTheSession() throws Exception {
+        startServer(true);
+        connect();
+        request(1, "POST", "/post", false, new HeaderField("content-type", "text/plain"), new HeaderField("content-length", "11"));
+        writeFrame(DATA, 0, 1, "hello ".getBytes());
+        writeFrame(DATA, END_STREAM, 1, "world".getBytes());
+        // no content-length, the body is collected until END_STREAM.
+        request(3, "POST", "/post", false, new HeaderField("content-type", "text/plain"));
+        writeFrame(DATA, 0, 3, "abc".getBytes());
+        writeFrame(DATA, END_STREAM, 3, "de".getBytes());
+        Map<Integer, String> bodies = readResponses(2, new ArrayList<Integer>());
+        assertEquals("11", bodies.get(1));
+        assertEquals("5", bodies.get(3));
+    }
+
+    @Test
+    public void upgradeServesTheRequestAsStream1() throws Exception {
+        startServer(true);
+        this.socket = new Socket("localhost", PORT);
+        this.socket.setSoTimeout(5000);
+        this.socket.getOutputStream().write(
+                "GET /upgraded HTTP/1.1\r\nHost: localhost\r\nConnection: Upgrade, HTTP2-Settings\r\nUpgrade: h2c\r\nHTTP2-Settings: AAMAAABkAAQCAAAAAAIAAAAA\r\n\r\n"
+                        .getBytes());
+        InputStream in = this.socket.getInputStream();
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            head.append((char) in.read());
+        }
+        assertTrue(head.toString(), head.toString().startsWith("HTTP/1.1 101 Switching Protocols\r\n"));
+        assertTrue(head.toString(), head.toString().contains("Upgrade: h2c\r\n"));
+        this.socket.getOutputStream().write(PREFACE);
+        writeFrame(SETTINGS, 0, 0, new byte[0]);
+        Map<Integer, String> bodies = readResponses(1, new ArrayList<Integer>());
+        assertEquals("uri=/upgraded cookie=null", bodies.get(1));
+        request(3, "GET", "/next", true);
+        assertEquals("uri=/next cookie=null", readResponses(1, new ArrayList<Integer>()).get(3));
+    }
+
+    @Test
+    public void responsesWaitForTheSendWindow() throws Exception {
+        startServer(true);
+        connect();
+        request(1, "GET", "/big", true);
+        int received = 0;
+        while (received < 65535) {
+            Frame frame = readFrame();
+            if (frame.type == DATA) {
+                received += frame.payload.length;
+            }
+        }
+        assertEquals(65535, received);
+        this.socket.setSoTimeout(300);
+        try {
+            Frame frame = readFrame();
+            fail("no more data expected before WINDOW_UPDATE, got frame type " + frame.type);
+        } catch (SocketTimeoutException e) {
+            // the window is exhausted
+        }
+        this.socket.setSoTimeout(5000);
+        writeFrame(WINDOW_UPDATE, 0, 0, intBytes(BIG));
+        writeFrame(WINDOW_UPDATE, 0, 1, intBytes(BIG));
+        while (true) {
+            Frame frame = readFrame();
+            if (frame.type == DATA) {
+                received += frame.payload.length;
+                if ((frame.flags & END_STREAM) != 0) {
+                    break;
+                }
+            }
+        }
+        assertEquals(BIG, received);
+    }
+
+    @Test
+    public void pingIsAcknowledged() throws Exception {
+        startServer(true);
+        connect();
+        byte[] data = "8 bytes!".getBytes();
+        writeFrame(PING, 0, 0, data);
+        while (true) {
+            Frame frame = readFrame();
+            if (frame.type == PING) {
+                assertEquals(0x1, frame.flags);
+                assertArrayEquals(data, frame.payload);
+                break;
+            }
+        }
+    }
+
+    @Test
+    public void alpnSelectsHttp2OverTls() throws Exception {
+        Assume.assumeTrue(AlpnSupport.isSupported());
+        startSecureServer();
+        SSLSocket ssl = connectTls(AlpnSupport.HTTP_2, AlpnSupport.HTTP_1_1);
+        assertEquals(AlpnSupport.HTTP_2, AlpnSupport.negotiate(ssl));
+        ssl.getOutputStream().write(PREFACE);
+        writeFrame(SETTINGS, 0, 0, new byte[0]);
+        request(1, "GET", "/secure", true);
+        request(3, "GET", "/big", true);
+        writeFrame(WINDOW_UPDATE, 0, 0, intBytes(BIG));
+        writeFrame(WINDOW_UPDATE, 0, 3, intBytes(BIG));
+        Map<Integer, String> bodies = readResponses(2, new ArrayList<Integer>());
+        assertEquals("uri=/secure cookie=null", bodies.get(1));
+        assertEquals(BIG, bodies.get(3).length());
+    }
+
+    @Test
+    public void alpnFallsBackToHttp11() throws Exception {
+        Assume.assumeTrue(AlpnSupport.isSupported());
+        startSecureServer();
+        SSLSocket ssl = connectTls(AlpnSupport.HTTP_1_1);
+        assertEquals(AlpnSupport.HTTP_1_1, AlpnSupport.negotiate(ssl));
+        ssl.getOutputStream().write("GET /plain HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes());
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        InputStream in = ssl.getInputStream();
+        for (int read = in.read(); read >= 0; read = in.read()) {
+            response.write(read);
+        }
+        assertTrue(response.toString(), response.toString().startsWith("HTTP/1.1 200"));
+        assertTrue(response.toString(), response.toString().endsWith("uri=/plain cookie=null"));
+    }
+
+    @Test
+    public void prefaceIsABadRequestUnlessEnabled() throws Exception {
+        startServer(false);
+        this.socket = new Socket("localhost", PORT);
+        this.socket.setSoTimeout(5000);
+        this.socket.getOutputStream().write(PREFACE);
+        byte[] status = new byte[12];
+        readFully(this.socket.getInputStream(), status);
+        assertEquals("HTTP/1.1 400", new String(status));
+    }
+
+    private void connect() throws IOException {
+        this.socket = new Socket("localhost", PORT);
+        this.socket.setSoTimeout(5000);
+        this.socket.getOutputStream().write(PREFACE);
+        writeFrame(SETTINGS, 0, 0, new byte[0]);
+    }
+
+    private SSLSocket connectTls(String... applicationProtocols) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        InputStream keyStoreStream = getClass().getResourceAsStream("/keystore.jks");
+        try {
+            keyStore.load(keyStoreStream, "password".toCharArray());
+        } finally {
+            keyStoreStream.close();
+        }
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagerFactory.getTrustManagers(), null);
+        SSLSocket ssl = (SSLSocket) context.getSocketFactory().createSocket("localhost", PORT);
+        ssl.setSoTimeout(5000);
+        SSLParameters parameters = ssl.getSSLParameters();
+        AlpnSupport.setApplicationProtocols(parameters, applicationProtocols);
+        ssl.setSSLParameters(parameters);
+        this.socket = ssl;
+        return ssl;
+    }
+
+    private void request(int stream, String method, String path, boolean endStream, HeaderField... headers) throws IOException {
+        List<HeaderField> fields = new ArrayList<HeaderField>();
+        fields.add(new HeaderField(":method", method));
+        fields.add(new HeaderField(":scheme", "http"));
+        fields.add(new HeaderField(":path", path));
+        fields.add(new HeaderField(":authority", "localhost"));
+        fields.addAll(Arrays.asList(headers));
+        writeFrame(HEADERS, endStream ? END_HEADERS | END_STREAM : END_HEADERS, stream, new HpackEncoder().encode(fields));
+    }
+
+    /**
+     * Reads frames until <code>count</code> streams ended, acknowledging the
+     * server SETTINGS on the way.
+     * 
+     * @return the response bodies by stream.
+     */
+    private Map<Integer, String> readResponses(int count, List<Integer> order) throws IOException {
+        Map<Integer, ByteArrayOutputStream> bodies = new HashMap<Integer, ByteArrayOutputStream>();
+        while (order.size() < count) {
+            Frame frame = readFrame();
+            if (frame.type == SETTINGS && (frame.flags & 0x1) == 0) {
+                writeFrame(SETTINGS, 0x1, 0, new byte[0]);
+            } else if (frame.type == HEADERS) {
+                List<HeaderField> fields = this.decoder.decode(frame.payload, 0, frame.payload.length);
+                assertEquals(":status", fields.get(0).getName());
+                assertEquals("200", fields.get(0).getValue());
+                bodies.put(frame.stream, new ByteArrayOutputStream());
+            } else if (frame.type == DATA) {
+                bodies.get(frame.stream).write(frame.payload);
+            }
+            if ((frame.type == HEADERS || frame.type == DATA) && (frame.flags & END_STREAM) != 0) {
+                order.add(frame.stream);
+            }
+        }
+        Map<Integer, String> result = new HashMap<Integer, String>();
+        for (Map.Entry<Integer, ByteArrayOutputStream> body : bodies.entrySet()) {
+            result.put(body.getKey(), body.getValue().toString());
+        }
+        return result;
+    }
+
+    private void writeFrame(int type, int flags, int stream, byte[] payload) throws IOException {
+        OutputStream out = this.socket.getOutputStream();
+        out.write(new byte[]{
+            (byte) (payload.length >>> 16),
+            (byte) (payload.length >>> 8),
+            (byte) payload.length,
+            (byte) type,
+            (byte) flags
+        });
+        out.write(intBytes(stream));
+        out.write(payload);
+        out.flush();
+    }
+
+    private Frame readFrame() throws IOException {
+        InputStream in = this.socket.getInputStream();
+        byte[] header = new byte[9];
+        readFully(in, header);
+        Frame frame = new Frame();
+        frame.type = header[3];
+        frame.flags = header[4];
+        frame.stream = (header[5] & 0x7f) << 24 | (header[6] & 0xff) << 16 | (header[7] & 0xff) << 8 | header[8] & 0xff;
+        frame.payload = new byte[(header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff];
+        readFully(in, frame.payload);
+        return frame;
+    }
+
+    private static void readFully(InputStream in, byte[] buf) throws IOException {
+        int off = 0;
+        while (off < buf.length) {
+            int read = in.read(buf, off, buf.length - off);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            off += read;
+        }
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[]{
+            (byte) (value >>> 24),
+            (byte) (value >>> 16),
+            (byte) (value >>> 8),
+            (byte) value
+        };
+    }
+
+    private static class Frame {
+
+        int type;
+
+        int flags;
+
+        int stream;
+
+        byte[] payload;
+    }
+}
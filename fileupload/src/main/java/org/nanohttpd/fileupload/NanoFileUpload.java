@@ -61,8 +61,16 @@ public class NanoFileUpload extends FileUpload {
             this.session = session;
         }
 
+        /**
+         * @return -1 if unknown, as for a chunked or compressed body; the body
+         *         stream is then read to its end.
+         */
         @Override
         public long contentLength() {
+            String contentEncoding = session.getHeaders().get("content-encoding");
+            if (contentEncoding != null && !"identity".equalsIgnoreCase(contentEncoding.trim())) {
+                return -1L;
+            }
             long size;
             try {
                 String cl1 = session.getHeaders().get("content-length");
@@ -91,7 +99,7 @@ public class NanoFileUpload extends FileUpload {
 
         @Override
         public InputStream getInputStream() throws IOException {
-            return session.getInputStream();
+            return session.getBodyStream();
         }
     }
 
@@ -33,6 +33,8 @@ package org.nanohttpd.junit.fileupload;
  * #L%
  */
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -55,6 +57,7 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpTrace;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.entity.mime.content.FileBody;
@@ -212,6 +215,28 @@ public class TestNanoFileUpLoad {
         Assert.assertEquals(file.getSize(), new File(textFileName).length());
     }
 
+    @Test
+    public void testPostWithChunkedMultipartFormUpload() throws Exception {
+        CloseableHttpClient httpclient = HttpClients.createDefault();
+        String textFileName = UPLOAD_JAVA_FILE;
+        HttpPost post = new HttpPost("http://localhost:8192/uploadFile2");
+
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        builder.setMode(HttpMultipartMode.BROWSER_COMPATIBLE);
+        builder.addPart("upfile", new FileBody(new File(textFileName), ContentType.DEFAULT_BINARY));
+        HttpEntity multipart = builder.build();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        multipart.writeTo(content);
+        InputStreamEntity chunked = new InputStreamEntity(new ByteArrayInputStream(content.toByteArray()), -1);
+        chunked.setContentType(multipart.getContentType());
+        chunked.setChunked(true);
+        post.setEntity(chunked);
+        HttpResponse response = httpclient.execute(post);
+        Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+        FileItem file = this.testServer.files.get("upfile").get(0);
+        Assert.assertEquals(file.getSize(), new File(textFileName).length());
+    }
+
     private void executeUpload(CloseableHttpClient httpclient, String textFileName, HttpPost post) throws IOException, ClientProtocolException {
         FileBody fileBody = new FileBody(new File(textFileName), ContentType.DEFAULT_BINARY);
         StringBody stringBody1 = new StringBody("Message 1", ContentType.MULTIPART_FORM_DATA);
@@ -53,6 +53,7 @@ import java.util.regex.Pattern;
 
 import org.nanohttpd.protocols.http.IHTTPSession;
 import org.nanohttpd.protocols.http.NanoHTTPD;
+import org.nanohttpd.protocols.http.NanoHTTPD.ResponseException;
 import org.nanohttpd.protocols.http.response.IStatus;
 import org.nanohttpd.protocols.http.response.Response;
 import org.nanohttpd.protocols.http.response.Status;
@@ -337,6 +338,8 @@ public class RouterNanoHTTPD extends NanoHTTPD {
 
         private final List<String> uriParams = new ArrayList<String>();
 
+        private long maxBodySize = -1;
+
         public UriResource(String uri, int priority, Class<?> handler, Object... initParameter) {
             this(uri, handler, initParameter);
             this.priority = priority + uriParams.size() * 1000;
@@ -375,6 +378,13 @@ public class RouterNanoHTTPD extends NanoHTTPD {
 
         public Response process(Map<String, String> urlParams, IHTTPSession session) {
             String error = "General error!";
+            if (maxBodySize >= 0) {
+                try {
+                    session.setMaxBodySize(maxBodySize);
+                } catch (ResponseException e) {
+                    return Response.newFixedLengthResponse(e.getStatus(), "text/plain", e.getMessage());
+                }
+            }
             if (handler != null) {
                 try {
                     Object object = handler.newInstance();
@@ -465,6 +475,18 @@ public class RouterNanoHTTPD extends NanoHTTPD {
             this.priority = priority;
         }
 
+        public long getMaxBodySize() {
+            return maxBodySize;
+        }
+
+        /**
+         * Limits request bodies for this route, overriding the server limit; -1
+         * (the default) keeps the server limit.
+         */
+        public void setMaxBodySize(long maxBodySize) {
+            this.maxBodySize = maxBodySize;
+        }
+
     }
 
     public static interface IRoutePrioritizer {
@@ -617,6 +639,15 @@ public class RouterNanoHTTPD extends NanoHTTPD {
             this.routePrioritizer = routePrioritizer;
         }
 
+        private void setMaxBodySize(String url, long maxBodySize) {
+            String uri = normalizeUri(url);
+            for (UriResource u : routePrioritizer.getPrioritizedRoutes()) {
+                if (uri.equals(u.getUri())) {
+                    u.setMaxBodySize(maxBodySize);
+                }
+            }
+        }
+
     }
 
     private UriRouter router;
@@ -662,6 +693,14 @@ public class RouterNanoHTTPD extends NanoHTTPD {
         router.removeRoute(url);
     }
 
+    /**
+     * Limits request bodies for an added route, checked before its handler
+     * runs; see {@link UriResource#setMaxBodySize(long)}.
+     */
+    public void setMaxBodySize(String url, long maxBodySize) {
+        router.setMaxBodySize(url, maxBodySize);
+    }
+
     public void setRoutePrioritizer(IRoutePrioritizer routePrioritizer) {
         router.setRoutePrioritizer(routePrioritizer);
     }
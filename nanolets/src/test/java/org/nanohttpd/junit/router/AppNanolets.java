@@ -168,6 +168,8 @@ public class AppNanolets extends RouterNanoHTTPD {
         addRoute("/toBeDeleted", String.class);
         removeRoute("/toBeDeleted");
         addRoute("/stream", StreamUrl.class);
+        addRoute("/upload", GeneralHandler.class);
+        setMaxBodySize("/upload", 5);
         addRoute("/browse/(.)+", StaticPageTestHandler.class, new File("src/test/resources").getAbsoluteFile());
     }
 
@@ -52,6 +52,7 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpTrace;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.junit.AfterClass;
@@ -266,6 +267,17 @@ public class TestNanolets {
         response.close();
     }
 
+    @Test
+    public void doMaxBodySize() throws Exception {
+        CloseableHttpClient httpclient = HttpClients.createDefault();
+
+        HttpPost httppost = new HttpPost("http://localhost:9090/upload");
+        httppost.setEntity(new StringEntity("0123456789"));
+        CloseableHttpResponse response = httpclient.execute(httppost);
+        Assert.assertEquals(Status.PAYLOAD_TOO_LARGE.getRequestStatus(), response.getStatusLine().getStatusCode());
+        response.close();
+    }
+
     @Test
     public void doIndexHandler() throws Exception {
         CloseableHttpClient httpclient = HttpClients.createDefault();
@@ -588,10 +588,9 @@ public class SimpleWebServer extends NanoHTTPD {
     }
 
     private String calculateAllowHeaders(Map<String, String> queryHeaders) {
-        // here we should use the given asked headers
-        // but NanoHttpd uses a Map whereas it is possible for requester to send
-        // several time the same header
-        // let's just use default values for this version
+        // repeated Access-Control-Request-Headers fields arrive joined in
+        // the map, but which headers are allowed is the server's choice, not
+        // the requester's; use the configured or default values
         return System.getProperty(ACCESS_CONTROL_ALLOW_HEADER_PROPERTY_NAME, DEFAULT_ALLOWED_HEADERS);
     }
 